@@ -0,0 +1,79 @@
+package app.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Before and after of routing Database through ConnectionPool: the same userExists query run on a connection
+ * opened for the call, as Database did before the pool, and through Database.userExists, which borrows one of
+ * the pool's long-lived connections and its cached statement.
+ * Run with "java -jar target/benchmarks.jar ConnectionPoolBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+    private static final String USERNAME = "benchmark-user";
+
+    private Path databaseFile;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws IOException {
+        databaseFile = Files.createTempFile("taskManager-pool-benchmark", ".db");
+        url = "jdbc:sqlite:" + databaseFile;
+        System.setProperty("taskmanager.db.url", url);
+        Database.createTables();
+        Database.insertUser(USERNAME, "benchmark@example.com", "benchmark-password");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDatabase() throws IOException {
+        Database.shutdown();
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            Files.deleteIfExists(Path.of(databaseFile + suffix));
+        }
+    }
+
+    /**
+     * The query as it ran before the pool: a new connection, and a new statement, per call
+     */
+    @Benchmark
+    public boolean userExistsWithoutPool() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement preparedStatement = conn.prepareStatement(
+                     "SELECT COUNT(*) FROM users WHERE username = ?")) {
+            preparedStatement.setString(1, USERNAME);
+            ResultSet users = preparedStatement.executeQuery();
+            return users.next() && users.getInt(1) > 0;
+        }
+    }
+
+    @Benchmark
+    public boolean userExistsWithPool() {
+        return Database.userExists(USERNAME);
+    }
+}
@@ -0,0 +1,192 @@
+package app.database;
+
+import app.data.Task;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the Database methods, run against a temporary database file filled with taskCount tasks
+ * spread across userCount users. Each benchmark reports throughput and sampled latency (including p50 and p99).
+ * Add "-prof gc" to the command line to also report the allocation rate, and use -p to pick dataset sizes,
+ * e.g. "java -jar target/benchmarks.jar -prof gc -p taskCount=1000 -p userCount=1".
+ * Every combination of parameters runs in its own JVM, so the database URL can be set per run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+    /**
+     * Password of every benchmark user
+     */
+    private static final String PASSWORD = "benchmark-password";
+
+    /**
+     * Number of tasks inserted per transaction while filling the database
+     */
+    private static final int FILL_CHUNK = 10_000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int taskCount;
+
+    @Param({"1", "1000"})
+    public int userCount;
+
+    private Path databaseFile;
+
+    /**
+     * Creates and fills the temporary database. The URL has to be set before Database is first used, as it is
+     * read when the class is initialised.
+     */
+    @Setup(Level.Trial)
+    public void createDatabase() throws IOException, SQLException {
+        databaseFile = Files.createTempFile("taskManager-benchmark", ".db");
+        System.setProperty("taskmanager.db.url", "jdbc:sqlite:" + databaseFile);
+        Database.createTables();
+
+        // Hashing a password per user would take minutes, so every user shares the first user's hash
+        Database.insertUser("user0", "user0@example.com", PASSWORD);
+        try (Connection conn = Database.connect();
+             PreparedStatement copyUser = conn.prepareStatement(
+                     "INSERT INTO users (username, email, password) SELECT ?, ?, password FROM users WHERE user_id = 1")) {
+            conn.setAutoCommit(false);
+            for (int user = 1; user < userCount; user++) {
+                copyUser.setString(1, "user" + user);
+                copyUser.setString(2, "user" + user + "@example.com");
+                copyUser.executeUpdate();
+            }
+            conn.commit();
+        }
+
+        TaskBatch batch = new TaskBatch();
+        for (int task = 0; task < taskCount; task++) {
+            batch.insert(task % userCount + 1, "Task " + task, "Description of task " + task, "2026-01-01",
+                    TaskPriority.MEDIUM, TaskStatus.TODO);
+            if (batch.size() == FILL_CHUNK) {
+                batch.flush();
+            }
+        }
+        batch.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDatabase() throws IOException {
+        Database.shutdown();
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            Files.deleteIfExists(Path.of(databaseFile + suffix));
+        }
+    }
+
+    /**
+     * A task inserted before each invocation of removeTask, so that every removal deletes a real row
+     */
+    @State(Scope.Thread)
+    public static class TaskToRemove {
+        private long taskID;
+
+        /**
+         * Takes the benchmark state as a parameter so that JMH creates the database before this runs
+         */
+        @Setup(Level.Invocation)
+        public void insertTask(DatabaseBenchmark benchmark) {
+            TaskBatch batch = new TaskBatch();
+            batch.insert(1, "Task to remove", null, null, TaskPriority.LOW, TaskStatus.TODO);
+            taskID = batch.flush().get(0).taskID();
+        }
+    }
+
+    private String randomTaskID() {
+        return Long.toString(ThreadLocalRandom.current().nextInt(taskCount) + 1);
+    }
+
+    private String randomUsername() {
+        return "user" + ThreadLocalRandom.current().nextInt(userCount);
+    }
+
+    @Benchmark
+    public void insertTask() {
+        Database.insertTask("1", "New task", "Inserted by the benchmark", "2026-06-30", TaskPriority.HIGH, TaskStatus.TODO);
+    }
+
+    @Benchmark
+    public void changeTaskName() {
+        Database.changeTaskName(randomTaskID(), "Renamed task");
+    }
+
+    @Benchmark
+    public void changeTaskDescription() {
+        Database.changeTaskDescription(randomTaskID(), "Changed description");
+    }
+
+    @Benchmark
+    public void changeTaskDueDate() {
+        Database.changeTaskDueDate(randomTaskID(), "2027-03-15");
+    }
+
+    @Benchmark
+    public void changeTaskPriority() {
+        Database.changeTaskPriority(randomTaskID(), TaskPriority.HIGH);
+    }
+
+    @Benchmark
+    public void changeTaskStatus() {
+        Database.changeTaskStatus(randomTaskID(), TaskStatus.IN_PROGRESS);
+    }
+
+    @Benchmark
+    public void removeTask(TaskToRemove task) {
+        Database.removeTask(Long.toString(task.taskID));
+    }
+
+    @Benchmark
+    public boolean userExists() {
+        return Database.userExists(randomUsername());
+    }
+
+    /**
+     * Full-text search for words matching about one in a hundred tasks, ranked by relevance
+     */
+    @Benchmark
+    public List<Task> searchTasks() {
+        return Database.searchTasks(ThreadLocalRandom.current().nextInt(userCount) + 1, "task 12", 20);
+    }
+
+    /**
+     * Login with the correct password. After the first login this is served by the verified credentials cache.
+     */
+    @Benchmark
+    public boolean authenticateUser() {
+        return Database.authenticateUser(randomUsername(), PASSWORD);
+    }
+
+    /**
+     * Login with a wrong password, which always costs a full BCrypt check
+     */
+    @Benchmark
+    public boolean authenticateUserWrongPassword() {
+        return Database.authenticateUser(randomUsername(), "wrong-password");
+    }
+}
@@ -1,3 +1,210 @@
-package app.data;
-
-public class AppController {}
+package app.data;
+
+import app.metrics.Counter;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Event bus between the model and the scenes. Every change AppModel saves is published here as a TaskEvent, and
+ * delivered to the subscribed views in batches on the JavaFX thread, so several views can stay in sync with the
+ * tasks without re-reading them.
+ * <p>
+ * Changes arrive on whichever thread made them and are merged per task into a pending batch. The batch is
+ * delivered by an AnimationTimer, which runs at most once per frame, so a burst of changes (e.g. marking hundreds
+ * of tasks as overdue) costs each view one update per frame rather than one per change. The timer stops as soon
+ * as a frame finds nothing to deliver, so it costs nothing while the tasks aren't changing.
+ */
+public class AppController implements TaskChangeListener {
+    private static final Logger logger = Logger.getLogger(AppController.class.getName());
+
+    private static final Timer deliverTimer = Metrics.timer("events.deliver");
+    private static final Counter publishedEvents = Metrics.counter("events.published");
+    private static final Counter deliveredEvents = Metrics.counter("events.delivered");
+
+    private static final AppController instance = create(AppModel.getInstance());
+
+    /**
+     * Events waiting to be delivered, at most one per task ID, in the order the tasks were first changed.
+     * Guarded by this object's lock.
+     */
+    private Map<Long, TaskEvent> pending = new LinkedHashMap<>();
+    private boolean deliveryScheduled = false;
+
+    /**
+     * Runs the delivery of each batch instead of the frame timer when set, e.g. to Runnable::run when the
+     * application runs without a JavaFX toolkit
+     */
+    private Executor publisher;
+
+    /**
+     * Created on the JavaFX thread the first time a batch is delivered, as an AnimationTimer needs the toolkit
+     */
+    private AnimationTimer frameTimer;
+
+    private final List<TaskEventSubscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    AppController() {}
+
+    private static AppController create(AppModel model) {
+        AppController controller = new AppController();
+        model.addListener(controller);
+        return controller;
+    }
+
+    /**
+     * @return The event bus of the application's model
+     */
+    public static AppController getInstance() {
+        return instance;
+    }
+
+    public void subscribe(TaskEventSubscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(TaskEventSubscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    @Override
+    public void taskAdded(Task task) {
+        publish(new TaskEvent.TaskCreated(task));
+    }
+
+    @Override
+    public void taskUpdated(Task oldTask, Task newTask) {
+        publish(new TaskEvent.TaskUpdated(oldTask, newTask));
+    }
+
+    @Override
+    public void taskRemoved(Task task) {
+        publish(new TaskEvent.TaskDeleted(task));
+    }
+
+    /**
+     * Adds an event to the pending batch, merging it with any event already pending for the same task, and makes
+     * sure the batch will be delivered
+     */
+    void publish(TaskEvent event) {
+        publishedEvents.increment();
+        Executor deliverWith;
+        synchronized (this) {
+            TaskEvent merged = merge(pending.get(event.taskID()), event);
+            if (merged == null) {
+                pending.remove(event.taskID());
+            } else {
+                pending.put(event.taskID(), merged);
+            }
+            if (deliveryScheduled || pending.isEmpty()) {
+                return;
+            }
+            deliveryScheduled = true;
+            deliverWith = publisher;
+        }
+        // Scheduled outside the lock, as a publisher which runs the delivery straight away calls the subscribers
+        if (deliverWith != null) {
+            deliverWith.execute(this::deliver);
+        } else {
+            Platform.runLater(this::startFrameTimer);
+        }
+    }
+
+    /**
+     * Function to combine two events for the same task into the one event a subscriber needs to see
+     * @param earlier Event already pending for the task, or null if there is none
+     * @param later Event which has just happened
+     * @return The combined event, or null if the two cancel out (a task created and deleted within one frame)
+     */
+    static TaskEvent merge(TaskEvent earlier, TaskEvent later) {
+        if (earlier == null) {
+            return later;
+        }
+        if (earlier instanceof TaskEvent.TaskCreated) {
+            if (later instanceof TaskEvent.TaskUpdated updated) {
+                return new TaskEvent.TaskCreated(updated.newTask());
+            }
+            return later instanceof TaskEvent.TaskDeleted ? null : later;
+        }
+        if (earlier instanceof TaskEvent.TaskUpdated updated) {
+            if (later instanceof TaskEvent.TaskUpdated next) {
+                return new TaskEvent.TaskUpdated(updated.oldTask(), next.newTask());
+            }
+            return later;
+        }
+        // The earlier event is a deletion, so the ID has been reused by a new task, which replaces the old row
+        TaskEvent.TaskDeleted deleted = (TaskEvent.TaskDeleted) earlier;
+        if (later instanceof TaskEvent.TaskCreated created) {
+            return new TaskEvent.TaskUpdated(deleted.task(), created.task());
+        }
+        return later;
+    }
+
+    /**
+     * Starts the frame timer, which delivers the pending batch on the next frame. Runs on the JavaFX thread.
+     */
+    private void startFrameTimer() {
+        if (frameTimer == null) {
+            frameTimer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    if (!deliver()) {
+                        stop();
+                    }
+                }
+            };
+        }
+        frameTimer.start();
+    }
+
+    /**
+     * Hands the pending batch to every subscriber. Runs on the JavaFX thread, once per frame while the timer runs.
+     * @return Boolean value indicating whether there was anything to deliver. If not, the timer can stop, and the
+     * next event will start it again.
+     */
+    private boolean deliver() {
+        List<TaskEvent> events;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                deliveryScheduled = false;
+                return false;
+            }
+            events = List.copyOf(pending.values());
+            pending = new LinkedHashMap<>();
+            if (publisher != null) {
+                // Without the frame timer, each batch is delivered by its own task
+                deliveryScheduled = false;
+            }
+        }
+
+        long start = System.nanoTime();
+        for (TaskEventSubscriber subscriber : subscribers) {
+            try {
+                subscriber.tasksChanged(events);
+            } catch (RuntimeException e) {
+                // One broken view mustn't stop the others from updating
+                logger.log(Level.WARNING, "event=subscriber_failed subscriber=" + subscriber.getClass().getName(), e);
+            }
+        }
+        deliverTimer.record(start);
+        deliveredEvents.add(events.size());
+        return true;
+    }
+
+    /**
+     * Replaces the frame timer for delivering batches, e.g. with Runnable::run when the application runs without
+     * a JavaFX toolkit
+     */
+    synchronized void setPublisher(Executor publisher) {
+        this.publisher = publisher;
+    }
+}
@@ -1,3 +1,1140 @@
-package app.data;
-
-public class AppModel {}
+package app.data;
+
+import app.database.AuthenticationService;
+import app.database.Repositories;
+import app.database.TaskBatch;
+import app.database.TaskField;
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+import app.metrics.Counter;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * In-memory store of the logged-in user's tasks. The tasks are read from the database once when the user logs in, and
+ * are then kept in a map by ID and in a TaskQueryIndex of their statuses, priorities and due dates, so the dashboard
+ * never has to query SQLite to display or filter them. Every change goes to the database first (write-through) and is
+ * only applied in memory once it has been saved. Changes are written with compare-and-set against each task's
+ * version, as another instance of the application may have changed the same task in the meantime. If it has, the two
+ * changes are merged field by field and written again: fields it changed to something else keep the other change and
+ * are reported as conflicts, and the rest of this change is still written, so neither silently overwrites the other.
+ * A change which can't be written because another process holds the database's lock is journaled (see TaskJournal)
+ * and applied in memory straight away. It is written once the lock is free, still only if the task is at the version
+ * the change was based on; if it isn't, the change is merged in the background in the same way. The words of each
+ * task are also indexed, so that searching as the user types needs no query.
+ * Changes block on the database, so they should be made off the JavaFX thread, e.g. through AsyncDatabase.
+ * Registered TaskChangeListeners are told about each change once it has been applied.
+ * The user's changes are recorded in an UndoHistory, so that they can be undone and redone step by step.
+ * Recurring tasks are kept as TaskSeries rather than as tasks, and their occurrences are only worked out for the
+ * window of dates asked for.
+ * While a user is loaded, a ReminderScheduler follows their tasks' due dates, and TaskStatistics keeps count of them.
+ */
+public class AppModel {
+    private static final Logger logger = Logger.getLogger(AppModel.class.getName());
+
+    /**
+     * Number of tasks read from the database per query while loading a user's tasks
+     */
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    /**
+     * Number of times a change is written, merging it with changes made elsewhere each time, before giving up
+     */
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+
+    /**
+     * Number of deleted tasks remembered for restoreTask
+     */
+    private static final int MAX_RESTORABLE_TASKS = 100;
+
+    private static final Counter mergedChanges = Metrics.counter("model.mergedChanges");
+    private static final Counter conflictingChanges = Metrics.counter("model.conflictingChanges");
+    private static final Counter journaledChanges = Metrics.counter("model.journaledChanges");
+    private static final Timer queryTimer = Metrics.timer("model.query");
+    private static final Timer occurrencesTimer = Metrics.timer("model.occurrences");
+
+    /**
+     * A change to one task waiting to be written
+     * @param task Copy of the task the change is based on
+     * @param changes New value of each field to change, using the types of the Task record
+     */
+    private record Edit(Task task, Map<TaskField, Object> changes) {}
+
+    /**
+     * Change rebased by merge, and the fields which were changed elsewhere to something else, so were dropped from it
+     */
+    private record Merge(Edit edit, Set<TaskField> conflicts) {}
+
+    private static final AppModel instance = new AppModel();
+
+    /**
+     * Held for the whole of a change, from the database write to the in-memory update, so that changes are
+     * applied in memory in the same order as they were saved. Reads only need the model's own lock, so they are
+     * never held up by a database write.
+     */
+    private final Object writeLock = new Object();
+
+    private long userID = -1;
+    private String username;
+    private AuthenticationService.Session session;
+
+    private final NavigableMap<Long, Task> tasksByID = new TreeMap<>();
+    private final TaskQueryIndex queryIndex = new TaskQueryIndex();
+    private final TaskSearchIndex searchIndex = new TaskSearchIndex();
+    private final Map<Long, TaskSeries> seriesByID = new LinkedHashMap<>();
+
+    /**
+     * Tasks deleted since the user logged in, most recent last, so that a delete can be undone with restoreTask.
+     * Holds at most MAX_RESTORABLE_TASKS, guarded by the model's lock.
+     */
+    private final LinkedHashMap<Long, Task> removedTasks = new LinkedHashMap<>();
+
+    /**
+     * Changes made since the user logged in, guarded by the write lock
+     */
+    private final UndoHistory history = new UndoHistory();
+
+    private final List<TaskChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Follows up changes journaled while the database was locked, once they have been flushed. The journal reports
+     * them while holding its own lock, which a thread holding the write lock may be waiting for, so the write lock
+     * is only taken here.
+     */
+    private final ExecutorService journalOutcomes = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "model-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ReminderScheduler reminders = new ReminderScheduler(this, Clock.systemDefaultZone());
+    private final TaskStatistics statistics = new TaskStatistics(this);
+
+    /**
+     * @return The model shared by every scene of the application
+     */
+    public static AppModel getInstance() {
+        return instance;
+    }
+
+    public void addListener(TaskChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TaskChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Loads every task belonging to the user of a new session, replacing whatever was loaded before.
+     * Called once on login.
+     * @param session Session of the user who has logged in
+     */
+    public void load(AuthenticationService.Session session) {
+        load(session.userID(), session.username());
+        synchronized (this) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * Loads every task belonging to a user, replacing whatever was loaded before
+     * @param userID Unique ID of the user who has logged in
+     * @param username Username of the user who has logged in
+     */
+    public void load(long userID, String username) {
+        synchronized (writeLock) {
+            List<Task> tasks = new ArrayList<>();
+            List<Task> page;
+            long lastTaskID = 0;
+            do {
+                page = Repositories.get().getTasksPage(userID, lastTaskID, LOAD_PAGE_SIZE);
+                tasks.addAll(page);
+                if (!page.isEmpty()) {
+                    lastTaskID = page.get(page.size() - 1).taskID();
+                }
+            } while (page.size() == LOAD_PAGE_SIZE);
+            List<TaskSeries> series = Repositories.get().getTaskSeries(userID);
+
+            history.clear();
+            synchronized (this) {
+                clearTasks();
+                this.userID = userID;
+                this.username = username;
+                for (Task task : tasks) {
+                    tasksByID.put(task.taskID(), task);
+                    searchIndex.add(task);
+                }
+                queryIndex.addAll(tasks);
+                for (TaskSeries one : series) {
+                    seriesByID.put(one.seriesID(), one);
+                }
+            }
+            reminders.start();
+            statistics.start(userID);
+        }
+    }
+
+    /**
+     * Forgets the logged-in user and their tasks, and ends their session, e.g. on logout
+     */
+    public synchronized void clear() {
+        reminders.stop();
+        statistics.stop();
+        clearTasks();
+        userID = -1;
+        username = null;
+        if (session != null) {
+            Repositories.get().endSession(session.token());
+            session = null;
+        }
+    }
+
+    /**
+     * @return Scheduler of reminders for the logged-in user's due dates, for registering ReminderListeners
+     */
+    public ReminderScheduler getReminders() {
+        return reminders;
+    }
+
+    /**
+     * @return Counts of the logged-in user's tasks, as JavaFX properties for the dashboard
+     */
+    public TaskStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return Session of the logged-in user, or null if they didn't log in through AuthenticationService
+     */
+    public synchronized AuthenticationService.Session getSession() {
+        return session;
+    }
+
+    public synchronized long getUserID() {
+        return userID;
+    }
+
+    public synchronized String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return Boolean value indicating whether a user's tasks have been loaded
+     */
+    public synchronized boolean isLoaded() {
+        return userID != -1;
+    }
+
+    /**
+     * @param taskID Unique ID of the task
+     * @return The task, or null if the logged-in user has no task with that ID
+     */
+    public synchronized Task getTask(long taskID) {
+        return tasksByID.get(taskID);
+    }
+
+    /**
+     * @return Every task of the logged-in user, ordered by task ID
+     */
+    public synchronized List<Task> getTasks() {
+        return new ArrayList<>(tasksByID.values());
+    }
+
+    /**
+     * Function to read a page of the logged-in user's tasks in task ID order, continuing after the last task of
+     * the previous page
+     * @param afterTaskID Only tasks with a greater ID are returned. Use 0 for the first page.
+     * @param limit Maximum number of tasks to return
+     * @return Up to limit tasks, ordered by task ID
+     */
+    public synchronized List<Task> getTasksAfter(long afterTaskID, int limit) {
+        List<Task> tasks = new ArrayList<>(limit);
+        for (Task task : tasksByID.tailMap(afterTaskID, false).values()) {
+            if (tasks.size() == limit) {
+                break;
+            }
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    public synchronized int getTaskCount() {
+        return tasksByID.size();
+    }
+
+    /**
+     * @param status Status to look for
+     * @return Every task of the logged-in user with the given status
+     */
+    public synchronized List<Task> getTasksWithStatus(TaskStatus status) {
+        return lookup(queryIndex.query(TaskFilter.ALL.withStatus(status, true), 0, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param from First due date to include
+     * @param to Last due date to include
+     * @return Every task of the logged-in user due between the two dates, ordered by due date
+     */
+    public synchronized List<Task> getTasksDueBetween(LocalDate from, LocalDate to) {
+        TaskFilter filter = TaskFilter.ALL.withDueBetween(from, to).withOrder(TaskFilter.Order.DUE_DATE);
+        return lookup(queryIndex.query(filter, 0, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Function to read a page of the logged-in user's tasks matching a filter, e.g. those selected by the
+     * dashboard's filter chips
+     * @param filter Filter to apply, which also gives the order of the tasks
+     * @param offset Number of matching tasks to skip, for reading later pages
+     * @param limit Maximum number of tasks to return
+     * @return Up to limit matching tasks
+     */
+    public synchronized List<Task> queryTasks(TaskFilter filter, int offset, int limit) {
+        long start = System.nanoTime();
+        List<Task> tasks = lookup(queryIndex.query(filter, offset, limit));
+        queryTimer.record(start);
+        return tasks;
+    }
+
+    /**
+     * Function to find the IDs of every one of the logged-in user's tasks matching a filter, e.g. to change all
+     * of their statuses at once
+     * @return IDs of the matching tasks, in the filter's order
+     */
+    public synchronized long[] queryTaskIDs(TaskFilter filter) {
+        return queryIndex.query(filter, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return Number of the logged-in user's tasks matching a filter
+     */
+    public synchronized int countTasks(TaskFilter filter) {
+        return queryIndex.count(filter);
+    }
+
+    /**
+     * Function to search the logged-in user's tasks as they type. Every word of the query matches the start of a
+     * word in the task's name or description, so "gro list" finds "Grocery list". Searching the database with
+     * Database.searchTasks finds the same tasks, ranked by relevance.
+     * @param query Words to search for
+     * @param limit Maximum number of tasks to return
+     * @return Tasks matching on their name, then tasks matching on their description
+     */
+    public synchronized List<Task> searchTasks(String query, int limit) {
+        return searchIndex.search(query, tasksByID, limit);
+    }
+
+    /**
+     * Function to create a new task for the logged-in user
+     * @return The new task, or null if it couldn't be saved
+     */
+    public Task addTask(String name, String description, LocalDate dueDate, TaskPriority priority, TaskStatus status) {
+        synchronized (writeLock) {
+            long owner = getUserID();
+            if (owner == -1) {
+                return null;
+            }
+
+            TaskBatch batch = new TaskBatch();
+            batch.insert(owner, name, description, dueDate == null ? null : dueDate.toString(), priority, status);
+            TaskBatch.Result result = batch.flush().get(0);
+            if (result.outcome() != TaskBatch.Outcome.APPLIED) {
+                return null;
+            }
+
+            // New rows start at version 1, the column's default
+            Task task = new Task(result.taskID(), owner, name, description, dueDate, priority, status, 1);
+            history.recordCreate(task.taskID());
+            synchronized (this) {
+                index(task);
+            }
+            for (TaskChangeListener listener : listeners) {
+                listener.taskAdded(task);
+            }
+            return task;
+        }
+    }
+
+    /**
+     * Function to change any number of fields of a task in a single database transaction. If the task was changed
+     * elsewhere since it was loaded, the changes are merged field by field (see the class description).
+     * @param taskID Unique ID of the task
+     * @param changes New value of each field to change, using the types of the Task record
+     * @return The updated task, or null if the task doesn't exist, couldn't be saved, or had one of the same fields
+     * changed elsewhere. In the last case the other changes are still saved, and the model holds the conflicting
+     * fields as they were changed elsewhere.
+     */
+    public Task updateTask(long taskID, Map<TaskField, Object> changes) {
+        synchronized (writeLock) {
+            Task task = getTask(taskID);
+            if (task == null) {
+                return null;
+            }
+            return write(List.of(new Edit(task, changes))).get(0);
+        }
+    }
+
+    public Task changeTaskName(long taskID, String newName) {
+        return updateTask(taskID, singleChange(TaskField.NAME, newName));
+    }
+
+    public Task changeTaskDescription(long taskID, String newDescription) {
+        return updateTask(taskID, singleChange(TaskField.DESCRIPTION, newDescription));
+    }
+
+    public Task changeTaskDueDate(long taskID, LocalDate newDueDate) {
+        return updateTask(taskID, singleChange(TaskField.DUE_DATE, newDueDate));
+    }
+
+    public Task changeTaskPriority(long taskID, TaskPriority newPriority) {
+        return updateTask(taskID, singleChange(TaskField.PRIORITY, newPriority));
+    }
+
+    public Task changeTaskStatus(long taskID, TaskStatus newStatus) {
+        return updateTask(taskID, singleChange(TaskField.STATUS, newStatus));
+    }
+
+    /**
+     * Function to set the status of many tasks in a single database transaction, e.g. to mark every task which
+     * has passed its due date as overdue
+     * @param taskIDs Unique IDs of the tasks. IDs of tasks the logged-in user doesn't have are ignored.
+     * @param newStatus Status to set
+     * @return The tasks which were changed, or an empty list if the changes couldn't be saved
+     */
+    public List<Task> changeTaskStatuses(Collection<Long> taskIDs, TaskStatus newStatus) {
+        synchronized (writeLock) {
+            List<Edit> edits = new ArrayList<>();
+            for (long taskID : taskIDs) {
+                Task task = getTask(taskID);
+                if (task != null && task.status() != newStatus) {
+                    edits.add(new Edit(task, singleChange(TaskField.STATUS, newStatus)));
+                }
+            }
+            if (edits.isEmpty()) {
+                return List.of();
+            }
+
+            List<Task> updated = new ArrayList<>(edits.size());
+            for (Task task : write(edits)) {
+                if (task != null) {
+                    updated.add(task);
+                }
+            }
+            return updated;
+        }
+    }
+
+    /**
+     * Function to delete a task
+     * @param taskID Unique ID of the task
+     * @return Boolean value indicating whether the task was deleted, here or already elsewhere
+     */
+    public boolean removeTask(long taskID) {
+        synchronized (writeLock) {
+            return getTask(taskID) != null && removeTasks(List.of(taskID));
+        }
+    }
+
+    /**
+     * Function to undo the delete of a task, which is possible until TaskArchiver purges it
+     * @param taskID Unique ID of a task deleted with removeTask since the user logged in
+     * @return The restored task, or null if it wasn't deleted here, has been purged, or couldn't be saved
+     */
+    public Task restoreTask(long taskID) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (!removedTasks.containsKey(taskID)) {
+                    return null;
+                }
+            }
+            List<Task> restored = restoreTasks(List.of(taskID));
+            return restored == null || restored.isEmpty() ? null : restored.get(0);
+        }
+    }
+
+    /**
+     * @return Unique ID of the task deleted most recently since the user logged in which can still be restored,
+     * or -1 if there is none
+     */
+    public synchronized long getLastRemovedTaskID() {
+        long taskID = -1;
+        for (long removed : removedTasks.keySet()) {
+            taskID = removed;
+        }
+        return taskID;
+    }
+
+    /**
+     * Function to create a recurring task for the logged-in user. Only the series is saved: its occurrences are
+     * worked out when they are asked for.
+     * @param rule When the occurrences fall
+     * @return The new series, or null if it couldn't be saved
+     */
+    public TaskSeries addTaskSeries(String name, String description, TaskPriority priority, RecurrenceRule rule) {
+        synchronized (writeLock) {
+            long owner = getUserID();
+            if (owner == -1) {
+                return null;
+            }
+            TaskSeries series = new TaskSeries(-1, owner, name, description, priority, rule, Map.of(), Set.of());
+            long seriesID = Repositories.get().insertTaskSeries(series);
+            if (seriesID == -1) {
+                return null;
+            }
+            series = series.withSeriesID(seriesID);
+            synchronized (this) {
+                seriesByID.put(seriesID, series);
+            }
+            return series;
+        }
+    }
+
+    /**
+     * @return Every recurring task of the logged-in user, in the order they were created
+     */
+    public synchronized List<TaskSeries> getTaskSeries() {
+        return new ArrayList<>(seriesByID.values());
+    }
+
+    /**
+     * Function to work out the occurrences of the logged-in user's recurring tasks in a window of dates, such as
+     * the week shown on the dashboard. Nothing outside the window is worked out, however long the series run.
+     * @param from First date of the window
+     * @param to Last date of the window
+     * @return Occurrences due in the window, in order of due date
+     */
+    public synchronized List<Occurrence> getOccurrencesBetween(LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        List<Occurrence> occurrences = new ArrayList<>();
+        for (TaskSeries series : seriesByID.values()) {
+            occurrences.addAll(series.occurrencesBetween(from, to));
+        }
+        occurrences.sort(Comparator.comparing(Occurrence::day).thenComparingLong(Occurrence::seriesID));
+        occurrencesTimer.record(start);
+        return occurrences;
+    }
+
+    /**
+     * Function to change one occurrence of a recurring task, e.g. to complete it. Only that occurrence is saved,
+     * as an exception to its series; the rest of the series is left as it is.
+     * @param occurrence The occurrence as it should be from now on
+     * @return The occurrence, or null if its series doesn't have it or it couldn't be saved
+     */
+    public Occurrence updateOccurrence(Occurrence occurrence) {
+        synchronized (writeLock) {
+            TaskSeries series;
+            synchronized (this) {
+                series = seriesByID.get(occurrence.seriesID());
+            }
+            if (series == null || series.occurrence(occurrence.date()) == null
+                    || !Repositories.get().saveOccurrence(getUserID(), series.seriesID(), occurrence.date(),
+                    occurrence)) {
+                return null;
+            }
+            synchronized (this) {
+                seriesByID.put(series.seriesID(), series.withOverride(occurrence));
+            }
+            return occurrence;
+        }
+    }
+
+    /**
+     * Function to delete one occurrence of a recurring task, leaving the rest of the series
+     * @param seriesID Unique ID of the series
+     * @param date Date of the occurrence in the series
+     * @return Boolean value indicating whether the occurrence was deleted
+     */
+    public boolean skipOccurrence(long seriesID, LocalDate date) {
+        synchronized (writeLock) {
+            TaskSeries series;
+            synchronized (this) {
+                series = seriesByID.get(seriesID);
+            }
+            if (series == null || series.occurrence(date) == null
+                    || !Repositories.get().saveOccurrence(getUserID(), seriesID, date, null)) {
+                return false;
+            }
+            synchronized (this) {
+                seriesByID.put(seriesID, series.withSkipped(date));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Function to delete a recurring task, along with every change made to its occurrences
+     * @param seriesID Unique ID of the series
+     * @return Boolean value indicating whether the series was deleted
+     */
+    public boolean removeTaskSeries(long seriesID) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (!seriesByID.containsKey(seriesID)) {
+                    return false;
+                }
+            }
+            if (!Repositories.get().removeTaskSeries(getUserID(), seriesID)) {
+                return false;
+            }
+            synchronized (this) {
+                seriesByID.remove(seriesID);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return Boolean value indicating whether there is a change of the logged-in user's to undo
+     */
+    public boolean canUndo() {
+        return isLoaded() && history.canUndo();
+    }
+
+    /**
+     * @return Boolean value indicating whether there is an undone change to redo
+     */
+    public boolean canRedo() {
+        return isLoaded() && history.canRedo();
+    }
+
+    /**
+     * Function to undo the most recent step in the history: a single change, or everything done in one
+     * runAsOneStep call, such as a bulk status change. Tasks created in the step are deleted, tasks deleted in it
+     * are restored, and fields are set back to their values before it, in at most three batched writes.
+     * @return Boolean value indicating whether the step was undone. If a field has been changed to something else
+     * elsewhere since the step, that change is kept and false is returned, with the step left in the history.
+     * Tasks purged elsewhere since the step are left as they are.
+     */
+    public boolean undo() {
+        synchronized (writeLock) {
+            UndoHistory.Step step = history.peekUndo();
+            if (step == null || !isLoaded() || !replay(step, true)) {
+                return false;
+            }
+            history.undone();
+            return true;
+        }
+    }
+
+    /**
+     * Function to make the most recently undone step again
+     * @return Boolean value indicating whether the step was redone
+     */
+    public boolean redo() {
+        synchronized (writeLock) {
+            UndoHistory.Step step = history.peekRedo();
+            if (step == null || !isLoaded() || !replay(step, false)) {
+                return false;
+            }
+            history.redone();
+            return true;
+        }
+    }
+
+    /**
+     * Method to make every change made by an action a single step of the undo history, so that undo() reverts
+     * all of it at once
+     * @param action Action making any number of changes through the model
+     */
+    public void runAsOneStep(Runnable action) {
+        synchronized (writeLock) {
+            history.beginStep();
+            try {
+                action.run();
+            } finally {
+                history.endStep();
+            }
+        }
+    }
+
+    /**
+     * Method to make changes which the user didn't make, such as marking tasks overdue, without recording them
+     * in the undo history
+     * @param action Action making any number of changes through the model
+     * @return Whatever the action returns
+     */
+    <T> T withoutHistory(Supplier<T> action) {
+        synchronized (writeLock) {
+            history.suspend();
+            try {
+                return action.get();
+            } finally {
+                history.resume();
+            }
+        }
+    }
+
+    /**
+     * Function to apply the inverse of a step, or the step again, without recording it. Rather than replaying
+     * each operation, the state each task should end up in is worked out first: whether it should exist, and
+     * the value of each field changed. Tasks are then restored in one batch, changed in one write, and deleted
+     * in one batch. Must be called while holding the write lock.
+     * @param step Step to replay
+     * @param undo True to revert the step, false to make it again
+     * @return Boolean value indicating whether the step was replayed, false if a write failed
+     */
+    private boolean replay(UndoHistory.Step step, boolean undo) {
+        // Whether each task touched should exist afterwards, and the value each changed field should have
+        Map<Long, Boolean> exists = new LinkedHashMap<>();
+        Map<Long, Map<TaskField, Object>> targets = new LinkedHashMap<>();
+        for (int n = 0; n < step.size(); n++) {
+            // Undo reads the step backwards, so that the earliest operation on each task decides
+            int i = undo ? step.size() - 1 - n : n;
+            long taskID = step.taskID(i);
+            switch (step.operation(i)) {
+                case UndoHistory.CREATE, UndoHistory.RESTORE -> exists.put(taskID, !undo);
+                case UndoHistory.DELETE -> exists.put(taskID, undo);
+                default -> {
+                    exists.putIfAbsent(taskID, true);
+                    targets.computeIfAbsent(taskID, id -> new EnumMap<>(TaskField.class))
+                            .put(step.field(i), undo ? step.oldValue(i) : step.newValue(i));
+                }
+            }
+        }
+
+        List<Long> toRestore = new ArrayList<>();
+        List<Long> toRemove = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Long, Boolean> task : exists.entrySet()) {
+                boolean loaded = tasksByID.containsKey(task.getKey());
+                if (task.getValue() && !loaded) {
+                    toRestore.add(task.getKey());
+                } else if (!task.getValue() && loaded) {
+                    toRemove.add(task.getKey());
+                }
+            }
+        }
+
+        history.suspend();
+        try {
+            if (!toRestore.isEmpty() && restoreTasks(toRestore) == null) {
+                return false;
+            }
+            List<Edit> edits = new ArrayList<>();
+            for (Map.Entry<Long, Map<TaskField, Object>> target : targets.entrySet()) {
+                Task task = getTask(target.getKey());
+                if (task == null || !exists.get(target.getKey())) {
+                    continue;
+                }
+                Map<TaskField, Object> changes = new EnumMap<>(TaskField.class);
+                for (Map.Entry<TaskField, Object> field : target.getValue().entrySet()) {
+                    if (!Objects.equals(task.get(field.getKey()), field.getValue())) {
+                        changes.put(field.getKey(), field.getValue());
+                    }
+                }
+                if (!changes.isEmpty()) {
+                    edits.add(new Edit(task, changes));
+                }
+            }
+            if (!edits.isEmpty() && write(edits).contains(null)) {
+                // A field was changed to something else elsewhere since the step, so it's kept, and the step with it.
+                // The step's other fields are undone, so they are left out when it is tried again.
+                return false;
+            }
+            return toRemove.isEmpty() || removeTasks(toRemove);
+        } finally {
+            history.resume();
+        }
+    }
+
+    /**
+     * Function to delete tasks in one batch and remember them for restoreTask. Must be called while holding the
+     * write lock.
+     * @param taskIDs Unique IDs of tasks which are loaded
+     * @return Boolean value indicating whether the tasks were deleted, false if the batch failed
+     */
+    private boolean removeTasks(Collection<Long> taskIDs) {
+        TaskBatch batch = new TaskBatch();
+        for (long taskID : taskIDs) {
+            batch.delete(taskID);
+        }
+        if (batch.flush().get(0).outcome() == TaskBatch.Outcome.FAILED) {
+            return false;
+        }
+
+        List<Task> removed = new ArrayList<>(taskIDs.size());
+        synchronized (this) {
+            for (long taskID : taskIDs) {
+                Task task = tasksByID.get(taskID);
+                if (task == null) {
+                    continue;
+                }
+                unindex(task);
+                removedTasks.remove(taskID);
+                removedTasks.put(taskID, task);
+                if (removedTasks.size() > MAX_RESTORABLE_TASKS) {
+                    removedTasks.remove(removedTasks.keySet().iterator().next());
+                }
+                removed.add(task);
+            }
+        }
+        for (Task task : removed) {
+            history.recordDelete(task.taskID());
+            for (TaskChangeListener listener : listeners) {
+                listener.taskRemoved(task);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function to move deleted tasks back from tasks_archive in one batch. Tasks no longer remembered in
+     * removedTasks are read back from the database once restored. Must be called while holding the write lock.
+     * @param taskIDs Unique IDs of deleted tasks
+     * @return The tasks restored, leaving out any which had been purged, or null if the batch failed
+     */
+    private List<Task> restoreTasks(Collection<Long> taskIDs) {
+        TaskBatch batch = new TaskBatch();
+        for (long taskID : taskIDs) {
+            batch.restore(taskID);
+        }
+        List<TaskBatch.Result> results = batch.flush();
+        if (results.get(0).outcome() == TaskBatch.Outcome.FAILED) {
+            return null;
+        }
+
+        List<Task> restored = new ArrayList<>(taskIDs.size());
+        int i = 0;
+        for (long taskID : taskIDs) {
+            TaskBatch.Outcome outcome = results.get(i++).outcome();
+            Task task;
+            synchronized (this) {
+                task = removedTasks.remove(taskID);
+            }
+            if (outcome != TaskBatch.Outcome.APPLIED) {
+                continue;
+            }
+            if (task == null) {
+                List<Task> page = Repositories.get().getTasksPage(getUserID(), taskID - 1, 1);
+                if (page.isEmpty() || page.get(0).taskID() != taskID) {
+                    continue;
+                }
+                task = page.get(0);
+            }
+            restored.add(task);
+        }
+
+        synchronized (this) {
+            for (Task task : restored) {
+                index(task);
+            }
+        }
+        for (Task task : restored) {
+            history.recordRestore(task.taskID());
+            for (TaskChangeListener listener : listeners) {
+                listener.taskAdded(task);
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Function to write changes to tasks in one transaction with compare-and-set, then apply them in memory.
+     * A change whose task was changed elsewhere in the meantime is merged with the task as it is now and written
+     * again, up to MAX_WRITE_ATTEMPTS times in all. Tasks found to have been changed or deleted elsewhere are
+     * refreshed in memory too, even if this change couldn't be written. The changes written form one step of the
+     * undo history. Must be called while holding the write lock.
+     * @return For each edit, in order, the task as written, or null if it wasn't, or a field of it conflicted
+     */
+    private List<Task> write(List<Edit> edits) {
+        history.beginStep();
+        try {
+            return writeStep(edits);
+        } finally {
+            history.endStep();
+        }
+    }
+
+    private List<Task> writeStep(List<Edit> edits) {
+        Task[] written = new Task[edits.size()];
+        // Newest copy of each task seen in the database by ID, or null if it has been deleted there
+        Map<Long, Task> seen = new LinkedHashMap<>();
+        Map<Integer, Edit> pending = new LinkedHashMap<>();
+        // Edits which had a field changed to something else elsewhere, so weren't written in full
+        Set<Integer> conflicted = new HashSet<>();
+        for (int i = 0; i < edits.size(); i++) {
+            pending.put(i, edits.get(i));
+        }
+
+        for (int attempt = 0; attempt < MAX_WRITE_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            TaskBatch batch = new TaskBatch();
+            Map<Integer, Integer> firstOperation = new LinkedHashMap<>();
+            for (Map.Entry<Integer, Edit> edit : pending.entrySet()) {
+                Task task = edit.getValue().task();
+                if (edit.getValue().changes().isEmpty()) {
+                    written[edit.getKey()] = task;
+                    continue;
+                }
+                for (Map.Entry<TaskField, Object> change : edit.getValue().changes().entrySet()) {
+                    int operation = batch.compareAndSet(task.taskID(), task.version(), change.getKey(),
+                            toColumnValue(change.getKey(), change.getValue()));
+                    firstOperation.putIfAbsent(edit.getKey(), operation);
+                }
+            }
+            if (firstOperation.isEmpty()) {
+                break;
+            }
+
+            // Every operation on a task shares one outcome
+            List<TaskBatch.Result> results = batch.flush();
+            Map<Integer, Edit> retry = new LinkedHashMap<>();
+            for (Map.Entry<Integer, Integer> operation : firstOperation.entrySet()) {
+                int i = operation.getKey();
+                Edit edit = pending.get(i);
+                TaskBatch.Result result = results.get(operation.getValue());
+                switch (result.outcome()) {
+                    case APPLIED -> {
+                        Task updated = applied(edit, edit.task().version() + 1);
+                        written[i] = updated;
+                        seen.put(updated.taskID(), updated);
+                    }
+                    case NOT_FOUND -> seen.put(edit.task().taskID(), null);
+                    case CONFLICT -> {
+                        seen.put(edit.task().taskID(), result.current());
+                        Merge merge = merge(edit, result.current());
+                        if (!merge.conflicts().isEmpty()) {
+                            conflicted.add(i);
+                            conflictingChanges.add(merge.conflicts().size());
+                            logger.info("event=update_conflict task_id=" + result.taskID()
+                                    + " version=" + result.current().version() + " fields=" + merge.conflicts());
+                        }
+                        // The other fields are still written, on top of the task as it is now
+                        if (!merge.edit().changes().isEmpty()) {
+                            mergedChanges.increment();
+                        }
+                        retry.put(i, merge.edit());
+                    }
+                    case FAILED -> {
+                        // Nothing in the batch was written. If only because another process held the database's
+                        // lock, the change is journaled rather than lost, and written once the lock is free.
+                        if (result.failedOnLock() && journal(edit)) {
+                            journaledChanges.increment();
+                            // The task keeps its version until the journal has written the change (see
+                            // journaled), so later changes to it are based on the same version
+                            Task updated = applied(edit, edit.task().version());
+                            written[i] = updated;
+                            seen.put(updated.taskID(), updated);
+                        }
+                    }
+                }
+            }
+            pending = retry;
+        }
+
+        refresh(seen);
+        for (int i : conflicted) {
+            written[i] = null;
+        }
+        return Arrays.asList(written);
+    }
+
+    /**
+     * Method to replace tasks in memory with newer copies, and tell the listeners
+     * @param seen Newest copy of each task by ID, or null for a task which has been deleted
+     */
+    private void refresh(Map<Long, Task> seen) {
+        List<Task[]> changed = new ArrayList<>();
+        List<Task> removed = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Long, Task> newest : seen.entrySet()) {
+                Task before = tasksByID.get(newest.getKey());
+                if (before == null || before.equals(newest.getValue())) {
+                    continue;
+                }
+                unindex(before);
+                if (newest.getValue() == null) {
+                    removed.add(before);
+                } else {
+                    index(newest.getValue());
+                    changed.add(new Task[] {before, newest.getValue()});
+                }
+            }
+        }
+        for (Task[] change : changed) {
+            for (TaskChangeListener listener : listeners) {
+                listener.taskUpdated(change[0], change[1]);
+            }
+        }
+        for (Task task : removed) {
+            for (TaskChangeListener listener : listeners) {
+                listener.taskRemoved(task);
+            }
+        }
+    }
+
+    /**
+     * Function to apply a written change to its task, and record it in the undo history
+     * @param version Version of the task once the change has been written
+     */
+    private Task applied(Edit edit, long version) {
+        Task updated = edit.task().withVersion(version);
+        for (Map.Entry<TaskField, Object> change : edit.changes().entrySet()) {
+            updated = updated.with(change.getKey(), change.getValue());
+            history.recordChange(updated.taskID(), change.getKey(), edit.task().get(change.getKey()),
+                    change.getValue());
+        }
+        return updated;
+    }
+
+    private boolean journal(Edit edit) {
+        Map<TaskField, Object> changes = new EnumMap<>(TaskField.class);
+        for (Map.Entry<TaskField, Object> change : edit.changes().entrySet()) {
+            changes.put(change.getKey(), toColumnValue(change.getKey(), change.getValue()));
+        }
+        return Repositories.get().journal(edit.task().taskID(), edit.task().version(), changes,
+                (result, version) -> journalOutcomes.execute(() -> journaled(edit, result, version)));
+    }
+
+    /**
+     * Method to follow up a change journaled while the database was locked, once the journal has flushed it. The
+     * change was applied in memory when it was journaled, so if it has been written, the task only moves on to
+     * its new version. If the task had been changed elsewhere, it is refreshed, and the change is merged and
+     * written again, or dropped, just as if the conflict had been found straight away.
+     * @param edit Change as it was journaled
+     * @param result What the journal found when it flushed the change
+     * @param version Version the change moved the task on to, if it was written
+     */
+    private void journaled(Edit edit, TaskBatch.Result result, long version) {
+        synchronized (writeLock) {
+            long taskID = edit.task().taskID();
+            Task task = getTask(taskID);
+            if (task == null) {
+                // Deleted since, or the user has logged out
+                return;
+            }
+            switch (result.outcome()) {
+                case APPLIED -> {
+                    // A later change may already have been written along with it, or after it
+                    if (version > task.version()) {
+                        refresh(Collections.singletonMap(taskID, task.withVersion(version)));
+                    }
+                }
+                case NOT_FOUND -> refresh(Collections.singletonMap(taskID, null));
+                case CONFLICT -> {
+                    refresh(Collections.singletonMap(taskID, result.current()));
+                    Merge merge = merge(edit, result.current());
+                    if (!merge.conflicts().isEmpty()) {
+                        conflictingChanges.add(merge.conflicts().size());
+                        logger.info("event=journaled_update_conflict task_id=" + taskID
+                                + " version=" + result.current().version() + " fields=" + merge.conflicts());
+                    }
+                    if (!merge.edit().changes().isEmpty()) {
+                        mergedChanges.increment();
+                        // Already in the undo history from when it was journaled
+                        history.suspend();
+                        try {
+                            writeStep(List.of(merge.edit()));
+                        } finally {
+                            history.resume();
+                        }
+                    }
+                }
+                case FAILED -> {
+                    // The journal dropped the change, as it can never be written
+                    List<Task> page = Repositories.get().getTasksPage(getUserID(), taskID - 1, 1);
+                    Task current = page.isEmpty() || page.get(0).taskID() != taskID ? null : page.get(0);
+                    refresh(Collections.singletonMap(taskID, current));
+                }
+            }
+        }
+    }
+
+    /**
+     * Function to rebase a change onto a newer copy of its task. Fields the newer copy has already set to the
+     * same value are dropped from the change, and fields it left alone are kept. Fields it changed to another
+     * value are dropped too, and reported as conflicts, so that the other change to them is kept.
+     * @param edit Change which was based on an older copy of the task
+     * @param current Copy of the task as it is now in the database
+     * @return The change to write on top of current, and the fields which conflicted
+     */
+    private static Merge merge(Edit edit, Task current) {
+        Map<TaskField, Object> remaining = new EnumMap<>(TaskField.class);
+        Set<TaskField> conflicts = EnumSet.noneOf(TaskField.class);
+        for (Map.Entry<TaskField, Object> change : edit.changes().entrySet()) {
+            Object theirs = current.get(change.getKey());
+            if (Objects.equals(theirs, change.getValue())) {
+                continue;
+            }
+            if (Objects.equals(theirs, edit.task().get(change.getKey()))) {
+                remaining.put(change.getKey(), change.getValue());
+            } else {
+                conflicts.add(change.getKey());
+            }
+        }
+        return new Merge(new Edit(current, remaining), conflicts);
+    }
+
+    /**
+     * Adds a task to every index. Must be called while holding the model's lock.
+     */
+    private void index(Task task) {
+        tasksByID.put(task.taskID(), task);
+        queryIndex.add(task);
+        searchIndex.add(task);
+    }
+
+    /**
+     * Removes a task from every index. Must be called while holding the model's lock.
+     */
+    private void unindex(Task task) {
+        tasksByID.remove(task.taskID());
+        queryIndex.remove(task.taskID());
+        searchIndex.remove(task);
+    }
+
+    private void clearTasks() {
+        removedTasks.clear();
+        seriesByID.clear();
+        tasksByID.clear();
+        queryIndex.clear();
+        searchIndex.clear();
+    }
+
+    private List<Task> lookup(long[] taskIDs) {
+        List<Task> tasks = new ArrayList<>(taskIDs.length);
+        for (long taskID : taskIDs) {
+            tasks.add(tasksByID.get(taskID));
+        }
+        return tasks;
+    }
+
+    /**
+     * Function to convert a field value from the type used by Task to the type stored by TaskBatch
+     */
+    private static Object toColumnValue(TaskField field, Object value) {
+        if (field == TaskField.DUE_DATE && value != null) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    private static Map<TaskField, Object> singleChange(TaskField field, Object value) {
+        // EnumMap rather than Map.of, as clearing a description or due date sets it to null
+        Map<TaskField, Object> changes = new EnumMap<>(TaskField.class);
+        changes.put(field, value);
+        return changes;
+    }
+}
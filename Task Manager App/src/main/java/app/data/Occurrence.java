@@ -0,0 +1,49 @@
+package app.data;
+
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+
+import java.time.LocalDate;
+
+/**
+ * Immutable snapshot of one occurrence of a recurring task. Occurrences aren't stored as tasks: they are worked
+ * out from their TaskSeries when a window of dates is shown, and only an occurrence the user has changed, such as
+ * completed or moved to another day, is stored, as an exception to its series.
+ * @param seriesID Unique ID of the series the occurrence belongs to
+ * @param date Date the series puts the occurrence on, which identifies it within the series
+ * @param name Name of the task
+ * @param description Description of the task, which may be null
+ * @param dueDate Deadline of the occurrence: its date, unless it has been moved
+ * @param priority Priority of the task, or null if it has none
+ * @param status Completion status of the occurrence
+ */
+public record Occurrence(long seriesID, LocalDate date, String name, String description, LocalDate dueDate,
+                         TaskPriority priority, TaskStatus status) {
+
+    public Occurrence withName(String newName) {
+        return new Occurrence(seriesID, date, newName, description, dueDate, priority, status);
+    }
+
+    public Occurrence withDescription(String newDescription) {
+        return new Occurrence(seriesID, date, name, newDescription, dueDate, priority, status);
+    }
+
+    public Occurrence withDueDate(LocalDate newDueDate) {
+        return new Occurrence(seriesID, date, name, description, newDueDate, priority, status);
+    }
+
+    public Occurrence withPriority(TaskPriority newPriority) {
+        return new Occurrence(seriesID, date, name, description, dueDate, newPriority, status);
+    }
+
+    public Occurrence withStatus(TaskStatus newStatus) {
+        return new Occurrence(seriesID, date, name, description, dueDate, priority, newStatus);
+    }
+
+    /**
+     * @return The day the occurrence is shown on: its due date, or its date in the series if it has none
+     */
+    public LocalDate day() {
+        return dueDate == null ? date : dueDate;
+    }
+}
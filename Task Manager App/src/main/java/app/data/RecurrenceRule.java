@@ -0,0 +1,127 @@
+package app.data;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * When the occurrences of a recurring task fall: every interval days, weeks or months from the start date, until
+ * an end date or a number of occurrences, whichever comes first. Occurrence n is always worked out from the start
+ * date rather than from occurrence n - 1, so a monthly series starting on the 31st falls on the last day of
+ * shorter months without drifting to the 28th for the rest of the year.
+ * @param frequency Unit the series repeats in
+ * @param interval Number of units between occurrences, at least 1
+ * @param start Date of the first occurrence
+ * @param until Last date an occurrence may fall on, or null for no end date
+ * @param count Number of occurrences in the series, or 0 for no limit
+ */
+public record RecurrenceRule(Frequency frequency, int interval, LocalDate start, LocalDate until, int count) {
+
+    public enum Frequency {
+        DAILY(0),
+        WEEKLY(1),
+        MONTHLY(2);
+
+        private final int code;
+
+        Frequency(int code) {
+            this.code = code;
+        }
+
+        /**
+         * @return Integer code stored in the frequency column of task_series
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * Function to convert a code read from the frequency column back into a frequency
+         * @param code Integer code stored in the database
+         * @return Frequency with that code
+         */
+        public static Frequency fromCode(int code) {
+            for (Frequency frequency : values()) {
+                if (frequency.code == code) {
+                    return frequency;
+                }
+            }
+            throw new IllegalArgumentException("Unknown recurrence frequency code: " + code);
+        }
+    }
+
+    public RecurrenceRule {
+        if (frequency == null || start == null) {
+            throw new IllegalArgumentException("A recurrence needs a frequency and a start date");
+        }
+        if (interval < 1 || count < 0) {
+            throw new IllegalArgumentException("Invalid recurrence interval " + interval + " or count " + count);
+        }
+    }
+
+    /**
+     * Function to create a rule which repeats every interval units from a start date, forever
+     */
+    public static RecurrenceRule every(int interval, Frequency frequency, LocalDate start) {
+        return new RecurrenceRule(frequency, interval, start, null, 0);
+    }
+
+    public RecurrenceRule endingOn(LocalDate newUntil) {
+        return new RecurrenceRule(frequency, interval, start, newUntil, count);
+    }
+
+    public RecurrenceRule endingAfter(int newCount) {
+        return new RecurrenceRule(frequency, interval, start, until, newCount);
+    }
+
+    /**
+     * Function to work out the date of one occurrence, whether or not the series has ended by then
+     * @param n Index of the occurrence, 0 for the first
+     */
+    public LocalDate dateOf(long n) {
+        return switch (frequency) {
+            case DAILY -> start.plusDays(n * interval);
+            case WEEKLY -> start.plusWeeks(n * interval);
+            case MONTHLY -> start.plusMonths(n * interval);
+        };
+    }
+
+    /**
+     * Function to list the occurrences which fall in a window of dates. The first is found arithmetically, so
+     * the cost depends on the size of the window, not on how long the series has been running.
+     * @param from First date of the window
+     * @param to Last date of the window
+     * @return Dates of the occurrences in the window, in order
+     */
+    public List<LocalDate> datesBetween(LocalDate from, LocalDate to) {
+        List<LocalDate> dates = new ArrayList<>();
+        // Whole units between the start and the window, so occurrence n falls on or before the window's start
+        long n = from.isAfter(start) ? unit().between(start, from) / interval : 0;
+        for (; count == 0 || n < count; n++) {
+            LocalDate date = dateOf(n);
+            if (date.isAfter(to) || (until != null && date.isAfter(until))) {
+                break;
+            }
+            if (!date.isBefore(from)) {
+                dates.add(date);
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * @return Boolean value indicating whether an occurrence of the series falls on a date
+     */
+    public boolean occursOn(LocalDate date) {
+        return !datesBetween(date, date).isEmpty();
+    }
+
+    private ChronoUnit unit() {
+        return switch (frequency) {
+            case DAILY -> ChronoUnit.DAYS;
+            case WEEKLY -> ChronoUnit.WEEKS;
+            case MONTHLY -> ChronoUnit.MONTHS;
+        };
+    }
+}
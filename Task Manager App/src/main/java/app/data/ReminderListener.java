@@ -0,0 +1,21 @@
+package app.data;
+
+import java.util.List;
+
+/**
+ * Listener which is told when the logged-in user's tasks reach their due date. Methods are called on the reminder
+ * scheduler's thread, so views should move to the JavaFX thread with Platform.runLater before showing anything.
+ */
+public interface ReminderListener {
+    /**
+     * Called at the start of the day a task is due, or on login for tasks due that day
+     * @param tasks Tasks due today which haven't been completed
+     */
+    void tasksDueToday(List<Task> tasks);
+
+    /**
+     * Called once the due date of tasks has passed, after they have been marked as overdue
+     * @param tasks The tasks, with their status already set to OVERDUE
+     */
+    void tasksOverdue(List<Task> tasks);
+}
@@ -0,0 +1,283 @@
+package app.data;
+
+import app.database.TaskStatus;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules reminders for the logged-in user's tasks as they come due, and marks them as overdue once their due
+ * date has passed. Deadlines are kept in a priority queue ordered by time, and a single timer is set for the
+ * earliest one, so nothing ever polls the tasks. When the model changes a task, only that task's deadline is
+ * rescheduled, so keeping up to date costs O(log n) per change rather than a pass over every task.
+ * <p>
+ * Each task has at most one deadline in the queue: first its reminder at the start of its due date, then, once
+ * that has fired, the moment it becomes overdue at the end of its due date. Rescheduling doesn't search the queue
+ * for the old deadline; the task is given a new generation number instead, and deadlines from older generations
+ * are skipped when they reach the front of the queue.
+ */
+public class ReminderScheduler implements TaskChangeListener {
+    /**
+     * Number of skipped deadlines the queue may hold, relative to its size, before it is rebuilt without them
+     */
+    private static final double MAX_STALE_FRACTION = 0.5;
+    private static final int MIN_STALE_BEFORE_REBUILD = 64;
+
+    private enum Kind { REMINDER, OVERDUE }
+
+    /**
+     * When something happens to a task
+     * @param at Time the deadline falls due
+     * @param kind What happens when it does
+     * @param taskID Unique ID of the task
+     * @param generation Generation of the task's schedule this deadline belongs to
+     */
+    private record Deadline(Instant at, Kind kind, long taskID, long generation) {}
+
+    private final AppModel model;
+    private final Clock clock;
+
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>(Comparator.comparing(Deadline::at));
+
+    /**
+     * Current schedule generation of every task with a deadline in the queue
+     */
+    private final Map<Long, Long> generations = new HashMap<>();
+    private long nextGeneration = 0;
+    private int staleDeadlines = 0;
+    private boolean running = false;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "reminder-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> wakeUp;
+    private Instant wakeUpAt;
+
+    private final List<ReminderListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param model Model whose tasks are scheduled
+     * @param clock Clock giving the current time and time zone, which decides when each day starts
+     */
+    ReminderScheduler(AppModel model, Clock clock) {
+        this.model = model;
+        this.clock = clock;
+    }
+
+    public void addListener(ReminderListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ReminderListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Schedules every open task of the logged-in user which has a due date, and starts following the model's
+     * changes. Tasks which are already past due are marked as overdue straight away, in a single batch.
+     * Called by AppModel once a user's tasks have been loaded, while it holds its write lock, so no change can
+     * slip in between reading the tasks and listening for changes.
+     */
+    void start() {
+        List<Task> tasks = model.getTasksDueBetween(LocalDate.MIN, LocalDate.MAX);
+        synchronized (this) {
+            clear();
+            running = true;
+            for (Task task : tasks) {
+                schedule(task);
+            }
+            rearm();
+        }
+        // A new login calls this again without stop(), so make sure the listener is only registered once
+        model.removeListener(this);
+        model.addListener(this);
+    }
+
+    /**
+     * Forgets every deadline, e.g. on logout. Called by AppModel when it is cleared.
+     */
+    void stop() {
+        model.removeListener(this);
+        synchronized (this) {
+            running = false;
+            clear();
+        }
+    }
+
+    @Override
+    public synchronized void taskAdded(Task task) {
+        schedule(task);
+        rearm();
+    }
+
+    @Override
+    public void taskUpdated(Task oldTask, Task newTask) {
+        if (newTask.status() == TaskStatus.OVERDUE && newTask.dueDate() != null
+                && !newTask.dueDate().isBefore(LocalDate.now(clock))) {
+            // The due date was moved back into the future, so the task is open again. The change comes back
+            // through this listener as a TODO task, which schedules it.
+            timer.execute(() -> model.withoutHistory(() -> model.changeTaskStatus(newTask.taskID(), TaskStatus.TODO)));
+            return;
+        }
+        if (oldTask.status() == newTask.status() && Objects.equals(oldTask.dueDate(), newTask.dueDate())) {
+            return;
+        }
+        synchronized (this) {
+            unschedule(oldTask.taskID());
+            schedule(newTask);
+            rearm();
+        }
+    }
+
+    @Override
+    public synchronized void taskRemoved(Task task) {
+        unschedule(task.taskID());
+    }
+
+    /**
+     * @return Number of tasks waiting for a reminder or to become overdue
+     */
+    public synchronized int getScheduledCount() {
+        return generations.size();
+    }
+
+    /**
+     * Adds a deadline for a task if it is open and has a due date. Must be called while holding this object's lock.
+     */
+    private void schedule(Task task) {
+        if (!running || task.dueDate() == null
+                || (task.status() != TaskStatus.TODO && task.status() != TaskStatus.IN_PROGRESS)) {
+            return;
+        }
+        long generation = nextGeneration++;
+        generations.put(task.taskID(), generation);
+
+        Instant reminderAt = startOf(task.dueDate());
+        Instant overdueAt = startOf(task.dueDate().plusDays(1));
+        if (overdueAt.isAfter(clock.instant())) {
+            deadlines.add(new Deadline(reminderAt, Kind.REMINDER, task.taskID(), generation));
+        } else {
+            // Too late for a reminder
+            deadlines.add(new Deadline(overdueAt, Kind.OVERDUE, task.taskID(), generation));
+        }
+    }
+
+    /**
+     * Drops a task's deadline, leaving it in the queue to be skipped. Must be called while holding this object's lock.
+     */
+    private void unschedule(long taskID) {
+        if (generations.remove(taskID) != null) {
+            staleDeadlines++;
+        }
+        if (staleDeadlines >= MIN_STALE_BEFORE_REBUILD && staleDeadlines > deadlines.size() * MAX_STALE_FRACTION) {
+            deadlines.removeIf(this::isStale);
+            staleDeadlines = 0;
+        }
+    }
+
+    private boolean isStale(Deadline deadline) {
+        Long generation = generations.get(deadline.taskID());
+        return generation == null || generation != deadline.generation();
+    }
+
+    /**
+     * Sets the timer for the earliest deadline, if it isn't already set for that time. Must be called while
+     * holding this object's lock.
+     */
+    private void rearm() {
+        Deadline next = deadlines.peek();
+        if (next == null || (wakeUp != null && !wakeUp.isDone() && !next.at().isBefore(wakeUpAt))) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        long delay = Math.max(0, Duration.between(clock.instant(), next.at()).toMillis());
+        wakeUpAt = next.at();
+        wakeUp = timer.schedule(this::fireDue, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the timer thread. Takes every deadline which has fallen due off the queue, then sends reminders
+     * and marks overdue tasks in one batch. The model is only used once this object's lock has been released,
+     * as the model calls back into this object while holding its own locks.
+     */
+    private void fireDue() {
+        List<Long> dueToday = new ArrayList<>();
+        List<Long> overdue = new ArrayList<>();
+        synchronized (this) {
+            wakeUp = null;
+            Instant now = clock.instant();
+            while (!deadlines.isEmpty() && !deadlines.peek().at().isAfter(now)) {
+                Deadline deadline = deadlines.poll();
+                if (isStale(deadline)) {
+                    staleDeadlines = Math.max(0, staleDeadlines - 1);
+                    continue;
+                }
+                Instant overdueAt = deadline.at().atZone(clock.getZone()).toLocalDate().plusDays(1)
+                        .atStartOfDay(clock.getZone()).toInstant();
+                if (deadline.kind() == Kind.REMINDER && overdueAt.isAfter(now)) {
+                    dueToday.add(deadline.taskID());
+                    deadlines.add(new Deadline(overdueAt, Kind.OVERDUE, deadline.taskID(), deadline.generation()));
+                } else {
+                    generations.remove(deadline.taskID());
+                    overdue.add(deadline.taskID());
+                }
+            }
+            rearm();
+        }
+
+        if (!overdue.isEmpty()) {
+            // Marking tasks overdue isn't the user's doing, so it isn't theirs to undo
+            List<Task> markedOverdue =
+                    model.withoutHistory(() -> model.changeTaskStatuses(overdue, TaskStatus.OVERDUE));
+            if (!markedOverdue.isEmpty()) {
+                for (ReminderListener listener : listeners) {
+                    listener.tasksOverdue(markedOverdue);
+                }
+            }
+        }
+        if (!dueToday.isEmpty()) {
+            List<Task> tasks = new ArrayList<>();
+            for (long taskID : dueToday) {
+                Task task = model.getTask(taskID);
+                if (task != null) {
+                    tasks.add(task);
+                }
+            }
+            for (ReminderListener listener : listeners) {
+                listener.tasksDueToday(tasks);
+            }
+        }
+    }
+
+    private Instant startOf(LocalDate date) {
+        return date.atStartOfDay(clock.getZone()).toInstant();
+    }
+
+    private void clear() {
+        deadlines.clear();
+        generations.clear();
+        staleDeadlines = 0;
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+    }
+}
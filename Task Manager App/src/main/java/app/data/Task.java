@@ -0,0 +1,78 @@
+package app.data;
+
+import app.database.TaskField;
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+
+import java.time.LocalDate;
+
+/**
+ * Immutable snapshot of a single task. Changing a task produces a new Task via one of the with methods.
+ * @param taskID Unique ID of the task
+ * @param userID Unique ID of the user the task belongs to
+ * @param name Name of the task
+ * @param description Description of the task, which may be null
+ * @param dueDate Deadline of the task, or null if it has none
+ * @param priority Priority of the task, or null if it has none
+ * @param status Completion status of the task
+ * @param version Number of times the task has been changed in the database, counting from 1 when it was created.
+ * Changes made with TaskBatch.compareAndSet only succeed if the task is still at the version they were based on.
+ */
+public record Task(long taskID, long userID, String name, String description, LocalDate dueDate,
+                   TaskPriority priority, TaskStatus status, long version) {
+
+    public Task withName(String newName) {
+        return new Task(taskID, userID, newName, description, dueDate, priority, status, version);
+    }
+
+    public Task withDescription(String newDescription) {
+        return new Task(taskID, userID, name, newDescription, dueDate, priority, status, version);
+    }
+
+    public Task withDueDate(LocalDate newDueDate) {
+        return new Task(taskID, userID, name, description, newDueDate, priority, status, version);
+    }
+
+    public Task withPriority(TaskPriority newPriority) {
+        return new Task(taskID, userID, name, description, dueDate, newPriority, status, version);
+    }
+
+    public Task withStatus(TaskStatus newStatus) {
+        return new Task(taskID, userID, name, description, dueDate, priority, newStatus, version);
+    }
+
+    public Task withVersion(long newVersion) {
+        return new Task(taskID, userID, name, description, dueDate, priority, status, newVersion);
+    }
+
+    /**
+     * Function to return a copy of this task with one field changed
+     * @param field Field to change
+     * @param value New value, of the type used by that field in this record
+     * @return Copy of the task with the new value
+     */
+    public Task with(TaskField field, Object value) {
+        return switch (field) {
+            case NAME -> withName((String) value);
+            case DESCRIPTION -> withDescription((String) value);
+            case DUE_DATE -> withDueDate((LocalDate) value);
+            case PRIORITY -> withPriority((TaskPriority) value);
+            case STATUS -> withStatus((TaskStatus) value);
+        };
+    }
+
+    /**
+     * Function to return the value of one field of this task
+     * @param field Field to read
+     * @return Value of the field, of the type used by that field in this record
+     */
+    public Object get(TaskField field) {
+        return switch (field) {
+            case NAME -> name;
+            case DESCRIPTION -> description;
+            case DUE_DATE -> dueDate;
+            case PRIORITY -> priority;
+            case STATUS -> status;
+        };
+    }
+}
@@ -0,0 +1,27 @@
+package app.data;
+
+/**
+ * Listener which is told about each change made to the tasks held by AppModel, so that views can update just the
+ * affected rows instead of reloading every task. Methods are called on the thread which made the change, after
+ * the change has been saved.
+ */
+public interface TaskChangeListener {
+    /**
+     * Called after a task has been created
+     * @param task The new task
+     */
+    void taskAdded(Task task);
+
+    /**
+     * Called after one or more fields of a task have changed
+     * @param oldTask The task before the change
+     * @param newTask The task after the change
+     */
+    void taskUpdated(Task oldTask, Task newTask);
+
+    /**
+     * Called after a task has been deleted
+     * @param task The task which was deleted
+     */
+    void taskRemoved(Task task);
+}
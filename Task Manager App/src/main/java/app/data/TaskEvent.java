@@ -0,0 +1,47 @@
+package app.data;
+
+/**
+ * A change to one of the logged-in user's tasks, as delivered by AppController. Events are merged per task before
+ * they are delivered, so each task appears at most once in a batch, e.g. a task created and then renamed within
+ * the same frame arrives as a single TaskCreated holding the renamed task.
+ */
+public sealed interface TaskEvent {
+    /**
+     * @return Unique ID of the task which changed
+     */
+    long taskID();
+
+    /**
+     * A task was created
+     * @param task The new task
+     */
+    record TaskCreated(Task task) implements TaskEvent {
+        @Override
+        public long taskID() {
+            return task.taskID();
+        }
+    }
+
+    /**
+     * One or more fields of a task changed
+     * @param oldTask The task before the first change in the batch
+     * @param newTask The task after the last change in the batch
+     */
+    record TaskUpdated(Task oldTask, Task newTask) implements TaskEvent {
+        @Override
+        public long taskID() {
+            return newTask.taskID();
+        }
+    }
+
+    /**
+     * A task was deleted
+     * @param task The task as it was when it was deleted
+     */
+    record TaskDeleted(Task task) implements TaskEvent {
+        @Override
+        public long taskID() {
+            return task.taskID();
+        }
+    }
+}
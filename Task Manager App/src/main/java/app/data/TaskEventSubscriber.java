@@ -0,0 +1,17 @@
+package app.data;
+
+import java.util.List;
+
+/**
+ * Subscriber to the task changes published by AppController. Unlike a TaskChangeListener, which is called on the
+ * thread making each change, a subscriber is called on the JavaFX thread with every change made since the last
+ * frame, so it can update the scene directly and only once per frame however many tasks changed.
+ */
+@FunctionalInterface
+public interface TaskEventSubscriber {
+    /**
+     * Called on the JavaFX thread with the changes made since the last call
+     * @param events The changes, at most one per task, in the order the tasks were first changed
+     */
+    void tasksChanged(List<TaskEvent> events);
+}
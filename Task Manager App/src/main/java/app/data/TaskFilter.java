@@ -0,0 +1,86 @@
+package app.data;
+
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Combination of filters on the logged-in user's tasks, such as the dashboard's filter chips select, along with
+ * the order to list the matching tasks in. A task matches if it has one of the statuses, one of the priorities and
+ * a due date in the range. Empty sets and null dates don't filter anything.
+ * @param statuses Statuses to include, or empty for every status
+ * @param priorities Priorities to include, or empty for every priority, including none
+ * @param dueFrom First due date to include, or null for no lower bound
+ * @param dueTo Last due date to include, or null for no upper bound. If either bound is set, tasks without a due
+ * date are left out.
+ * @param order Order to list the matching tasks in
+ */
+public record TaskFilter(Set<TaskStatus> statuses, Set<TaskPriority> priorities, LocalDate dueFrom, LocalDate dueTo,
+                         Order order) {
+
+    public enum Order {
+        /**
+         * Oldest task first
+         */
+        TASK_ID,
+        /**
+         * Earliest due date first, then tasks without a due date. Tasks due on the same day are in task ID order.
+         */
+        DUE_DATE
+    }
+
+    /**
+     * Filter which every task matches, in task ID order
+     */
+    public static final TaskFilter ALL = new TaskFilter(Set.of(), Set.of(), null, null, Order.TASK_ID);
+
+    public TaskFilter {
+        statuses = Set.copyOf(statuses);
+        priorities = Set.copyOf(priorities);
+    }
+
+    public TaskFilter withStatus(TaskStatus status, boolean included) {
+        return new TaskFilter(toggle(statuses, status, included, TaskStatus.class), priorities, dueFrom, dueTo, order);
+    }
+
+    public TaskFilter withPriority(TaskPriority priority, boolean included) {
+        return new TaskFilter(statuses, toggle(priorities, priority, included, TaskPriority.class), dueFrom, dueTo,
+                order);
+    }
+
+    public TaskFilter withDueBetween(LocalDate newDueFrom, LocalDate newDueTo) {
+        return new TaskFilter(statuses, priorities, newDueFrom, newDueTo, order);
+    }
+
+    public TaskFilter withOrder(Order newOrder) {
+        return new TaskFilter(statuses, priorities, dueFrom, dueTo, newOrder);
+    }
+
+    /**
+     * @return Boolean value indicating whether the filter has a due date range, which leaves out tasks without one
+     */
+    public boolean hasDueRange() {
+        return dueFrom != null || dueTo != null;
+    }
+
+    /**
+     * @return Boolean value indicating whether every task matches the filter
+     */
+    public boolean matchesEverything() {
+        return statuses.isEmpty() && priorities.isEmpty() && !hasDueRange();
+    }
+
+    private static <E extends Enum<E>> Set<E> toggle(Set<E> values, E value, boolean included, Class<E> type) {
+        EnumSet<E> toggled = EnumSet.noneOf(type);
+        toggled.addAll(values);
+        if (included) {
+            toggled.add(value);
+        } else {
+            toggled.remove(value);
+        }
+        return toggled;
+    }
+}
@@ -0,0 +1,569 @@
+package app.data;
+
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * In-memory index of the logged-in user's tasks by status, priority and due date, used to answer the dashboard's
+ * filters without querying SQLite or looking at every task. Each task is given a slot number, and the index keeps:
+ * <ul>
+ *     <li>a bitmap per status and per priority (and one for tasks without a priority), in which bit n is set if
+ *     the task in slot n has that value,</li>
+ *     <li>the slots of every task in task ID order, and the slots of the tasks with a due date in due date order.</li>
+ * </ul>
+ * A filter is answered by OR-ing together the bitmaps of its statuses, and those of its priorities, AND-ing the two,
+ * then walking the slots in the order asked for and keeping those whose bit is set. A due date range is found by
+ * binary search, so only the tasks inside it are walked. Everything is kept in primitive arrays, so counting the
+ * matches of a filter, or reading a page of them, takes well under a millisecond even for a million tasks.
+ * The slots of deleted tasks are reused.
+ * Not thread-safe: AppModel only uses it while holding its own lock.
+ */
+class TaskQueryIndex {
+    /**
+     * Day stored for tasks without a due date. Due dates are stored as days since the epoch, clamped to the range
+     * of an int above this, which covers every date anyone will type.
+     */
+    private static final int NO_DUE_DATE = Integer.MIN_VALUE;
+
+    /**
+     * Index in priorityBits of the bitmap of tasks without a priority
+     */
+    private static final int NO_PRIORITY = TaskPriority.values().length;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * ID and due day of the task in each slot
+     */
+    private long[] slotTaskIDs = new long[INITIAL_CAPACITY];
+    private int[] slotDueDays = new int[INITIAL_CAPACITY];
+
+    /**
+     * Bitmaps of the slots holding a task, and of the slots holding a task with each status and priority
+     */
+    private long[] occupied = new long[words(INITIAL_CAPACITY)];
+    private final long[][] statusBits = new long[TaskStatus.values().length][words(INITIAL_CAPACITY)];
+    private final long[][] priorityBits = new long[NO_PRIORITY + 1][words(INITIAL_CAPACITY)];
+
+    /**
+     * Number of slots ever used, and the slots of deleted tasks waiting to be reused
+     */
+    private int slotCount = 0;
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount = 0;
+
+    private final SlotMap slotsByTaskID = new SlotMap();
+
+    /**
+     * Slots of every task in task ID order, and of the tasks with a due date in (due date, task ID) order.
+     * Tasks added with addAll are appended, and the orders are sorted again before they are next used. Tasks are
+     * loaded in task ID order, so usually only the due date order needs sorting.
+     */
+    private int[] idOrder = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private int[] dueOrder = new int[INITIAL_CAPACITY];
+    private int dueCount = 0;
+    private boolean idOrderSorted = true;
+    private boolean dueOrderSorted = true;
+
+    /**
+     * Adds a task, replacing any task with the same ID
+     */
+    void add(Task task) {
+        ensureSorted();
+        remove(task.taskID());
+        int slot = store(task);
+        int position = idPosition(task.taskID());
+        idOrder = insert(idOrder, size++, position, slot);
+        if (slotDueDays[slot] != NO_DUE_DATE) {
+            position = duePosition(slotDueDays[slot], task.taskID());
+            dueOrder = insert(dueOrder, dueCount++, position, slot);
+        }
+    }
+
+    /**
+     * Adds many tasks at once, e.g. when a user's tasks are loaded. The orders are sorted once, rather than
+     * every task being inserted at its place. None of the tasks may already be in the index.
+     */
+    void addAll(Collection<Task> tasks) {
+        slotsByTaskID.reserve(slotsByTaskID.size + tasks.size());
+        for (Task task : tasks) {
+            int slot = store(task);
+            if (size > 0 && slotTaskIDs[idOrder[size - 1]] > task.taskID()) {
+                idOrderSorted = false;
+            }
+            idOrder = append(idOrder, size++, slot);
+            if (slotDueDays[slot] != NO_DUE_DATE) {
+                dueOrder = append(dueOrder, dueCount++, slot);
+                dueOrderSorted = false;
+            }
+        }
+    }
+
+    /**
+     * Removes a task, if it is in the index
+     */
+    void remove(long taskID) {
+        ensureSorted();
+        int slot = slotsByTaskID.remove(taskID);
+        if (slot < 0) {
+            return;
+        }
+        removeAt(idOrder, size, idPosition(taskID));
+        size--;
+        if (slotDueDays[slot] != NO_DUE_DATE) {
+            removeAt(dueOrder, dueCount, duePosition(slotDueDays[slot], taskID));
+            dueCount--;
+        }
+        clearBit(occupied, slot);
+        for (long[] bits : statusBits) {
+            clearBit(bits, slot);
+        }
+        for (long[] bits : priorityBits) {
+            clearBit(bits, slot);
+        }
+        freeSlots = append(freeSlots, freeSlotCount++, slot);
+    }
+
+    void clear() {
+        slotsByTaskID.clear();
+        Arrays.fill(occupied, 0);
+        for (long[] bits : statusBits) {
+            Arrays.fill(bits, 0);
+        }
+        for (long[] bits : priorityBits) {
+            Arrays.fill(bits, 0);
+        }
+        slotCount = 0;
+        freeSlotCount = 0;
+        size = 0;
+        dueCount = 0;
+        idOrderSorted = true;
+        dueOrderSorted = true;
+    }
+
+    /**
+     * Function to count the tasks matching a filter
+     */
+    int count(TaskFilter filter) {
+        long[] mask = mask(filter);
+        if (!filter.hasDueRange()) {
+            if (mask == occupied) {
+                return size;
+            }
+            int count = 0;
+            for (long word : mask) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+        ensureSorted();
+        int count = 0;
+        for (int i = dueFrom(filter), end = dueTo(filter); i < end; i++) {
+            if (isSet(mask, dueOrder[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Function to find the IDs of the tasks matching a filter, in the filter's order
+     * @param filter Filter to apply
+     * @param offset Number of matching tasks to skip, for reading later pages
+     * @param limit Maximum number of IDs to return
+     * @return IDs of up to limit matching tasks
+     */
+    long[] query(TaskFilter filter, int offset, int limit) {
+        ensureSorted();
+        long[] mask = mask(filter);
+        IDCollector ids = new IDCollector(offset, limit);
+
+        if (filter.hasDueRange()) {
+            int from = dueFrom(filter);
+            int to = dueTo(filter);
+            if (filter.order() == TaskFilter.Order.DUE_DATE) {
+                collect(dueOrder, from, to, mask, ids);
+                return ids.toArray();
+            }
+            // Task ID order within a due date range, so every match in the range has to be found and sorted
+            IDCollector inRange = new IDCollector(0, Integer.MAX_VALUE);
+            collect(dueOrder, from, to, mask, inRange);
+            long[] matches = inRange.toArray();
+            Arrays.sort(matches);
+            return Arrays.copyOfRange(matches, Math.min(offset, matches.length),
+                    (int) Math.min((long) offset + limit, matches.length));
+        }
+
+        if (filter.order() == TaskFilter.Order.DUE_DATE) {
+            collect(dueOrder, 0, dueCount, mask, ids);
+            // Then the tasks without a due date, in task ID order
+            for (int i = 0; i < size && !ids.isFull(); i++) {
+                int slot = idOrder[i];
+                if (slotDueDays[slot] == NO_DUE_DATE && isSet(mask, slot)) {
+                    ids.add(slotTaskIDs[slot]);
+                }
+            }
+            return ids.toArray();
+        }
+
+        collect(idOrder, 0, size, mask, ids);
+        return ids.toArray();
+    }
+
+    private void collect(int[] order, int from, int to, long[] mask, IDCollector ids) {
+        for (int i = from; i < to && !ids.isFull(); i++) {
+            int slot = order[i];
+            if (isSet(mask, slot)) {
+                ids.add(slotTaskIDs[slot]);
+            }
+        }
+    }
+
+    /**
+     * Function to build the bitmap of the slots whose task has one of the filter's statuses and priorities
+     * @return The bitmap, which is the index's own bitmap of occupied slots if the filter doesn't narrow it,
+     * so must not be changed
+     */
+    private long[] mask(TaskFilter filter) {
+        long[] mask = occupied;
+        if (!filter.statuses().isEmpty()) {
+            mask = union(statusBits, filter.statuses(), TaskStatus::ordinal);
+        }
+        if (!filter.priorities().isEmpty()) {
+            long[] priorities = union(priorityBits, filter.priorities(), TaskPriority::ordinal);
+            if (mask == occupied) {
+                mask = priorities;
+            } else {
+                for (int i = 0; i < mask.length; i++) {
+                    mask[i] &= priorities[i];
+                }
+            }
+        }
+        return mask;
+    }
+
+    private <E> long[] union(long[][] bitmaps, Set<E> values, java.util.function.ToIntFunction<E> index) {
+        long[] union = new long[words(slotCount)];
+        for (E value : values) {
+            long[] bits = bitmaps[index.applyAsInt(value)];
+            for (int i = 0; i < union.length; i++) {
+                union[i] |= bits[i];
+            }
+        }
+        return union;
+    }
+
+    /**
+     * Function to put a task in a slot and set its bits, without adding it to either order
+     * @return The task's slot
+     */
+    private int store(Task task) {
+        int slot = freeSlotCount > 0 ? freeSlots[--freeSlotCount] : newSlot();
+        slotTaskIDs[slot] = task.taskID();
+        slotDueDays[slot] = dueDay(task.dueDate());
+        setBit(occupied, slot);
+        setBit(statusBits[task.status().ordinal()], slot);
+        setBit(priorityBits[task.priority() == null ? NO_PRIORITY : task.priority().ordinal()], slot);
+        slotsByTaskID.put(task.taskID(), slot);
+        return slot;
+    }
+
+    private int newSlot() {
+        if (slotCount == slotTaskIDs.length) {
+            int capacity = slotTaskIDs.length * 2;
+            slotTaskIDs = Arrays.copyOf(slotTaskIDs, capacity);
+            slotDueDays = Arrays.copyOf(slotDueDays, capacity);
+            occupied = Arrays.copyOf(occupied, words(capacity));
+            for (int i = 0; i < statusBits.length; i++) {
+                statusBits[i] = Arrays.copyOf(statusBits[i], words(capacity));
+            }
+            for (int i = 0; i < priorityBits.length; i++) {
+                priorityBits[i] = Arrays.copyOf(priorityBits[i], words(capacity));
+            }
+        }
+        return slotCount++;
+    }
+
+    /**
+     * Sorts the orders if tasks have been appended to them out of order by addAll. The task ID order is sorted by
+     * sorting the IDs themselves; the due date order is then sorted by packing each task's due day and position in
+     * the task ID order into a single long, so that neither sort needs a comparator or boxes anything.
+     */
+    private void ensureSorted() {
+        if (!idOrderSorted) {
+            long[] ids = new long[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = slotTaskIDs[idOrder[i]];
+            }
+            Arrays.sort(ids);
+            for (int i = 0; i < size; i++) {
+                idOrder[i] = slotsByTaskID.get(ids[i]);
+            }
+            idOrderSorted = true;
+            dueOrderSorted = false;
+        }
+        if (dueOrderSorted) {
+            return;
+        }
+
+        long[] keys = new long[dueCount];
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            int dueDay = slotDueDays[idOrder[i]];
+            if (dueDay != NO_DUE_DATE) {
+                keys[k++] = ((long) dueDay << 32) | i;
+            }
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < dueCount; i++) {
+            dueOrder[i] = idOrder[(int) keys[i]];
+        }
+        dueOrderSorted = true;
+    }
+
+    /**
+     * Function to find where a task ID is, or belongs, in the task ID order
+     */
+    private int idPosition(long taskID) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (slotTaskIDs[idOrder[middle]] < taskID) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Function to find where a task is, or belongs, in the due date order
+     */
+    private int duePosition(int dueDay, long taskID) {
+        int low = 0;
+        int high = dueCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int slot = dueOrder[middle];
+            if (slotDueDays[slot] < dueDay || (slotDueDays[slot] == dueDay && slotTaskIDs[slot] < taskID)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return Position in the due date order of the first task due on or after the filter's first due date
+     */
+    private int dueFrom(TaskFilter filter) {
+        return filter.dueFrom() == null ? 0 : duePosition(dueDay(filter.dueFrom()), Long.MIN_VALUE);
+    }
+
+    /**
+     * @return Position in the due date order just after the last task due on or before the filter's last due date
+     */
+    private int dueTo(TaskFilter filter) {
+        if (filter.dueTo() == null) {
+            return dueCount;
+        }
+        int lastDay = dueDay(filter.dueTo());
+        return lastDay == Integer.MAX_VALUE ? dueCount : duePosition(lastDay + 1, Long.MIN_VALUE);
+    }
+
+    private static int dueDay(LocalDate date) {
+        if (date == null) {
+            return NO_DUE_DATE;
+        }
+        return (int) Math.max(NO_DUE_DATE + 1, Math.min(Integer.MAX_VALUE, date.toEpochDay()));
+    }
+
+    private static int[] insert(int[] array, int length, int position, int value) {
+        if (length == array.length) {
+            array = Arrays.copyOf(array, length * 2);
+        }
+        System.arraycopy(array, position, array, position + 1, length - position);
+        array[position] = value;
+        return array;
+    }
+
+    private static int[] append(int[] array, int length, int value) {
+        return insert(array, length, length, value);
+    }
+
+    private static void removeAt(int[] array, int length, int position) {
+        System.arraycopy(array, position + 1, array, position, length - position - 1);
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean isSet(long[] bitmap, int bit) {
+        return (bitmap[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private static void setBit(long[] bitmap, int bit) {
+        bitmap[bit >>> 6] |= 1L << bit;
+    }
+
+    private static void clearBit(long[] bitmap, int bit) {
+        bitmap[bit >>> 6] &= ~(1L << bit);
+    }
+
+    /**
+     * Growable array of task IDs which skips the first few added, and stops accepting more once it has enough
+     */
+    private static final class IDCollector {
+        private long[] ids;
+        private int count = 0;
+        private int toSkip;
+        private final int limit;
+
+        private IDCollector(int offset, int limit) {
+            this.ids = new long[Math.min(limit, 256)];
+            this.toSkip = offset;
+            this.limit = limit;
+        }
+
+        private boolean isFull() {
+            return count >= limit;
+        }
+
+        private void add(long taskID) {
+            if (toSkip > 0) {
+                toSkip--;
+                return;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(16, (int) Math.min((long) ids.length * 2, limit)));
+            }
+            ids[count++] = taskID;
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOf(ids, count);
+        }
+    }
+
+    /**
+     * Map from task ID to slot, using open addressing over plain arrays so that neither is boxed
+     */
+    private static final class SlotMap {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys;
+        private int[] slots;
+        private int size = 0;
+
+        private SlotMap() {
+            allocate(64);
+        }
+
+        /**
+         * @return The task's slot, or -1 if it has none
+         */
+        private int get(long taskID) {
+            int mask = keys.length - 1;
+            for (int i = hash(taskID) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == taskID) {
+                    return slots[i];
+                }
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        private void put(long taskID, int slot) {
+            if ((size + 1) * 2 > keys.length) {
+                reserve(size + 1);
+            }
+            int mask = keys.length - 1;
+            int i = hash(taskID) & mask;
+            while (keys[i] != EMPTY && keys[i] != taskID) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                size++;
+            }
+            keys[i] = taskID;
+            slots[i] = slot;
+        }
+
+        /**
+         * @return The slot the task had, or -1 if it had none
+         */
+        private int remove(long taskID) {
+            int mask = keys.length - 1;
+            int i = hash(taskID) & mask;
+            while (keys[i] != taskID) {
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+                i = (i + 1) & mask;
+            }
+            int slot = slots[i];
+            // Move later entries of the same probe sequence back into the gap, so that lookups never stop early
+            int gap = i;
+            for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    slots[gap] = slots[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = EMPTY;
+            size--;
+            return slot;
+        }
+
+        /**
+         * Grows the table, if needed, so that it can hold a number of tasks without growing again
+         */
+        private void reserve(int tasks) {
+            int capacity = keys.length;
+            while ((long) tasks * 2 > capacity) {
+                capacity *= 2;
+            }
+            if (capacity == keys.length) {
+                return;
+            }
+            long[] oldKeys = keys;
+            int[] oldSlots = slots;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldSlots[i]);
+                }
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            slots = new int[capacity];
+            size = 0;
+            Arrays.fill(keys, EMPTY);
+        }
+
+        private static int hash(long taskID) {
+            long hash = taskID * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package app.data;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory index of the words in the logged-in user's task names and descriptions, used to search as the user
+ * types. Words are kept in a sorted map, so every word starting with a prefix is found with a single range lookup.
+ * Words are split and normalised the same way as the database's full-text index (see Database.searchTasks), so
+ * both find the same tasks.
+ * Not thread-safe: AppModel only uses it while holding its own lock.
+ */
+class TaskSearchIndex {
+    /**
+     * IDs of the tasks containing each word
+     */
+    private final NavigableMap<String, Set<Long>> tasksByWord = new TreeMap<>();
+
+    void add(Task task) {
+        for (String word : words(task)) {
+            tasksByWord.computeIfAbsent(word, w -> new HashSet<>()).add(task.taskID());
+        }
+    }
+
+    void remove(Task task) {
+        for (String word : words(task)) {
+            Set<Long> taskIDs = tasksByWord.get(word);
+            if (taskIDs != null) {
+                taskIDs.remove(task.taskID());
+                if (taskIDs.isEmpty()) {
+                    tasksByWord.remove(word);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        tasksByWord.clear();
+    }
+
+    /**
+     * Function to find the tasks containing a word starting with each word of a query
+     * @param query Words to search for, as typed by the user
+     * @param tasksByID The indexed tasks, used to rank the matches
+     * @param limit Maximum number of tasks to return
+     * @return Matching tasks: those matching on their name first, then those matching on their description,
+     * each in task ID order
+     */
+    List<Task> search(String query, Map<Long, Task> tasksByID, int limit) {
+        List<String> prefixes = split(query);
+        List<Task> results = new ArrayList<>();
+        if (prefixes.isEmpty()) {
+            return results;
+        }
+
+        // Intersect starting from the rarest prefix, so the working set is as small as possible from the start
+        List<Set<Long>> matches = new ArrayList<>();
+        for (String prefix : prefixes) {
+            matches.add(tasksWithPrefix(prefix));
+        }
+        matches.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Set<Long> taskIDs = new TreeSet<>(matches.get(0));
+        for (int i = 1; i < matches.size() && !taskIDs.isEmpty(); i++) {
+            taskIDs.retainAll(matches.get(i));
+        }
+
+        List<Task> descriptionMatches = new ArrayList<>();
+        for (long taskID : taskIDs) {
+            Task task = tasksByID.get(taskID);
+            if (matchesAll(split(task.name()), prefixes)) {
+                results.add(task);
+                if (results.size() == limit) {
+                    return results;
+                }
+            } else if (descriptionMatches.size() < limit) {
+                descriptionMatches.add(task);
+            }
+        }
+        for (Task task : descriptionMatches) {
+            if (results.size() == limit) {
+                break;
+            }
+            results.add(task);
+        }
+        return results;
+    }
+
+    private Set<Long> tasksWithPrefix(String prefix) {
+        Set<Long> taskIDs = new HashSet<>();
+        for (Set<Long> wordTaskIDs : tasksByWord.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            taskIDs.addAll(wordTaskIDs);
+        }
+        return taskIDs;
+    }
+
+    private static boolean matchesAll(List<String> words, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> words(Task task) {
+        Set<String> words = new HashSet<>(split(task.name()));
+        words.addAll(split(task.description()));
+        return words;
+    }
+
+    /**
+     * Function to split text into lower case words with any accents removed, e.g. "Grocery list" into "grocery"
+     * and "list"
+     */
+    static List<String> split(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        String normalised = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT);
+        for (String word : normalised.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
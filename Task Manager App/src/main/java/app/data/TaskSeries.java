@@ -0,0 +1,103 @@
+package app.data;
+
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of a recurring task: the fields every occurrence starts with, the rule saying when the
+ * occurrences fall, and the exceptions to it. Only the exceptions are stored per occurrence, so a series which
+ * has run for years takes as much space as one created today, plus one row per occurrence the user changed.
+ * @param seriesID Unique ID of the series
+ * @param userID Unique ID of the user the series belongs to
+ * @param name Name each occurrence starts with
+ * @param description Description each occurrence starts with, which may be null
+ * @param priority Priority each occurrence starts with, or null for none
+ * @param rule When the occurrences fall
+ * @param overrides Occurrences the user has changed, by their date in the series
+ * @param skipped Dates of occurrences the user has deleted
+ */
+public record TaskSeries(long seriesID, long userID, String name, String description, TaskPriority priority,
+                         RecurrenceRule rule, Map<LocalDate, Occurrence> overrides, Set<LocalDate> skipped) {
+
+    public TaskSeries {
+        overrides = Map.copyOf(overrides);
+        skipped = Set.copyOf(skipped);
+    }
+
+    public TaskSeries withSeriesID(long newSeriesID) {
+        return new TaskSeries(newSeriesID, userID, name, description, priority, rule, overrides, skipped);
+    }
+
+    /**
+     * Function to return a copy of this series with one occurrence changed
+     * @param occurrence Occurrence of this series as it should be from now on
+     */
+    public TaskSeries withOverride(Occurrence occurrence) {
+        Map<LocalDate, Occurrence> newOverrides = new HashMap<>(overrides);
+        newOverrides.put(occurrence.date(), occurrence);
+        Set<LocalDate> newSkipped = new HashSet<>(skipped);
+        newSkipped.remove(occurrence.date());
+        return new TaskSeries(seriesID, userID, name, description, priority, rule, newOverrides, newSkipped);
+    }
+
+    /**
+     * Function to return a copy of this series without one occurrence
+     * @param date Date of the occurrence in the series
+     */
+    public TaskSeries withSkipped(LocalDate date) {
+        Map<LocalDate, Occurrence> newOverrides = new HashMap<>(overrides);
+        newOverrides.remove(date);
+        Set<LocalDate> newSkipped = new HashSet<>(skipped);
+        newSkipped.add(date);
+        return new TaskSeries(seriesID, userID, name, description, priority, rule, newOverrides, newSkipped);
+    }
+
+    /**
+     * Function to find one occurrence of the series
+     * @param date Date of the occurrence in the series
+     * @return The occurrence, or null if the series has none on that date or it has been deleted
+     */
+    public Occurrence occurrence(LocalDate date) {
+        if (skipped.contains(date) || !rule.occursOn(date)) {
+            return null;
+        }
+        Occurrence override = overrides.get(date);
+        return override != null ? override : generate(date);
+    }
+
+    /**
+     * Function to work out the occurrences shown in a window of dates, without creating any others. An
+     * occurrence moved into the window from outside it is included, and one moved out of it is not.
+     * @param from First date of the window
+     * @param to Last date of the window
+     * @return Occurrences whose day falls in the window, in order of day
+     */
+    public List<Occurrence> occurrencesBetween(LocalDate from, LocalDate to) {
+        List<Occurrence> occurrences = new ArrayList<>();
+        for (LocalDate date : rule.datesBetween(from, to)) {
+            if (!skipped.contains(date) && !overrides.containsKey(date)) {
+                occurrences.add(generate(date));
+            }
+        }
+        for (Occurrence override : overrides.values()) {
+            if (!override.day().isBefore(from) && !override.day().isAfter(to)) {
+                occurrences.add(override);
+            }
+        }
+        occurrences.sort(Comparator.comparing(Occurrence::day));
+        return occurrences;
+    }
+
+    private Occurrence generate(LocalDate date) {
+        return new Occurrence(seriesID, date, name, description, date, priority, TaskStatus.TODO);
+    }
+}
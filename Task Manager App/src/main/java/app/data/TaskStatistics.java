@@ -0,0 +1,272 @@
+package app.data;
+
+import app.database.Repositories;
+import app.database.StatisticsDimension;
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableMap;
+
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Counts of the logged-in user's tasks by status and priority, and of their open tasks by due date, for the
+ * dashboard. The counts are read from the task_stats table on login, which the database keeps up to date with
+ * triggers, and are then kept up to date in memory from the model's changes, so the dashboard never has to count
+ * the tasks themselves.
+ * <p>
+ * The counts are published as JavaFX properties, which must only change on the JavaFX thread. Changes arrive on
+ * whichever thread changed the model, so they are applied to plain counters straight away and copied to the
+ * properties later, in a single Platform.runLater for however many changes were made in the meantime.
+ */
+public class TaskStatistics implements TaskChangeListener {
+    private final AppModel model;
+
+    /**
+     * Counts changed by the model, guarded by this object's lock
+     */
+    private final Map<TaskStatus, Long> statusCounts = new EnumMap<>(TaskStatus.class);
+    private final Map<TaskPriority, Long> priorityCounts = new EnumMap<>(TaskPriority.class);
+    private long noPriorityCount = 0;
+    private final Map<LocalDate, Long> dueDateCounts = new TreeMap<>();
+
+    /**
+     * Due dates whose count has changed since the properties were last updated
+     */
+    private final Set<LocalDate> changedDueDates = new HashSet<>();
+    private boolean publishPending = false;
+
+    /**
+     * Runs the copy of the counters into the properties. Platform.runLater, unless replaced with setPublisher.
+     */
+    private Executor publisher = Platform::runLater;
+
+    private final Map<TaskStatus, ReadOnlyLongWrapper> statusProperties = new EnumMap<>(TaskStatus.class);
+    private final Map<TaskPriority, ReadOnlyLongWrapper> priorityProperties = new EnumMap<>(TaskPriority.class);
+    private final ReadOnlyLongWrapper noPriorityProperty = new ReadOnlyLongWrapper(this, "noPriority");
+    private final ReadOnlyLongWrapper totalProperty = new ReadOnlyLongWrapper(this, "total");
+    private final ObservableMap<LocalDate, Long> dueDateHistogram = FXCollections.observableMap(new TreeMap<>());
+
+    TaskStatistics(AppModel model) {
+        this.model = model;
+        for (TaskStatus status : TaskStatus.values()) {
+            statusProperties.put(status, new ReadOnlyLongWrapper(this, status.name()));
+        }
+        for (TaskPriority priority : TaskPriority.values()) {
+            priorityProperties.put(priority, new ReadOnlyLongWrapper(this, priority.name()));
+        }
+    }
+
+    /**
+     * @return Number of the logged-in user's tasks with a status. Only changes on the JavaFX thread.
+     */
+    public ReadOnlyLongProperty statusCountProperty(TaskStatus status) {
+        return statusProperties.get(status).getReadOnlyProperty();
+    }
+
+    /**
+     * @return Number of the logged-in user's tasks with a priority. Only changes on the JavaFX thread.
+     */
+    public ReadOnlyLongProperty priorityCountProperty(TaskPriority priority) {
+        return priorityProperties.get(priority).getReadOnlyProperty();
+    }
+
+    /**
+     * @return Number of the logged-in user's tasks without a priority. Only changes on the JavaFX thread.
+     */
+    public ReadOnlyLongProperty noPriorityCountProperty() {
+        return noPriorityProperty.getReadOnlyProperty();
+    }
+
+    /**
+     * @return Number of tasks the logged-in user has. Only changes on the JavaFX thread.
+     */
+    public ReadOnlyLongProperty totalCountProperty() {
+        return totalProperty.getReadOnlyProperty();
+    }
+
+    /**
+     * @return Number of the logged-in user's open (not completed) tasks due on each day, for days with at least
+     * one. Read-only, ordered by date, and only changes on the JavaFX thread.
+     */
+    public ObservableMap<LocalDate, Long> getDueDateHistogram() {
+        return FXCollections.unmodifiableObservableMap(dueDateHistogram);
+    }
+
+    /**
+     * Function to read the current count of tasks with a status, from any thread
+     */
+    public synchronized long getStatusCount(TaskStatus status) {
+        return statusCounts.getOrDefault(status, 0L);
+    }
+
+    /**
+     * Function to read the current count of tasks with a priority, from any thread
+     */
+    public synchronized long getPriorityCount(TaskPriority priority) {
+        return priorityCounts.getOrDefault(priority, 0L);
+    }
+
+    /**
+     * Function to read the current count of open tasks due on a day, from any thread
+     */
+    public synchronized long getDueDateCount(LocalDate dueDate) {
+        return dueDateCounts.getOrDefault(dueDate, 0L);
+    }
+
+    /**
+     * Reads a user's counts from the database and starts following the model's changes. Called by AppModel
+     * once a user's tasks have been loaded, while it holds its write lock.
+     * @param userID Unique ID of the user who has logged in
+     */
+    void start(long userID) {
+        Map<StatisticsDimension, Map<Long, Long>> statistics = Repositories.get().getTaskStatistics(userID);
+        synchronized (this) {
+            clearCounts();
+            for (Map.Entry<Long, Long> bucket : statistics.get(StatisticsDimension.STATUS).entrySet()) {
+                statusCounts.put(TaskStatus.fromCode(bucket.getKey().intValue()), bucket.getValue());
+            }
+            for (Map.Entry<Long, Long> bucket : statistics.get(StatisticsDimension.PRIORITY).entrySet()) {
+                if (bucket.getKey() == StatisticsDimension.NO_PRIORITY) {
+                    noPriorityCount = bucket.getValue();
+                } else {
+                    priorityCounts.put(TaskPriority.fromCode(bucket.getKey().intValue()), bucket.getValue());
+                }
+            }
+            for (Map.Entry<Long, Long> bucket : statistics.get(StatisticsDimension.DUE_DAY).entrySet()) {
+                LocalDate dueDate = LocalDate.ofEpochDay(bucket.getKey());
+                dueDateCounts.put(dueDate, bucket.getValue());
+                changedDueDates.add(dueDate);
+            }
+            schedulePublish();
+        }
+        // A new login calls this again without stop(), so make sure the listener is only registered once
+        model.removeListener(this);
+        model.addListener(this);
+    }
+
+    /**
+     * Sets every count to zero, e.g. on logout. Called by AppModel when it is cleared.
+     */
+    void stop() {
+        model.removeListener(this);
+        synchronized (this) {
+            clearCounts();
+            schedulePublish();
+        }
+    }
+
+    @Override
+    public synchronized void taskAdded(Task task) {
+        count(task, 1);
+        schedulePublish();
+    }
+
+    @Override
+    public synchronized void taskUpdated(Task oldTask, Task newTask) {
+        count(oldTask, -1);
+        count(newTask, 1);
+        schedulePublish();
+    }
+
+    @Override
+    public synchronized void taskRemoved(Task task) {
+        count(task, -1);
+        schedulePublish();
+    }
+
+    /**
+     * Adds a task to, or takes it away from, the count of each of its buckets, following the same rules as the
+     * task_stats triggers. Must be called while holding this object's lock.
+     */
+    private void count(Task task, long change) {
+        statusCounts.merge(task.status(), change, Long::sum);
+        if (task.priority() == null) {
+            noPriorityCount += change;
+        } else {
+            priorityCounts.merge(task.priority(), change, Long::sum);
+        }
+        if (task.dueDate() != null && task.status() != TaskStatus.COMPLETED) {
+            dueDateCounts.merge(task.dueDate(), change, Long::sum);
+            if (dueDateCounts.get(task.dueDate()) <= 0) {
+                dueDateCounts.remove(task.dueDate());
+            }
+            changedDueDates.add(task.dueDate());
+        }
+    }
+
+    private void clearCounts() {
+        statusCounts.clear();
+        priorityCounts.clear();
+        noPriorityCount = 0;
+        changedDueDates.addAll(dueDateCounts.keySet());
+        dueDateCounts.clear();
+    }
+
+    /**
+     * Arranges for the counters to be copied to the properties, unless that is already arranged. Must be called
+     * while holding this object's lock.
+     */
+    private void schedulePublish() {
+        if (!publishPending) {
+            publishPending = true;
+            publisher.execute(this::publish);
+        }
+    }
+
+    /**
+     * Copies the counters to the properties. Runs on the JavaFX thread.
+     */
+    private void publish() {
+        Map<TaskStatus, Long> statuses;
+        Map<TaskPriority, Long> priorities;
+        long noPriority;
+        Map<LocalDate, Long> dueDates = new TreeMap<>();
+        synchronized (this) {
+            publishPending = false;
+            statuses = new EnumMap<>(statusCounts);
+            priorities = new EnumMap<>(priorityCounts);
+            noPriority = noPriorityCount;
+            for (LocalDate dueDate : changedDueDates) {
+                dueDates.put(dueDate, dueDateCounts.get(dueDate));
+            }
+            changedDueDates.clear();
+        }
+
+        long total = 0;
+        for (TaskStatus status : TaskStatus.values()) {
+            long count = statuses.getOrDefault(status, 0L);
+            statusProperties.get(status).set(count);
+            total += count;
+        }
+        for (TaskPriority priority : TaskPriority.values()) {
+            priorityProperties.get(priority).set(priorities.getOrDefault(priority, 0L));
+        }
+        noPriorityProperty.set(noPriority);
+        totalProperty.set(total);
+        for (Map.Entry<LocalDate, Long> dueDate : dueDates.entrySet()) {
+            if (dueDate.getValue() == null) {
+                dueDateHistogram.remove(dueDate.getKey());
+            } else {
+                dueDateHistogram.put(dueDate.getKey(), dueDate.getValue());
+            }
+        }
+    }
+
+    /**
+     * Replaces Platform.runLater for copying the counters to the properties, e.g. with Runnable::run when the
+     * application runs without a JavaFX toolkit
+     */
+    public synchronized void setPublisher(Executor publisher) {
+        this.publisher = publisher;
+    }
+}
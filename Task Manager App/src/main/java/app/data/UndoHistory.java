@@ -0,0 +1,290 @@
+package app.data;
+
+import app.database.TaskField;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Record of the changes the user has made since logging in, so that AppModel can undo and redo them.
+ * Rather than copies of whole tasks, each step holds a compact log of what changed:
+ * <ul>
+ *     <li>for a field change, the task ID, the field, and its values before and after,</li>
+ *     <li>for a task created, deleted or restored, just the task ID. Deleted tasks are kept in tasks_archive,
+ *     so undoing a delete (or the creation of a task) moves the task back or forth rather than recreating it.</li>
+ * </ul>
+ * Task IDs and operations are kept in primitive arrays. Names, descriptions and due dates are interned, so that a
+ * value which appears in many steps, such as the same description set on a hundred tasks, is stored once.
+ * Enum values are shared anyway.
+ * <p>
+ * Steps are kept in a ring buffer of taskmanager.undo.depth steps (default 100), and the oldest steps are also
+ * dropped once the history holds more than taskmanager.undo.maxOperations operations (default 100000), so a user
+ * doing bulk edits can't fill the heap. Every change recorded between beginStep() and endStep() forms one step,
+ * which is how a bulk operation is undone as a whole; a change recorded outside them is a step of its own.
+ * Recording anything new discards whatever could have been redone.
+ * Not thread-safe: AppModel only uses it while holding its write lock. canUndo and canRedo can be read from any
+ * thread.
+ */
+final class UndoHistory {
+    private static final int DEPTH = Math.max(1, Integer.getInteger("taskmanager.undo.depth", 100));
+    private static final int MAX_OPERATIONS = Integer.getInteger("taskmanager.undo.maxOperations", 100_000);
+
+    /**
+     * Operations other than field changes, which are stored as the field's ordinal
+     */
+    static final byte CREATE = -1;
+    static final byte DELETE = -2;
+    static final byte RESTORE = -3;
+
+    /**
+     * One undoable step: operations in the order they were made
+     */
+    static final class Step {
+        private long[] taskIDs = new long[4];
+        private byte[] operations = new byte[4];
+        /**
+         * Value before and after each operation, at 2i and 2i + 1. Null for operations which aren't field changes.
+         */
+        private Object[] values = new Object[8];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        long taskID(int i) {
+            return taskIDs[i];
+        }
+
+        /**
+         * @return CREATE, DELETE or RESTORE, or the ordinal of the field changed
+         */
+        byte operation(int i) {
+            return operations[i];
+        }
+
+        TaskField field(int i) {
+            return TaskField.values()[operations[i]];
+        }
+
+        Object oldValue(int i) {
+            return values[2 * i];
+        }
+
+        Object newValue(int i) {
+            return values[2 * i + 1];
+        }
+
+        private void add(long taskID, byte operation, Object oldValue, Object newValue) {
+            if (size == taskIDs.length) {
+                taskIDs = Arrays.copyOf(taskIDs, size * 2);
+                operations = Arrays.copyOf(operations, size * 2);
+                values = Arrays.copyOf(values, size * 4);
+            }
+            taskIDs[size] = taskID;
+            operations[size] = operation;
+            values[2 * size] = oldValue;
+            values[2 * size + 1] = newValue;
+            size++;
+        }
+    }
+
+    /**
+     * Undoable steps, oldest first, followed by steps which can be redone, most recently undone first
+     */
+    private final Step[] steps = new Step[DEPTH];
+    private int first = 0;
+    private volatile int undoCount = 0;
+    private volatile int redoCount = 0;
+    private int operationCount = 0;
+
+    /**
+     * Interned names, descriptions and due dates, with the number of operations holding each
+     */
+    private final Map<Object, Entry> interned = new HashMap<>();
+
+    private static final class Entry {
+        private final Object value;
+        private int references = 0;
+
+        private Entry(Object value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Step being recorded between beginStep and endStep, and how deeply those calls are nested
+     */
+    private Step open;
+    private int depth = 0;
+
+    /**
+     * Number of callers which have asked for changes not to be recorded, e.g. while a step is being undone
+     */
+    private int suspended = 0;
+
+    boolean canUndo() {
+        return undoCount > 0;
+    }
+
+    boolean canRedo() {
+        return redoCount > 0;
+    }
+
+    /**
+     * Starts a step which every change recorded until the matching endStep() belongs to. Calls can be nested,
+     * in which case the outermost pair forms the step.
+     */
+    void beginStep() {
+        if (depth++ == 0) {
+            open = new Step();
+        }
+    }
+
+    void endStep() {
+        if (--depth > 0) {
+            return;
+        }
+        Step step = open;
+        open = null;
+        if (step.size > 0) {
+            push(step);
+        }
+    }
+
+    void suspend() {
+        suspended++;
+    }
+
+    void resume() {
+        suspended--;
+    }
+
+    void recordChange(long taskID, TaskField field, Object oldValue, Object newValue) {
+        record(taskID, (byte) field.ordinal(), oldValue, newValue);
+    }
+
+    void recordCreate(long taskID) {
+        record(taskID, CREATE, null, null);
+    }
+
+    void recordDelete(long taskID) {
+        record(taskID, DELETE, null, null);
+    }
+
+    void recordRestore(long taskID) {
+        record(taskID, RESTORE, null, null);
+    }
+
+    /**
+     * @return The step undo() would undo, or null if there is none
+     */
+    Step peekUndo() {
+        return undoCount == 0 ? null : steps[index(undoCount - 1)];
+    }
+
+    /**
+     * @return The step redo() would redo, or null if there is none
+     */
+    Step peekRedo() {
+        return redoCount == 0 ? null : steps[index(undoCount)];
+    }
+
+    /**
+     * Moves the last undoable step over to the steps which can be redone, once it has been undone
+     */
+    void undone() {
+        undoCount--;
+        redoCount++;
+    }
+
+    /**
+     * Moves the next step to redo back to the undoable steps, once it has been redone
+     */
+    void redone() {
+        redoCount--;
+        undoCount++;
+    }
+
+    /**
+     * Forgets every step, e.g. when the user logs out
+     */
+    void clear() {
+        Arrays.fill(steps, null);
+        interned.clear();
+        first = 0;
+        undoCount = 0;
+        redoCount = 0;
+        operationCount = 0;
+        open = null;
+        depth = 0;
+    }
+
+    private void record(long taskID, byte operation, Object oldValue, Object newValue) {
+        if (suspended > 0) {
+            return;
+        }
+        boolean ownStep = depth == 0;
+        if (ownStep) {
+            beginStep();
+        }
+        open.add(taskID, operation, intern(oldValue), intern(newValue));
+        if (ownStep) {
+            endStep();
+        }
+    }
+
+    private void push(Step step) {
+        // Whatever could have been redone no longer follows from the current state
+        for (int i = undoCount; i < undoCount + redoCount; i++) {
+            release(steps[index(i)]);
+            steps[index(i)] = null;
+        }
+        redoCount = 0;
+
+        if (undoCount == DEPTH) {
+            dropOldest();
+        }
+        steps[index(undoCount)] = step;
+        undoCount++;
+        operationCount += step.size;
+        while (operationCount > MAX_OPERATIONS && undoCount > 1) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        release(steps[first]);
+        steps[first] = null;
+        first = (first + 1) % DEPTH;
+        undoCount--;
+    }
+
+    private void release(Step step) {
+        operationCount -= step.size;
+        for (int i = 0; i < 2 * step.size; i++) {
+            Object value = step.values[i];
+            if (value instanceof String || value instanceof LocalDate) {
+                Entry entry = interned.get(value);
+                if (entry != null && --entry.references == 0) {
+                    interned.remove(value);
+                }
+            }
+        }
+    }
+
+    private Object intern(Object value) {
+        if (!(value instanceof String || value instanceof LocalDate)) {
+            return value;
+        }
+        Entry entry = interned.computeIfAbsent(value, Entry::new);
+        entry.references++;
+        return entry.value;
+    }
+
+    private int index(int offset) {
+        return (first + offset) % DEPTH;
+    }
+}
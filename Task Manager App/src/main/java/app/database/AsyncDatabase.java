@@ -0,0 +1,145 @@
+package app.database;
+
+import app.metrics.Counter;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous front for Database. Database calls block on disk I/O (and, for logins, on BCrypt), so running
+ * them on the JavaFX Application Thread freezes the window. Every method here runs the matching Database call
+ * on a small pool of background threads and returns a CompletableFuture for its result.
+ * Controllers should handle the result back on the JavaFX thread, e.g. with whenCompleteAsync(..., Platform::runLater).
+ */
+public class AsyncDatabase {
+    private static final Logger logger = Logger.getLogger(AsyncDatabase.class.getName());
+
+    /**
+     * Time work waits in the queue before a thread picks it up, and how often the queue was full
+     */
+    private static final Timer queueWaitTimer = Metrics.timer("async.queueWait");
+    private static final Counter rejected = Metrics.counter("async.rejected");
+
+    /**
+     * Number of background threads which run database calls
+     */
+    private static final int workerCount = Integer.getInteger("taskmanager.db.workers", 4);
+
+    /**
+     * Maximum number of calls waiting for a free thread. Further calls fail straight away rather than queueing
+     * up behind work the user is no longer waiting for.
+     */
+    private static final int queueCapacity = Integer.getInteger("taskmanager.db.queue", 256);
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    /**
+     * Work submitted while this is incomplete waits for it before being queued, see runAfter
+     */
+    private static volatile CompletableFuture<?> prerequisite = CompletableFuture.completedFuture(null);
+
+    private static ThreadPoolExecutor createExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "database-worker-" + threadNumber.incrementAndGet());
+                    // Don't keep the JVM alive once the window has been closed
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs any piece of database work on a background thread
+     * @param work Work to run, which may throw
+     * @return Future completed with the work's result, or exceptionally if it threw or could not be queued
+     */
+    public static <T> CompletableFuture<T> submit(Callable<T> work) {
+        CompletableFuture<?> waitFor = prerequisite;
+        if (!waitFor.isDone()) {
+            // Queue the work once the prerequisite has finished, whether or not it succeeded
+            return waitFor.handle((result, error) -> null).thenCompose(ignored -> submit(work));
+        }
+        long queued = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                queueWaitTimer.record(queued);
+                try {
+                    return work.call();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Method to hold back work submitted from now on until a future completes, e.g. so that logging in doesn't
+     * touch the database before startup has finished preparing it
+     * @param ready Future which work should wait for
+     */
+    public static void runAfter(CompletableFuture<?> ready) {
+        prerequisite = ready;
+    }
+
+    /**
+     * Runs database work which has no result on a background thread
+     * @param work Work to run
+     * @return Future completed once the work has finished
+     */
+    public static CompletableFuture<Void> run(Runnable work) {
+        return submit(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous version of Database.authenticateUser
+     */
+    public static CompletableFuture<Boolean> authenticateUser(String username, String password) {
+        return submit(() -> Database.authenticateUser(username, password));
+    }
+
+    /**
+     * Asynchronous version of TaskRepository.insertUser
+     */
+    public static CompletableFuture<Boolean> insertUser(String username, String email, String password) {
+        return submit(() -> Repositories.get().insertUser(username, email, password));
+    }
+
+    /**
+     * Asynchronous version of TaskRepository.userExists
+     */
+    public static CompletableFuture<Boolean> userExists(String username) {
+        return submit(() -> Repositories.get().userExists(username));
+    }
+
+    /**
+     * Stops accepting new work and waits a short time for work already queued (such as unsaved edits) to finish
+     */
+    public static void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warning("event=async_shutdown_abandoned queued=" + executor.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
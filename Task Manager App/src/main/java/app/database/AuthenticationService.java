@@ -0,0 +1,276 @@
+package app.database;
+
+import app.metrics.Counter;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Class to hash and check user passwords. On top of plain BCrypt checks it:
+ * <ul>
+ *     <li>picks the BCrypt cost at startup, so that a hash takes about the same time on any machine,</li>
+ *     <li>rehashes a user's password on login if it was stored with a lower cost than the current one,</li>
+ *     <li>still runs a BCrypt check for unknown usernames, so a failed login takes as long whether or not the
+ *     user exists,</li>
+ *     <li>remembers recently verified credentials for a short time, so logging in again during a session doesn't
+ *     cost another BCrypt round.</li>
+ * </ul>
+ */
+public class AuthenticationService {
+    private static final Logger logger = Logger.getLogger(AuthenticationService.class.getName());
+
+    /**
+     * Time spent in BCrypt, which makes up nearly all of the time a login or new account takes
+     */
+    private static final Timer hashTimer = Metrics.timer("auth.bcrypt.hash");
+    private static final Timer checkTimer = Metrics.timer("auth.bcrypt.check");
+    private static final Counter failedLogins = Metrics.counter("auth.failedLogins");
+    private static final Counter cachedLogins = Metrics.counter("auth.cachedLogins");
+    /**
+     * A logged-in user, identified by a random token
+     * @param token Random token identifying the session
+     * @param userID Unique ID of the logged-in user
+     * @param username Username of the logged-in user
+     * @param expiresAt When the session stops being valid
+     */
+    public record Session(String token, long userID, String username, Instant expiresAt) {
+        public boolean isExpired() {
+            return Instant.now().isAfter(expiresAt);
+        }
+    }
+
+    /**
+     * Lowest and highest BCrypt cost calibration can choose. The lowest is the cost the application has always
+     * used, so that calibrating on slow hardware never weakens new hashes.
+     */
+    private static final int MIN_COST = 12;
+    private static final int MAX_COST = 16;
+
+    /**
+     * How long a hash should take on this machine. The cost is chosen to come as close to this as possible
+     * without going under it.
+     */
+    private static final long targetHashMillis = Long.getLong("taskmanager.auth.targetMillis", 250L);
+
+    /**
+     * How long sessions, and remembered credentials, stay valid
+     */
+    private static final Duration sessionLifetime =
+            Duration.ofMinutes(Long.getLong("taskmanager.auth.sessionMinutes", 15L));
+
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Random value mixed into the keys of remembered credentials, so that the keys can't be checked against
+     * guessed passwords without it. Never leaves this process.
+     */
+    private static final byte[] credentialKeySecret = randomBytes(32);
+
+    /**
+     * BCrypt cost used for new hashes. Starts at the cost the application always used, until calibrate() runs.
+     */
+    private static volatile int cost = MIN_COST;
+
+    /**
+     * Hash of a random password at the current cost, checked against for usernames which don't exist
+     */
+    private static volatile String dummyHash;
+
+    private static final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Recently verified credentials, keyed by a digest of the username and password
+     */
+    private static final Map<String, Session> verifiedCredentials = new ConcurrentHashMap<>();
+
+    /**
+     * Measures how long BCrypt takes on this machine and picks the cost used for new hashes. Each extra point of
+     * cost doubles the time a hash takes. Takes a few hundred milliseconds, so it should run in the background.
+     */
+    public static void calibrate() {
+        // The first hash also pays for class loading and JIT compilation, so it isn't timed
+        BCrypt.hashpw("calibration", BCrypt.gensalt(MIN_COST));
+
+        long start = System.nanoTime();
+        BCrypt.hashpw("calibration", BCrypt.gensalt(MIN_COST));
+        double minCostMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000.0);
+
+        int calibrated = MIN_COST + (int) Math.ceil(Math.log(targetHashMillis / minCostMillis) / Math.log(2));
+        cost = Math.max(MIN_COST, Math.min(MAX_COST, calibrated));
+        dummyHash = BCrypt.hashpw(randomToken(), BCrypt.gensalt(cost));
+        logger.info("event=bcrypt_calibrated cost=" + cost + " min_cost_ms=" + minCostMillis);
+    }
+
+    /**
+     * @return BCrypt cost currently used for new hashes
+     */
+    public static int getCost() {
+        return cost;
+    }
+
+    /**
+     * Function to hash a password with the current cost
+     * @param password Plain text password
+     * @return BCrypt hash of the password
+     */
+    public static String hashPassword(String password) {
+        long start = System.nanoTime();
+        String hash = BCrypt.hashpw(password, BCrypt.gensalt(cost));
+        hashTimer.record(start);
+        return hash;
+    }
+
+    /**
+     * Function to check a user's login details
+     * @param username Entered username
+     * @param password Entered password
+     * @return A new session for the user, or null if the details are incorrect
+     */
+    public static Session authenticate(String username, String password) {
+        String credentialKey = credentialKey(username, password);
+        Session verified = verifiedCredentials.get(credentialKey);
+        if (verified != null && !verified.isExpired()) {
+            // Remembered credentials keep the expiry of the login which verified them
+            cachedLogins.increment();
+            return startSession(verified.userID(), username, null);
+        }
+        verifiedCredentials.remove(credentialKey);
+
+        Database.Credentials credentials = Database.getCredentials(username);
+        if (credentials == null) {
+            // Do the same amount of work as for a real user, so the response time doesn't reveal who exists
+            checkPassword(password, dummyHash());
+            failedLogins.increment();
+            logger.fine("event=login_failed reason=unknown_user");
+            return null;
+        }
+        if (!checkPassword(password, credentials.passwordHash())) {
+            failedLogins.increment();
+            logger.fine(() -> "event=login_failed reason=wrong_password user_id=" + credentials.userID());
+            return null;
+        }
+
+        if (costOf(credentials.passwordHash()) < cost) {
+            // The hash was made on slower hardware or before calibration, so strengthen it while we know the password
+            Database.updatePasswordHash(credentials.userID(), hashPassword(password));
+        }
+        logger.fine(() -> "event=login user_id=" + credentials.userID());
+        return startSession(credentials.userID(), username, credentialKey);
+    }
+
+    /**
+     * Function to look up a session by its token
+     * @param token Token of the session
+     * @return The session, or null if there is no such session or it has expired
+     */
+    public static Session resumeSession(String token) {
+        Session session = sessions.get(token);
+        if (session == null || session.isExpired()) {
+            sessions.remove(token);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Ends a session, e.g. on logout
+     * @param token Token of the session
+     */
+    public static void endSession(String token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * Ends every session of a user and forgets their remembered credentials, e.g. when the user is deleted
+     * @param userID Unique ID of the user
+     */
+    static void endSessions(long userID) {
+        sessions.values().removeIf(session -> session.userID() == userID);
+        verifiedCredentials.values().removeIf(session -> session.userID() == userID);
+    }
+
+    private static Session startSession(long userID, String username, String credentialKey) {
+        Session session = new Session(randomToken(), userID, username, Instant.now().plus(sessionLifetime));
+        sessions.put(session.token(), session);
+        if (credentialKey != null) {
+            verifiedCredentials.put(credentialKey, session);
+        }
+        // Drop anything which has expired, so neither map grows without bound
+        sessions.values().removeIf(Session::isExpired);
+        verifiedCredentials.values().removeIf(Session::isExpired);
+        return session;
+    }
+
+    /**
+     * Checks a password against a stored hash, treating a malformed hash as a mismatch
+     */
+    private static boolean checkPassword(String password, String hash) {
+        long start = System.nanoTime();
+        try {
+            return BCrypt.checkpw(password, hash);
+        } catch (IllegalArgumentException e) {
+            return false;
+        } finally {
+            checkTimer.record(start);
+        }
+    }
+
+    /**
+     * Function to read the cost out of a BCrypt hash, which has the form $2a$12$...
+     * @return The hash's cost, or 0 if it can't be read
+     */
+    private static int costOf(String hash) {
+        try {
+            return Integer.parseInt(hash.substring(4, 6));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static String dummyHash() {
+        String hash = dummyHash;
+        if (hash == null) {
+            hash = BCrypt.hashpw(randomToken(), BCrypt.gensalt(cost));
+            dummyHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Function to build the key under which verified credentials are remembered. The password itself is never
+     * stored, only a SHA-256 digest of it combined with a secret random value.
+     */
+    private static String credentialKey(String username, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(credentialKeySecret);
+            digest.update(username.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(password.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String randomToken() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes(32));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,330 @@
+package app.database;
+
+import app.metrics.Metrics;
+import app.metrics.Timer;
+import org.sqlite.SQLiteConfig;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class to keep a fixed set of long-lived connections to the database open, so that each call in Database
+ * no longer pays for opening the file and setting up the driver. SQLite only allows one writer at a time,
+ * so there is exactly one writer connection, alongside a configurable number of read-only connections.
+ */
+class ConnectionPool {
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+    /**
+     * Time callers spend waiting for a connection, including opening or health checking it. Time spent waiting
+     * for the writer shows how much writes are held up behind each other.
+     */
+    private static final Timer writerWaitTimer = Metrics.timer("pool.writerWait");
+    private static final Timer readerWaitTimer = Metrics.timer("pool.readerWait");
+
+    /**
+     * Number of seconds a connection is given to answer a health check before it is replaced
+     */
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /**
+     * Connections which have been idle for longer than this are health checked before being handed out.
+     * Checking on every borrow would cost as much as the statements being run.
+     */
+    private static final long VALIDATION_IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final String url;
+    private final int readerCount;
+    private final long acquireTimeoutMillis;
+    private final StorageProfile profile;
+    private final int statementCacheSize;
+
+    /**
+     * Idle connections waiting to be handed out. The writer queue only ever holds a single connection, so
+     * taking from it also acts as the lock which keeps writes to one thread at a time.
+     */
+    private final BlockingQueue<PooledConnection> writer = new ArrayBlockingQueue<>(1);
+    private final BlockingQueue<PooledConnection> readers;
+
+    /**
+     * Number of reader connections opened so far. Readers are only opened when they are first needed.
+     */
+    private final AtomicInteger readersOpened = new AtomicInteger();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the pool and opens the writer connection, which also creates the database file if needed.
+     * @param url JDBC URL of the database
+     * @param readerCount Maximum number of read-only connections to keep open
+     * @param acquireTimeoutMillis How long a caller waits for a free connection before giving up
+     * @param profile Pragmas applied to every connection
+     * @param statementCacheSize Number of prepared statements each connection keeps open
+     */
+    ConnectionPool(String url, int readerCount, long acquireTimeoutMillis, StorageProfile profile,
+                   int statementCacheSize) throws SQLException {
+        this.url = url;
+        this.readerCount = Math.max(1, readerCount);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.profile = profile;
+        this.statementCacheSize = statementCacheSize;
+        this.readers = new ArrayBlockingQueue<>(this.readerCount);
+        writer.add(open(false));
+    }
+
+    /**
+     * Borrows the writer connection, waiting until whoever holds it closes it.
+     * @return Connection which is handed back to the pool when closed
+     */
+    Connection acquireWriter() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection conn = wrap(take(writer, false), writer);
+            writerWaitTimer.record(start);
+            return conn;
+        } catch (SQLException e) {
+            writerWaitTimer.recordError(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows the writer connection with its statement cache emptied, for statements such as VACUUM which
+     * SQLite won't run while other statements on the connection are open.
+     * @return Connection which is handed back to the pool when closed
+     */
+    Connection acquireWriterForMaintenance() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            PooledConnection pooled = take(writer, false);
+            pooled.statements.clear();
+            Connection conn = wrap(pooled, writer);
+            writerWaitTimer.record(start);
+            return conn;
+        } catch (SQLException e) {
+            writerWaitTimer.recordError(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows a read-only connection, opening a new one if the pool has not reached its size yet.
+     * @return Connection which is handed back to the pool when closed
+     */
+    Connection acquireReader() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection conn = borrowReader();
+            readerWaitTimer.record(start);
+            return conn;
+        } catch (SQLException e) {
+            readerWaitTimer.recordError(start);
+            throw e;
+        }
+    }
+
+    private Connection borrowReader() throws SQLException {
+        PooledConnection conn = readers.poll();
+        if (conn != null) {
+            return wrap(ensureHealthy(conn, readers, true), readers);
+        }
+
+        // No idle reader, so open another one if there is still room in the pool
+        if (readersOpened.incrementAndGet() <= readerCount) {
+            try {
+                return wrap(open(true), readers);
+            } catch (SQLException e) {
+                readersOpened.decrementAndGet();
+                throw e;
+            }
+        }
+        readersOpened.decrementAndGet();
+        return wrap(take(readers, true), readers);
+    }
+
+    /**
+     * Closes every idle connection. Connections which are currently borrowed are closed as they are returned.
+     */
+    void shutdown() {
+        closed = true;
+        closeQuietly(writer.poll());
+        PooledConnection conn;
+        while ((conn = readers.poll()) != null) {
+            closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Waits for a connection to become free in the given queue
+     */
+    private PooledConnection take(BlockingQueue<PooledConnection> queue, boolean readOnly) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool has been shut down.");
+        }
+        try {
+            PooledConnection conn = queue.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (conn == null) {
+                throw new SQLException("Timed out waiting for a database connection.");
+            }
+            return ensureHealthy(conn, queue, readOnly);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        }
+    }
+
+    /**
+     * Health check run before an idle connection is handed out. Broken connections, and placeholders left for
+     * connections which were discarded, are replaced with new ones. If the new connection can't be opened, a
+     * placeholder goes back in its place, so that the next caller tries again rather than the pool shrinking
+     * for good (which, for the writer, would leave every later write waiting for a connection that never comes).
+     * @param home Queue the connection was taken from
+     */
+    private PooledConnection ensureHealthy(PooledConnection conn, BlockingQueue<PooledConnection> home,
+                                           boolean readOnly) throws SQLException {
+        if (conn.physical != null && (System.nanoTime() - conn.lastReturned < VALIDATION_IDLE_NANOS
+                || conn.physical.isValid(VALIDATION_TIMEOUT_SECONDS))) {
+            return conn;
+        }
+        closeQuietly(conn);
+        try {
+            return open(readOnly);
+        } catch (SQLException | RuntimeException e) {
+            home.offer(PooledConnection.placeholder());
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a new physical connection to the database
+     */
+    private PooledConnection open(boolean readOnly) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(readOnly);
+        profile.applyTo(config, !readOnly);
+        // SQLite leaves foreign keys unchecked unless every connection asks for them, so deleting a user
+        // would otherwise leave their tasks behind
+        config.enforceForeignKeys(true);
+        // Wait for locks held by other processes rather than failing straight away
+        config.setBusyTimeout((int) Math.min(Integer.MAX_VALUE, acquireTimeoutMillis));
+
+        Connection conn = DriverManager.getConnection(url, config.toProperties());
+        if (conn == null) {
+            throw new SQLException("Failed to establish a database connection.");
+        }
+        return new PooledConnection(conn, new StatementCache(conn, statementCacheSize));
+    }
+
+    /**
+     * Hands a connection back to the queue it was borrowed from, leaving it in autocommit mode
+     */
+    private void release(PooledConnection conn, BlockingQueue<PooledConnection> home) {
+        try {
+            if (!conn.physical.getAutoCommit()) {
+                // The borrower left a transaction open, so throw away whatever it did
+                conn.physical.rollback();
+                conn.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // The connection can't be trusted any more, so the next borrower opens a new one in its place
+            logger.log(Level.WARNING, "event=connection_discarded", e);
+            closeQuietly(conn);
+            if (!closed) {
+                home.offer(PooledConnection.placeholder());
+            }
+            return;
+        }
+
+        conn.lastReturned = System.nanoTime();
+        if (closed || !home.offer(conn)) {
+            closeQuietly(conn);
+        }
+    }
+
+    private static void closeQuietly(PooledConnection conn) {
+        if (conn == null || conn.physical == null) {
+            return;
+        }
+        try {
+            conn.physical.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "event=close_connection_failed", e);
+        }
+    }
+
+    /**
+     * Wraps a physical connection so that calling close() on it returns it to the pool instead of closing it.
+     * This keeps the try-with-resources blocks in Database unchanged. Statements prepared from plain SQL text
+     * come from the connection's statement cache.
+     */
+    private Connection wrap(PooledConnection pooled, BlockingQueue<PooledConnection> home) {
+        Connection physical = pooled.physical;
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean released = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!released) {
+                            released = true;
+                            release(pooled, home);
+                        }
+                        return null;
+                    case "isClosed":
+                        return released || physical.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        if (released) {
+                            throw new SQLException("Connection has already been returned to the pool.");
+                        }
+                        if (method.getName().equals("prepareStatement") && args.length == 1) {
+                            return pooled.statements.prepare((String) args[0]);
+                        }
+                        try {
+                            return method.invoke(physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        };
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    /**
+     * A physical connection held by the pool, along with its statement cache and when it was last handed back.
+     * A placeholder has no physical connection: it holds a discarded connection's place in its queue until the
+     * next borrower opens a new one.
+     */
+    private static final class PooledConnection {
+        private final Connection physical;
+        private final StatementCache statements;
+        private long lastReturned = System.nanoTime();
+
+        private PooledConnection(Connection physical, StatementCache statements) {
+            this.physical = physical;
+            this.statements = statements;
+        }
+
+        private static PooledConnection placeholder() {
+            return new PooledConnection(null, null);
+        }
+    }
+}
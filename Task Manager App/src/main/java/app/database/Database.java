@@ -1,59 +1,156 @@
 package app.database;
 
+import app.data.Occurrence;
+import app.data.RecurrenceRule;
+import app.data.Task;
+import app.data.TaskSeries;
+
 import java.sql.*;
-import org.mindrot.jbcrypt.BCrypt;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import app.metrics.Metrics;
+import app.metrics.Timer;
+import org.sqlite.SQLiteErrorCode;
 
 public class Database {
+    private static final Logger logger = Logger.getLogger(Database.class.getName());
+
+    /**
+     * URL which connects to the database containing the user information and user tasks.
+     * Can be overridden with the taskmanager.db.url system property, e.g. to point at a temporary file.
+     */
+    private static final String databaseURL = System.getProperty("taskmanager.db.url", "jdbc:sqlite:taskManager.db");
+
+    /**
+     * Number of read-only connections kept open alongside the single writer connection
+     */
+    private static final int readerPoolSize = Integer.getInteger("taskmanager.db.readers", 4);
+
+    /**
+     * Milliseconds to wait for a free connection (or a lock held by another process) before failing
+     */
+    private static final long connectionTimeout = Long.getLong("taskmanager.db.timeout", 30_000L);
+
+    /**
+     * Number of prepared statements each pooled connection keeps ready to reuse
+     */
+    private static final int statementCacheSize = Integer.getInteger("taskmanager.db.statementCache", 32);
+
     /**
-     * URL which connects to the database containing the user information and user tasks
+     * Latency and failure count of each operation, read over JMX or from the periodic metrics log
      */
-    private static final String databaseURL = "jdbc:sqlite:taskManager.db"; // Database file
+    private static final Timer userExistsTimer = Metrics.timer("db.userExists");
+    private static final Timer insertUserTimer = Metrics.timer("db.insertUser");
+    private static final Timer insertTaskTimer = Metrics.timer("db.insertTask");
+    private static final Timer removeTaskTimer = Metrics.timer("db.removeTask");
+    private static final Timer changeTaskTimer = Metrics.timer("db.changeTask");
+    private static final Timer getCredentialsTimer = Metrics.timer("db.getCredentials");
+    private static final Timer updatePasswordHashTimer = Metrics.timer("db.updatePasswordHash");
+    private static final Timer getUserIDTimer = Metrics.timer("db.getUserID");
+    private static final Timer getTasksPageTimer = Metrics.timer("db.getTasksPage");
+    private static final Timer getTaskStatisticsTimer = Metrics.timer("db.getTaskStatistics");
+    private static final Timer searchTasksTimer = Metrics.timer("db.searchTasks");
+    private static final Timer getTaskSeriesTimer = Metrics.timer("db.getTaskSeries");
+    private static final Timer insertTaskSeriesTimer = Metrics.timer("db.insertTaskSeries");
+    private static final Timer saveOccurrenceTimer = Metrics.timer("db.saveOccurrence");
+    private static final Timer removeTaskSeriesTimer = Metrics.timer("db.removeTaskSeries");
 
     /**
-     * Function to return the connection to the database
+     * Pool of long-lived connections which every method in this class goes through. Created on first use.
+     */
+    private static ConnectionPool pool;
+
+    /**
+     * Function to return the pool, creating it the first time it is needed
+     * @return The shared connection pool
+     */
+    private static synchronized ConnectionPool pool() throws SQLException {
+        if (pool == null) {
+            pool = new ConnectionPool(databaseURL, readerPoolSize, connectionTimeout,
+                    StorageProfile.fromSystemProperty(), statementCacheSize);
+        }
+        return pool;
+    }
+
+    /**
+     * Function to return the connection to the database which is allowed to write. Only one thread can hold it
+     * at a time, so it must be closed (returning it to the pool) as soon as the statement has run.
      * @return Connection to the database. If this is returned, connection to the database was successful
      */
-    public static Connection connect() throws SQLException{
-        Connection conn = DriverManager.getConnection(databaseURL);
+    public static Connection connect() throws SQLException {
+        return pool().acquireWriter();
+    }
+
+    /**
+     * Function to return the writer connection with none of its cached statements open, for maintenance
+     * such as VACUUM. Like connect(), it must be closed as soon as possible.
+     * @return Connection to the database which is allowed to write
+     */
+    static Connection connectForMaintenance() throws SQLException {
+        return pool().acquireWriterForMaintenance();
+    }
+
+    /**
+     * Function to return a read-only connection to the database, for methods which only run queries.
+     * Several of these can be in use at once.
+     * @return Read-only connection to the database
+     */
+    public static Connection connectReadOnly() throws SQLException {
+        return pool().acquireReader();
+    }
 
-        if (conn == null) {
-            throw new SQLException("connect() method failed to establish a database connection.");
+    /**
+     * Function to find the database file named by the database URL
+     * @return Path of the file, or null if the database is held in memory
+     */
+    static String databaseFile() {
+        String path = databaseURL.startsWith("jdbc:sqlite:") ? databaseURL.substring("jdbc:sqlite:".length()) : "";
+        if (path.contains("mode=memory") || path.contains(":memory:")) {
+            return null;
+        }
+        if (path.startsWith("file:")) {
+            path = path.substring("file:".length());
+        }
+        int options = path.indexOf('?');
+        if (options >= 0) {
+            path = path.substring(0, options);
         }
+        return path.isEmpty() ? null : path;
+    }
 
-        return conn;
+    /**
+     * Closes every connection held by the pool. Should be called once when the application exits.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
     }
 
     /**
-     * Creates two tables in the database. One to store user info, and one to store task info.
+     * Creates the tables in the database if they don't exist yet, and upgrades the schema of an existing
+     * database file to the latest version. One table stores user info, and one stores task info.
      * These tables are related via user_id.
      */
     public static void createTables() {
-    String sql = """
-                CREATE TABLE IF NOT EXISTS users (
-                    user_id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    username TEXT NOT NULL,
-                    email TEXT NOT NULL,
-                    password TEXT NOT NULL
-                );
-                CREATE TABLE IF NOT EXISTS tasks (
-                    task_id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    user_id INTEGER NOT NULL,
-                    task_name TEXT NOT NULL,
-                    task_description TEXT,
-                    due_date DATE,
-                    priority TEXT,
-                    status TEXT NOT NULL,
-                    FOREIGN KEY (user_id) REFERENCES users(user_id)
-                );
-                """;
-
-        // Try to connect to the database and attach a statement to this connection
-        try (Connection conn = connect();
-             Statement statement = conn.createStatement()) {
-            statement.execute(sql);
-            System.out.println("Tables created");
+        // Try to connect to the database and apply any schema migrations it hasn't had yet
+        try (Connection conn = connect()) {
+            SchemaMigrations.migrate(conn);
+            logger.info("event=schema_ready version=" + SchemaMigrations.currentVersion(conn));
         } catch (SQLException e) {
-            System.out.println("Error creating tables: " + e.getMessage());
+            logger.log(Level.SEVERE, "event=schema_failed", e);
         }
     }
 
@@ -67,9 +164,11 @@ public class Database {
         try (Connection conn = connect();
              Statement statement = conn.createStatement()) {
             statement.execute(sql);
-            System.out.println("Users table dropped");
+            // Forget which migrations were applied, so that createTables() builds the schema again from scratch
+            statement.execute("DROP TABLE IF EXISTS schema_version");
+            logger.info("event=table_dropped table=users");
         } catch (SQLException e) {
-            System.out.println("Error dropping table: " + e.getMessage());
+            logger.log(Level.WARNING, "event=drop_table_failed table=users", e);
         }
     }
 
@@ -83,9 +182,18 @@ public class Database {
         try (Connection conn = connect();
              Statement statement = conn.createStatement()) {
             statement.execute(sql);
-            System.out.println("Tasks table dropped");
+            // Tables which only make sense alongside tasks are recreated with it by the migrations
+            statement.execute("DROP TABLE IF EXISTS tasks_fts");
+            statement.execute("DROP TABLE IF EXISTS import_checkpoints");
+            statement.execute("DROP TABLE IF EXISTS task_stats");
+            statement.execute("DROP TABLE IF EXISTS tasks_archive");
+            statement.execute("DROP TABLE IF EXISTS task_series_exceptions");
+            statement.execute("DROP TABLE IF EXISTS task_series");
+            // Forget which migrations were applied, so that createTables() builds the schema again from scratch
+            statement.execute("DROP TABLE IF EXISTS schema_version");
+            logger.info("event=table_dropped table=tasks");
         } catch (SQLException e) {
-            System.out.println("Error dropping table: " + e.getMessage());
+            logger.log(Level.WARNING, "event=drop_table_failed table=tasks", e);
         }
     }
 
@@ -96,32 +204,37 @@ public class Database {
      */
     public static boolean userExists(String username) {
         String sql = "SELECT COUNT(*) FROM users WHERE username = ?";
+        long start = System.nanoTime();
 
-        try (Connection conn = connect();
+        try (Connection conn = connectReadOnly();
              PreparedStatement preparedStatement = conn.prepareStatement(sql);) {
             preparedStatement.setString(1, username);
             ResultSet users = preparedStatement.executeQuery();
-            if (users.next()) {
-                return (users.getInt(1) > 0);
-            }
+            boolean exists = users.next() && users.getInt(1) > 0;
+            userExistsTimer.record(start);
+            return exists;
         } catch (SQLException e) {
-            System.out.println("Error finding user: " + e.getMessage());
+            userExistsTimer.recordError(start);
+            logger.log(Level.WARNING, "event=find_user_failed", e);
         }
         return false;
     }
 
     /**
-     * Function to insert a new user into the users table
+     * Function to insert a new user into the users table. Usernames are unique, so this also acts as the check
+     * for whether the username is already taken.
      * @param username User's username
      * @param email User's email
      * @param password User's password
+     * @return Boolean value indicating whether the user was added. False if the username is already in use.
      */
-    public static void insertUser(String username, String email, String password) {
+    public static boolean insertUser(String username, String email, String password) {
         // Hash the password using the BCrypt hashing algorithm, to ensure that if the database
         // is breached, compromised passwords are effectively unusable
-        String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt(12));
+        String hashedPassword = AuthenticationService.hashPassword(password);
         // By structuring the SQL statement in this way, SQL injections are prevented.
         String sql = "INSERT INTO users (username, email, password) VALUES (?, ?, ?)";
+        long start = System.nanoTime();
 
         // Try to establish a connection to the database and attach the statement to this connection
         try (Connection conn = connect();
@@ -130,10 +243,20 @@ public class Database {
             preparedStatement.setString(2, email);
             preparedStatement.setString(3, hashedPassword);
             preparedStatement.executeUpdate();
-            System.out.println("Addition of user information successful");
+            insertUserTimer.record(start);
+            logger.fine("event=user_inserted");
+            return true;
         } catch (SQLException e) {
-            System.out.println("Error inserting user: " + e.getMessage());
+            if (e.getErrorCode() == SQLiteErrorCode.SQLITE_CONSTRAINT.code) {
+                // An expected outcome rather than a failure of the database
+                insertUserTimer.record(start);
+                logger.fine("event=username_taken");
+            } else {
+                insertUserTimer.recordError(start);
+                logger.log(Level.WARNING, "event=insert_user_failed", e);
+            }
         }
+        return false;
     }
 
     /**
@@ -142,12 +265,13 @@ public class Database {
      * @param taskName Name of the task
      * @param taskDescription Description of the task
      * @param dueDate String in format YYYY-MM-DD representing the task's deadline
-     * @param priority String representing the task's priority
-     * @param status String representing the task's completion status
+     * @param priority The task's priority
+     * @param status The task's completion status
      */
-    public static void insertTask(String userID, String taskName, String taskDescription, String dueDate, String priority, String status) {
+    public static void insertTask(String userID, String taskName, String taskDescription, String dueDate, TaskPriority priority, TaskStatus status) {
         // By structuring the SQL statement in this way, SQL injections are prevented.
         String sql = "INSERT INTO tasks (user_id, task_name, task_description, due_date, priority, status) VALUES (?, ?, ?, ?, ?, ?)";
+        long start = System.nanoTime();
 
         // Try to establish a connection to the database and attach the statement to this connection
         try (Connection conn = connect();
@@ -156,223 +280,554 @@ public class Database {
             preparedStatement.setString(2, taskName);
             preparedStatement.setString(3, taskDescription);
             preparedStatement.setString(4, dueDate);
-            preparedStatement.setString(5, priority);
-            preparedStatement.setString(6, status);
+            preparedStatement.setInt(5, priority.getCode());
+            preparedStatement.setInt(6, status.getCode());
             preparedStatement.executeUpdate();
-            System.out.println("Addition of task information successful");
+            insertTaskTimer.record(start);
+            logger.fine(() -> "event=task_inserted user_id=" + userID);
         } catch (SQLException e) {
-            System.out.println("Error inserting task: " + e.getMessage());
+            insertTaskTimer.recordError(start);
+            logger.log(Level.WARNING, "event=insert_task_failed user_id=" + userID, e);
         }
     }
 
     /**
-     * Removes a user from the users table
+     * Removes a user from the users table, along with all of their tasks. The user can't log in once this has
+     * returned, but their tasks are deleted in the background (see UserLifecycle).
      * @param username Username of user to be removed
      */
     public static void removeUser(String username) {
-        String sql = "DELETE FROM users WHERE username = ?";
+        UserLifecycle.deleteUser(username, null);
+    }
 
-        try (Connection conn = connect();
+    /**
+     * Removes a task from the tasks table. The task is kept in tasks_archive, so it can still be restored with
+     * TaskBatch.restore until TaskArchiver purges it.
+     * @param taskID Unique ID of the task to be removed
+     */
+    public static void removeTask(String taskID) {
+        TaskBatch batch = new TaskBatch();
+        batch.delete(parseTaskID(taskID));
+        long start = System.nanoTime();
+
+        TaskBatch.Outcome outcome = batch.flushLocally(TaskBatch.ANY_OWNER).get(0).outcome();
+        if (outcome == TaskBatch.Outcome.FAILED) {
+            removeTaskTimer.recordError(start);
+        } else {
+            removeTaskTimer.record(start);
+        }
+        // Checks whether any tasks were found and deleted
+        logger.fine(() -> (outcome == TaskBatch.Outcome.APPLIED ? "event=task_deleted" : "event=task_not_found")
+                + " task_id=" + taskID);
+    }
+
+    /**
+     * Function to change a specific task in tasks table's name
+     * @param taskID Unique ID of specified task
+     * @param newTaskName New name for the task
+     * @return APPLIED once the change is in the edit journal (see TaskJournal), or has been written if the journal
+     * isn't started. NOT_FOUND if it was written straight away and there is no such task, or FAILED.
+     */
+    public static TaskBatch.Outcome changeTaskName (String taskID, String newTaskName) {
+        return changeTask(parseTaskID(taskID), TaskBatch.ANY_VERSION, TaskField.NAME, newTaskName);
+    }
+
+    /**
+     * Function to change a specified task's description
+     * @param taskID Unique ID of the specified task
+     * @param newTaskDescription String containing the task's new description
+     * @return APPLIED once the change is in the edit journal (see TaskJournal), or has been written if the journal
+     * isn't started. NOT_FOUND if it was written straight away and there is no such task, or FAILED.
+     */
+    public static TaskBatch.Outcome changeTaskDescription (String taskID, String newTaskDescription) {
+        return changeTask(parseTaskID(taskID), TaskBatch.ANY_VERSION, TaskField.DESCRIPTION, newTaskDescription);
+    }
+
+    /**
+     * Function to change a specified task's due date
+     * @param taskID Unique ID of the specified task
+     * @param newTaskDueDate New due date of the specified task in YYYY-MM-DD format
+     * @return APPLIED once the change is in the edit journal (see TaskJournal), or has been written if the journal
+     * isn't started. NOT_FOUND if it was written straight away and there is no such task, or FAILED.
+     */
+    public static TaskBatch.Outcome changeTaskDueDate (String taskID, String newTaskDueDate) {
+        return changeTask(parseTaskID(taskID), TaskBatch.ANY_VERSION, TaskField.DUE_DATE, newTaskDueDate);
+    }
+
+    /**
+     * Function to change the priority of a specified task
+     * @param taskID Unique ID of the specified task
+     * @param newTaskPriority New priority to be applied to the specified task
+     * @return APPLIED once the change is in the edit journal (see TaskJournal), or has been written if the journal
+     * isn't started. NOT_FOUND if it was written straight away and there is no such task, or FAILED.
+     */
+    public static TaskBatch.Outcome changeTaskPriority (String taskID, TaskPriority newTaskPriority) {
+        return changeTask(parseTaskID(taskID), TaskBatch.ANY_VERSION, TaskField.PRIORITY, newTaskPriority);
+    }
+
+    /**
+     * Function to change the status of a specified task
+     * @param taskID Unique ID of the specified task
+     * @param newTaskStatus New status to be applied to the specified task
+     * @return APPLIED once the change is in the edit journal (see TaskJournal), or has been written if the journal
+     * isn't started. NOT_FOUND if it was written straight away and there is no such task, or FAILED.
+     */
+    public static TaskBatch.Outcome changeTaskStatus (String taskID, TaskStatus newTaskStatus) {
+        return changeTask(parseTaskID(taskID), TaskBatch.ANY_VERSION, TaskField.STATUS, newTaskStatus);
+    }
+
+    /**
+     * Function to change one field of a task only if nobody has changed the task since it was read, so that a
+     * change based on an old copy of the task never overwrites a newer one. With TaskBatch.ANY_VERSION, the change
+     * is journaled instead once TaskJournal has been started, and APPLIED is returned as soon as it is on disk.
+     * @param taskID Unique ID of the task
+     * @param expectedVersion Version of the task the change is based on (see Task.version)
+     * @param field Field to change
+     * @param value New value, of the type TaskBatch uses for the field
+     * @return APPLIED, NOT_FOUND if there is no such task, CONFLICT if the task is no longer at the expected
+     * version, or FAILED
+     */
+    public static TaskBatch.Outcome changeTask(long taskID, long expectedVersion, TaskField field, Object value) {
+        long start = System.nanoTime();
+        // Changes which apply whatever version the task is at don't need an answer from the database straight away
+        if (expectedVersion == TaskBatch.ANY_VERSION && TaskJournal.append(taskID, field, value)) {
+            changeTaskTimer.record(start);
+            logger.fine(() -> "event=task_journaled task_id=" + taskID + " field=" + field.getColumn());
+            return TaskBatch.Outcome.APPLIED;
+        }
+
+        TaskBatch batch = new TaskBatch();
+        batch.compareAndSet(taskID, expectedVersion, field, value);
+
+        TaskBatch.Outcome outcome = batch.flushLocally(TaskBatch.ANY_OWNER).get(0).outcome();
+        if (outcome == TaskBatch.Outcome.FAILED) {
+            changeTaskTimer.recordError(start);
+        } else {
+            changeTaskTimer.record(start);
+        }
+        logger.fine(() -> "event=task_" + outcome.name().toLowerCase(Locale.ROOT) + " task_id=" + taskID
+                + " field=" + field.getColumn());
+        return outcome;
+    }
+
+    /**
+     * Function to parse a task ID passed as a string
+     * @return The ID, or -1 (which no task has) if it isn't a number
+     */
+    private static long parseTaskID(String taskID) {
+        try {
+            return taskID == null ? -1 : Long.parseLong(taskID.strip());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Function to be called when a user tries to log in
+     * @param username Entered username
+     * @param password Entered password
+     * @return Boolean value indicating whether the user can be authenticated or not
+     */
+    public static boolean authenticateUser(String username, String password) {
+        return AuthenticationService.authenticate(username, password) != null;
+    }
+
+    /**
+     * A user's ID along with their stored password hash
+     */
+    record Credentials(long userID, String passwordHash) {}
+
+    /**
+     * Function to read the stored password hash of a user, for AuthenticationService to check
+     * @param username Username of the user
+     * @return The user's ID and password hash, or null if no user has that username or the user is being deleted
+     */
+    static Credentials getCredentials(String username) {
+        String sql = "SELECT user_id, password FROM users WHERE username = ? AND deleted_at IS NULL";
+        long start = System.nanoTime();
+
+        try (Connection conn = connectReadOnly();
              PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
             preparedStatement.setString(1, username);
-            int usersDeleted = preparedStatement.executeUpdate();
+            ResultSet userInfo = preparedStatement.executeQuery();
 
-            // Checks whether any users were found and deleted
-            if (usersDeleted > 0) {
-                System.out.println("User deleted");
-            } else {
-                System.out.println("User not found");
-            }
+            // Checks if the user exists in the database
+            Credentials credentials = userInfo.next()
+                    ? new Credentials(userInfo.getLong("user_id"), userInfo.getString("password"))
+                    : null;
+            getCredentialsTimer.record(start);
+            return credentials;
         } catch (SQLException e) {
-            System.out.println("Error removing user: " + e.getMessage());
+            getCredentialsTimer.recordError(start);
+            logger.log(Level.WARNING, "event=read_credentials_failed", e);
         }
+        return null;
     }
 
     /**
-     * Removes a task from the tasks table
-     * @param taskID Unique ID of the task to be removed
+     * Replaces the stored password hash of a user, e.g. with one made at a higher BCrypt cost
+     * @param userID Unique ID of the user
+     * @param passwordHash New BCrypt hash of the user's password
      */
-    public static void removeTask(String taskID) {
-        String sql = "DELETE FROM tasks WHERE task_id = ?";
+    static void updatePasswordHash(long userID, String passwordHash) {
+        String sql = "UPDATE users SET password = ? WHERE user_id = ?";
+        long start = System.nanoTime();
 
         try (Connection conn = connect();
              PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
-            preparedStatement.setString(1, taskID);
-            int tasksDeleted = preparedStatement.executeUpdate();
-
-            // Checks whether any tasks were found and deleted
-            if (tasksDeleted > 0) {
-                System.out.println("Task deleted");
-            } else {
-                System.out.println("Task not found");
-            }
+            preparedStatement.setString(1, passwordHash);
+            preparedStatement.setLong(2, userID);
+            preparedStatement.executeUpdate();
+            updatePasswordHashTimer.record(start);
         } catch (SQLException e) {
-            System.out.println("Error removing task: " + e.getMessage());
+            updatePasswordHashTimer.recordError(start);
+            logger.log(Level.WARNING, "event=update_password_hash_failed user_id=" + userID, e);
         }
     }
 
     /**
-     * Function to change a specific task in tasks table's name
-     * @param taskID Unique ID of specified task
-     * @param newTaskName New name for the task
+     * Function to find the unique ID of a user
+     * @param username Username of the user
+     * @return The user's ID, or -1 if no user has that username or the user is being deleted
      */
-    public static void changeTaskName (String taskID, String newTaskName) {
-        String sql = "UPDATE tasks SET task_name = ? WHERE task_id = ?";
+    public static long getUserID(String username) {
+        String sql = "SELECT user_id FROM users WHERE username = ? AND deleted_at IS NULL";
+        long start = System.nanoTime();
 
-        try (Connection conn = connect();
+        try (Connection conn = connectReadOnly();
              PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
-            preparedStatement.setString(1, newTaskName);
-            preparedStatement.setString(2, taskID);
+            preparedStatement.setString(1, username);
+            ResultSet user = preparedStatement.executeQuery();
+            long userID = user.next() ? user.getLong(1) : -1;
+            getUserIDTimer.record(start);
+            return userID;
+        } catch (SQLException e) {
+            getUserIDTimer.recordError(start);
+            logger.log(Level.WARNING, "event=find_user_failed", e);
+        }
+        return -1;
+    }
 
-            int affectedTasks = preparedStatement.executeUpdate();
+    /**
+     * Function to read one page of a user's tasks, in task ID order. Pages are found by the last task ID of the
+     * previous page rather than by an offset, so reading a page costs the same however far into the list it is.
+     * @param userID Unique ID of the user whose tasks are read
+     * @param afterTaskID Only tasks with a greater ID are returned. Use 0 for the first page.
+     * @param limit Maximum number of tasks to return
+     * @return Up to limit tasks, ordered by task ID. An empty list means there are no more tasks.
+     */
+    public static List<Task> getTasksPage(long userID, long afterTaskID, int limit) {
+        String sql = "SELECT task_id, user_id, task_name, task_description, due_date, priority, status, version FROM tasks "
+                + "WHERE user_id = ? AND task_id > ? ORDER BY task_id LIMIT ?";
+        List<Task> tasks = new ArrayList<>();
+        long start = System.nanoTime();
 
-            // If any task names are changed
-            if (affectedTasks > 0) {
-                System.out.println("Task name updated successfully");
-            } else {
-                System.out.println("Task not found.");
+        try (Connection conn = connectReadOnly();
+             PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+            preparedStatement.setLong(1, userID);
+            preparedStatement.setLong(2, afterTaskID);
+            preparedStatement.setInt(3, limit);
+            ResultSet rows = preparedStatement.executeQuery();
+            while (rows.next()) {
+                tasks.add(readTask(rows));
             }
+            getTasksPageTimer.record(start);
         } catch (SQLException e) {
-            System.out.println("Error changing task name: " + e.getMessage());
+            getTasksPageTimer.recordError(start);
+            logger.log(Level.WARNING, "event=read_tasks_failed user_id=" + userID, e);
         }
+        return tasks;
     }
 
     /**
-     * Function to change a specified task's description
-     * @param taskID Unique ID of the specified task
-     * @param newTaskDescription String containing the task's new description
+     * Function to read a user's task counts from task_stats. This reads one row per bucket, however many tasks
+     * the user has.
+     * @param userID Unique ID of the user
+     * @return Number of tasks in each non-empty bucket, by dimension (see StatisticsDimension). Every dimension
+     * is present, even if it has no buckets.
      */
-    public static void changeTaskDescription (String taskID, String newTaskDescription) {
-        String sql = "UPDATE tasks SET task_description = ? WHERE task_id = ?";
+    public static Map<StatisticsDimension, Map<Long, Long>> getTaskStatistics(long userID) {
+        String sql = "SELECT dimension, bucket, task_count FROM task_stats WHERE user_id = ? AND task_count > 0";
+        Map<StatisticsDimension, Map<Long, Long>> statistics = new EnumMap<>(StatisticsDimension.class);
+        for (StatisticsDimension dimension : StatisticsDimension.values()) {
+            statistics.put(dimension, new HashMap<>());
+        }
+        long start = System.nanoTime();
 
-        try (Connection conn = connect();
+        try (Connection conn = connectReadOnly();
              PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
-            preparedStatement.setString(1, newTaskDescription);
-            preparedStatement.setString(2, taskID);
-
-            int affectedTasks = preparedStatement.executeUpdate();
-
-            // If any task descriptions are changed
-            if (affectedTasks > 0) {
-                System.out.println("Task description updated successfully");
-            } else {
-                System.out.println("Task not found.");
+            preparedStatement.setLong(1, userID);
+            ResultSet rows = preparedStatement.executeQuery();
+            while (rows.next()) {
+                StatisticsDimension dimension = StatisticsDimension.fromKey(rows.getString("dimension"));
+                if (dimension != null) {
+                    statistics.get(dimension).put(rows.getLong("bucket"), rows.getLong("task_count"));
+                }
             }
+            getTaskStatisticsTimer.record(start);
         } catch (SQLException e) {
-            System.out.println("Error changing task description: " + e.getMessage());
+            getTaskStatisticsTimer.recordError(start);
+            logger.log(Level.WARNING, "event=read_task_statistics_failed user_id=" + userID, e);
         }
+        return statistics;
     }
 
     /**
-     * Function to change a specified task's due date
-     * @param taskID Unique ID of the specified task
-     * @param newTaskDueDate New due date of the specified task in YYYY-MM-DD format
+     * Function to find the best matches for a search, see searchTasks(long, String, int, int)
      */
-    public static void changeTaskDueDate (String taskID, String newTaskDueDate) {
-        String sql = "UPDATE tasks SET due_date = ? WHERE task_id = ?";
+    public static List<Task> searchTasks(long userID, String query, int limit) {
+        return searchTasks(userID, query, limit, 0);
+    }
 
-        try (Connection conn = connect();
-             PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
-            preparedStatement.setString(1, newTaskDueDate);
-            preparedStatement.setString(2, taskID);
+    /**
+     * Function to search a user's tasks by the words in their names and descriptions. Every word of the query
+     * also matches words it is the start of, so "gro" finds "groceries". Matches in the task name count for more
+     * than matches in the description.
+     * @param userID Unique ID of the user whose tasks are searched
+     * @param query Words to search for, as typed by the user
+     * @param limit Maximum number of tasks to return
+     * @param offset Number of results to skip, for fetching later pages
+     * @return Matching tasks, best match first
+     */
+    public static List<Task> searchTasks(long userID, String query, int limit, int offset) {
+        List<Task> tasks = new ArrayList<>();
+        String matchExpression = searchExpression(userID, query);
+        if (matchExpression == null) {
+            return tasks;
+        }
 
-            int affectedTasks = preparedStatement.executeUpdate();
+        String sql = "SELECT tasks.* FROM tasks_fts JOIN tasks ON tasks.task_id = tasks_fts.rowid "
+                + "WHERE tasks_fts MATCH ? ORDER BY bm25(tasks_fts, 0.0, 10.0, 1.0) LIMIT ? OFFSET ?";
+        long start = System.nanoTime();
 
-            // If any task due dates are changed
-            if (affectedTasks > 0) {
-                System.out.println("Task due date updated successfully");
-            } else {
-                System.out.println("Task not found.");
+        try (Connection conn = connectReadOnly();
+             PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+            preparedStatement.setString(1, matchExpression);
+            preparedStatement.setInt(2, limit);
+            preparedStatement.setInt(3, offset);
+            ResultSet rows = preparedStatement.executeQuery();
+            while (rows.next()) {
+                tasks.add(readTask(rows));
             }
+            searchTasksTimer.record(start);
         } catch (SQLException e) {
-            System.out.println("Error changing task due date: " + e.getMessage());
+            searchTasksTimer.recordError(start);
+            logger.log(Level.WARNING, "event=search_tasks_failed user_id=" + userID, e);
         }
+        return tasks;
     }
 
     /**
-     * Function to change the priority of a specified task
-     * @param taskID Unique ID of the specified task
-     * @param newTaskPriority New priority to be applied to the specified task
+     * Function to read a user's recurring tasks, each with the occurrences the user has changed or deleted.
+     * This reads one row per series and one per exception, however many occurrences the series have had.
+     * @param userID Unique ID of the user
+     * @return The user's series, in the order they were created
      */
-    public static void changeTaskPriority (String taskID, String newTaskPriority) {
-        String sql = "UPDATE tasks SET priority = ? WHERE task_id = ?";
-
-        try (Connection conn = connect();
-             PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
-            preparedStatement.setString(1, newTaskPriority);
-            preparedStatement.setString(2, taskID);
-
-            int affectedTasks = preparedStatement.executeUpdate();
+    public static List<TaskSeries> getTaskSeries(long userID) {
+        String seriesSql = "SELECT * FROM task_series WHERE user_id = ? ORDER BY series_id";
+        String exceptionsSql = "SELECT task_series_exceptions.* FROM task_series_exceptions "
+                + "JOIN task_series USING (series_id) WHERE task_series.user_id = ?";
+        Map<Long, TaskSeries> series = new LinkedHashMap<>();
+        long start = System.nanoTime();
+
+        try (Connection conn = connectReadOnly();
+             PreparedStatement seriesStatement = conn.prepareStatement(seriesSql);
+             PreparedStatement exceptionsStatement = conn.prepareStatement(exceptionsSql)) {
+            seriesStatement.setLong(1, userID);
+            ResultSet rows = seriesStatement.executeQuery();
+            while (rows.next()) {
+                // No limit is stored as NULL, which reads as 0
+                int occurrenceLimit = rows.getInt("occurrence_limit");
+                RecurrenceRule rule = new RecurrenceRule(RecurrenceRule.Frequency.fromCode(rows.getInt("frequency")),
+                        rows.getInt("repeat_interval"), parseDueDate(rows.getString("start_date")),
+                        parseDueDate(rows.getString("until_date")), occurrenceLimit);
+                series.put(rows.getLong("series_id"), new TaskSeries(rows.getLong("series_id"), userID,
+                        rows.getString("task_name"), rows.getString("task_description"), readPriority(rows), rule,
+                        Map.of(), Set.of()));
+            }
 
-            // If any task descriptions are changed
-            if (affectedTasks > 0) {
-                System.out.println("Task priority updated successfully");
-            } else {
-                System.out.println("Task not found.");
+            exceptionsStatement.setLong(1, userID);
+            rows = exceptionsStatement.executeQuery();
+            while (rows.next()) {
+                TaskSeries owner = series.get(rows.getLong("series_id"));
+                LocalDate date = parseDueDate(rows.getString("occurrence_date"));
+                if (owner == null || date == null) {
+                    continue;
+                }
+                if (rows.getInt("skipped") != 0) {
+                    owner = owner.withSkipped(date);
+                } else {
+                    owner = owner.withOverride(new Occurrence(owner.seriesID(), date, rows.getString("task_name"),
+                            rows.getString("task_description"), parseDueDate(rows.getString("due_date")),
+                            readPriority(rows), TaskStatus.fromCode(rows.getInt("status"))));
+                }
+                series.put(owner.seriesID(), owner);
             }
+            getTaskSeriesTimer.record(start);
         } catch (SQLException e) {
-            System.out.println("Error changing task priority: " + e.getMessage());
+            getTaskSeriesTimer.recordError(start);
+            logger.log(Level.WARNING, "event=read_task_series_failed user_id=" + userID, e);
         }
+        return new ArrayList<>(series.values());
     }
 
     /**
-     * Function to change the status of a specified task
-     * @param taskID Unique ID of the specified task
-     * @param newTaskStatus New status to be applied to the specified task
+     * Function to create a recurring task. Only the series is written, not any of its occurrences.
+     * @param series Series to create. Its series ID and exceptions are ignored.
+     * @return Unique ID of the new series, or -1 if it couldn't be saved
      */
-    public static void changeTaskStatus (String taskID, String newTaskStatus) {
-        String sql = "UPDATE tasks SET status = ? WHERE task_id = ?";
+    public static long insertTaskSeries(TaskSeries series) {
+        String sql = "INSERT INTO task_series (user_id, task_name, task_description, priority, frequency, "
+                + "repeat_interval, start_date, until_date, occurrence_limit) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                + "RETURNING series_id";
+        RecurrenceRule rule = series.rule();
+        long start = System.nanoTime();
 
         try (Connection conn = connect();
              PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
-            preparedStatement.setString(1, newTaskStatus);
-            preparedStatement.setString(2, taskID);
+            preparedStatement.setLong(1, series.userID());
+            preparedStatement.setString(2, series.name());
+            preparedStatement.setString(3, series.description());
+            preparedStatement.setObject(4, series.priority() == null ? null : series.priority().getCode());
+            preparedStatement.setInt(5, rule.frequency().getCode());
+            preparedStatement.setInt(6, rule.interval());
+            preparedStatement.setString(7, rule.start().toString());
+            preparedStatement.setString(8, rule.until() == null ? null : rule.until().toString());
+            preparedStatement.setObject(9, rule.count() == 0 ? null : rule.count());
+            ResultSet inserted = preparedStatement.executeQuery();
+            long seriesID = inserted.next() ? inserted.getLong(1) : -1;
+            insertTaskSeriesTimer.record(start);
+            logger.fine(() -> "event=task_series_inserted series_id=" + seriesID);
+            return seriesID;
+        } catch (SQLException e) {
+            insertTaskSeriesTimer.recordError(start);
+            logger.log(Level.WARNING, "event=insert_task_series_failed user_id=" + series.userID(), e);
+        }
+        return -1;
+    }
 
-            int affectedTasks = preparedStatement.executeUpdate();
+    /**
+     * Function to store a change to one occurrence of a recurring task, as an exception to its series. Saving
+     * the same occurrence again replaces the exception, so an occurrence never takes more than one row.
+     * @param userID Unique ID of the user the series must belong to
+     * @param seriesID Unique ID of the series
+     * @param date Date of the occurrence in the series
+     * @param occurrence The occurrence as it should be from now on, or null to delete it
+     * @return Boolean value indicating whether the change was saved. False if the user has no such series.
+     */
+    public static boolean saveOccurrence(long userID, long seriesID, LocalDate date, Occurrence occurrence) {
+        String sql = "INSERT INTO task_series_exceptions (series_id, occurrence_date, skipped, task_name, "
+                + "task_description, due_date, priority, status) SELECT ?, ?, ?, ?, ?, ?, ?, ? "
+                + "WHERE EXISTS (SELECT 1 FROM task_series WHERE series_id = ? AND user_id = ?) "
+                + "ON CONFLICT (series_id, occurrence_date) DO UPDATE SET skipped = excluded.skipped, "
+                + "task_name = excluded.task_name, task_description = excluded.task_description, "
+                + "due_date = excluded.due_date, priority = excluded.priority, status = excluded.status";
+        long start = System.nanoTime();
 
-            // If any task statuses are changed
-            if (affectedTasks > 0) {
-                System.out.println("Task status updated successfully");
+        try (Connection conn = connect();
+             PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+            preparedStatement.setLong(1, seriesID);
+            preparedStatement.setString(2, date.toString());
+            preparedStatement.setInt(3, occurrence == null ? 1 : 0);
+            if (occurrence == null) {
+                for (int column = 4; column <= 8; column++) {
+                    preparedStatement.setObject(column, null);
+                }
             } else {
-                System.out.println("Task not found.");
+                preparedStatement.setString(4, occurrence.name());
+                preparedStatement.setString(5, occurrence.description());
+                preparedStatement.setString(6, occurrence.dueDate() == null ? null : occurrence.dueDate().toString());
+                preparedStatement.setObject(7, occurrence.priority() == null ? null : occurrence.priority().getCode());
+                preparedStatement.setInt(8, occurrence.status().getCode());
             }
+            preparedStatement.setLong(9, seriesID);
+            preparedStatement.setLong(10, userID);
+            boolean saved = preparedStatement.executeUpdate() > 0;
+            saveOccurrenceTimer.record(start);
+            return saved;
         } catch (SQLException e) {
-            System.out.println("Error changing task status: " + e.getMessage());
+            saveOccurrenceTimer.recordError(start);
+            logger.log(Level.WARNING, "event=save_occurrence_failed series_id=" + seriesID, e);
         }
+        return false;
     }
 
     /**
-     * Function to be called when a user tries to log in
-     * @param username Entered username
-     * @param password Entered password
-     * @return Boolean value indicating whether the user can be authenticated or not
+     * Function to delete a recurring task, along with its exceptions
+     * @param userID Unique ID of the user the series must belong to
+     * @param seriesID Unique ID of the series
+     * @return Boolean value indicating whether the series was deleted. False if the user has no such series.
      */
-    public static boolean authenticateUser(String username, String password) {
-        String sql = "SELECT password FROM users WHERE username = ?";
+    public static boolean removeTaskSeries(long userID, long seriesID) {
+        String sql = "DELETE FROM task_series WHERE series_id = ? AND user_id = ?";
+        long start = System.nanoTime();
 
         try (Connection conn = connect();
-             PreparedStatement preparedStatement = conn.prepareStatement(sql);) {
-
-            preparedStatement.setString(1, username);
-            ResultSet userInfo = preparedStatement.executeQuery();
+             PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+            preparedStatement.setLong(1, seriesID);
+            preparedStatement.setLong(2, userID);
+            boolean removed = preparedStatement.executeUpdate() > 0;
+            removeTaskSeriesTimer.record(start);
+            return removed;
+        } catch (SQLException e) {
+            removeTaskSeriesTimer.recordError(start);
+            logger.log(Level.WARNING, "event=remove_task_series_failed series_id=" + seriesID, e);
+        }
+        return false;
+    }
 
-            // Checks if the user exists in the database
-            if (userInfo.next()) {
-                String hashedPassword = userInfo.getString("password"); // Retrieves hashed password from database
-                if (BCrypt.checkpw(password, hashedPassword)) { // Checks if the hash of the input password is the same as the hashed password retrieved from the database
-                    System.out.println("Login successful");
-                    return true;
-                } else {
-                    System.out.println("Invalid password");
-                }
-            } else {
-                System.out.println("User not found");
+    /**
+     * Function to turn a query typed by the user into an FTS5 match expression. Every word is quoted, so that
+     * characters with a meaning in FTS5 syntax are searched for literally, and every word is treated as a prefix.
+     * @return The match expression, or null if the query contains no words
+     */
+    private static String searchExpression(long userID, String query) {
+        StringBuilder expression = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                expression.append(" \"").append(word).append("\"*");
             }
-        } catch (SQLException e) {
-            System.out.println("Error authenticating user: " + e.getMessage());
         }
+        if (expression.length() == 0) {
+            return null;
+        }
+        return "owner : u" + userID + " AND {task_name task_description} : (" + expression.toString().trim() + ")";
+    }
 
-        return false;
+    /**
+     * Function to convert the current row of a result set over the tasks table into a Task
+     * @param row Result set positioned on a row containing every column of the tasks table
+     * @return Task holding the row's values
+     */
+    static Task readTask(ResultSet row) throws SQLException {
+        return new Task(row.getLong("task_id"), row.getLong("user_id"), row.getString("task_name"),
+                row.getString("task_description"), parseDueDate(row.getString("due_date")), readPriority(row),
+                TaskStatus.fromCode(row.getInt("status")), row.getLong("version"));
+    }
+
+    /**
+     * Function to read the priority column of the current row
+     * @return The priority, or null if the row has none
+     */
+    private static TaskPriority readPriority(ResultSet row) throws SQLException {
+        int priority = row.getInt("priority");
+        return row.wasNull() ? null : TaskPriority.fromCode(priority);
+    }
+
+    /**
+     * Function to parse a due date stored in YYYY-MM-DD format
+     * @param dueDate Due date read from the database
+     * @return The parsed date, or null if there is no due date or it isn't a valid date
+     */
+    private static LocalDate parseDueDate(String dueDate) {
+        if (dueDate == null || dueDate.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(dueDate);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
     }
 
     public static void main(String[] args) {
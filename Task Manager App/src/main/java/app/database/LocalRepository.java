@@ -0,0 +1,90 @@
+package app.database;
+
+import app.data.Occurrence;
+import app.data.Task;
+import app.data.TaskSeries;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repository which opens the database file in this process, through Database and AuthenticationService
+ */
+class LocalRepository implements TaskRepository {
+    @Override
+    public boolean userExists(String username) {
+        return Database.userExists(username);
+    }
+
+    @Override
+    public boolean insertUser(String username, String email, String password) {
+        return Database.insertUser(username, email, password);
+    }
+
+    @Override
+    public long getUserID(String username) {
+        return Database.getUserID(username);
+    }
+
+    @Override
+    public AuthenticationService.Session authenticate(String username, String password) {
+        return AuthenticationService.authenticate(username, password);
+    }
+
+    @Override
+    public void endSession(String token) {
+        AuthenticationService.endSession(token);
+    }
+
+    @Override
+    public List<Task> getTasksPage(long userID, long afterTaskID, int limit) {
+        return Database.getTasksPage(userID, afterTaskID, limit);
+    }
+
+    @Override
+    public Map<StatisticsDimension, Map<Long, Long>> getTaskStatistics(long userID) {
+        return Database.getTaskStatistics(userID);
+    }
+
+    @Override
+    public List<Task> searchTasks(long userID, String query, int limit, int offset) {
+        return Database.searchTasks(userID, query, limit, offset);
+    }
+
+    @Override
+    public List<TaskSeries> getTaskSeries(long userID) {
+        return Database.getTaskSeries(userID);
+    }
+
+    @Override
+    public long insertTaskSeries(TaskSeries series) {
+        return Database.insertTaskSeries(series);
+    }
+
+    @Override
+    public boolean saveOccurrence(long userID, long seriesID, LocalDate date, Occurrence occurrence) {
+        return Database.saveOccurrence(userID, seriesID, date, occurrence);
+    }
+
+    @Override
+    public boolean removeTaskSeries(long userID, long seriesID) {
+        return Database.removeTaskSeries(userID, seriesID);
+    }
+
+    @Override
+    public List<TaskBatch.Result> flush(TaskBatch batch) {
+        return batch.flushLocally(TaskBatch.ANY_OWNER);
+    }
+
+    @Override
+    public boolean journal(long taskID, long expectedVersion, Map<TaskField, Object> changes,
+                           TaskJournal.Callback written) {
+        return TaskJournal.append(taskID, expectedVersion, changes, written);
+    }
+
+    @Override
+    public void shutdown() {
+        Database.shutdown();
+    }
+}
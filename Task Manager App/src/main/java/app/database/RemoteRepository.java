@@ -0,0 +1,431 @@
+package app.database;
+
+import app.data.Occurrence;
+import app.data.Task;
+import app.data.TaskSeries;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Repository which sends every operation to a RepositoryServer on this machine, over a single socket shared by
+ * every thread. Requests are pipelined: each thread writes its request and waits only for its own response,
+ * which the reader thread hands over by request ID, so several database workers can have requests in flight at
+ * once without opening a connection each. If the server goes away, the requests in flight fail, and the next
+ * request connects again and resumes the session of the user who logged in.
+ */
+class RemoteRepository implements TaskRepository {
+    private static final Logger logger = Logger.getLogger(RemoteRepository.class.getName());
+
+    private static final Timer callTimer = Metrics.timer("remote.call");
+
+    /**
+     * How long to wait for the server to accept a connection and answer the handshake
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * How long to wait for the response to a request before giving up on it
+     */
+    private static final long RESPONSE_TIMEOUT_MILLIS = Long.getLong("taskmanager.server.timeout", 30_000L);
+
+    /**
+     * Writes a request's arguments
+     */
+    @FunctionalInterface
+    private interface Arguments {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads a successful response's result
+     */
+    @FunctionalInterface
+    private interface ResultReader<T> {
+        T readFrom(DataInputStream in) throws IOException;
+    }
+
+    private final int port;
+
+    /**
+     * Held while writing a request, so that requests from different threads are never interleaved
+     */
+    private final Object writeLock = new Object();
+    private Link link;
+    private int nextRequestID = 0;
+
+    /**
+     * Token of the logged-in user's session, sent again after reconnecting
+     */
+    private volatile String sessionToken;
+
+    private RemoteRepository(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Function to connect to the server on a loopback port
+     * @throws IOException If no server answers on the port
+     */
+    static RemoteRepository connect(int port) throws IOException {
+        RemoteRepository repository = new RemoteRepository(port);
+        synchronized (repository.writeLock) {
+            repository.link = repository.open();
+        }
+        return repository;
+    }
+
+    @Override
+    public boolean userExists(String username) {
+        return call(WireProtocol.USER_EXISTS, out -> WireProtocol.writeString(out, username),
+                DataInputStream::readBoolean, false);
+    }
+
+    @Override
+    public boolean insertUser(String username, String email, String password) {
+        return call(WireProtocol.INSERT_USER, out -> {
+            WireProtocol.writeString(out, username);
+            WireProtocol.writeString(out, email);
+            WireProtocol.writeString(out, password);
+        }, DataInputStream::readBoolean, false);
+    }
+
+    @Override
+    public long getUserID(String username) {
+        return call(WireProtocol.GET_USER_ID, out -> WireProtocol.writeString(out, username),
+                DataInputStream::readLong, -1L);
+    }
+
+    @Override
+    public AuthenticationService.Session authenticate(String username, String password) {
+        AuthenticationService.Session session = call(WireProtocol.AUTHENTICATE, out -> {
+            WireProtocol.writeString(out, username);
+            WireProtocol.writeString(out, password);
+        }, WireProtocol::readSession, null);
+        if (session != null) {
+            sessionToken = session.token();
+        }
+        return session;
+    }
+
+    /**
+     * Ends a session without waiting for the server, as nothing depends on the answer
+     */
+    @Override
+    public void endSession(String token) {
+        if (token != null && token.equals(sessionToken)) {
+            sessionToken = null;
+        }
+        send(WireProtocol.END_SESSION, out -> WireProtocol.writeString(out, token));
+    }
+
+    @Override
+    public List<Task> getTasksPage(long userID, long afterTaskID, int limit) {
+        return call(WireProtocol.GET_TASKS_PAGE, out -> {
+            out.writeLong(userID);
+            out.writeLong(afterTaskID);
+            out.writeInt(limit);
+        }, WireProtocol::readTasks, new ArrayList<>());
+    }
+
+    @Override
+    public Map<StatisticsDimension, Map<Long, Long>> getTaskStatistics(long userID) {
+        Map<StatisticsDimension, Map<Long, Long>> statistics = call(WireProtocol.GET_TASK_STATISTICS,
+                out -> out.writeLong(userID), WireProtocol::readStatistics, null);
+        if (statistics == null) {
+            // Every dimension is present, as from Database.getTaskStatistics
+            statistics = new EnumMap<>(StatisticsDimension.class);
+            for (StatisticsDimension dimension : StatisticsDimension.values()) {
+                statistics.put(dimension, new HashMap<>());
+            }
+        }
+        return statistics;
+    }
+
+    @Override
+    public List<Task> searchTasks(long userID, String query, int limit, int offset) {
+        return call(WireProtocol.SEARCH_TASKS, out -> {
+            out.writeLong(userID);
+            WireProtocol.writeString(out, query);
+            out.writeInt(limit);
+            out.writeInt(offset);
+        }, WireProtocol::readTasks, new ArrayList<>());
+    }
+
+    @Override
+    public List<TaskSeries> getTaskSeries(long userID) {
+        return call(WireProtocol.GET_TASK_SERIES, out -> out.writeLong(userID), WireProtocol::readSeriesList,
+                new ArrayList<>());
+    }
+
+    @Override
+    public long insertTaskSeries(TaskSeries series) {
+        return call(WireProtocol.INSERT_TASK_SERIES, out -> WireProtocol.writeSeries(out, series),
+                DataInputStream::readLong, -1L);
+    }
+
+    @Override
+    public boolean saveOccurrence(long userID, long seriesID, LocalDate date, Occurrence occurrence) {
+        return call(WireProtocol.SAVE_OCCURRENCE, out -> {
+            out.writeLong(userID);
+            out.writeLong(seriesID);
+            WireProtocol.writeDate(out, date);
+            WireProtocol.writeOccurrence(out, occurrence);
+        }, DataInputStream::readBoolean, false);
+    }
+
+    @Override
+    public boolean removeTaskSeries(long userID, long seriesID) {
+        return call(WireProtocol.REMOVE_TASK_SERIES, out -> {
+            out.writeLong(userID);
+            out.writeLong(seriesID);
+        }, DataInputStream::readBoolean, false);
+    }
+
+    @Override
+    public List<TaskBatch.Result> flush(TaskBatch batch) {
+        if (batch.size() == 0) {
+            return List.of();
+        }
+        List<TaskBatch.Result> failed = new ArrayList<>(batch.size());
+        for (int index = 0; index < batch.size(); index++) {
+            failed.add(new TaskBatch.Result(index, -1, TaskBatch.Outcome.FAILED, "Task server is unavailable"));
+        }
+        try {
+            return call(WireProtocol.FLUSH_BATCH, batch::writeTo, WireProtocol::readResults, failed);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * The server is the only process writing its database, so its lock is never held by another
+     */
+    @Override
+    public boolean journal(long taskID, long expectedVersion, Map<TaskField, Object> changes,
+                           TaskJournal.Callback written) {
+        return false;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (writeLock) {
+            if (link != null) {
+                link.close(new IOException("Repository has been shut down"));
+                link = null;
+            }
+        }
+    }
+
+    /**
+     * Function to send a request and wait for its result
+     * @param fallback Returned if the request fails, like the value Database returns when a query fails
+     */
+    private <T> T call(byte opcode, Arguments arguments, ResultReader<T> reader, T fallback) {
+        long start = System.nanoTime();
+        try {
+            DataInputStream response = send(opcode, arguments).get(RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            T result = reader.readFrom(response);
+            callTimer.record(start);
+            return result;
+        } catch (ExecutionException e) {
+            callTimer.recordError(start);
+            logger.log(Level.WARNING, "event=remote_call_failed opcode=" + opcode, e.getCause());
+        } catch (TimeoutException | IOException e) {
+            callTimer.recordError(start);
+            logger.log(Level.WARNING, "event=remote_call_failed opcode=" + opcode, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callTimer.recordError(start);
+        }
+        return fallback;
+    }
+
+    /**
+     * Function to write a request, connecting first if needed, without waiting for its response
+     * @return Future completed with the response's result, or exceptionally with the server's error message or
+     * the reason the request couldn't be sent
+     */
+    private CompletableFuture<DataInputStream> send(byte opcode, Arguments arguments) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream request = new DataOutputStream(buffer);
+        try {
+            request.writeByte(opcode);
+            arguments.writeTo(request);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        synchronized (writeLock) {
+            try {
+                if (link == null || link.isClosed()) {
+                    link = open();
+                    String token = sessionToken;
+                    if (token != null) {
+                        // Answered before the request below, so it runs as the same user as before
+                        ByteArrayOutputStream resume = new ByteArrayOutputStream();
+                        DataOutputStream resumeRequest = new DataOutputStream(resume);
+                        resumeRequest.writeByte(WireProtocol.RESUME_SESSION);
+                        WireProtocol.writeString(resumeRequest, token);
+                        write(link, resume.toByteArray());
+                    }
+                }
+                return write(link, buffer.toByteArray());
+            } catch (IOException e) {
+                if (link != null) {
+                    link.close(e);
+                    link = null;
+                }
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+    }
+
+    /**
+     * Writes one framed request. Must be called while holding the write lock.
+     */
+    private CompletableFuture<DataInputStream> write(Link link, byte[] request) throws IOException {
+        int requestID = nextRequestID++;
+        CompletableFuture<DataInputStream> response = link.expect(requestID);
+        link.out.writeInt(request.length + 4);
+        link.out.writeInt(requestID);
+        link.out.write(request);
+        link.out.flush();
+        return response;
+    }
+
+    /**
+     * Function to open a connection to the server, check that it speaks the protocol, and start its reader thread
+     */
+    private Link open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(WireProtocol.HANDSHAKE);
+            out.flush();
+            if (in.readInt() != WireProtocol.HANDSHAKE) {
+                throw new IOException("Port " + port + " is not a task server");
+            }
+            socket.setSoTimeout(0);
+
+            Link link = new Link(socket, in, out);
+            Thread reader = new Thread(link::readResponses, "repository-client");
+            reader.setDaemon(true);
+            reader.start();
+            return link;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * One connection to the server, along with the requests waiting for a response on it
+     */
+    private static final class Link {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final Map<Integer, CompletableFuture<DataInputStream>> inFlight = new ConcurrentHashMap<>();
+        private IOException failure;
+
+        private Link(Socket socket, DataInputStream in, DataOutputStream out) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+        }
+
+        private synchronized boolean isClosed() {
+            return failure != null;
+        }
+
+        /**
+         * Function to register a request about to be sent, failing it straight away if the link has closed
+         */
+        private synchronized CompletableFuture<DataInputStream> expect(int requestID) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            CompletableFuture<DataInputStream> response = new CompletableFuture<>();
+            inFlight.put(requestID, response);
+            return response;
+        }
+
+        /**
+         * Body of the reader thread. Hands each response to the request waiting for it, until the link closes.
+         */
+        private void readResponses() {
+            try {
+                while (true) {
+                    int length = in.readInt();
+                    if (length < 5 || length > WireProtocol.MAX_FRAME_BYTES) {
+                        throw new IOException("Invalid frame length " + length);
+                    }
+                    int requestID = in.readInt();
+                    byte[] body = new byte[length - 4];
+                    in.readFully(body);
+
+                    CompletableFuture<DataInputStream> response = inFlight.remove(requestID);
+                    if (response == null) {
+                        continue;
+                    }
+                    DataInputStream result = new DataInputStream(new ByteArrayInputStream(body));
+                    if (result.readByte() == WireProtocol.OK) {
+                        response.complete(result);
+                    } else {
+                        response.completeExceptionally(new IOException("Task server error: "
+                                + WireProtocol.readString(result)));
+                    }
+                }
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        /**
+         * Closes the socket and fails every request still waiting for a response
+         */
+        private synchronized void close(IOException reason) {
+            if (failure != null) {
+                return;
+            }
+            failure = reason;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "event=socket_close_failed", e);
+            }
+            for (CompletableFuture<DataInputStream> response : inFlight.values()) {
+                response.completeExceptionally(reason);
+            }
+            inFlight.clear();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package app.database;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Class to pick the repository the application reads and writes through. If a RepositoryServer owns the
+ * database file, every instance of the application should go through it rather than open the file itself, so
+ * that they never fight over SQLite's lock or overwrite each other's changes. This is decided once, on first use,
+ * by the taskmanager.server.connect system property:
+ * <ul>
+ *     <li>auto (the default): use the server if one is running on taskmanager.server.port, otherwise open the
+ *     database file in this process,</li>
+ *     <li>always: always use the server, failing if it isn't running,</li>
+ *     <li>never: always open the database file in this process.</li>
+ * </ul>
+ */
+public final class Repositories {
+    private static final Logger logger = Logger.getLogger(Repositories.class.getName());
+
+    /**
+     * Loopback port the server listens on, and clients connect to
+     */
+    public static final int PORT = Integer.getInteger("taskmanager.server.port", 47_100);
+
+    private static final String CONNECT = System.getProperty("taskmanager.server.connect", "auto")
+            .trim().toLowerCase(Locale.ROOT);
+
+    private static TaskRepository current;
+
+    private Repositories() {}
+
+    /**
+     * @return The repository in use, choosing one the first time this is called
+     */
+    public static synchronized TaskRepository get() {
+        if (current == null) {
+            current = choose();
+        }
+        return current;
+    }
+
+    /**
+     * @return Boolean value indicating whether the repository in use opens the database file in this process
+     */
+    public static boolean isLocal() {
+        return get() instanceof LocalRepository;
+    }
+
+    /**
+     * Method to use a repository from now on, e.g. to force local access in the server process
+     */
+    public static synchronized void use(TaskRepository repository) {
+        current = repository;
+    }
+
+    /**
+     * Releases the repository in use. Should be called once when the application exits.
+     */
+    public static synchronized void shutdown() {
+        if (current != null) {
+            current.shutdown();
+            current = null;
+        }
+    }
+
+    /**
+     * Function to create the repository named by the taskmanager.server.connect property
+     */
+    private static TaskRepository choose() {
+        if (CONNECT.equals("never")) {
+            return new LocalRepository();
+        }
+        try {
+            RemoteRepository remote = RemoteRepository.connect(PORT);
+            logger.info("event=repository_selected kind=remote port=" + PORT);
+            return remote;
+        } catch (IOException e) {
+            if (CONNECT.equals("always")) {
+                throw new IllegalStateException("No task server is running on port " + PORT, e);
+            }
+            logger.info("event=repository_selected kind=local");
+            return new LocalRepository();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package app.database;
+
+import app.data.TaskSeries;
+import app.metrics.Counter;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless server which owns the database file and answers the requests of RemoteRepository clients over a
+ * loopback socket, so that several instances of the application on the same machine share one writer instead of
+ * fighting over SQLite's lock (see WireProtocol for the format). Started with "--server" on the command line.
+ * <p>
+ * Each connection is served by its own thread, which answers requests in the order they arrive and only flushes
+ * its responses once it has caught up with the requests already received, so a client pipelining many requests
+ * gets their responses back in few writes. Logins are the exception: checking a password takes a BCrypt hash,
+ * so AUTHENTICATE requests are answered by a small pool of authenticator threads while the connection's thread
+ * carries on with the requests behind them. Clients match responses to requests by ID, so the order they come
+ * back in doesn't matter. A connection may only read and change the tasks of the user who logged in on it, so one
+ * user's client can't reach another user's tasks.
+ */
+public class RepositoryServer {
+    private static final Logger logger = Logger.getLogger(RepositoryServer.class.getName());
+
+    /**
+     * Most clients served at once. Further connections are closed straight away.
+     */
+    private static final int MAX_CONNECTIONS = Integer.getInteger("taskmanager.server.maxConnections", 64);
+
+    /**
+     * Number of threads checking passwords for AUTHENTICATE requests, shared by every connection
+     */
+    private static final int AUTHENTICATOR_COUNT = Integer.getInteger("taskmanager.server.authenticators", 2);
+
+    private static final Timer requestTimer = Metrics.timer("server.request");
+    private static final Counter rejectedConnections = Metrics.counter("server.rejectedConnections");
+
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionNumber = new AtomicInteger();
+    private final Thread acceptor;
+    private final ExecutorService authenticators;
+    private volatile boolean running = true;
+
+    /**
+     * Starts listening on a loopback port. Every request is served from the database file opened in this process.
+     * @param port Port to listen on, or 0 for any free port
+     * @throws IOException If the port is already in use, e.g. by another server
+     */
+    public RepositoryServer(int port) throws IOException {
+        Repositories.use(new LocalRepository());
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        AtomicInteger authenticatorNumber = new AtomicInteger();
+        authenticators = Executors.newFixedThreadPool(AUTHENTICATOR_COUNT, runnable -> {
+            Thread thread = new Thread(runnable, "repository-authenticator-" + authenticatorNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        acceptor = new Thread(this::acceptConnections, "repository-server");
+        acceptor.start();
+        logger.info("event=server_started port=" + getPort());
+    }
+
+    /**
+     * @return Port the server is listening on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Waits until the server has been shut down
+     */
+    public void awaitShutdown() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. Requests already being answered are abandoned.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "event=server_close_failed", e);
+        }
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        authenticators.shutdownNow();
+        logger.info("event=server_stopped");
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(Level.WARNING, "event=server_accept_failed", e);
+                }
+                continue;
+            }
+            if (connections.size() >= MAX_CONNECTIONS) {
+                rejectedConnections.increment();
+                closeQuietly(socket);
+                continue;
+            }
+            connections.add(socket);
+            Thread thread = new Thread(() -> serve(socket), "repository-connection-" + connectionNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Body of a connection's thread. Reads and answers requests until the client disconnects.
+     */
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            if (in.readInt() != WireProtocol.HANDSHAKE) {
+                return;
+            }
+            out.writeInt(WireProtocol.HANDSHAKE);
+            out.flush();
+
+            ClientState client = new ClientState();
+            while (true) {
+                int length = in.readInt();
+                if (length < 5 || length > WireProtocol.MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                int requestID = in.readInt();
+                byte[] request = new byte[length - 4];
+                in.readFully(request);
+
+                if (request[0] == WireProtocol.AUTHENTICATE) {
+                    authenticators.execute(() -> {
+                        try {
+                            respond(client, requestID, request, out, true);
+                        } catch (IOException e) {
+                            // The client disconnected while the password was being checked
+                            logger.log(Level.FINE, "event=login_response_failed", e);
+                        }
+                    });
+                } else {
+                    // Further pipelined requests are answered before the responses are sent
+                    respond(client, requestID, request, out, in.available() == 0);
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // The client disconnected
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "event=connection_failed", e);
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Answers one request and writes its response. Responses are written whole, as the connection's thread and
+     * the authenticators both write to the connection.
+     * @param flush Whether to send the response, and any written before it, straight away
+     */
+    private static void respond(ClientState client, int requestID, byte[] request, DataOutputStream out,
+                                boolean flush) throws IOException {
+        long start = System.nanoTime();
+        byte[] response = client.answer(request);
+        if (response[0] == WireProtocol.OK) {
+            requestTimer.record(start);
+        } else {
+            requestTimer.recordError(start);
+        }
+
+        synchronized (out) {
+            out.writeInt(response.length + 4);
+            out.writeInt(requestID);
+            out.write(response);
+            if (flush) {
+                out.flush();
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "event=socket_close_failed", e);
+        }
+    }
+
+    /**
+     * What a connection is allowed to do: nothing but look up, create and log in users, until a user logs in on
+     * it. Requests are answered by the connection's thread and by the authenticators at once, so the logged-in
+     * user is only read and changed while holding the state's lock. A request sent after an AUTHENTICATE, but
+     * before its response, may be answered as whoever was logged in before.
+     */
+    private static final class ClientState {
+        private long userID = -1;
+        private String token;
+
+        /**
+         * Function to run one request
+         * @param request Opcode and arguments of the request
+         * @return Status and result of the request
+         */
+        byte[] answer(byte[] request) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(WireProtocol.OK);
+            try {
+                run(in.readByte(), in, out);
+            } catch (IOException | RuntimeException e) {
+                // A bad request only fails itself, not the connection
+                buffer.reset();
+                out.writeByte(WireProtocol.ERROR);
+                WireProtocol.writeString(out, String.valueOf(e.getMessage()));
+                if (e instanceof RuntimeException) {
+                    logger.log(Level.WARNING, "event=request_failed", e);
+                }
+            }
+            return buffer.toByteArray();
+        }
+
+        private void run(byte opcode, DataInputStream in, DataOutputStream out) throws IOException {
+            switch (opcode) {
+                case WireProtocol.USER_EXISTS -> out.writeBoolean(Database.userExists(WireProtocol.readString(in)));
+                // The new user logs in with AUTHENTICATE, which gives the client a session to resume
+                case WireProtocol.INSERT_USER -> out.writeBoolean(Database.insertUser(WireProtocol.readString(in),
+                        WireProtocol.readString(in), WireProtocol.readString(in)));
+                case WireProtocol.GET_USER_ID -> out.writeLong(Database.getUserID(WireProtocol.readString(in)));
+                case WireProtocol.AUTHENTICATE -> {
+                    AuthenticationService.Session login = AuthenticationService.authenticate(
+                            WireProtocol.readString(in), WireProtocol.readString(in));
+                    logIn(login);
+                    WireProtocol.writeSession(out, login);
+                }
+                case WireProtocol.RESUME_SESSION -> {
+                    AuthenticationService.Session resumed = AuthenticationService.resumeSession(WireProtocol.readString(in));
+                    logIn(resumed);
+                    WireProtocol.writeSession(out, resumed);
+                }
+                case WireProtocol.END_SESSION -> {
+                    String ended = WireProtocol.readString(in);
+                    AuthenticationService.endSession(ended);
+                    logOut(ended);
+                }
+                case WireProtocol.GET_TASKS_PAGE -> WireProtocol.writeTasks(out,
+                        Database.getTasksPage(ownUserID(in.readLong()), in.readLong(), in.readInt()));
+                case WireProtocol.GET_TASK_STATISTICS -> WireProtocol.writeStatistics(out,
+                        Database.getTaskStatistics(ownUserID(in.readLong())));
+                case WireProtocol.SEARCH_TASKS -> WireProtocol.writeTasks(out, Database.searchTasks(
+                        ownUserID(in.readLong()), WireProtocol.readString(in), in.readInt(), in.readInt()));
+                case WireProtocol.GET_TASK_SERIES -> WireProtocol.writeSeriesList(out,
+                        Database.getTaskSeries(ownUserID(in.readLong())));
+                case WireProtocol.INSERT_TASK_SERIES -> {
+                    TaskSeries series = WireProtocol.readSeries(in);
+                    ownUserID(series.userID());
+                    out.writeLong(Database.insertTaskSeries(series));
+                }
+                case WireProtocol.SAVE_OCCURRENCE -> out.writeBoolean(Database.saveOccurrence(
+                        ownUserID(in.readLong()), in.readLong(), WireProtocol.readDate(in),
+                        WireProtocol.readOccurrence(in)));
+                case WireProtocol.REMOVE_TASK_SERIES -> out.writeBoolean(Database.removeTaskSeries(
+                        ownUserID(in.readLong()), in.readLong()));
+                case WireProtocol.FLUSH_BATCH -> {
+                    // Checked before the batch is read, so that only a logged-in user's batches are parsed
+                    long ownerID = ownUserID();
+                    TaskBatch batch = TaskBatch.readFrom(in);
+                    WireProtocol.writeResults(out, batch.flushLocally(ownerID));
+                }
+                default -> throw new IOException("Unknown request " + opcode);
+            }
+        }
+
+        private synchronized void logIn(AuthenticationService.Session login) {
+            if (login != null) {
+                userID = login.userID();
+                token = login.token();
+            }
+        }
+
+        private synchronized void logOut(String endedToken) {
+            if (endedToken != null && endedToken.equals(token)) {
+                userID = -1;
+                token = null;
+            }
+        }
+
+        /**
+         * Function to check that a request is for the tasks of the user logged in on this connection
+         * @return The user's ID
+         */
+        private synchronized long ownUserID(long requestedUserID) throws IOException {
+            if (userID == -1 || requestedUserID != userID) {
+                throw new IOException("Not logged in as user " + requestedUserID);
+            }
+            return userID;
+        }
+
+        /**
+         * @return ID of the user logged in on this connection
+         */
+        private synchronized long ownUserID() throws IOException {
+            if (userID == -1) {
+                throw new IOException("Not logged in");
+            }
+            return userID;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package app.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Class to bring the database schema up to date. Every change to the schema is a numbered migration, and the
+ * schema_version table records which ones a database file has already had applied, so existing files are
+ * upgraded in place when the application starts. New migrations must be appended to the end of the list.
+ */
+class SchemaMigrations {
+    private static final Logger logger = Logger.getLogger(SchemaMigrations.class.getName());
+
+    /**
+     * A single schema change. Each statement is run separately, as the driver only runs the first statement
+     * of a multi-statement string.
+     */
+    private record Migration(int version, String description, List<String> statements) {}
+
+    /**
+     * Full-text index over task names and descriptions, kept in sync with the tasks table by triggers.
+     * The index is contentless (it doesn't keep its own copy of the text), so results are joined back to tasks.
+     * The owner column holds a token such as "u42" for the task's user, so that a search only has to look at
+     * the index entries of one user rather than filtering the matches of every user afterwards.
+     */
+    static final List<String> SEARCH_INDEX = List.of(
+            """
+            CREATE VIRTUAL TABLE tasks_fts USING fts5(
+                owner, task_name, task_description,
+                content = '', prefix = '2 3', tokenize = 'unicode61 remove_diacritics 2'
+            )""",
+            """
+            INSERT INTO tasks_fts (rowid, owner, task_name, task_description)
+            SELECT task_id, 'u' || user_id, task_name, COALESCE(task_description, '') FROM tasks""");
+
+    /**
+     * Triggers which keep tasks_fts in step with tasks. Kept apart from SEARCH_INDEX so that they can be created
+     * again after the tasks table is rebuilt.
+     */
+    static final List<String> SEARCH_INDEX_TRIGGERS = List.of(
+            """
+            CREATE TRIGGER tasks_fts_insert AFTER INSERT ON tasks BEGIN
+                INSERT INTO tasks_fts (rowid, owner, task_name, task_description)
+                VALUES (new.task_id, 'u' || new.user_id, new.task_name, COALESCE(new.task_description, ''));
+            END""",
+            """
+            CREATE TRIGGER tasks_fts_delete AFTER DELETE ON tasks BEGIN
+                INSERT INTO tasks_fts (tasks_fts, rowid, owner, task_name, task_description)
+                VALUES ('delete', old.task_id, 'u' || old.user_id, old.task_name, COALESCE(old.task_description, ''));
+            END""",
+            """
+            CREATE TRIGGER tasks_fts_update AFTER UPDATE OF user_id, task_name, task_description ON tasks BEGIN
+                INSERT INTO tasks_fts (tasks_fts, rowid, owner, task_name, task_description)
+                VALUES ('delete', old.task_id, 'u' || old.user_id, old.task_name, COALESCE(old.task_description, ''));
+                INSERT INTO tasks_fts (rowid, owner, task_name, task_description)
+                VALUES (new.task_id, 'u' || new.user_id, new.task_name, COALESCE(new.task_description, ''));
+            END""");
+
+    /**
+     * Per-user task counts by status, priority and due date (see StatisticsDimension), kept up to date by triggers
+     * so that they change in the same transaction as the tasks they count. The dashboard reads these rows instead
+     * of grouping every task. Buckets whose count drops to zero are left in place, and skipped when read.
+     * A due date only counts if it is a valid YYYY-MM-DD date, and the task isn't completed (status 2).
+     */
+    static final List<String> TASK_STATS = List.of(
+            """
+            CREATE TABLE task_stats (
+                user_id INTEGER NOT NULL,
+                dimension TEXT NOT NULL,
+                bucket INTEGER NOT NULL,
+                task_count INTEGER NOT NULL,
+                PRIMARY KEY (user_id, dimension, bucket)
+            ) WITHOUT ROWID""",
+            """
+            INSERT INTO task_stats (user_id, dimension, bucket, task_count)
+            SELECT user_id, 'status', status, COUNT(*) FROM tasks GROUP BY user_id, status""",
+            """
+            INSERT INTO task_stats (user_id, dimension, bucket, task_count)
+            SELECT user_id, 'priority', COALESCE(priority, -1), COUNT(*) FROM tasks
+            GROUP BY user_id, COALESCE(priority, -1)""",
+            """
+            INSERT INTO task_stats (user_id, dimension, bucket, task_count)
+            SELECT user_id, 'due_day', unixepoch(due_date) / 86400, COUNT(*) FROM tasks
+            WHERE status <> 2 AND date(due_date) = due_date
+            GROUP BY user_id, unixepoch(due_date) / 86400""");
+
+    /**
+     * Triggers which keep task_stats in step with tasks, kept apart from TASK_STATS like SEARCH_INDEX_TRIGGERS
+     */
+    static final List<String> TASK_STATS_TRIGGERS = List.of(
+            "CREATE TRIGGER task_stats_insert AFTER INSERT ON tasks BEGIN\n"
+                    + countTask("new", 1)
+                    + "END",
+            "CREATE TRIGGER task_stats_delete AFTER DELETE ON tasks BEGIN\n"
+                    + countTask("old", -1)
+                    + "END",
+            "CREATE TRIGGER task_stats_update AFTER UPDATE OF user_id, status, priority, due_date ON tasks BEGIN\n"
+                    + countTask("old", -1)
+                    + countTask("new", 1)
+                    + "END");
+
+    /**
+     * Triggers which record when each task was completed, in seconds since the epoch, so that TaskArchiver can
+     * find tasks which have been completed for a while. A task which leaves the completed status loses its time.
+     * Tasks inserted with a completion time keep it, so that restoring a task from tasks_archive doesn't reset it.
+     */
+    static final List<String> COMPLETION_TRACKING = List.of(
+            """
+            CREATE TRIGGER tasks_completed_insert AFTER INSERT ON tasks
+            WHEN new.status = 2 AND new.completed_at IS NULL BEGIN
+                UPDATE tasks SET completed_at = unixepoch() WHERE task_id = new.task_id;
+            END""",
+            """
+            CREATE TRIGGER tasks_completed_update AFTER UPDATE OF status ON tasks
+            WHEN (new.status = 2) <> (old.status = 2) BEGIN
+                UPDATE tasks SET completed_at = CASE WHEN new.status = 2 THEN unixepoch() END
+                WHERE task_id = new.task_id;
+            END""",
+            "CREATE INDEX idx_tasks_completed_at ON tasks(completed_at) WHERE completed_at IS NOT NULL");
+
+    /**
+     * Function to build the trigger statements which add a task to, or take it away from, the counts of its buckets
+     * @param row "new" or "old", whichever row of the trigger is being counted
+     * @param change 1 to add the task, -1 to take it away
+     */
+    private static String countTask(String row, int change) {
+        String upsert = "INSERT INTO task_stats (user_id, dimension, bucket, task_count) SELECT %s.user_id, '%s', %s, %d"
+                + " WHERE %s ON CONFLICT DO UPDATE SET task_count = task_count + %d;\n";
+        return String.format(upsert, row, "status", row + ".status", change, "true", change)
+                + String.format(upsert, row, "priority", "COALESCE(" + row + ".priority, -1)", change, "true", change)
+                + String.format(upsert, row, "due_day", "unixepoch(" + row + ".due_date) / 86400", change,
+                        row + ".status <> 2 AND date(" + row + ".due_date) = " + row + ".due_date", change);
+    }
+
+    /**
+     * Columns copied between tasks and tasks_archive when a task is archived or restored
+     */
+    static final String ARCHIVED_COLUMNS =
+            "task_id, user_id, task_name, task_description, due_date, priority, status, version, completed_at";
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create users and tasks tables", List.of(
+                    """
+                    CREATE TABLE IF NOT EXISTS users (
+                        user_id INTEGER PRIMARY KEY AUTOINCREMENT,
+                        username TEXT NOT NULL,
+                        email TEXT NOT NULL,
+                        password TEXT NOT NULL
+                    )""",
+                    """
+                    CREATE TABLE IF NOT EXISTS tasks (
+                        task_id INTEGER PRIMARY KEY AUTOINCREMENT,
+                        user_id INTEGER NOT NULL,
+                        task_name TEXT NOT NULL,
+                        task_description TEXT,
+                        due_date DATE,
+                        priority TEXT,
+                        status TEXT NOT NULL,
+                        FOREIGN KEY (user_id) REFERENCES users(user_id)
+                    )""")),
+
+            new Migration(2, "Make usernames unique", List.of(
+                    // Older files could contain the same username more than once. Logins always matched the
+                    // first of these, so the duplicates' tasks are given to it before the duplicates are removed.
+                    """
+                    UPDATE tasks SET user_id = (
+                        SELECT MIN(first.user_id) FROM users first
+                        WHERE first.username = (SELECT username FROM users WHERE user_id = tasks.user_id))
+                    WHERE user_id IN (SELECT user_id FROM users)""",
+                    """
+                    DELETE FROM users
+                    WHERE user_id NOT IN (SELECT MIN(user_id) FROM users GROUP BY username)""",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS idx_users_username ON users(username)")),
+
+            new Migration(3, "Store task priority and status as integer codes and index tasks by user", List.of(
+                    """
+                    CREATE TABLE tasks_typed (
+                        task_id INTEGER PRIMARY KEY AUTOINCREMENT,
+                        user_id INTEGER NOT NULL,
+                        task_name TEXT NOT NULL,
+                        task_description TEXT,
+                        due_date TEXT,
+                        priority INTEGER,
+                        status INTEGER NOT NULL DEFAULT 0,
+                        FOREIGN KEY (user_id) REFERENCES users(user_id)
+                    )""",
+                    """
+                    INSERT INTO tasks_typed (task_id, user_id, task_name, task_description, due_date, priority, status)
+                    SELECT task_id, user_id, task_name, task_description, due_date,
+                        CASE
+                            WHEN typeof(priority) = 'integer' THEN priority
+                            WHEN lower(trim(priority)) = 'low' THEN 0
+                            WHEN lower(trim(priority)) = 'medium' THEN 1
+                            WHEN lower(trim(priority)) = 'high' THEN 2
+                            ELSE NULL
+                        END,
+                        CASE
+                            WHEN typeof(status) = 'integer' THEN status
+                            WHEN lower(trim(status)) IN ('in progress', 'in_progress', 'started') THEN 1
+                            WHEN lower(trim(status)) IN ('completed', 'complete', 'done') THEN 2
+                            ELSE 0
+                        END
+                    FROM tasks""",
+                    "DROP TABLE tasks",
+                    "ALTER TABLE tasks_typed RENAME TO tasks",
+                    "CREATE INDEX idx_tasks_user_status_due ON tasks(user_id, status, due_date)")),
+
+            new Migration(4, "Index tasks by user and task ID for keyset pagination", List.of(
+                    "CREATE INDEX idx_tasks_user_task ON tasks(user_id, task_id)")),
+
+            new Migration(5, "Add full-text search index over task names and descriptions",
+                    concat(SEARCH_INDEX, SEARCH_INDEX_TRIGGERS)),
+
+            new Migration(6, "Track progress of task imports so they can be resumed", List.of(
+                    """
+                    CREATE TABLE import_checkpoints (
+                        user_id INTEGER NOT NULL,
+                        source TEXT NOT NULL,
+                        source_size INTEGER NOT NULL,
+                        source_modified INTEGER NOT NULL,
+                        records_read INTEGER NOT NULL,
+                        tasks_imported INTEGER NOT NULL,
+                        records_rejected INTEGER NOT NULL,
+                        PRIMARY KEY (user_id, source)
+                    )""")),
+
+            new Migration(7, "Keep per-user task counts up to date in task_stats",
+                    concat(TASK_STATS, TASK_STATS_TRIGGERS)),
+
+            // Every UPDATE of a task's fields also sets version = version + 1 (see TaskBatch), so that a change
+            // based on an older copy of the task can be detected rather than overwriting the newer one
+            new Migration(8, "Add a version number to tasks for compare-and-set updates", List.of(
+                    "ALTER TABLE tasks ADD COLUMN version INTEGER NOT NULL DEFAULT 1")),
+
+            // Deleted tasks, and tasks completed long ago, are moved out of tasks into tasks_archive, so that
+            // the hot table and its indexes only hold tasks still in use. Rows with a deleted_at time can be
+            // restored until TaskArchiver purges them. Tasks already completed count as completed from now on.
+            new Migration(9, "Track task completion times and add an archive for deleted and old tasks", concat(
+                    List.of(
+                            "ALTER TABLE tasks ADD COLUMN completed_at INTEGER",
+                            "UPDATE tasks SET completed_at = unixepoch() WHERE status = 2",
+                            """
+                            CREATE TABLE tasks_archive (
+                                task_id INTEGER PRIMARY KEY,
+                                user_id INTEGER NOT NULL,
+                                task_name TEXT NOT NULL,
+                                task_description TEXT,
+                                due_date TEXT,
+                                priority INTEGER,
+                                status INTEGER NOT NULL,
+                                version INTEGER NOT NULL,
+                                completed_at INTEGER,
+                                deleted_at INTEGER,
+                                archived_at INTEGER NOT NULL
+                            )""",
+                            "CREATE INDEX idx_tasks_archive_user ON tasks_archive(user_id)",
+                            "CREATE INDEX idx_tasks_archive_deleted ON tasks_archive(deleted_at) WHERE deleted_at IS NOT NULL"),
+                    COMPLETION_TRACKING)),
+
+            // SQLite can't add an ON DELETE action to an existing foreign key, so tasks, tasks_archive and
+            // import_checkpoints are rebuilt with one. Tasks left behind by users deleted before foreign keys were
+            // enforced are removed first, while the triggers are still there to take them out of tasks_fts and
+            // task_stats. Dropping tasks drops its triggers and indexes, so they are created again at the end.
+            // task_stats is left without a foreign key: the delete triggers on tasks write to it while a user's
+            // tasks are being cascaded, so UserLifecycle removes its rows once the user is gone.
+            new Migration(10, "Delete a user's tasks along with the user", concat(
+                    List.of(
+                            "ALTER TABLE users ADD COLUMN deleted_at INTEGER",
+                            "DELETE FROM tasks WHERE user_id NOT IN (SELECT user_id FROM users)",
+                            "DELETE FROM tasks_archive WHERE user_id NOT IN (SELECT user_id FROM users)",
+                            "DELETE FROM import_checkpoints WHERE user_id NOT IN (SELECT user_id FROM users)",
+                            "DELETE FROM task_stats WHERE user_id NOT IN (SELECT user_id FROM users)",
+                            """
+                            CREATE TABLE tasks_cascading (
+                                task_id INTEGER PRIMARY KEY AUTOINCREMENT,
+                                user_id INTEGER NOT NULL,
+                                task_name TEXT NOT NULL,
+                                task_description TEXT,
+                                due_date TEXT,
+                                priority INTEGER,
+                                status INTEGER NOT NULL DEFAULT 0,
+                                version INTEGER NOT NULL DEFAULT 1,
+                                completed_at INTEGER,
+                                FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE
+                            )""",
+                            "INSERT INTO tasks_cascading (" + ARCHIVED_COLUMNS + ") SELECT " + ARCHIVED_COLUMNS + " FROM tasks"),
+                    reserveTaskIDs("tasks_cascading"),
+                    List.of(
+                            "DROP TABLE tasks",
+                            "ALTER TABLE tasks_cascading RENAME TO tasks",
+                            "CREATE INDEX idx_tasks_user_status_due ON tasks(user_id, status, due_date)",
+                            "CREATE INDEX idx_tasks_user_task ON tasks(user_id, task_id)",
+                            """
+                            CREATE TABLE tasks_archive_cascading (
+                                task_id INTEGER PRIMARY KEY,
+                                user_id INTEGER NOT NULL,
+                                task_name TEXT NOT NULL,
+                                task_description TEXT,
+                                due_date TEXT,
+                                priority INTEGER,
+                                status INTEGER NOT NULL,
+                                version INTEGER NOT NULL,
+                                completed_at INTEGER,
+                                deleted_at INTEGER,
+                                archived_at INTEGER NOT NULL,
+                                FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE
+                            )""",
+                            "INSERT INTO tasks_archive_cascading SELECT * FROM tasks_archive",
+                            "DROP TABLE tasks_archive",
+                            "ALTER TABLE tasks_archive_cascading RENAME TO tasks_archive",
+                            "CREATE INDEX idx_tasks_archive_user ON tasks_archive(user_id)",
+                            "CREATE INDEX idx_tasks_archive_deleted ON tasks_archive(deleted_at) WHERE deleted_at IS NOT NULL",
+                            """
+                            CREATE TABLE import_checkpoints_cascading (
+                                user_id INTEGER NOT NULL,
+                                source TEXT NOT NULL,
+                                source_size INTEGER NOT NULL,
+                                source_modified INTEGER NOT NULL,
+                                records_read INTEGER NOT NULL,
+                                tasks_imported INTEGER NOT NULL,
+                                records_rejected INTEGER NOT NULL,
+                                PRIMARY KEY (user_id, source),
+                                FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE
+                            )""",
+                            "INSERT INTO import_checkpoints_cascading SELECT * FROM import_checkpoints",
+                            "DROP TABLE import_checkpoints",
+                            "ALTER TABLE import_checkpoints_cascading RENAME TO import_checkpoints"),
+                    SEARCH_INDEX_TRIGGERS, TASK_STATS_TRIGGERS, COMPLETION_TRACKING)),
+
+            // A recurring task is stored once, as its rule, rather than as a row per occurrence. Occurrences are
+            // worked out from the rule when they are shown (see TaskSeries), and task_series_exceptions only holds
+            // the ones the user has changed or deleted. The override columns hold the whole occurrence, so a
+            // changed occurrence keeps its values if the series is changed later.
+            new Migration(11, "Add recurring task series with per-occurrence exceptions", List.of(
+                    """
+                    CREATE TABLE task_series (
+                        series_id INTEGER PRIMARY KEY AUTOINCREMENT,
+                        user_id INTEGER NOT NULL,
+                        task_name TEXT NOT NULL,
+                        task_description TEXT,
+                        priority INTEGER,
+                        frequency INTEGER NOT NULL,
+                        repeat_interval INTEGER NOT NULL DEFAULT 1,
+                        start_date TEXT NOT NULL,
+                        until_date TEXT,
+                        occurrence_limit INTEGER,
+                        FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE
+                    )""",
+                    "CREATE INDEX idx_task_series_user ON task_series(user_id)",
+                    """
+                    CREATE TABLE task_series_exceptions (
+                        series_id INTEGER NOT NULL,
+                        occurrence_date TEXT NOT NULL,
+                        skipped INTEGER NOT NULL DEFAULT 0,
+                        task_name TEXT,
+                        task_description TEXT,
+                        due_date TEXT,
+                        priority INTEGER,
+                        status INTEGER,
+                        PRIMARY KEY (series_id, occurrence_date),
+                        FOREIGN KEY (series_id) REFERENCES task_series(series_id) ON DELETE CASCADE
+                    ) WITHOUT ROWID""")),
+
+            // Migration 10 used to leave tasks without a sqlite_sequence row when it had no rows, e.g. when every
+            // task had been archived, so the IDs of archived tasks could be handed out again
+            new Migration(12, "Never reuse the IDs of archived tasks", reserveTaskIDs("tasks"))
+    );
+
+    /**
+     * Function to build the statements which make a tasks table's AUTOINCREMENT start after every task ID in use,
+     * so that an ID held by an archived task is never handed out again. sqlite_sequence has no unique key on
+     * name, and a table which has never had a row has no row in it at all, so rather than updating it the new
+     * row is inserted and any older row for the table deleted.
+     * @param table Name of the tasks table, which may have replaced one called tasks
+     */
+    private static List<String> reserveTaskIDs(String table) {
+        return List.of(
+                """
+                INSERT INTO sqlite_sequence (name, seq) SELECT '%1$s', MAX(
+                    COALESCE((SELECT MAX(seq) FROM sqlite_sequence WHERE name IN ('tasks', '%1$s')), 0),
+                    COALESCE((SELECT MAX(task_id) FROM %1$s), 0),
+                    COALESCE((SELECT MAX(task_id) FROM tasks_archive), 0))""".formatted(table),
+                """
+                DELETE FROM sqlite_sequence WHERE name = '%1$s'
+                    AND rowid < (SELECT MAX(rowid) FROM sqlite_sequence WHERE name = '%1$s')""".formatted(table));
+    }
+
+    @SafeVarargs
+    private static List<String> concat(List<String>... parts) {
+        List<String> statements = new ArrayList<>();
+        for (List<String> part : parts) {
+            statements.addAll(part);
+        }
+        return statements;
+    }
+
+    /**
+     * Applies every migration the database has not had yet, each in its own transaction
+     * @param conn Writer connection to the database
+     */
+    static void migrate(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            // Tables are rebuilt with foreign keys switched off, as SQLite recommends, so that dropping the old
+            // copy of a table doesn't delete the rows which refer to it
+            statement.execute("PRAGMA foreign_keys = OFF");
+            // Only takes effect on a new, empty file. Lets TaskArchiver hand free pages back to the file system
+            // a few at a time rather than with a full VACUUM. Existing files are converted by TaskArchiver.
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS schema_version (
+                        version INTEGER PRIMARY KEY,
+                        description TEXT NOT NULL,
+                        applied_at TEXT NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )""");
+        }
+
+        try {
+            int current = currentVersion(conn);
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version() > current) {
+                    apply(conn, migration);
+                    logger.info("event=migration_applied version=" + migration.version()
+                            + " description=\"" + migration.description() + "\"");
+                }
+            }
+        } finally {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("PRAGMA foreign_keys = ON");
+            }
+        }
+    }
+
+    /**
+     * Function to return the version of the newest migration applied to the database
+     * @param conn Connection to the database
+     * @return Newest applied version, or 0 for a new database
+     */
+    static int currentVersion(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement();
+             ResultSet version = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return version.next() ? version.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Runs one migration and records it in schema_version. If any statement fails, none of it is kept.
+     */
+    private static void apply(Connection conn, Migration migration) throws SQLException {
+        conn.setAutoCommit(false);
+        try (Statement statement = conn.createStatement();
+             PreparedStatement record = conn.prepareStatement(
+                     "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+            for (String sql : migration.statements()) {
+                statement.execute(sql);
+            }
+            record.setInt(1, migration.version());
+            record.setString(2, migration.description());
+            record.executeUpdate();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Schema migration " + migration.version() + " failed: " + e.getMessage(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+}
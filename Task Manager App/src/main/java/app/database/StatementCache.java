@@ -0,0 +1,162 @@
+package app.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-connection cache of prepared statements, keyed by their SQL text. Database methods prepare the same
+ * handful of statements over and over, so keeping them around means SQLite only parses each one once per
+ * connection. The least recently used statement is closed once the cache is full.
+ */
+class StatementCache {
+    private static final Logger logger = Logger.getLogger(StatementCache.class.getName());
+
+    private final Connection physical;
+    private final int capacity;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /**
+     * @param physical Connection the statements belong to
+     * @param capacity Maximum number of statements kept open
+     */
+    StatementCache(Connection physical, int capacity) {
+        this.physical = physical;
+        this.capacity = capacity;
+        // Access order, so that iteration starts with the least recently used statement
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Function to return a prepared statement for the given SQL, reusing a cached one where possible.
+     * Closing the returned statement resets it and hands it back to the cache rather than closing it.
+     * @param sql SQL text of the statement
+     * @return Statement ready to have its parameters set
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached == null) {
+            cached = new CachedStatement(physical.prepareStatement(sql));
+            cached.inUse = true;
+            statements.put(sql, cached);
+            evictIfFull();
+            return cached.handle();
+        }
+        if (cached.inUse) {
+            // The same SQL is already open further up the stack, so give this caller its own statement
+            return physical.prepareStatement(sql);
+        }
+        cached.inUse = true;
+        return cached.handle();
+    }
+
+    /**
+     * Method to close every statement which isn't currently borrowed. SQLite refuses to VACUUM while any
+     * statement on the connection is still open, so this is called before handing the writer out for one.
+     */
+    void clear() {
+        var iterator = statements.entrySet().iterator();
+        while (iterator.hasNext()) {
+            CachedStatement cached = iterator.next().getValue();
+            if (!cached.inUse) {
+                iterator.remove();
+                cached.closeQuietly();
+            }
+        }
+    }
+
+    private void evictIfFull() {
+        var iterator = statements.entrySet().iterator();
+        while (statements.size() > capacity && iterator.hasNext()) {
+            Map.Entry<String, CachedStatement> eldest = iterator.next();
+            if (!eldest.getValue().inUse) {
+                iterator.remove();
+                eldest.getValue().closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * A statement held in the cache, along with any result set it currently has open
+     */
+    private static final class CachedStatement implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final PreparedStatement handle;
+        private ResultSet openResults;
+        private boolean inUse;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.handle = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        private PreparedStatement handle() {
+            return handle;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) {
+                        reset();
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (!inUse) {
+                        throw new SQLException("Statement has already been closed.");
+                    }
+                    try {
+                        Object result = method.invoke(statement, args);
+                        if (result instanceof ResultSet) {
+                            openResults = (ResultSet) result;
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+
+        /**
+         * Clears everything the last borrower left behind, so the next one starts from a clean statement.
+         * Open result sets are closed here as well, since they would otherwise keep a read transaction open.
+         */
+        private void reset() throws SQLException {
+            inUse = false;
+            try {
+                if (openResults != null) {
+                    openResults.close();
+                    openResults = null;
+                }
+            } finally {
+                statement.clearParameters();
+                statement.clearBatch();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.log(Level.FINE, "event=close_statement_failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package app.database;
+
+/**
+ * What the per-user task counts in the task_stats table are broken down by, along with the value stored in its
+ * dimension column. Each dimension splits a user's tasks into buckets:
+ * <ul>
+ *     <li>STATUS: one bucket per status code,</li>
+ *     <li>PRIORITY: one bucket per priority code, with -1 for tasks without a priority,</li>
+ *     <li>DUE_DAY: one bucket per due date (as days since 1970-01-01), counting only tasks which aren't completed.</li>
+ * </ul>
+ */
+public enum StatisticsDimension {
+    STATUS("status"),
+    PRIORITY("priority"),
+    DUE_DAY("due_day");
+
+    /**
+     * Bucket of the PRIORITY dimension counting tasks without a priority
+     */
+    public static final long NO_PRIORITY = -1;
+
+    private final String key;
+
+    StatisticsDimension(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return Value stored in the dimension column of task_stats
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Function to convert a value read from the dimension column back into a dimension
+     * @return The dimension, or null for a dimension this version doesn't know about
+     */
+    public static StatisticsDimension fromKey(String key) {
+        for (StatisticsDimension dimension : values()) {
+            if (dimension.key.equals(key)) {
+                return dimension;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package app.database;
+
+import org.sqlite.SQLiteConfig;
+
+import java.util.logging.Logger;
+
+/**
+ * Named sets of SQLite pragmas which are applied to every connection opened by the connection pool.
+ * Both profiles run in WAL mode, so readers keep working from the last committed snapshot while a
+ * write is in progress instead of waiting for it to finish.
+ * The profile is chosen with the taskmanager.db.profile system property ("durable" or "fast").
+ */
+public enum StorageProfile {
+    /**
+     * Every commit is synced to disk before it returns. This is the default.
+     */
+    DURABLE(SQLiteConfig.SynchronousMode.FULL, -16_000, 64L * 1024 * 1024, SQLiteConfig.TempStore.DEFAULT),
+
+    /**
+     * Commits are only synced at WAL checkpoints. A power cut can lose the most recent commits, but the
+     * database file is never corrupted. Uses more memory for the page cache and temporary tables.
+     */
+    FAST(SQLiteConfig.SynchronousMode.NORMAL, -64_000, 256L * 1024 * 1024, SQLiteConfig.TempStore.MEMORY);
+
+    private static final Logger logger = Logger.getLogger(StorageProfile.class.getName());
+
+    private final SQLiteConfig.SynchronousMode synchronous;
+    /**
+     * Page cache size. Negative values are in KiB rather than pages, as in PRAGMA cache_size.
+     */
+    private final int cacheSize;
+    private final long mmapSize;
+    private final SQLiteConfig.TempStore tempStore;
+
+    StorageProfile(SQLiteConfig.SynchronousMode synchronous, int cacheSize, long mmapSize,
+                   SQLiteConfig.TempStore tempStore) {
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+    }
+
+    /**
+     * Function to find the profile named by the taskmanager.db.profile system property
+     * @return The configured profile, or DURABLE if none (or an unknown one) is configured
+     */
+    public static StorageProfile fromSystemProperty() {
+        String name = System.getProperty("taskmanager.db.profile", DURABLE.name());
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warning("event=unknown_storage_profile profile=\"" + name + "\" using=" + DURABLE);
+            return DURABLE;
+        }
+    }
+
+    /**
+     * Applies this profile's pragmas to the configuration used to open a connection.
+     * The journal mode is stored in the database file itself, so it is only set by the writer connection.
+     * @param config Configuration of the connection about to be opened
+     * @param writer Whether the connection is the pool's writer connection
+     */
+    void applyTo(SQLiteConfig config, boolean writer) {
+        if (writer) {
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        }
+        config.setSynchronous(synchronous);
+        config.setCacheSize(cacheSize);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, Long.toString(mmapSize));
+        config.setTempStore(tempStore);
+    }
+}
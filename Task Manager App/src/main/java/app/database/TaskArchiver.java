@@ -0,0 +1,245 @@
+package app.database;
+
+import app.metrics.Counter;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class to keep the tasks table small in the background. Every pass:
+ * <ul>
+ *     <li>moves tasks completed more than taskmanager.archive.afterDays days ago (default 30) into tasks_archive,</li>
+ *     <li>purges deleted tasks which have been in tasks_archive for more than taskmanager.archive.trashDays days
+ *     (default 30), after which they can no longer be restored,</li>
+ *     <li>hands free pages back to the file system once more than taskmanager.vacuum.freeFraction of the file
+ *     (default 0.2) is free, and lets SQLite refresh its query planner statistics with PRAGMA optimize.</li>
+ * </ul>
+ * Rows are moved in transactions of taskmanager.archive.batchSize tasks (default 500), releasing the writer
+ * connection in between, so that the user's own changes are never held up for long. A pass runs shortly after
+ * start() and then every taskmanager.archive.intervalMinutes minutes (default 60).
+ * Only the process which owns the database file (the application without a server, or the server) runs passes.
+ * Tasks archived while a user is logged in stay in the model until they next log in.
+ */
+public final class TaskArchiver {
+    private static final Logger logger = Logger.getLogger(TaskArchiver.class.getName());
+
+    private static final long ARCHIVE_AFTER_DAYS = Long.getLong("taskmanager.archive.afterDays", 30);
+    private static final long TRASH_DAYS = Long.getLong("taskmanager.archive.trashDays", 30);
+    private static final long INTERVAL_MINUTES = Long.getLong("taskmanager.archive.intervalMinutes", 60);
+    private static final int BATCH_SIZE = Integer.getInteger("taskmanager.archive.batchSize", 500);
+    private static final double VACUUM_FREE_FRACTION =
+            Double.parseDouble(System.getProperty("taskmanager.vacuum.freeFraction", "0.2"));
+
+    /**
+     * Fewest free pages worth vacuuming, so that small files aren't compacted over a handful of pages
+     */
+    private static final long MIN_FREE_PAGES = 256;
+
+    /**
+     * Delay before the first pass, so that it doesn't compete with loading the user's tasks on startup
+     */
+    private static final long FIRST_PASS_DELAY_SECONDS = 60;
+
+    private static final Timer passTimer = Metrics.timer("archive.pass");
+    private static final Counter archivedTasks = Metrics.counter("archive.archivedTasks");
+    private static final Counter purgedTasks = Metrics.counter("archive.purgedTasks");
+    private static final Counter vacuums = Metrics.counter("archive.vacuums");
+
+    private static ScheduledExecutorService scheduler;
+    private static volatile boolean stopping = false;
+
+    private TaskArchiver() {}
+
+    /**
+     * Method to start running passes in the background. Does nothing if already started, or if
+     * taskmanager.archive.intervalMinutes is 0 or less.
+     */
+    public static synchronized void start() {
+        if (scheduler != null || INTERVAL_MINUTES <= 0) {
+            return;
+        }
+        stopping = false;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "task-archiver");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(TaskArchiver::runPass, FIRST_PASS_DELAY_SECONDS,
+                TimeUnit.MINUTES.toSeconds(INTERVAL_MINUTES), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Method to stop running passes. A pass in progress stops after its current transaction.
+     */
+    public static synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        stopping = true;
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    /**
+     * Runs one pass straight away on the calling thread
+     */
+    static void runPass() {
+        long start = System.nanoTime();
+        try {
+            Instant now = Instant.now();
+            long archived = archiveCompleted(now.minus(Duration.ofDays(ARCHIVE_AFTER_DAYS)).getEpochSecond());
+            long purged = purgeDeleted(now.minus(Duration.ofDays(TRASH_DAYS)).getEpochSecond());
+            compact();
+            passTimer.record(start);
+            logger.info("event=archive_pass archived=" + archived + " purged=" + purged);
+        } catch (SQLException e) {
+            passTimer.recordError(start);
+            logger.log(Level.WARNING, "event=archive_pass_failed", e);
+        } catch (RuntimeException e) {
+            // Keep the scheduler running for the next pass
+            passTimer.recordError(start);
+            logger.log(Level.SEVERE, "event=archive_pass_failed", e);
+        }
+    }
+
+    /**
+     * Function to move tasks completed before a time from tasks to tasks_archive
+     * @param completedBefore Time in seconds since the epoch
+     * @return Number of tasks moved
+     */
+    static long archiveCompleted(long completedBefore) throws SQLException {
+        String selectSql = "SELECT task_id FROM tasks WHERE completed_at < ? AND status = 2 LIMIT ?";
+        String archiveSql = "INSERT INTO tasks_archive (" + SchemaMigrations.ARCHIVED_COLUMNS + ", archived_at) "
+                + "SELECT " + SchemaMigrations.ARCHIVED_COLUMNS + ", unixepoch() FROM tasks WHERE task_id = ?";
+        long total = 0;
+
+        while (!stopping) {
+            int moved;
+            try (Connection conn = Database.connect()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement select = conn.prepareStatement(selectSql);
+                     PreparedStatement archive = conn.prepareStatement(archiveSql);
+                     PreparedStatement delete = conn.prepareStatement("DELETE FROM tasks WHERE task_id = ?")) {
+                    select.setLong(1, completedBefore);
+                    select.setInt(2, BATCH_SIZE);
+                    List<Long> taskIDs = new ArrayList<>();
+                    try (ResultSet rows = select.executeQuery()) {
+                        while (rows.next()) {
+                            taskIDs.add(rows.getLong(1));
+                        }
+                    }
+                    for (long taskID : taskIDs) {
+                        archive.setLong(1, taskID);
+                        archive.addBatch();
+                        delete.setLong(1, taskID);
+                        delete.addBatch();
+                    }
+                    if (!taskIDs.isEmpty()) {
+                        archive.executeBatch();
+                        delete.executeBatch();
+                    }
+                    conn.commit();
+                    moved = taskIDs.size();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+            total += moved;
+            archivedTasks.add(moved);
+            if (moved < BATCH_SIZE) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Function to permanently delete tasks which were deleted before a time
+     * @param deletedBefore Time in seconds since the epoch
+     * @return Number of tasks purged
+     */
+    static long purgeDeleted(long deletedBefore) throws SQLException {
+        String sql = "DELETE FROM tasks_archive WHERE task_id IN "
+                + "(SELECT task_id FROM tasks_archive WHERE deleted_at < ? LIMIT ?)";
+        long total = 0;
+
+        while (!stopping) {
+            int purged;
+            try (Connection conn = Database.connect();
+                 PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+                preparedStatement.setLong(1, deletedBefore);
+                preparedStatement.setInt(2, BATCH_SIZE);
+                purged = preparedStatement.executeUpdate();
+            }
+            total += purged;
+            purgedTasks.add(purged);
+            if (purged < BATCH_SIZE) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Method to shrink the file if enough of it is free, then refresh the query planner's statistics.
+     * A file created before incremental vacuuming was turned on is converted with a full VACUUM the first time,
+     * which rewrites the whole file once; after that, free pages are released a batch at a time.
+     */
+    static void compact() throws SQLException {
+        try (Connection conn = Database.connectForMaintenance();
+             Statement statement = conn.createStatement()) {
+            long pageCount = pragma(statement, "page_count");
+            long freePages = pragma(statement, "freelist_count");
+            if (freePages >= MIN_FREE_PAGES && freePages >= pageCount * VACUUM_FREE_FRACTION) {
+                if (pragma(statement, "auto_vacuum") == 2) {
+                    // Each call releases up to the given number of pages
+                    while (freePages > 0 && !stopping) {
+                        statement.execute("PRAGMA incremental_vacuum(" + BATCH_SIZE + ")");
+                        long remaining = pragma(statement, "freelist_count");
+                        if (remaining >= freePages) {
+                            break;
+                        }
+                        freePages = remaining;
+                    }
+                } else {
+                    statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                    statement.execute("VACUUM");
+                }
+                vacuums.increment();
+                long freedPages = pageCount - pragma(statement, "page_count");
+                logger.info("event=vacuum pages=" + pageCount + " freed_pages=" + freedPages);
+            }
+            statement.execute("PRAGMA optimize");
+        }
+    }
+
+    private static long pragma(Statement statement, String name) throws SQLException {
+        try (ResultSet value = statement.executeQuery("PRAGMA " + name)) {
+            return value.next() ? value.getLong(1) : 0;
+        }
+    }
+}
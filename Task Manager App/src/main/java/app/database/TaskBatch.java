@@ -0,0 +1,703 @@
+package app.database;
+
+import app.data.Task;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Unit of work for task changes. Inserts, field updates and deletes are collected in memory and then written
+ * by flush() in a single transaction, so editing several fields of a task, or changing hundreds of tasks at
+ * once, costs one commit instead of one per change. Several updates to the same task are combined into a
+ * single UPDATE statement.
+ * Updates made with compareAndSet only apply if nobody else has changed the task since it was read, which is
+ * checked in the UPDATE statement itself against the task's version, so no lock is held between reading a task
+ * and writing it back. If the task has moved on, the update is reported as CONFLICT along with the task as it
+ * is now, and the caller decides whether to merge and try again.
+ * Deleted tasks are moved to tasks_archive rather than erased, so a delete can be undone with restore until
+ * TaskArchiver purges the task.
+ * A batch is not thread safe, and should be used by one thread at a time.
+ */
+public class TaskBatch {
+    private static final Logger logger = Logger.getLogger(TaskBatch.class.getName());
+
+    /**
+     * Time taken to write each batch, including waiting for the writer connection
+     */
+    private static final Timer flushTimer = Metrics.timer("db.flushBatch");
+
+    /**
+     * What happened to a single operation added to the batch
+     */
+    public enum Outcome {
+        /** The change was written to the database */
+        APPLIED,
+        /** No task with the given ID exists */
+        NOT_FOUND,
+        /** The task was changed by someone else after the expected version, so the update was not written */
+        CONFLICT,
+        /** The transaction failed, so nothing in the batch was written */
+        FAILED
+    }
+
+    /**
+     * Result of a single operation added to the batch
+     * @param index Position of the operation in the batch, as returned when it was added
+     * @param taskID ID of the task the operation applied to. For inserts, this is the newly created ID.
+     * @param outcome What happened to the operation
+     * @param message Error message if the operation failed, otherwise null
+     * @param current For CONFLICT, the task as it is now in the database, otherwise null
+     */
+    public record Result(int index, long taskID, Outcome outcome, String message, Task current) {
+        public Result(int index, long taskID, Outcome outcome, String message) {
+            this(index, taskID, outcome, message, null);
+        }
+
+        /**
+         * @return Boolean value indicating whether the operation failed because another connection held the
+         * database's lock, rather than because of anything in the batch, so it may succeed if tried again later
+         */
+        public boolean failedOnLock() {
+            return outcome == Outcome.FAILED && message != null
+                    && (message.contains("SQLITE_BUSY") || message.contains("SQLITE_LOCKED"));
+        }
+    }
+
+    private record PendingInsert(int index, long userID, String taskName, String taskDescription, String dueDate,
+                                 TaskPriority priority, TaskStatus status) {}
+
+    /**
+     * All the updates queued against one task, combined into the values the task should end up with
+     */
+    private static final class PendingUpdate {
+        private final EnumMap<TaskField, Object> values = new EnumMap<>(TaskField.class);
+        private final List<Integer> indices = new ArrayList<>();
+        private long expectedVersion = ANY_VERSION;
+    }
+
+    /**
+     * Updates which set the same fields and either do or don't check the version, which share one statement
+     */
+    private record UpdateShape(EnumSet<TaskField> fields, boolean checksVersion) {}
+
+    private final List<PendingInsert> inserts = new ArrayList<>();
+    private final Map<Long, PendingUpdate> updates = new LinkedHashMap<>();
+    private final Map<Long, List<Integer>> deletes = new LinkedHashMap<>();
+
+    private final Map<Long, List<Integer>> restores = new LinkedHashMap<>();
+
+    /**
+     * Updates which were queued after their task had already been queued for deletion
+     */
+    private final Map<Integer, Long> updatesAfterDelete = new LinkedHashMap<>();
+
+    private int operationCount = 0;
+
+    /**
+     * Owner ID for flushLocally which allows changes to any user's tasks
+     */
+    static final long ANY_OWNER = -1;
+
+    /**
+     * Expected version for updates which apply whatever version the task is at
+     */
+    static final long ANY_VERSION = -1;
+
+    /**
+     * Queues a new task to be inserted
+     * @return Index of the operation, matching the index of its result
+     */
+    public int insert(long userID, String taskName, String taskDescription, String dueDate,
+                      TaskPriority priority, TaskStatus status) {
+        int index = operationCount++;
+        inserts.add(new PendingInsert(index, userID, taskName, taskDescription, dueDate, priority, status));
+        return index;
+    }
+
+    public int changeName(long taskID, String newTaskName) {
+        return update(taskID, TaskField.NAME, newTaskName);
+    }
+
+    public int changeDescription(long taskID, String newTaskDescription) {
+        return update(taskID, TaskField.DESCRIPTION, newTaskDescription);
+    }
+
+    /**
+     * @param newTaskDueDate New due date in YYYY-MM-DD format
+     */
+    public int changeDueDate(long taskID, String newTaskDueDate) {
+        return update(taskID, TaskField.DUE_DATE, newTaskDueDate);
+    }
+
+    public int changePriority(long taskID, TaskPriority newTaskPriority) {
+        return update(taskID, TaskField.PRIORITY, newTaskPriority);
+    }
+
+    public int changeStatus(long taskID, TaskStatus newTaskStatus) {
+        return update(taskID, TaskField.STATUS, newTaskStatus);
+    }
+
+    /**
+     * Queues a change to one field of an existing task. If the same field is changed more than once in the
+     * batch, the last value wins.
+     * @param taskID Unique ID of the task
+     * @param field Field to change
+     * @param value New value, which must match the field's type (String, TaskPriority or TaskStatus)
+     * @return Index of the operation, matching the index of its result
+     */
+    public int update(long taskID, TaskField field, Object value) {
+        return compareAndSet(taskID, ANY_VERSION, field, value);
+    }
+
+    /**
+     * Queues a change to one field of an existing task, which only applies if the task is still at the expected
+     * version when the batch is flushed. Every change queued for the task in this batch is written together, so
+     * they all apply, or all report CONFLICT, with the expected version given last.
+     * @param taskID Unique ID of the task
+     * @param expectedVersion Version of the task the change was based on (see Task.version)
+     * @param field Field to change
+     * @param value New value, which must match the field's type (String, TaskPriority or TaskStatus)
+     * @return Index of the operation, matching the index of its result
+     */
+    public int compareAndSet(long taskID, long expectedVersion, TaskField field, Object value) {
+        int index = operationCount++;
+        if (deletes.containsKey(taskID)) {
+            updatesAfterDelete.put(index, taskID);
+            return index;
+        }
+
+        PendingUpdate update = updates.computeIfAbsent(taskID, id -> new PendingUpdate());
+        update.values.put(field, value);
+        update.indices.add(index);
+        if (expectedVersion != ANY_VERSION) {
+            update.expectedVersion = expectedVersion;
+        }
+        return index;
+    }
+
+    /**
+     * Queues a task to be deleted. Any updates already queued for the task are dropped, as they would be lost anyway.
+     * @param taskID Unique ID of the task
+     * @return Index of the operation, matching the index of its result
+     */
+    public int delete(long taskID) {
+        int index = operationCount++;
+        List<Integer> indices = deletes.computeIfAbsent(taskID, id -> new ArrayList<>());
+        PendingUpdate dropped = updates.remove(taskID);
+        if (dropped != null) {
+            // The dropped updates share the outcome of the delete
+            indices.addAll(dropped.indices);
+        }
+        indices.add(index);
+        return index;
+    }
+
+    /**
+     * Queues a deleted or archived task to be moved back from tasks_archive. Restores are written after every
+     * other operation in the batch, so a task deleted earlier in the same batch can be restored.
+     * @param taskID Unique ID of the task
+     * @return Index of the operation, matching the index of its result. NOT_FOUND if the task isn't archived.
+     */
+    public int restore(long taskID) {
+        int index = operationCount++;
+        restores.computeIfAbsent(taskID, id -> new ArrayList<>()).add(index);
+        return index;
+    }
+
+    /**
+     * @return Number of operations queued since the batch was created or last flushed
+     */
+    public int size() {
+        return operationCount;
+    }
+
+    /**
+     * Writes every queued operation in a single transaction and empties the batch. If anything fails, the whole
+     * transaction is rolled back and every operation is reported as FAILED. The batch is written through the
+     * repository in use, so it may be sent to a RepositoryServer to be written there.
+     * @return One result per queued operation, in the order the operations were added
+     */
+    public List<Result> flush() {
+        return Repositories.get().flush(this);
+    }
+
+    /**
+     * Writes every queued operation to the database file in this process, see flush(). Changes waiting in
+     * TaskJournal are written first, as they were made before this batch and would otherwise overwrite it when
+     * they are flushed. If they can't be because the database is locked, the batch fails with the same error, so
+     * Result.failedOnLock is true for it too.
+     * @param ownerID Unique ID of the only user whose tasks may be changed, or ANY_OWNER. Inserts for other users
+     * fail the whole batch, and updates and deletes of other users' tasks are reported as NOT_FOUND.
+     */
+    List<Result> flushLocally(long ownerID) {
+        // Inserts create new tasks, which no journaled change can refer to
+        if (inserts.size() < operationCount) {
+            String journalFailure = TaskJournal.flushAhead();
+            if (journalFailure != null) {
+                List<Result> results = Arrays.asList(failAll(journalFailure));
+                clear();
+                return results;
+            }
+        }
+        return flushWithoutJournal(ownerID);
+    }
+
+    /**
+     * Writes every queued operation to the database file in this process, without waiting for TaskJournal.
+     * Only for TaskJournal itself.
+     */
+    List<Result> flushWithoutJournal(long ownerID) {
+        Result[] results = new Result[operationCount];
+        if (operationCount == 0) {
+            return List.of();
+        }
+
+        long start = System.nanoTime();
+        try (Connection conn = Database.connect()) {
+            conn.setAutoCommit(false);
+            try {
+                flushInserts(conn, results, ownerID);
+                flushUpdates(conn, results, ownerID);
+                flushDeletes(conn, results, ownerID);
+                flushRestores(conn, results, ownerID);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            flushTimer.record(start);
+        } catch (SQLException e) {
+            flushTimer.recordError(start);
+            logger.log(Level.WARNING, "event=flush_batch_failed operations=" + operationCount, e);
+            results = failAll(e.getMessage());
+        }
+
+        for (Map.Entry<Integer, Long> update : updatesAfterDelete.entrySet()) {
+            if (results[update.getKey()] == null) {
+                results[update.getKey()] = new Result(update.getKey(), update.getValue(), Outcome.NOT_FOUND, null);
+            }
+        }
+
+        clear();
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Inserts are run one at a time inside the transaction, so that each one can report its new task ID
+     */
+    private void flushInserts(Connection conn, Result[] results, long ownerID) throws SQLException {
+        if (inserts.isEmpty()) {
+            return;
+        }
+        for (PendingInsert insert : inserts) {
+            if (ownerID != ANY_OWNER && insert.userID() != ownerID) {
+                throw new SQLException("Tasks can only be created for the logged-in user");
+            }
+        }
+
+        String sql = "INSERT INTO tasks (user_id, task_name, task_description, due_date, priority, status) "
+                + "VALUES (?, ?, ?, ?, ?, ?) RETURNING task_id";
+        try (PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+            for (PendingInsert insert : inserts) {
+                preparedStatement.setLong(1, insert.userID());
+                preparedStatement.setString(2, insert.taskName());
+                preparedStatement.setString(3, insert.taskDescription());
+                preparedStatement.setString(4, insert.dueDate());
+                bind(preparedStatement, 5, TaskField.PRIORITY, insert.priority());
+                bind(preparedStatement, 6, TaskField.STATUS, insert.status());
+                try (ResultSet key = preparedStatement.executeQuery()) {
+                    key.next();
+                    results[insert.index()] = new Result(insert.index(), key.getLong(1), Outcome.APPLIED, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates which change the same set of fields share one statement, and are sent to SQLite as a JDBC batch
+     */
+    private void flushUpdates(Connection conn, Result[] results, long ownerID) throws SQLException {
+        Map<UpdateShape, List<Map.Entry<Long, PendingUpdate>>> byShape = new LinkedHashMap<>();
+        for (Map.Entry<Long, PendingUpdate> update : updates.entrySet()) {
+            UpdateShape shape = new UpdateShape(EnumSet.copyOf(update.getValue().values.keySet()),
+                    update.getValue().expectedVersion != ANY_VERSION);
+            byShape.computeIfAbsent(shape, f -> new ArrayList<>()).add(update);
+        }
+
+        for (Map.Entry<UpdateShape, List<Map.Entry<Long, PendingUpdate>>> group : byShape.entrySet()) {
+            boolean checksVersion = group.getKey().checksVersion();
+            String sql = updateSql(group.getKey().fields(), ownerID != ANY_OWNER, checksVersion);
+            try (PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+                for (Map.Entry<Long, PendingUpdate> update : group.getValue()) {
+                    int parameter = 1;
+                    for (Map.Entry<TaskField, Object> value : update.getValue().values.entrySet()) {
+                        bind(preparedStatement, parameter++, value.getKey(), value.getValue());
+                    }
+                    preparedStatement.setLong(parameter++, update.getKey());
+                    if (ownerID != ANY_OWNER) {
+                        preparedStatement.setLong(parameter++, ownerID);
+                    }
+                    if (checksVersion) {
+                        preparedStatement.setLong(parameter, update.getValue().expectedVersion);
+                    }
+                    preparedStatement.addBatch();
+                }
+
+                int[] affectedTasks = preparedStatement.executeBatch();
+                for (int i = 0; i < affectedTasks.length; i++) {
+                    Map.Entry<Long, PendingUpdate> update = group.getValue().get(i);
+                    Outcome outcome = affectedTasks[i] > 0 ? Outcome.APPLIED : Outcome.NOT_FOUND;
+                    Task current = null;
+                    if (outcome == Outcome.NOT_FOUND && checksVersion) {
+                        // Either the task is gone, or it is at another version
+                        current = readTask(conn, update.getKey(), ownerID);
+                        if (current != null) {
+                            outcome = Outcome.CONFLICT;
+                        }
+                    }
+                    for (int index : update.getValue().indices) {
+                        results[index] = new Result(index, update.getKey(), outcome, null, current);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Function to read a task inside the batch's transaction, so that it is read as the batch found it
+     * @return The task, or null if it doesn't exist or belongs to a user other than ownerID
+     */
+    private static Task readTask(Connection conn, long taskID, long ownerID) throws SQLException {
+        String sql = ownerID == ANY_OWNER
+                ? "SELECT * FROM tasks WHERE task_id = ?"
+                : "SELECT * FROM tasks WHERE task_id = ? AND user_id = ?";
+        try (PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+            preparedStatement.setLong(1, taskID);
+            if (ownerID != ANY_OWNER) {
+                preparedStatement.setLong(2, ownerID);
+            }
+            try (ResultSet row = preparedStatement.executeQuery()) {
+                return row.next() ? Database.readTask(row) : null;
+            }
+        }
+    }
+
+    /**
+     * Deleted tasks are copied to tasks_archive, marked with the time they were deleted, before being removed
+     */
+    private void flushDeletes(Connection conn, Result[] results, long ownerID) throws SQLException {
+        if (deletes.isEmpty()) {
+            return;
+        }
+
+        List<Long> taskIDs = new ArrayList<>(deletes.keySet());
+        String owner = ownerID == ANY_OWNER ? "" : " AND user_id = ?";
+        String archiveSql = "INSERT INTO tasks_archive (" + SchemaMigrations.ARCHIVED_COLUMNS
+                + ", deleted_at, archived_at) SELECT " + SchemaMigrations.ARCHIVED_COLUMNS
+                + ", unixepoch(), unixepoch() FROM tasks WHERE task_id = ?" + owner;
+        try (PreparedStatement archive = conn.prepareStatement(archiveSql);
+             PreparedStatement delete = conn.prepareStatement("DELETE FROM tasks WHERE task_id = ?" + owner)) {
+            for (long taskID : taskIDs) {
+                for (PreparedStatement preparedStatement : List.of(archive, delete)) {
+                    preparedStatement.setLong(1, taskID);
+                    if (ownerID != ANY_OWNER) {
+                        preparedStatement.setLong(2, ownerID);
+                    }
+                    preparedStatement.addBatch();
+                }
+            }
+
+            archive.executeBatch();
+            int[] tasksDeleted = delete.executeBatch();
+            for (int i = 0; i < tasksDeleted.length; i++) {
+                Outcome outcome = tasksDeleted[i] > 0 ? Outcome.APPLIED : Outcome.NOT_FOUND;
+                for (int index : deletes.get(taskIDs.get(i))) {
+                    results[index] = new Result(index, taskIDs.get(i), outcome, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restored tasks are copied back into tasks with the same ID and version, then removed from tasks_archive
+     */
+    private void flushRestores(Connection conn, Result[] results, long ownerID) throws SQLException {
+        if (restores.isEmpty()) {
+            return;
+        }
+
+        List<Long> taskIDs = new ArrayList<>(restores.keySet());
+        String owner = ownerID == ANY_OWNER ? "" : " AND user_id = ?";
+        String restoreSql = "INSERT INTO tasks (" + SchemaMigrations.ARCHIVED_COLUMNS + ") SELECT "
+                + SchemaMigrations.ARCHIVED_COLUMNS + " FROM tasks_archive WHERE task_id = ?" + owner;
+        try (PreparedStatement restore = conn.prepareStatement(restoreSql);
+             PreparedStatement unarchive = conn.prepareStatement("DELETE FROM tasks_archive WHERE task_id = ?" + owner)) {
+            for (long taskID : taskIDs) {
+                for (PreparedStatement preparedStatement : List.of(restore, unarchive)) {
+                    preparedStatement.setLong(1, taskID);
+                    if (ownerID != ANY_OWNER) {
+                        preparedStatement.setLong(2, ownerID);
+                    }
+                    preparedStatement.addBatch();
+                }
+            }
+
+            int[] tasksRestored = restore.executeBatch();
+            unarchive.executeBatch();
+            for (int i = 0; i < tasksRestored.length; i++) {
+                Outcome outcome = tasksRestored[i] > 0 ? Outcome.APPLIED : Outcome.NOT_FOUND;
+                for (int index : restores.get(taskIDs.get(i))) {
+                    results[index] = new Result(index, taskIDs.get(i), outcome, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Function to build the UPDATE statement for a set of fields, e.g.
+     * "UPDATE tasks SET task_name = ?, status = ?, version = version + 1 WHERE task_id = ?"
+     * @param ownerOnly Whether the statement also checks the task's user_id
+     * @param checksVersion Whether the statement also checks the task's version
+     */
+    private static String updateSql(EnumSet<TaskField> fields, boolean ownerOnly, boolean checksVersion) {
+        StringBuilder sql = new StringBuilder("UPDATE tasks SET ");
+        for (TaskField field : fields) {
+            sql.append(field.getColumn()).append(" = ?, ");
+        }
+        sql.append("version = version + 1 WHERE task_id = ?");
+        if (ownerOnly) {
+            sql.append(" AND user_id = ?");
+        }
+        if (checksVersion) {
+            sql.append(" AND version = ?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Binds a field's value to a statement parameter, storing priorities and statuses as their integer codes
+     */
+    private static void bind(PreparedStatement preparedStatement, int parameter, TaskField field, Object value)
+            throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameter, Types.NULL);
+        } else if (field == TaskField.PRIORITY) {
+            preparedStatement.setInt(parameter, ((TaskPriority) value).getCode());
+        } else if (field == TaskField.STATUS) {
+            preparedStatement.setInt(parameter, ((TaskStatus) value).getCode());
+        } else {
+            preparedStatement.setString(parameter, (String) value);
+        }
+    }
+
+    private Result[] failAll(String message) {
+        Result[] results = new Result[operationCount];
+        for (PendingInsert insert : inserts) {
+            results[insert.index()] = new Result(insert.index(), -1, Outcome.FAILED, message);
+        }
+        for (Map.Entry<Long, PendingUpdate> update : updates.entrySet()) {
+            for (int index : update.getValue().indices) {
+                results[index] = new Result(index, update.getKey(), Outcome.FAILED, message);
+            }
+        }
+        for (Map.Entry<Long, List<Integer>> delete : deletes.entrySet()) {
+            for (int index : delete.getValue()) {
+                results[index] = new Result(index, delete.getKey(), Outcome.FAILED, message);
+            }
+        }
+        for (Map.Entry<Long, List<Integer>> restore : restores.entrySet()) {
+            for (int index : restore.getValue()) {
+                results[index] = new Result(index, restore.getKey(), Outcome.FAILED, message);
+            }
+        }
+        for (Map.Entry<Integer, Long> update : updatesAfterDelete.entrySet()) {
+            results[update.getKey()] = new Result(update.getKey(), update.getValue(), Outcome.FAILED, message);
+        }
+        return results;
+    }
+
+    void clear() {
+        inserts.clear();
+        updates.clear();
+        deletes.clear();
+        restores.clear();
+        updatesAfterDelete.clear();
+        operationCount = 0;
+    }
+
+    /**
+     * Writes the queued operations in the binary form read by readFrom, for sending to a RepositoryServer
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(operationCount);
+        out.writeInt(inserts.size());
+        for (PendingInsert insert : inserts) {
+            out.writeInt(insert.index());
+            out.writeLong(insert.userID());
+            WireProtocol.writeString(out, insert.taskName());
+            WireProtocol.writeString(out, insert.taskDescription());
+            WireProtocol.writeString(out, insert.dueDate());
+            WireProtocol.writeValue(out, TaskField.PRIORITY, insert.priority());
+            WireProtocol.writeValue(out, TaskField.STATUS, insert.status());
+        }
+        out.writeInt(updates.size());
+        for (Map.Entry<Long, PendingUpdate> update : updates.entrySet()) {
+            out.writeLong(update.getKey());
+            out.writeLong(update.getValue().expectedVersion);
+            out.writeByte(update.getValue().values.size());
+            for (Map.Entry<TaskField, Object> value : update.getValue().values.entrySet()) {
+                out.writeByte(value.getKey().ordinal());
+                WireProtocol.writeValue(out, value.getKey(), value.getValue());
+            }
+            writeIndices(out, update.getValue().indices);
+        }
+        out.writeInt(deletes.size());
+        for (Map.Entry<Long, List<Integer>> delete : deletes.entrySet()) {
+            out.writeLong(delete.getKey());
+            writeIndices(out, delete.getValue());
+        }
+        out.writeInt(restores.size());
+        for (Map.Entry<Long, List<Integer>> restore : restores.entrySet()) {
+            out.writeLong(restore.getKey());
+            writeIndices(out, restore.getValue());
+        }
+        out.writeInt(updatesAfterDelete.size());
+        for (Map.Entry<Integer, Long> update : updatesAfterDelete.entrySet()) {
+            out.writeInt(update.getKey());
+            out.writeLong(update.getValue());
+        }
+    }
+
+    /**
+     * Function to rebuild a batch written by writeTo, with the same operations at the same indices. Every count is
+     * checked against the bytes left in the stream, so a malformed batch can't make the reader allocate more than
+     * the batch could hold.
+     * @param in Stream holding nothing but the batch, and whatever follows it, e.g. one request's arguments
+     * @throws IOException If the data isn't a valid batch
+     */
+    static TaskBatch readFrom(DataInputStream in) throws IOException {
+        TaskBatch batch = new TaskBatch();
+        // Each operation has at least its index written somewhere in the batch
+        batch.operationCount = readCount(in, Integer.BYTES);
+        // Every index must be used exactly once, so that flushLocally has a result for each operation
+        BitSet used = new BitSet(batch.operationCount);
+
+        int insertCount = readCount(in, Integer.BYTES + Long.BYTES);
+        for (int i = 0; i < insertCount; i++) {
+            batch.inserts.add(new PendingInsert(readIndex(in, used, batch.operationCount), in.readLong(),
+                    WireProtocol.readString(in), WireProtocol.readString(in), WireProtocol.readString(in),
+                    (TaskPriority) WireProtocol.readValue(in, TaskField.PRIORITY),
+                    (TaskStatus) WireProtocol.readValue(in, TaskField.STATUS)));
+        }
+        int updateCount = readCount(in, 2 * Long.BYTES + 1 + Integer.BYTES);
+        for (int i = 0; i < updateCount; i++) {
+            PendingUpdate update = new PendingUpdate();
+            putOnce(batch.updates, in.readLong(), update);
+            update.expectedVersion = in.readLong();
+            int fieldCount = in.readUnsignedByte();
+            for (int j = 0; j < fieldCount; j++) {
+                int ordinal = in.readUnsignedByte();
+                if (ordinal >= TaskField.values().length) {
+                    throw new IOException("Unknown task field " + ordinal);
+                }
+                TaskField field = TaskField.values()[ordinal];
+                update.values.put(field, WireProtocol.readValue(in, field));
+            }
+            update.indices.addAll(readIndices(in, used, batch.operationCount));
+            if (update.values.isEmpty() || update.indices.isEmpty()) {
+                throw new IOException("Update of task without any changes");
+            }
+        }
+        int deleteCount = readCount(in, Long.BYTES + Integer.BYTES);
+        for (int i = 0; i < deleteCount; i++) {
+            putOnce(batch.deletes, in.readLong(), readIndices(in, used, batch.operationCount));
+        }
+        int restoreCount = readCount(in, Long.BYTES + Integer.BYTES);
+        for (int i = 0; i < restoreCount; i++) {
+            putOnce(batch.restores, in.readLong(), readIndices(in, used, batch.operationCount));
+        }
+        int afterDeleteCount = readCount(in, Integer.BYTES + Long.BYTES);
+        for (int i = 0; i < afterDeleteCount; i++) {
+            batch.updatesAfterDelete.put(readIndex(in, used, batch.operationCount), in.readLong());
+        }
+
+        if (used.cardinality() != batch.operationCount) {
+            throw new IOException("Batch is missing operations");
+        }
+        return batch;
+    }
+
+    private static void writeIndices(DataOutput out, List<Integer> indices) throws IOException {
+        out.writeInt(indices.size());
+        for (int index : indices) {
+            out.writeInt(index);
+        }
+    }
+
+    /**
+     * Function to read the number of entries in part of a batch, checking that they could all fit in the bytes left
+     * @param entryBytes Fewest bytes each entry takes
+     */
+    private static int readCount(DataInputStream in, int entryBytes) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available() / entryBytes) {
+            throw new IOException("Invalid number of operations " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Method to add the operations read for one task, rejecting a task which is already in the same part of the
+     * batch, as writeTo combines every operation of a kind on one task, and flushLocally gives each task one result
+     */
+    private static <T> void putOnce(Map<Long, T> operations, long taskID, T value) throws IOException {
+        if (operations.putIfAbsent(taskID, value) != null) {
+            throw new IOException("Repeated operations on task " + taskID);
+        }
+    }
+
+    private static List<Integer> readIndices(DataInputStream in, BitSet used, int operationCount)
+            throws IOException {
+        int count = readCount(in, Integer.BYTES);
+        if (count > operationCount) {
+            throw new IOException("Invalid number of operations " + count);
+        }
+        List<Integer> indices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            indices.add(readIndex(in, used, operationCount));
+        }
+        return indices;
+    }
+
+    /**
+     * Function to read an operation index, checking that it is within the batch and not already used, so that a
+     * malformed batch can't make flushLocally write outside its results or leave any of them out
+     */
+    private static int readIndex(DataInput in, BitSet used, int operationCount) throws IOException {
+        int index = in.readInt();
+        if (index < 0 || index >= operationCount || used.get(index)) {
+            throw new IOException("Invalid operation index " + index);
+        }
+        used.set(index);
+        return index;
+    }
+}
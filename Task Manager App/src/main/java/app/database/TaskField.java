@@ -0,0 +1,25 @@
+package app.database;
+
+/**
+ * Editable fields of a task, along with the column of the tasks table each one is stored in.
+ */
+public enum TaskField {
+    NAME("task_name"),
+    DESCRIPTION("task_description"),
+    DUE_DATE("due_date"),
+    PRIORITY("priority"),
+    STATUS("status");
+
+    private final String column;
+
+    TaskField(String column) {
+        this.column = column;
+    }
+
+    /**
+     * @return Name of the column in the tasks table holding this field
+     */
+    public String getColumn() {
+        return column;
+    }
+}
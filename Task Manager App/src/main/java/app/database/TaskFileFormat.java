@@ -0,0 +1,437 @@
+package app.database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * File formats tasks can be imported from and exported to. Both hold one task per record, with the fields named
+ * in FIELDS:
+ * <ul>
+ *     <li>CSV: a header row naming the columns, then one row per task (RFC 4180 quoting, so fields may contain
+ *     commas, quotes and line breaks),</li>
+ *     <li>JSONL: one JSON object per line, e.g. {"task_name": "Buy milk", "priority": "HIGH"}.</li>
+ * </ul>
+ * Both are read and written one record at a time, so files of any size can be handled in constant memory.
+ */
+public enum TaskFileFormat {
+    CSV {
+        @Override
+        RecordReader openReader(BufferedReader in) {
+            return new CsvReader(in);
+        }
+
+        @Override
+        void writeHeader(Writer out) throws IOException {
+            writeRecord(out, FIELDS.toArray(new String[0]));
+        }
+
+        @Override
+        void writeRecord(Writer out, String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeCsvField(out, values[i]);
+            }
+            out.write("\r\n");
+        }
+    },
+
+    JSONL {
+        @Override
+        RecordReader openReader(BufferedReader in) {
+            return new JsonLinesReader(in);
+        }
+
+        @Override
+        void writeHeader(Writer out) {
+            // Every line names its own fields
+        }
+
+        @Override
+        void writeRecord(Writer out, String[] values) throws IOException {
+            out.write('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(", ");
+                }
+                writeJsonString(out, FIELDS.get(i));
+                out.write(": ");
+                if (values[i] == null) {
+                    out.write("null");
+                } else {
+                    writeJsonString(out, values[i]);
+                }
+            }
+            out.write("}\n");
+        }
+    };
+
+    /**
+     * Names of the fields of a task record, in the order they are written
+     */
+    public static final List<String> FIELDS = List.of("task_name", "task_description", "due_date", "priority", "status");
+
+    /**
+     * Function to pick a format from a file's extension
+     * @param fileName Name of the file, e.g. "tasks.csv"
+     * @return The format, or null if the extension isn't recognised
+     */
+    public static TaskFileFormat fromFileName(String fileName) {
+        String lowerCaseName = fileName.toLowerCase(Locale.ROOT);
+        if (lowerCaseName.endsWith(".csv")) {
+            return CSV;
+        }
+        if (lowerCaseName.endsWith(".jsonl") || lowerCaseName.endsWith(".ndjson")) {
+            return JSONL;
+        }
+        return null;
+    }
+
+    /**
+     * Reads a file one record at a time
+     */
+    interface RecordReader {
+        /**
+         * Function to read the next record
+         * @return The record's values by field name (missing fields are absent), or null at the end of the file
+         * @throws MalformedRecordException If the record can't be parsed. Reading can carry on with the next record.
+         */
+        Map<String, String> next() throws IOException;
+
+        /**
+         * @return Line of the file on which the last record read started, counting from 1
+         */
+        long line();
+    }
+
+    /**
+     * A record which can't be parsed, e.g. invalid JSON. Only that record is lost.
+     */
+    static class MalformedRecordException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedRecordException(String message) {
+            super(message);
+        }
+    }
+
+    abstract RecordReader openReader(BufferedReader in) throws IOException;
+
+    abstract void writeHeader(Writer out) throws IOException;
+
+    /**
+     * Writes one record
+     * @param values Values of the fields, in the order of FIELDS. Null values are written as empty/null.
+     */
+    abstract void writeRecord(Writer out, String[] values) throws IOException;
+
+    private static void writeCsvField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = value.isEmpty() || value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ';
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private static void writeJsonString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Reads CSV records, using the first row as the field names. An empty field is read as null.
+     */
+    private static final class CsvReader implements RecordReader {
+        private final BufferedReader in;
+        private List<String> header;
+        private long nextLine = 1;
+        private long recordLine;
+
+        private CsvReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (header == null) {
+                List<String> names = readRow();
+                if (names == null) {
+                    return null;
+                }
+                header = new ArrayList<>();
+                for (String name : names) {
+                    header.add(name == null ? "" : name.strip().toLowerCase(Locale.ROOT));
+                }
+            }
+
+            List<String> row = readRow();
+            if (row == null) {
+                return null;
+            }
+            if (row.size() > header.size()) {
+                throw new MalformedRecordException("Expected at most " + header.size() + " fields but found " + row.size());
+            }
+            Map<String, String> record = new LinkedHashMap<>();
+            for (int i = 0; i < row.size(); i++) {
+                record.put(header.get(i), row.get(i));
+            }
+            return record;
+        }
+
+        @Override
+        public long line() {
+            return recordLine;
+        }
+
+        /**
+         * Function to read the fields of the next row, skipping blank lines
+         * @return The fields, or null at the end of the file
+         */
+        private List<String> readRow() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean wasQuoted = false;
+            boolean rowStarted = false;
+            recordLine = nextLine;
+
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\uFEFF' && nextLine == 1 && !rowStarted) {
+                    // Byte order mark written by some spreadsheet programs
+                    continue;
+                }
+                if (quoted) {
+                    if (c == '"') {
+                        in.mark(1);
+                        if (in.read() == '"') {
+                            field.append('"');
+                        } else {
+                            in.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            nextLine++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                    wasQuoted = true;
+                    rowStarted = true;
+                } else if (c == ',') {
+                    fields.add(fieldValue(field, wasQuoted));
+                    field.setLength(0);
+                    wasQuoted = false;
+                    rowStarted = true;
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        in.mark(1);
+                        if (in.read() != '\n') {
+                            in.reset();
+                        }
+                    }
+                    nextLine++;
+                    if (!rowStarted && field.length() == 0) {
+                        recordLine = nextLine;
+                        continue;
+                    }
+                    fields.add(fieldValue(field, wasQuoted));
+                    return fields;
+                } else {
+                    field.append((char) c);
+                    rowStarted = true;
+                }
+            }
+
+            if (quoted) {
+                throw new MalformedRecordException("Quoted field is never closed");
+            }
+            if (!rowStarted && field.length() == 0) {
+                return null;
+            }
+            fields.add(fieldValue(field, wasQuoted));
+            return fields;
+        }
+
+        private static String fieldValue(StringBuilder field, boolean wasQuoted) {
+            return field.length() == 0 && !wasQuoted ? null : field.toString();
+        }
+    }
+
+    /**
+     * Reads one flat JSON object per line. Values may be strings, numbers, booleans or null, and are all read as
+     * text. Blank lines are skipped.
+     */
+    private static final class JsonLinesReader implements RecordReader {
+        private final BufferedReader in;
+        private long lineNumber = 0;
+        private String text;
+        private int position;
+
+        private JsonLinesReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) {
+                    return null;
+                }
+                lineNumber++;
+            } while (line.isBlank());
+
+            text = line;
+            position = 0;
+            return readObject();
+        }
+
+        @Override
+        public long line() {
+            return lineNumber;
+        }
+
+        private Map<String, String> readObject() throws MalformedRecordException {
+            Map<String, String> record = new LinkedHashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                position++;
+            } else {
+                do {
+                    String name = readString();
+                    expect(':');
+                    record.put(name, readValue());
+                } while (accept(','));
+                expect('}');
+            }
+            if (peek() != -1) {
+                throw new MalformedRecordException("Unexpected text after the end of the object");
+            }
+            return record;
+        }
+
+        private String readValue() throws MalformedRecordException {
+            int c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                throw new MalformedRecordException("Nested objects and arrays are not supported");
+            }
+            int start = position;
+            while (position < text.length() && ",}] \t".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (literal.equals("true") || literal.equals("false") || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+                return literal;
+            }
+            throw new MalformedRecordException("Invalid value at column " + (start + 1));
+        }
+
+        private String readString() throws MalformedRecordException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case '"', '\\', '/' -> value.append(escaped);
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) {
+                            throw new MalformedRecordException("Invalid escape at column " + position);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new MalformedRecordException("Invalid escape at column " + position);
+                        }
+                        position += 4;
+                    }
+                    default -> throw new MalformedRecordException("Invalid escape at column " + position);
+                }
+            }
+            throw new MalformedRecordException("String is never closed");
+        }
+
+        private void expect(char expected) throws MalformedRecordException {
+            if (!accept(expected)) {
+                throw new MalformedRecordException("Expected '" + expected + "' at column " + (position + 1));
+            }
+        }
+
+        private boolean accept(char expected) {
+            if (peek() == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return The next character which isn't whitespace, without consuming it, or -1 at the end of the line
+         */
+        private int peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            return position < text.length() ? text.charAt(position) : -1;
+        }
+    }
+}
@@ -0,0 +1,681 @@
+package app.database;
+
+import app.metrics.Counter;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind journal for the changes made through Database.changeTaskName and the other changeTask methods,
+ * and for the changes AppModel couldn't write because another process held the database's lock.
+ * Rather than waiting for a SQLite commit of its own (and failing if another process keeps the database locked),
+ * each change is appended to a memory-mapped journal file next to the database, and acknowledged as soon as the
+ * file has been forced to disk. A background thread then writes everything journaled since its last pass to the
+ * tasks table in a single TaskBatch transaction, every taskmanager.journal.flushMillis milliseconds (default 200).
+ * If the transaction fails because the database is locked, the changes stay in the journal and are tried again on
+ * the next pass. If it fails for any other reason, the changes are written one at a time, and any which still
+ * fails on its own, such as a null task name, is dropped and logged, so that one bad change can't hold up the
+ * rest forever. Changes still in the journal when the application exits are written by start() the next time it
+ * runs.
+ * <p>
+ * Every other change to tasks is written through TaskBatch.flushLocally, which flushes the journal first, so a
+ * journaled change is never written on top of a change made after it. While changes are waiting because the
+ * database is locked, flushLocally fails straight away with the lock's error instead of waiting for the lock again,
+ * so AppModel journals its change behind them.
+ * <p>
+ * Threads appending at the same time share a single force of the file (group commit): whichever thread forces
+ * first makes every change appended so far durable, so the threads queued behind it return without forcing again.
+ * <p>
+ * The file starts with a header holding a magic number, the format version, a generation number and the offset up
+ * to which changes have been written to the database. Each record after it is [payload length][CRC-32][payload],
+ * where the payload is the task ID, the field, its new value and the version expected, if any.
+ * The CRC covers the generation as well as the payload, so a record torn by a crash, or left over from before the
+ * journal was last emptied, is ignored along with everything after it. Once every record has been written to the
+ * database, the generation is incremented and the journal starts again from the beginning of the file.
+ * <p>
+ * The changeTask methods only journal changes which don't check the task's version: they apply whatever the task
+ * looks like, so writing them late, or twice after a crash, leaves the task the same. Compare-and-set changes need
+ * their outcome straight away, so they are still written synchronously. Once one has failed on the lock, AppModel
+ * journals it with the version it expected, which is checked when the change is flushed just as it would have been
+ * straight away, so the change never overwrites one made by the process holding the lock. The outcome is passed
+ * to a Callback given to append, so that AppModel can merge a conflict, or drop a change which couldn't be
+ * written. Changes replayed by start() have nobody to tell, so one which conflicts is dropped and logged. A change
+ * to a task which doesn't exist is dropped when it is flushed. Queries read the database, so they only see a
+ * journaled change once it has been written; call flush() to wait for that. With the fast storage profile, a
+ * power cut can lose changes written from the journal just as it can any other commit.
+ * The journal is off, and changes are written synchronously, until start() is called, and always if
+ * taskmanager.journal.flushMillis is 0 or less or the database is held in memory.
+ */
+public final class TaskJournal {
+    private static final Logger logger = Logger.getLogger(TaskJournal.class.getName());
+
+    private static final long FLUSH_MILLIS = Long.getLong("taskmanager.journal.flushMillis", 200);
+
+    /**
+     * Size of a new journal file. Once it is full, appends wait for the next flush to empty it.
+     */
+    private static final int CAPACITY = Integer.getInteger("taskmanager.journal.sizeKB", 4096) * 1024;
+
+    /**
+     * How long an append waits for a full journal to be emptied before the change is written synchronously instead
+     */
+    private static final long FULL_WAIT_MILLIS = 5_000;
+
+    private static final int MAGIC = 0x544D4A31;
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Layout of the header: magic number and format version (4 bytes each), generation and flushed offset
+     * (8 bytes each), then space for later versions
+     */
+    private static final int GENERATION_POSITION = 8;
+    private static final int FLUSHED_POSITION = 16;
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * Payload length and CRC-32 of each record
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final Timer appendTimer = Metrics.timer("journal.append");
+    private static final Timer flushTimer = Metrics.timer("journal.flush");
+    private static final Counter syncs = Metrics.counter("journal.syncs");
+    private static final Counter replayedEdits = Metrics.counter("journal.replayedEdits");
+    private static final Counter droppedEdits = Metrics.counter("journal.droppedEdits");
+
+    /**
+     * Change to one field of a task, as stored in a record
+     * @param expectedVersion Version the task must be at for the change to be written, or TaskBatch.ANY_VERSION
+     */
+    private record Edit(long taskID, long expectedVersion, TaskField field, Object value) {}
+
+    /**
+     * Told what became of changes given to append, once they have been flushed
+     */
+    @FunctionalInterface
+    public interface Callback {
+        /**
+         * Called on the thread flushing, while it holds the flush lock, so it must not block
+         * @param result Outcome of the changes. CONFLICT carries the task as it is now, and FAILED means they were
+         * dropped as they can never be written.
+         * @param version Version the changes moved the task on to if they were written, otherwise -1
+         */
+        void flushed(TaskBatch.Result result, long version);
+    }
+
+    /**
+     * Version a task was moved on to by a flush, from the version the changes written expected
+     */
+    private record Rebase(long from, long to) {}
+
+    /**
+     * Guards the contents of the file and the offsets below. Appends wait on it for space in a full journal.
+     */
+    private static final Object lock = new Object();
+
+    /**
+     * Held while forcing the file, so that threads queued behind a force can see whether it covered them
+     */
+    private static final Object syncLock = new Object();
+
+    /**
+     * Held while flushing, so that changes are written to the database in the order they were journaled
+     */
+    private static final Object flushLock = new Object();
+
+    private static FileChannel channel;
+    private static MappedByteBuffer buffer;
+    private static boolean open = false;
+    private static long generation;
+
+    /**
+     * Offset just after the last record, and offset of the first record not yet written to the database
+     */
+    private static int position;
+    private static int flushedOffset;
+
+    /**
+     * Bytes appended since the journal was opened, and how many of them are known to be on disk. Unlike the
+     * offsets, these never go back to the start, so a thread can tell whether a force covered its record.
+     */
+    private static long appendedBytes = 0;
+    private static volatile long durableBytes = 0;
+
+    /**
+     * Error message of the last flush, if it left changes in the journal because the database was locked, or null
+     * once a flush has got through
+     */
+    private static volatile String lockFailure;
+
+    /**
+     * Callbacks given to append, by the offset just after the last record of the changes they are told about.
+     * Guarded by the lock.
+     */
+    private static final Map<Integer, Callback> callbacks = new HashMap<>();
+
+    /**
+     * Versions this journal has moved tasks on to, by task ID. A change appended while an earlier change based on
+     * the same version was being flushed expects the version from before that flush, so it is checked against the
+     * version the flush left instead, rather than conflicting with a change of this process's own. Guarded by the
+     * flush lock, and cleared once the journal is empty.
+     */
+    private static final Map<Long, Rebase> rebased = new HashMap<>();
+
+    private static ScheduledExecutorService flusher;
+
+    private TaskJournal() {}
+
+    /**
+     * Method to open the journal, write any changes left in it by the last run to the database, and start
+     * flushing in the background. From now on, changes made through Database.changeTask are journaled.
+     * Does nothing if already started, or if the journal is disabled.
+     */
+    public static synchronized void start() {
+        Path path = journalPath();
+        if (flusher != null || FLUSH_MILLIS <= 0 || path == null) {
+            return;
+        }
+        int pending;
+        try {
+            synchronized (lock) {
+                pending = openFile(path);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "event=journal_open_failed path=\"" + path + "\"", e);
+            return;
+        }
+        if (pending > 0) {
+            logger.info("event=journal_replay edits=" + pending);
+            if (flush()) {
+                replayedEdits.add(pending);
+            }
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(TaskJournal::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method to stop journaling, writing whatever is still in the journal to the database. Anything which can't
+     * be written stays in the journal for the next start().
+     */
+    public static synchronized void stop() {
+        if (flusher == null) {
+            return;
+        }
+        synchronized (lock) {
+            // Changes made from now on are written synchronously
+            open = false;
+            lock.notifyAll();
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flusher.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        flusher = null;
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "event=journal_close_failed", e);
+        }
+    }
+
+    /**
+     * Function to journal a change to one field of a task, returning once it is on disk
+     * @param taskID Unique ID of the task
+     * @param field Field to change
+     * @param value New value, of the type TaskBatch uses for the field
+     * @return Boolean value indicating whether the change was journaled. If not, e.g. because the journal isn't
+     * started, the caller should write the change itself.
+     */
+    static boolean append(long taskID, TaskField field, Object value) {
+        Map<TaskField, Object> change = new EnumMap<>(TaskField.class);
+        change.put(field, value);
+        return append(taskID, TaskBatch.ANY_VERSION, change, null);
+    }
+
+    /**
+     * Function to journal changes to several fields of a task, all or none of them, returning once they are on
+     * disk. They are written together, and only if the task is still at the expected version.
+     * @param taskID Unique ID of the task
+     * @param expectedVersion Version of the task the changes were based on, or TaskBatch.ANY_VERSION
+     * @param changes New value of each field changed, of the types TaskBatch uses
+     * @param written Told the outcome of the changes once they have been flushed, or null
+     * @return Boolean value indicating whether the changes were journaled, see append(long, TaskField, Object)
+     */
+    static boolean append(long taskID, long expectedVersion, Map<TaskField, Object> changes,
+                          Callback written) {
+        long start = System.nanoTime();
+        List<byte[]> payloads = new ArrayList<>(changes.size());
+        int size = 0;
+        for (Map.Entry<TaskField, Object> change : changes.entrySet()) {
+            byte[] payload = encode(new Edit(taskID, expectedVersion, change.getKey(), change.getValue()));
+            payloads.add(payload);
+            size += RECORD_HEADER_SIZE + payload.length;
+        }
+        long end;
+        int recordsEnd;
+        synchronized (lock) {
+            if (!open || HEADER_SIZE + size > buffer.capacity()) {
+                return false;
+            }
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(FULL_WAIT_MILLIS);
+            while (position + size > buffer.capacity()) {
+                // Full until the next flush has written the journal to the database
+                flusher.execute(TaskJournal::flush);
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !open) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (!open) {
+                    return false;
+                }
+            }
+            for (byte[] payload : payloads) {
+                buffer.putInt(position, payload.length);
+                buffer.putInt(position + 4, checksum(generation, payload));
+                buffer.put(position + RECORD_HEADER_SIZE, payload);
+                position += RECORD_HEADER_SIZE + payload.length;
+            }
+            recordsEnd = position;
+            if (written != null) {
+                callbacks.put(recordsEnd, written);
+            }
+            appendedBytes += size;
+            end = appendedBytes;
+        }
+
+        try {
+            sync(end);
+        } catch (UncheckedIOException e) {
+            // Writing the change again synchronously is harmless if it is also flushed from the journal
+            appendTimer.recordError(start);
+            logger.log(Level.WARNING, "event=journal_sync_failed", e);
+            synchronized (lock) {
+                // The caller is told the changes weren't journaled, so it mustn't hear about them later
+                callbacks.remove(recordsEnd, written);
+            }
+            return false;
+        }
+        appendTimer.record(start);
+        return true;
+    }
+
+    /**
+     * Method to force the file to disk, unless a force which started after the record was appended has already
+     * done so
+     * @param end Value of appendedBytes just after the record
+     */
+    private static void sync(long end) {
+        if (durableBytes >= end) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableBytes >= end) {
+                return;
+            }
+            long covered;
+            synchronized (lock) {
+                covered = appendedBytes;
+            }
+            buffer.force();
+            syncs.increment();
+            durableBytes = covered;
+        }
+    }
+
+    /**
+     * Function to write every change journaled so far to the database in a single transaction, and tell the
+     * callbacks given to append how their changes went
+     * @return Boolean value indicating whether the changes were written, or dropped as they can never be. If not,
+     * e.g. because the database is locked, the changes not written stay in the journal.
+     */
+    public static boolean flush() {
+        synchronized (flushLock) {
+            List<Edit> edits;
+            List<Integer> ends = new ArrayList<>();
+            synchronized (lock) {
+                if (buffer == null) {
+                    return true;
+                }
+                edits = readEdits(flushedOffset, position);
+                for (int offset = flushedOffset; offset < position; ) {
+                    offset += RECORD_HEADER_SIZE + buffer.getInt(offset);
+                    ends.add(offset);
+                }
+            }
+            if (edits.isEmpty()) {
+                return true;
+            }
+
+            long start = System.nanoTime();
+            long[] expectedVersions = new long[edits.size()];
+            TaskBatch batch = new TaskBatch();
+            for (int i = 0; i < edits.size(); i++) {
+                Edit edit = edits.get(i);
+                expectedVersions[i] = expectedVersion(edit);
+                batch.compareAndSet(edit.taskID(), expectedVersions[i], edit.field(), edit.value());
+            }
+            List<TaskBatch.Result> results = batch.flushWithoutJournal(TaskBatch.ANY_OWNER);
+            if (results.get(0).outcome() == TaskBatch.Outcome.FAILED) {
+                if (results.get(0).failedOnLock()) {
+                    lockFailure = results.get(0).message();
+                    results = List.of();
+                } else {
+                    results = flushOneByOne(edits, expectedVersions);
+                }
+                if (results.isEmpty()) {
+                    flushTimer.recordError(start);
+                    logger.warning("event=journal_flush_failed edits=" + edits.size() + " reason=\""
+                            + lockFailure + "\"");
+                    return false;
+                }
+            }
+            int written = results.size();
+            for (int i = 0; i < written; i++) {
+                Edit edit = edits.get(i);
+                if (results.get(i).outcome() == TaskBatch.Outcome.APPLIED
+                        && edit.expectedVersion() != TaskBatch.ANY_VERSION) {
+                    rebased.put(edit.taskID(), new Rebase(edit.expectedVersion(), expectedVersions[i] + 1));
+                }
+            }
+            countDropped(results);
+            flushTimer.record(start);
+
+            List<Integer> toldRecords = new ArrayList<>();
+            List<Callback> toTell = new ArrayList<>();
+            synchronized (lock) {
+                for (int i = 0; i < written; i++) {
+                    Callback callback = callbacks.remove(ends.get(i));
+                    if (callback != null) {
+                        toldRecords.add(i);
+                        toTell.add(callback);
+                    }
+                }
+                flushedOffset = ends.get(written - 1);
+                if (flushedOffset == position) {
+                    // Everything has been written, so start again from the beginning of the file. Records from
+                    // this generation left after the header no longer pass their checksums.
+                    generation++;
+                    position = HEADER_SIZE;
+                    flushedOffset = HEADER_SIZE;
+                    rebased.clear();
+                }
+                writeHeader();
+                lock.notifyAll();
+            }
+            buffer.force(0, HEADER_SIZE);
+            for (int i = 0; i < toldRecords.size(); i++) {
+                int record = toldRecords.get(i);
+                TaskBatch.Result result = results.get(record);
+                boolean checked = edits.get(record).expectedVersion() != TaskBatch.ANY_VERSION;
+                long version = result.outcome() == TaskBatch.Outcome.APPLIED && checked
+                        ? expectedVersions[record] + 1 : -1;
+                toTell.get(i).flushed(result, version);
+            }
+            if (written == edits.size()) {
+                lockFailure = null;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Function to write every journaled change to the database ahead of a change made after them, see
+     * TaskBatch.flushLocally. If the last flush found the database locked and there are still changes waiting, the
+     * background flush keeps trying, so this returns straight away rather than waiting for the lock again.
+     * @return null if nothing is left in the journal, otherwise the error message of the lock failure which left
+     * changes in it
+     */
+    static String flushAhead() {
+        // Taken first, so that a flush already waiting for the lock is waited for rather than repeated
+        synchronized (flushLock) {
+            if (lockFailure != null) {
+                synchronized (lock) {
+                    if (open && flushedOffset < position) {
+                        return lockFailure;
+                    }
+                }
+            }
+            return flush() ? null : lockFailure;
+        }
+    }
+
+    /**
+     * Function to write journaled changes a task at a time, after writing them together has failed. Changes to
+     * the same task based on the same version, such as the fields of one AppModel edit, are still written
+     * together, as their version check only passes once. A change which fails on its own is dropped. Must be
+     * called while holding the flush lock.
+     * @param expectedVersions Version each change is checked against, see expectedVersion
+     * @return Result of each change from the start of the list which was written or dropped. The rest weren't
+     * tried because the database was locked.
+     */
+    private static List<TaskBatch.Result> flushOneByOne(List<Edit> edits, long[] expectedVersions) {
+        List<TaskBatch.Result> results = new ArrayList<>(edits.size());
+        int next = 0;
+        while (next < edits.size()) {
+            Edit first = edits.get(next);
+            TaskBatch batch = new TaskBatch();
+            int end = next;
+            while (end < edits.size() && edits.get(end).taskID() == first.taskID()
+                    && edits.get(end).expectedVersion() == first.expectedVersion()) {
+                Edit edit = edits.get(end);
+                batch.compareAndSet(edit.taskID(), expectedVersions[end++], edit.field(), edit.value());
+            }
+            List<TaskBatch.Result> taskResults = batch.flushWithoutJournal(TaskBatch.ANY_OWNER);
+            if (taskResults.get(0).failedOnLock()) {
+                lockFailure = taskResults.get(0).message();
+                return results;
+            }
+            if (taskResults.get(0).outcome() == TaskBatch.Outcome.FAILED) {
+                for (int i = next; i < end; i++) {
+                    logger.warning("event=journal_edit_dropped task_id=" + first.taskID() + " field="
+                            + edits.get(i).field().getColumn() + " reason=\"" + taskResults.get(0).message()
+                            + "\"");
+                }
+            }
+            results.addAll(taskResults);
+            next = end;
+        }
+        return results;
+    }
+
+    /**
+     * Function to find the version a change is checked against when it is flushed: the version it expected, or
+     * the version an earlier flush of this journal moved the task on to from that one. Must be called while
+     * holding the flush lock.
+     */
+    private static long expectedVersion(Edit edit) {
+        Rebase rebase = rebased.get(edit.taskID());
+        return rebase != null && rebase.from() == edit.expectedVersion() ? rebase.to() : edit.expectedVersion();
+    }
+
+    /**
+     * Method to count the changes flushed which weren't written: those whose task no longer exists, or had been
+     * changed since the version they expected, or which could never be written
+     */
+    private static void countDropped(List<TaskBatch.Result> results) {
+        long notFound = results.stream().filter(r -> r.outcome() == TaskBatch.Outcome.NOT_FOUND).count();
+        long conflicts = results.stream().filter(r -> r.outcome() == TaskBatch.Outcome.CONFLICT).count();
+        long failed = results.stream().filter(r -> r.outcome() == TaskBatch.Outcome.FAILED).count();
+        droppedEdits.add(notFound + conflicts + failed);
+        if (notFound > 0) {
+            logger.fine(() -> "event=journal_edits_dropped reason=task_not_found edits=" + notFound);
+        }
+        if (conflicts > 0) {
+            logger.info("event=journal_edits_dropped reason=conflict edits=" + conflicts);
+        }
+    }
+
+    /**
+     * Function to map the journal file, creating it if needed, and find the records not yet written to the
+     * database. Must be called while holding the lock.
+     * @return Number of changes waiting to be written
+     */
+    private static int openFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // Nobody is waiting to hear about changes left by the last run
+        callbacks.clear();
+        rebased.clear();
+        // A journal left by a run with a larger size keeps it, so that none of its records are cut off
+        int size = (int) Math.max(CAPACITY, channel.size());
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (buffer.getInt(0) == 0 && buffer.getInt(4) == 0) {
+            generation = 1;
+            position = HEADER_SIZE;
+            flushedOffset = HEADER_SIZE;
+            writeHeader();
+            buffer.force();
+        } else {
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                channel.close();
+                throw new IOException("Not a task journal, or written by a newer version");
+            }
+            generation = buffer.getLong(GENERATION_POSITION);
+            long flushed = buffer.getLong(FLUSHED_POSITION);
+            if (flushed < HEADER_SIZE || flushed > size) {
+                channel.close();
+                throw new IOException("Invalid flushed offset " + flushed);
+            }
+            flushedOffset = (int) flushed;
+            position = flushedOffset;
+            while (readRecord(position) != null) {
+                position += RECORD_HEADER_SIZE + buffer.getInt(position);
+            }
+            // Clear anything after the last whole record, such as a record torn by a crash, so that it can't be
+            // mistaken for part of the journal once new records have been written up to it
+            if (position + 4 <= size && buffer.getInt(position) != 0) {
+                buffer.put(position, new byte[size - position]);
+                buffer.force();
+            }
+        }
+        open = true;
+        return readEdits(flushedOffset, position).size();
+    }
+
+    private static void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putLong(GENERATION_POSITION, generation);
+        buffer.putLong(FLUSHED_POSITION, flushedOffset);
+    }
+
+    private static List<Edit> readEdits(int from, int to) {
+        List<Edit> edits = new ArrayList<>();
+        for (int offset = from; offset < to; offset += RECORD_HEADER_SIZE + buffer.getInt(offset)) {
+            edits.add(readRecord(offset));
+        }
+        return edits;
+    }
+
+    /**
+     * Function to read the record at an offset, checking that it is whole and belongs to this generation
+     * @return The change, or null if there is no valid record at the offset
+     */
+    private static Edit readRecord(int offset) {
+        if (offset + RECORD_HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(offset + RECORD_HEADER_SIZE, payload);
+        if (buffer.getInt(offset + 4) != checksum(generation, payload)) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            long taskID = in.readLong();
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= TaskField.values().length) {
+                return null;
+            }
+            TaskField field = TaskField.values()[ordinal];
+            Object value = WireProtocol.readValue(in, field);
+            // Records journaled before versions were kept apply whatever version the task is at
+            long expectedVersion = in.available() >= Long.BYTES ? in.readLong() : TaskBatch.ANY_VERSION;
+            return new Edit(taskID, expectedVersion, field, value);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(Edit edit) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(edit.taskID());
+            out.writeByte(edit.field().ordinal());
+            WireProtocol.writeValue(out, edit.field(), edit.value());
+            out.writeLong(edit.expectedVersion());
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int checksum(long generation, byte[] payload) {
+        CRC32 crc = new CRC32();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (generation >>> shift));
+        }
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Function to find where the journal is kept: the taskmanager.journal.file system property, or the database
+     * file's path followed by "-edits"
+     * @return Path of the journal, or null if the database is held in memory
+     */
+    private static Path journalPath() {
+        String configured = System.getProperty("taskmanager.journal.file");
+        if (configured != null) {
+            return Path.of(configured);
+        }
+        String databaseFile = Database.databaseFile();
+        return databaseFile == null ? null : Path.of(databaseFile + "-edits");
+    }
+}
@@ -0,0 +1,37 @@
+package app.database;
+
+/**
+ * Priority of a task. Stored in the tasks table as its integer code, so that it can be indexed and sorted cheaply.
+ */
+public enum TaskPriority {
+    LOW(0),
+    MEDIUM(1),
+    HIGH(2);
+
+    private final int code;
+
+    TaskPriority(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return Integer code stored in the priority column
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Function to convert a code read from the priority column back into a priority
+     * @param code Integer code stored in the database
+     * @return Priority with that code
+     */
+    public static TaskPriority fromCode(int code) {
+        for (TaskPriority priority : values()) {
+            if (priority.code == code) {
+                return priority;
+            }
+        }
+        throw new IllegalArgumentException("Unknown task priority code: " + code);
+    }
+}
@@ -0,0 +1,102 @@
+package app.database;
+
+import app.data.Occurrence;
+import app.data.Task;
+import app.data.TaskSeries;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The persistence operations the application needs, whether the database file is opened by this process
+ * (LocalRepository) or owned by a server process which several instances of the application share
+ * (RemoteRepository, see RepositoryServer). Use Repositories.get() to reach whichever one is in use.
+ * Like Database, failures are logged and reported as an empty or negative result rather than thrown.
+ */
+public interface TaskRepository {
+    /**
+     * See Database.userExists
+     */
+    boolean userExists(String username);
+
+    /**
+     * See Database.insertUser
+     */
+    boolean insertUser(String username, String email, String password);
+
+    /**
+     * See Database.getUserID
+     */
+    long getUserID(String username);
+
+    /**
+     * See AuthenticationService.authenticate
+     * @return A new session for the user, or null if the details are incorrect
+     */
+    AuthenticationService.Session authenticate(String username, String password);
+
+    /**
+     * See AuthenticationService.endSession
+     */
+    void endSession(String token);
+
+    /**
+     * See Database.getTasksPage
+     */
+    List<Task> getTasksPage(long userID, long afterTaskID, int limit);
+
+    /**
+     * See Database.getTaskStatistics
+     */
+    Map<StatisticsDimension, Map<Long, Long>> getTaskStatistics(long userID);
+
+    /**
+     * See Database.searchTasks
+     */
+    List<Task> searchTasks(long userID, String query, int limit, int offset);
+
+    /**
+     * See Database.getTaskSeries
+     */
+    List<TaskSeries> getTaskSeries(long userID);
+
+    /**
+     * See Database.insertTaskSeries
+     */
+    long insertTaskSeries(TaskSeries series);
+
+    /**
+     * See Database.saveOccurrence
+     */
+    boolean saveOccurrence(long userID, long seriesID, LocalDate date, Occurrence occurrence);
+
+    /**
+     * See Database.removeTaskSeries
+     */
+    boolean removeTaskSeries(long userID, long seriesID);
+
+    /**
+     * Writes every operation queued in a batch in a single transaction and empties the batch, see TaskBatch.flush
+     * @return One result per queued operation, in the order the operations were added
+     */
+    List<TaskBatch.Result> flush(TaskBatch batch);
+
+    /**
+     * Queues changes to one task in TaskJournal, to be written once the database can be written again if the task
+     * is still at the expected version. For changes which couldn't be written because another process held the
+     * lock.
+     * @param expectedVersion Version of the task the changes were based on
+     * @param changes New value of each field changed, of the types TaskBatch uses
+     * @param written Told the outcome once the changes have been flushed
+     * @return Boolean value indicating whether the changes were journaled. Always false if there is no journal,
+     * e.g. for a task server, which is the only process writing its database.
+     */
+    boolean journal(long taskID, long expectedVersion, Map<TaskField, Object> changes,
+                    TaskJournal.Callback written);
+
+    /**
+     * Releases the connections held by the repository. Called once when the application exits.
+     */
+    void shutdown();
+}
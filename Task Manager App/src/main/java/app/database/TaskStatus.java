@@ -0,0 +1,39 @@
+package app.database;
+
+/**
+ * Completion status of a task. Stored in the tasks table as its integer code, so that it can be indexed cheaply.
+ */
+public enum TaskStatus {
+    TODO(0),
+    IN_PROGRESS(1),
+    COMPLETED(2),
+    /** Set by the reminder scheduler once the due date has passed without the task being completed */
+    OVERDUE(3);
+
+    private final int code;
+
+    TaskStatus(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return Integer code stored in the status column
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Function to convert a code read from the status column back into a status
+     * @param code Integer code stored in the database
+     * @return Status with that code
+     */
+    public static TaskStatus fromCode(int code) {
+        for (TaskStatus status : values()) {
+            if (status.code == code) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown task status code: " + code);
+    }
+}
@@ -0,0 +1,442 @@
+package app.database;
+
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Class to import tasks from, and export tasks to, CSV and JSON Lines files (see TaskFileFormat).
+ * <p>
+ * An import runs as a pipeline: a reader thread parses and validates records and hands them over in chunks
+ * through a small bounded queue, while the calling thread inserts each chunk in its own transaction. As the queue
+ * is bounded, only a few chunks are ever held in memory, however large the file. The number of records done is
+ * saved in the import_checkpoints table in the same transaction as each chunk, so if an import fails part way
+ * through, importing the same file again carries on after the last chunk which was saved.
+ * <p>
+ * An export writes each row of a forward-only result set straight to the file, without loading the tasks first.
+ * <p>
+ * Both block for as long as the file takes, so they should be run off the JavaFX thread, e.g. through AsyncDatabase.
+ */
+public class TaskTransfer {
+    private static final Logger logger = Logger.getLogger(TaskTransfer.class.getName());
+
+    /**
+     * Time taken to save each chunk of an import, the part of an import which holds the writer connection
+     */
+    private static final Timer chunkTimer = Metrics.timer("transfer.insertChunk");
+
+    /**
+     * Number of records inserted per transaction, and between progress reports
+     */
+    private static final int CHUNK_SIZE = 5000;
+
+    /**
+     * Number of parsed chunks which may wait to be inserted before the reader thread has to wait
+     */
+    private static final int QUEUED_CHUNKS = 4;
+
+    /**
+     * Number of rejected records reported individually in an ImportResult. Any more are only counted.
+     */
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+
+    /**
+     * Longest task name accepted by an import
+     */
+    private static final int MAX_NAME_LENGTH = 1000;
+
+    /**
+     * Progress of an import or export, reported after each chunk
+     * @param recordsRead Records read from the file (imports) or tasks read from the database (exports)
+     * @param tasksWritten Tasks saved to the database (imports) or written to the file (exports)
+     * @param recordsRejected Records which were skipped because they are invalid. Always 0 for exports.
+     */
+    public record Progress(long recordsRead, long tasksWritten, long recordsRejected) {}
+
+    /**
+     * A record which wasn't imported
+     * @param line Line of the file on which the record starts
+     * @param reason Why the record was rejected
+     */
+    public record Rejection(long line, String reason) {}
+
+    /**
+     * Outcome of a completed import. Counts include any earlier, interrupted attempts at importing the same file.
+     * @param recordsRead Records read from the file
+     * @param tasksImported Tasks saved to the database
+     * @param recordsRejected Records which were skipped because they are invalid
+     * @param rejections The first rejected records of this attempt, with the reason for each
+     * @param resumed Whether this import carried on from an earlier attempt rather than starting from the beginning
+     */
+    public record ImportResult(long recordsRead, long tasksImported, long recordsRejected, List<Rejection> rejections,
+                               boolean resumed) {}
+
+    /**
+     * A validated record, ready to be inserted
+     */
+    private record TaskRow(String taskName, String taskDescription, String dueDate, TaskPriority priority,
+                           TaskStatus status) {}
+
+    /**
+     * Records handed from the reader thread to the inserting thread
+     * @param rows Valid records in this chunk
+     * @param rejections Invalid records in this chunk
+     * @param recordsRead Number of records read from the start of the file up to the end of this chunk
+     * @param error Error which stopped the reader, or null
+     * @param last Whether this is the last chunk of the file
+     */
+    private record Chunk(List<TaskRow> rows, List<Rejection> rejections, long recordsRead, Exception error,
+                         boolean last) {}
+
+    /**
+     * Progress of an import, as saved in import_checkpoints
+     */
+    private record Checkpoint(long recordsRead, long tasksImported, long recordsRejected) {}
+
+    /**
+     * Function to import every task in a file for a user. Invalid records are skipped and reported in the result,
+     * rather than stopping the import.
+     * @param userID Unique ID of the user the tasks will belong to
+     * @param file CSV or JSON Lines file to read
+     * @param format Format of the file, e.g. from TaskFileFormat.fromFileName
+     * @param progress Called on this thread after each chunk is saved. May be null.
+     * @return Counts of imported and rejected records
+     * @throws IOException If the file can't be read. Chunks saved before the error are kept, and importing the
+     * file again resumes after them.
+     * @throws SQLException If a chunk can't be saved. As above, the import can be resumed.
+     */
+    public static ImportResult importTasks(long userID, Path file, TaskFileFormat format, Consumer<Progress> progress)
+            throws IOException, SQLException {
+        String source = file.toAbsolutePath().normalize().toString();
+        long sourceSize = Files.size(file);
+        long sourceModified = Files.getLastModifiedTime(file).toMillis();
+
+        Checkpoint checkpoint = readCheckpoint(userID, source, sourceSize, sourceModified);
+        boolean resumed = checkpoint.recordsRead() > 0;
+        if (resumed) {
+            logger.info("event=import_resumed source=\"" + source + "\" records_done=" + checkpoint.recordsRead());
+        }
+
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+        Thread reader = new Thread(() -> readChunks(file, format, checkpoint.recordsRead(), chunks), "task-import-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long recordsRead = checkpoint.recordsRead();
+        long tasksImported = checkpoint.tasksImported();
+        long recordsRejected = checkpoint.recordsRejected();
+        List<Rejection> rejections = new ArrayList<>();
+        try {
+            while (true) {
+                Chunk chunk = chunks.take();
+                if (chunk.error() != null) {
+                    throw chunk.error() instanceof IOException e ? e : new IOException(chunk.error());
+                }
+
+                recordsRead = chunk.recordsRead();
+                tasksImported += chunk.rows().size();
+                recordsRejected += chunk.rejections().size();
+                for (Rejection rejection : chunk.rejections()) {
+                    if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                        rejections.add(rejection);
+                    }
+                }
+
+                Checkpoint saved = new Checkpoint(recordsRead, tasksImported, recordsRejected);
+                long start = System.nanoTime();
+                try {
+                    insertChunk(userID, source, sourceSize, sourceModified, chunk, saved);
+                    chunkTimer.record(start);
+                } catch (SQLException e) {
+                    chunkTimer.recordError(start);
+                    throw e;
+                }
+                if (progress != null) {
+                    progress.accept(new Progress(recordsRead, tasksImported, recordsRejected));
+                }
+                if (chunk.last()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import of " + source + " was interrupted", e);
+        } finally {
+            // Stops the reader if this thread gave up part way through
+            reader.interrupt();
+        }
+
+        logger.info("event=import_finished source=\"" + source + "\" user_id=" + userID
+                + " imported=" + tasksImported + " rejected=" + recordsRejected);
+        return new ImportResult(recordsRead, tasksImported, recordsRejected, rejections, resumed);
+    }
+
+    /**
+     * Function to write every task of a user to a file. The file is written under a temporary name and only
+     * renamed once complete, so a failed export never leaves a partial file behind.
+     * @param userID Unique ID of the user whose tasks are exported
+     * @param file File to write, which is replaced if it exists
+     * @param format Format to write
+     * @param progress Called on this thread after each chunk of tasks is written. May be null.
+     * @return Number of tasks written
+     */
+    public static long exportTasks(long userID, Path file, TaskFileFormat format, Consumer<Progress> progress)
+            throws IOException, SQLException {
+        String sql = "SELECT task_name, task_description, due_date, priority, status FROM tasks "
+                + "WHERE user_id = ? ORDER BY task_id";
+        Path partialFile = file.resolveSibling(file.getFileName() + ".part");
+        long tasksWritten = 0;
+
+        try (Connection conn = Database.connectReadOnly();
+             PreparedStatement preparedStatement = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                     ResultSet.CONCUR_READ_ONLY);
+             BufferedWriter out = Files.newBufferedWriter(partialFile, StandardCharsets.UTF_8)) {
+            preparedStatement.setLong(1, userID);
+            preparedStatement.setFetchSize(CHUNK_SIZE);
+            format.writeHeader(out);
+
+            String[] values = new String[TaskFileFormat.FIELDS.size()];
+            try (ResultSet rows = preparedStatement.executeQuery()) {
+                while (rows.next()) {
+                    values[0] = rows.getString("task_name");
+                    values[1] = rows.getString("task_description");
+                    values[2] = rows.getString("due_date");
+                    int priority = rows.getInt("priority");
+                    values[3] = rows.wasNull() ? null : TaskPriority.fromCode(priority).name();
+                    values[4] = TaskStatus.fromCode(rows.getInt("status")).name();
+                    format.writeRecord(out, values);
+
+                    tasksWritten++;
+                    if (progress != null && tasksWritten % CHUNK_SIZE == 0) {
+                        progress.accept(new Progress(tasksWritten, tasksWritten, 0));
+                    }
+                }
+            }
+        } catch (IOException | SQLException e) {
+            Files.deleteIfExists(partialFile);
+            throw e;
+        }
+
+        Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (progress != null) {
+            progress.accept(new Progress(tasksWritten, tasksWritten, 0));
+        }
+        logger.info("event=export_finished file=\"" + file + "\" user_id=" + userID + " exported=" + tasksWritten);
+        return tasksWritten;
+    }
+
+    /**
+     * Body of the reader thread. Skips the records saved by an earlier attempt, then parses and validates the
+     * rest of the file, putting a chunk on the queue every CHUNK_SIZE records. Blocks while the queue is full.
+     */
+    private static void readChunks(Path file, TaskFileFormat format, long recordsToSkip, BlockingQueue<Chunk> chunks) {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            TaskFileFormat.RecordReader records = format.openReader(in);
+            long recordsRead = 0;
+            List<TaskRow> rows = new ArrayList<>(CHUNK_SIZE);
+            List<Rejection> rejections = new ArrayList<>();
+
+            while (true) {
+                Map<String, String> record;
+                String rejectedBecause = null;
+                try {
+                    record = records.next();
+                } catch (TaskFileFormat.MalformedRecordException e) {
+                    record = null;
+                    rejectedBecause = e.getMessage();
+                }
+                if (record == null && rejectedBecause == null) {
+                    break;
+                }
+
+                recordsRead++;
+                if (recordsRead <= recordsToSkip) {
+                    continue;
+                }
+                if (rejectedBecause == null) {
+                    try {
+                        rows.add(validate(record));
+                    } catch (IllegalArgumentException e) {
+                        rejectedBecause = e.getMessage();
+                    }
+                }
+                if (rejectedBecause != null) {
+                    rejections.add(new Rejection(records.line(), rejectedBecause));
+                }
+
+                if (rows.size() + rejections.size() == CHUNK_SIZE) {
+                    chunks.put(new Chunk(rows, rejections, recordsRead, null, false));
+                    rows = new ArrayList<>(CHUNK_SIZE);
+                    rejections = new ArrayList<>();
+                }
+            }
+            chunks.put(new Chunk(rows, rejections, Math.max(recordsRead, recordsToSkip), null, true));
+        } catch (InterruptedException e) {
+            // The inserting thread has given up, so nobody is waiting for more chunks
+        } catch (IOException | RuntimeException e) {
+            try {
+                chunks.put(new Chunk(List.of(), List.of(), 0, e, true));
+            } catch (InterruptedException interrupted) {
+                // As above
+            }
+        }
+    }
+
+    /**
+     * Function to check the fields of a record and convert them to the types stored in the tasks table
+     * @throws IllegalArgumentException With the reason, if the record isn't a valid task
+     */
+    private static TaskRow validate(Map<String, String> record) {
+        String taskName = emptyToNull(record.get("task_name"));
+        if (taskName == null) {
+            throw new IllegalArgumentException("Task name is missing");
+        }
+        if (taskName.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Task name is longer than " + MAX_NAME_LENGTH + " characters");
+        }
+
+        String dueDate = emptyToNull(record.get("due_date"));
+        if (dueDate != null) {
+            try {
+                dueDate = LocalDate.parse(dueDate).toString();
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Due date is not in YYYY-MM-DD format: " + dueDate);
+            }
+        }
+
+        String priority = emptyToNull(record.get("priority"));
+        String status = emptyToNull(record.get("status"));
+        return new TaskRow(taskName, emptyToNull(record.get("task_description")), dueDate,
+                priority == null ? null : parseEnum(priority, TaskPriority.values(), "priority"),
+                status == null ? TaskStatus.TODO : parseEnum(status, TaskStatus.values(), "status"));
+    }
+
+    /**
+     * Function to read a priority or status from either its name (in any case, with spaces or underscores) or its
+     * integer code
+     */
+    private static <E extends Enum<E>> E parseEnum(String value, E[] constants, String fieldName) {
+        String name = value.strip().toUpperCase(Locale.ROOT).replace(' ', '_');
+        for (E constant : constants) {
+            if (constant.name().equals(name)) {
+                return constant;
+            }
+        }
+        try {
+            int code = Integer.parseInt(name);
+            for (E constant : constants) {
+                int constantCode = constant instanceof TaskPriority priority
+                        ? priority.getCode() : ((TaskStatus) constant).getCode();
+                if (constantCode == code) {
+                    return constant;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Falls through to the error below
+        }
+        throw new IllegalArgumentException("Unknown " + fieldName + ": " + value);
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    /**
+     * Inserts one chunk of tasks and saves the import's progress, in a single transaction
+     */
+    private static void insertChunk(long userID, String source, long sourceSize, long sourceModified, Chunk chunk,
+                                    Checkpoint checkpoint) throws SQLException {
+        String insertSql = "INSERT INTO tasks (user_id, task_name, task_description, due_date, priority, status) "
+                + "VALUES (?, ?, ?, ?, ?, ?)";
+        String checkpointSql = chunk.last()
+                ? "DELETE FROM import_checkpoints WHERE user_id = ? AND source = ?"
+                : "INSERT OR REPLACE INTO import_checkpoints (user_id, source, source_size, source_modified, "
+                        + "records_read, tasks_imported, records_rejected) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = Database.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(insertSql);
+                 PreparedStatement saveCheckpoint = conn.prepareStatement(checkpointSql)) {
+                for (TaskRow row : chunk.rows()) {
+                    insert.setLong(1, userID);
+                    insert.setString(2, row.taskName());
+                    insert.setString(3, row.taskDescription());
+                    insert.setString(4, row.dueDate());
+                    if (row.priority() == null) {
+                        insert.setNull(5, Types.INTEGER);
+                    } else {
+                        insert.setInt(5, row.priority().getCode());
+                    }
+                    insert.setInt(6, row.status().getCode());
+                    insert.addBatch();
+                }
+                if (!chunk.rows().isEmpty()) {
+                    insert.executeBatch();
+                }
+
+                // The finished import's checkpoint is deleted instead, so the same file can be imported again later
+                saveCheckpoint.setLong(1, userID);
+                saveCheckpoint.setString(2, source);
+                if (!chunk.last()) {
+                    saveCheckpoint.setLong(3, sourceSize);
+                    saveCheckpoint.setLong(4, sourceModified);
+                    saveCheckpoint.setLong(5, checkpoint.recordsRead());
+                    saveCheckpoint.setLong(6, checkpoint.tasksImported());
+                    saveCheckpoint.setLong(7, checkpoint.recordsRejected());
+                }
+                saveCheckpoint.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Function to find how far an earlier attempt at importing a file got. A checkpoint for a file which has
+     * since changed is discarded, as its record counts no longer line up with the file.
+     * @return The saved progress, or zero counts if the import starts from the beginning
+     */
+    private static Checkpoint readCheckpoint(long userID, String source, long sourceSize, long sourceModified)
+            throws SQLException {
+        String sql = "SELECT source_size, source_modified, records_read, tasks_imported, records_rejected "
+                + "FROM import_checkpoints WHERE user_id = ? AND source = ?";
+        try (Connection conn = Database.connectReadOnly();
+             PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+            preparedStatement.setLong(1, userID);
+            preparedStatement.setString(2, source);
+            ResultSet checkpoint = preparedStatement.executeQuery();
+            if (checkpoint.next() && checkpoint.getLong("source_size") == sourceSize
+                    && checkpoint.getLong("source_modified") == sourceModified) {
+                return new Checkpoint(checkpoint.getLong("records_read"), checkpoint.getLong("tasks_imported"),
+                        checkpoint.getLong("records_rejected"));
+            }
+        }
+        return new Checkpoint(0, 0, 0);
+    }
+}
@@ -0,0 +1,255 @@
+package app.database;
+
+import app.metrics.Counter;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class to delete users along with everything they own. Deleting a user with hundreds of thousands of tasks in
+ * one statement would hold the writer connection for seconds, so it happens in two steps:
+ * <ol>
+ *     <li>the user is marked as deleted, which stops them logging in and ends their sessions, and then</li>
+ *     <li>on a background thread, their tasks and archived tasks are deleted taskmanager.users.purgeBatchSize
+ *     (default 250) at a time, each batch in its own transaction, before the user row itself is deleted.</li>
+ * </ol>
+ * Deleting the user row cascades to anything still left (see migration 10), so tasks added while the purge was
+ * running aren't left behind. A purge cut short by the application exiting is finished by resumePurges().
+ */
+public final class UserLifecycle {
+    private static final Logger logger = Logger.getLogger(UserLifecycle.class.getName());
+
+    private static final int BATCH_SIZE = Integer.getInteger("taskmanager.users.purgeBatchSize", 250);
+
+    /**
+     * Pause between batches. Whoever asks for the writer connection first isn't guaranteed to get it next,
+     * so without a pause the purge could take it straight back ahead of a user's own changes.
+     */
+    private static final long PAUSE_MILLIS = 5;
+
+    private static final Timer markTimer = Metrics.timer("users.markDeleted");
+    private static final Timer batchTimer = Metrics.timer("users.purgeBatch");
+    private static final Counter purgedTasks = Metrics.counter("users.purgedTasks");
+    private static final Counter purgedUsers = Metrics.counter("users.purged");
+
+    /**
+     * Progress of a purge, reported after each batch
+     * @param userID Unique ID of the user being purged
+     * @param tasksDeleted Tasks and archived tasks deleted so far
+     * @param tasksTotal Tasks and archived tasks the user had when the purge started
+     */
+    public record Progress(long userID, long tasksDeleted, long tasksTotal) {}
+
+    private static ExecutorService executor;
+    private static volatile boolean stopping = false;
+
+    private UserLifecycle() {}
+
+    /**
+     * Function to delete a user and all of their tasks. The user can no longer log in once this returns;
+     * their tasks are deleted in the background.
+     * @param username Username of the user to delete
+     * @param progress Called on the background thread after each batch, or null
+     * @return Future holding the number of tasks deleted, or -1 if no user has that username
+     */
+    public static CompletableFuture<Long> deleteUser(String username, Consumer<Progress> progress) {
+        long userID;
+        try {
+            userID = markDeleted(username);
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "event=remove_user_failed", e);
+            return CompletableFuture.failedFuture(e);
+        }
+        if (userID < 0) {
+            logger.fine("event=user_not_found");
+            return CompletableFuture.completedFuture(-1L);
+        }
+        AuthenticationService.endSessions(userID);
+        return schedule(userID, progress);
+    }
+
+    /**
+     * Method to finish purging users who were marked as deleted before the application last exited
+     */
+    public static void resumePurges() {
+        List<Long> userIDs = new ArrayList<>();
+        try (Connection conn = Database.connectReadOnly();
+             PreparedStatement preparedStatement = conn.prepareStatement(
+                     "SELECT user_id FROM users WHERE deleted_at IS NOT NULL")) {
+            ResultSet users = preparedStatement.executeQuery();
+            while (users.next()) {
+                userIDs.add(users.getLong(1));
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "event=resume_purges_failed", e);
+            return;
+        }
+        for (long userID : userIDs) {
+            logger.info("event=user_purge_resumed user_id=" + userID);
+            schedule(userID, null);
+        }
+    }
+
+    /**
+     * Method to stop purging. A purge in progress stops after its current batch, and the user stays marked as
+     * deleted so that resumePurges() can finish it.
+     */
+    public static synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        stopping = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    private static synchronized CompletableFuture<Long> schedule(long userID, Consumer<Progress> progress) {
+        if (executor == null) {
+            stopping = false;
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "user-purge");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return purge(userID, progress);
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "event=user_purge_failed user_id=" + userID, e);
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Function to mark a user as deleted, so that they can't log in while their tasks are being purged.
+     * Their username stays taken until the purge has finished.
+     * @return The user's ID, or -1 if no user has that username
+     */
+    private static long markDeleted(String username) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = Database.connect();
+             PreparedStatement select = conn.prepareStatement("SELECT user_id FROM users WHERE username = ?");
+             PreparedStatement mark = conn.prepareStatement(
+                     "UPDATE users SET deleted_at = unixepoch() WHERE user_id = ? AND deleted_at IS NULL")) {
+            select.setString(1, username);
+            long userID;
+            try (ResultSet user = select.executeQuery()) {
+                userID = user.next() ? user.getLong(1) : -1;
+            }
+            if (userID >= 0) {
+                mark.setLong(1, userID);
+                mark.executeUpdate();
+            }
+            markTimer.record(start);
+            return userID;
+        } catch (SQLException e) {
+            markTimer.recordError(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Function to delete a marked user's tasks a batch at a time, then the user
+     * @param userID Unique ID of the user
+     * @param progress Called after each batch, or null
+     * @return Number of tasks and archived tasks deleted
+     */
+    static long purge(long userID, Consumer<Progress> progress) throws SQLException {
+        long total = countTasks(userID);
+        long deleted = 0;
+        logger.info("event=user_purge_started user_id=" + userID + " tasks=" + total);
+
+        for (String table : List.of("tasks", "tasks_archive")) {
+            String sql = "DELETE FROM " + table + " WHERE task_id IN "
+                    + "(SELECT task_id FROM " + table + " WHERE user_id = ? LIMIT ?)";
+            int batchDeleted = BATCH_SIZE;
+            while (batchDeleted == BATCH_SIZE) {
+                if (stopping) {
+                    logger.info("event=user_purge_paused user_id=" + userID + " deleted=" + deleted);
+                    return deleted;
+                }
+                long start = System.nanoTime();
+                try (Connection conn = Database.connect();
+                     PreparedStatement preparedStatement = conn.prepareStatement(sql)) {
+                    preparedStatement.setLong(1, userID);
+                    preparedStatement.setInt(2, BATCH_SIZE);
+                    batchDeleted = preparedStatement.executeUpdate();
+                    batchTimer.record(start);
+                } catch (SQLException e) {
+                    batchTimer.recordError(start);
+                    throw e;
+                }
+                deleted += batchDeleted;
+                purgedTasks.add(batchDeleted);
+                if (progress != null) {
+                    progress.accept(new Progress(userID, deleted, Math.max(total, deleted)));
+                }
+                pause();
+            }
+        }
+
+        try (Connection conn = Database.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement deleteUser = conn.prepareStatement("DELETE FROM users WHERE user_id = ?");
+                 PreparedStatement deleteStats = conn.prepareStatement("DELETE FROM task_stats WHERE user_id = ?")) {
+                // Cascades to any tasks added since their batch was deleted, whose triggers update task_stats,
+                // so the user's counts are only deleted after the user
+                deleteUser.setLong(1, userID);
+                deleteUser.executeUpdate();
+                deleteStats.setLong(1, userID);
+                deleteStats.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        purgedUsers.increment();
+        logger.info("event=user_purged user_id=" + userID + " tasks=" + deleted);
+        return deleted;
+    }
+
+    private static long countTasks(long userID) throws SQLException {
+        try (Connection conn = Database.connectReadOnly();
+             PreparedStatement preparedStatement = conn.prepareStatement(
+                     "SELECT (SELECT COUNT(*) FROM tasks WHERE user_id = ?)"
+                             + " + (SELECT COUNT(*) FROM tasks_archive WHERE user_id = ?)")) {
+            preparedStatement.setLong(1, userID);
+            preparedStatement.setLong(2, userID);
+            ResultSet count = preparedStatement.executeQuery();
+            return count.next() ? count.getLong(1) : 0;
+        }
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
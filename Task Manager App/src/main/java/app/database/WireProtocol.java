@@ -0,0 +1,338 @@
+package app.database;
+
+import app.data.Occurrence;
+import app.data.RecurrenceRule;
+import app.data.Task;
+import app.data.TaskSeries;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary protocol spoken between RemoteRepository and RepositoryServer over a loopback socket.
+ * <p>
+ * Every message is a frame: an int giving the length of the rest of the frame, an int request ID chosen by the
+ * client, then a request (an opcode byte and its arguments) or a response (a status byte and its result, or an
+ * error message). Integers are big-endian, strings are an int byte count (-1 for null) followed by UTF-8, and
+ * dates are epoch days. The request ID is what allows pipelining: a client may send any number of requests
+ * without waiting, and matches each response to its request by ID. The server answers the requests of one
+ * connection in the order they were sent, apart from AUTHENTICATE, which may be answered after requests sent
+ * behind it (see RepositoryServer).
+ */
+final class WireProtocol {
+    /**
+     * Sent by the client first, and answered with the same value, so that something else listening on the port
+     * isn't mistaken for the server. The low byte is the protocol version.
+     */
+    static final int HANDSHAKE = 0x54_4D_53_01;
+
+    /**
+     * Largest frame either side accepts, so a corrupt length can't make the other side allocate gigabytes
+     */
+    static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    // Requests
+    static final byte USER_EXISTS = 1;
+    static final byte INSERT_USER = 2;
+    static final byte GET_USER_ID = 3;
+    static final byte AUTHENTICATE = 4;
+    static final byte RESUME_SESSION = 5;
+    static final byte END_SESSION = 6;
+    static final byte GET_TASKS_PAGE = 7;
+    static final byte GET_TASK_STATISTICS = 8;
+    static final byte SEARCH_TASKS = 9;
+    static final byte FLUSH_BATCH = 10;
+    static final byte GET_TASK_SERIES = 11;
+    static final byte INSERT_TASK_SERIES = 12;
+    static final byte SAVE_OCCURRENCE = 13;
+    static final byte REMOVE_TASK_SERIES = 14;
+
+    // Response statuses
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private WireProtocol() {}
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the value of a task field, using the types TaskBatch stores: a String, or a priority or status
+     * as its code (-1 for null)
+     */
+    static void writeValue(DataOutput out, TaskField field, Object value) throws IOException {
+        if (field == TaskField.PRIORITY) {
+            out.writeInt(value == null ? -1 : ((TaskPriority) value).getCode());
+        } else if (field == TaskField.STATUS) {
+            out.writeInt(value == null ? -1 : ((TaskStatus) value).getCode());
+        } else {
+            writeString(out, (String) value);
+        }
+    }
+
+    static Object readValue(DataInput in, TaskField field) throws IOException {
+        if (field == TaskField.PRIORITY || field == TaskField.STATUS) {
+            int code = in.readInt();
+            if (code == -1) {
+                return null;
+            }
+            try {
+                return field == TaskField.PRIORITY ? TaskPriority.fromCode(code) : TaskStatus.fromCode(code);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid " + field + " code " + code, e);
+            }
+        }
+        return readString(in);
+    }
+
+    static void writeTasks(DataOutput out, List<Task> tasks) throws IOException {
+        out.writeInt(tasks.size());
+        for (Task task : tasks) {
+            out.writeLong(task.taskID());
+            out.writeLong(task.userID());
+            writeString(out, task.name());
+            writeString(out, task.description());
+            out.writeLong(task.dueDate() == null ? Long.MIN_VALUE : task.dueDate().toEpochDay());
+            writeValue(out, TaskField.PRIORITY, task.priority());
+            writeValue(out, TaskField.STATUS, task.status());
+            out.writeLong(task.version());
+        }
+    }
+
+    static List<Task> readTasks(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<Task> tasks = new ArrayList<>(Math.max(0, Math.min(count, 10_000)));
+        for (int i = 0; i < count; i++) {
+            long taskID = in.readLong();
+            long userID = in.readLong();
+            String name = readString(in);
+            String description = readString(in);
+            long dueDay = in.readLong();
+            tasks.add(new Task(taskID, userID, name, description,
+                    dueDay == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(dueDay),
+                    (TaskPriority) readValue(in, TaskField.PRIORITY), (TaskStatus) readValue(in, TaskField.STATUS),
+                    in.readLong()));
+        }
+        return tasks;
+    }
+
+    /**
+     * Writes a session, or null as a single false byte
+     */
+    static void writeSession(DataOutput out, AuthenticationService.Session session) throws IOException {
+        out.writeBoolean(session != null);
+        if (session != null) {
+            writeString(out, session.token());
+            out.writeLong(session.userID());
+            writeString(out, session.username());
+            out.writeLong(session.expiresAt().toEpochMilli());
+        }
+    }
+
+    static AuthenticationService.Session readSession(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new AuthenticationService.Session(readString(in), in.readLong(), readString(in),
+                Instant.ofEpochMilli(in.readLong()));
+    }
+
+    static void writeStatistics(DataOutput out, Map<StatisticsDimension, Map<Long, Long>> statistics)
+            throws IOException {
+        out.writeInt(statistics.size());
+        for (Map.Entry<StatisticsDimension, Map<Long, Long>> dimension : statistics.entrySet()) {
+            writeString(out, dimension.getKey().getKey());
+            out.writeInt(dimension.getValue().size());
+            for (Map.Entry<Long, Long> bucket : dimension.getValue().entrySet()) {
+                out.writeLong(bucket.getKey());
+                out.writeLong(bucket.getValue());
+            }
+        }
+    }
+
+    static Map<StatisticsDimension, Map<Long, Long>> readStatistics(DataInput in) throws IOException {
+        Map<StatisticsDimension, Map<Long, Long>> statistics = new EnumMap<>(StatisticsDimension.class);
+        for (StatisticsDimension dimension : StatisticsDimension.values()) {
+            statistics.put(dimension, new HashMap<>());
+        }
+        int dimensionCount = in.readInt();
+        for (int i = 0; i < dimensionCount; i++) {
+            StatisticsDimension dimension = StatisticsDimension.fromKey(readString(in));
+            int bucketCount = in.readInt();
+            for (int j = 0; j < bucketCount; j++) {
+                long bucket = in.readLong();
+                long count = in.readLong();
+                if (dimension != null) {
+                    statistics.get(dimension).put(bucket, count);
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Writes a date as its epoch day, or Long.MIN_VALUE for null
+     */
+    static void writeDate(DataOutput out, LocalDate date) throws IOException {
+        out.writeLong(date == null ? Long.MIN_VALUE : date.toEpochDay());
+    }
+
+    static LocalDate readDate(DataInput in) throws IOException {
+        long day = in.readLong();
+        return day == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(day);
+    }
+
+    /**
+     * Writes an occurrence, or null as a single false byte
+     */
+    static void writeOccurrence(DataOutput out, Occurrence occurrence) throws IOException {
+        out.writeBoolean(occurrence != null);
+        if (occurrence != null) {
+            out.writeLong(occurrence.seriesID());
+            writeDate(out, occurrence.date());
+            writeString(out, occurrence.name());
+            writeString(out, occurrence.description());
+            writeDate(out, occurrence.dueDate());
+            writeValue(out, TaskField.PRIORITY, occurrence.priority());
+            writeValue(out, TaskField.STATUS, occurrence.status());
+        }
+    }
+
+    static Occurrence readOccurrence(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new Occurrence(in.readLong(), readDate(in), readString(in), readString(in), readDate(in),
+                (TaskPriority) readValue(in, TaskField.PRIORITY), (TaskStatus) readValue(in, TaskField.STATUS));
+    }
+
+    /**
+     * Writes one series, with its rule and exceptions
+     */
+    static void writeSeries(DataOutput out, TaskSeries series) throws IOException {
+        out.writeLong(series.seriesID());
+        out.writeLong(series.userID());
+        writeString(out, series.name());
+        writeString(out, series.description());
+        writeValue(out, TaskField.PRIORITY, series.priority());
+        RecurrenceRule rule = series.rule();
+        out.writeInt(rule.frequency().getCode());
+        out.writeInt(rule.interval());
+        writeDate(out, rule.start());
+        writeDate(out, rule.until());
+        out.writeInt(rule.count());
+        out.writeInt(series.overrides().size());
+        for (Occurrence override : series.overrides().values()) {
+            writeOccurrence(out, override);
+        }
+        out.writeInt(series.skipped().size());
+        for (LocalDate skipped : series.skipped()) {
+            writeDate(out, skipped);
+        }
+    }
+
+    static TaskSeries readSeries(DataInput in) throws IOException {
+        long seriesID = in.readLong();
+        long userID = in.readLong();
+        String name = readString(in);
+        String description = readString(in);
+        TaskPriority priority = (TaskPriority) readValue(in, TaskField.PRIORITY);
+        RecurrenceRule rule;
+        try {
+            rule = new RecurrenceRule(RecurrenceRule.Frequency.fromCode(in.readInt()), in.readInt(), readDate(in),
+                    readDate(in), in.readInt());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid recurrence rule", e);
+        }
+        int overrideCount = in.readInt();
+        Map<LocalDate, Occurrence> overrides = new HashMap<>();
+        for (int i = 0; i < overrideCount; i++) {
+            Occurrence override = readOccurrence(in);
+            if (override != null) {
+                overrides.put(override.date(), override);
+            }
+        }
+        int skippedCount = in.readInt();
+        Set<LocalDate> skipped = new HashSet<>();
+        for (int i = 0; i < skippedCount; i++) {
+            skipped.add(readDate(in));
+        }
+        return new TaskSeries(seriesID, userID, name, description, priority, rule, overrides, skipped);
+    }
+
+    static void writeSeriesList(DataOutput out, List<TaskSeries> series) throws IOException {
+        out.writeInt(series.size());
+        for (TaskSeries one : series) {
+            writeSeries(out, one);
+        }
+    }
+
+    static List<TaskSeries> readSeriesList(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<TaskSeries> series = new ArrayList<>(Math.max(0, Math.min(count, 10_000)));
+        for (int i = 0; i < count; i++) {
+            series.add(readSeries(in));
+        }
+        return series;
+    }
+
+    static void writeResults(DataOutput out, List<TaskBatch.Result> results) throws IOException {
+        out.writeInt(results.size());
+        for (TaskBatch.Result result : results) {
+            out.writeInt(result.index());
+            out.writeLong(result.taskID());
+            out.writeByte(result.outcome().ordinal());
+            writeString(out, result.message());
+            writeTasks(out, result.current() == null ? List.of() : List.of(result.current()));
+        }
+    }
+
+    static List<TaskBatch.Result> readResults(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<TaskBatch.Result> results = new ArrayList<>(Math.max(0, Math.min(count, 10_000)));
+        for (int i = 0; i < count; i++) {
+            int index = in.readInt();
+            long taskID = in.readLong();
+            int outcome = in.readUnsignedByte();
+            if (outcome >= TaskBatch.Outcome.values().length) {
+                throw new IOException("Unknown batch outcome " + outcome);
+            }
+            String message = readString(in);
+            List<Task> current = readTasks(in);
+            results.add(new TaskBatch.Result(index, taskID, TaskBatch.Outcome.values()[outcome], message,
+                    current.isEmpty() ? null : current.get(0)));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,31 @@
+package app.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often something happens, e.g. a rejected request. Safe and cheap to increment from any thread.
+ */
+public final class Counter {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,163 @@
+package app.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, in the style of HdrHistogram. Values are counted in buckets which grow
+ * with the value: each power of two is split into 32 equal buckets, so any value is known to within about 3%
+ * whether it is a microsecond or a minute, using a fixed 15KB of counters.
+ * Recording is lock-free (one atomic increment plus two adders) and safe from any number of threads. Percentiles
+ * are read from a Snapshot, and the difference between two snapshots gives the histogram of just that interval.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Enough buckets for every non-negative long: SUB_BUCKETS exact values, then SUB_BUCKETS per power of two
+     */
+    static final int BUCKET_COUNT = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Counts one duration. Negative durations (e.g. from a clock adjustment) are counted as 0.
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * @return Copy of the counts so far. Recording may carry on while this is taken, so the copy can include
+     * part of a concurrent recording, which only ever makes a difference of one value.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum(), max.get());
+    }
+
+    /**
+     * Function to find the bucket a value is counted in
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Function to find the smallest value counted in a bucket
+     */
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << shift;
+    }
+
+    /**
+     * Function to find the largest value counted in a bucket
+     */
+    static long highestValueAt(int index) {
+        return index == BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowestValueAt(index + 1) - 1;
+    }
+
+    /**
+     * Counts of a histogram at one point in time, or over an interval between two points
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return Number of durations recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return Mean duration in nanoseconds, or 0 if nothing was recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return Longest duration in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Function to find the duration which the given percentage of recorded durations are at or under
+         * @param percentile Percentage between 0 and 100, e.g. 99 for p99
+         * @return The duration in nanoseconds, accurate to the width of its bucket, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueAt(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Function to find what was recorded between an earlier snapshot of the same histogram and this one
+         * @param earlier Snapshot taken before this one
+         * @return Snapshot of just the durations recorded in between. Its maximum is the upper bound of the
+         * highest bucket used in the interval, as the exact maximum of an interval isn't kept.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] difference = new long[counts.length];
+            long intervalCount = 0;
+            int highest = -1;
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+                intervalCount += difference[i];
+                if (difference[i] > 0) {
+                    highest = i;
+                }
+            }
+            long intervalMax = highest < 0 ? 0 : Math.min(highestValueAt(highest), max);
+            return new Snapshot(difference, intervalCount, sum - earlier.sum, intervalMax);
+        }
+    }
+}
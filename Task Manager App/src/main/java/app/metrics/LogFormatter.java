@@ -0,0 +1,61 @@
+package app.metrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Formats each log record on a single line of key=value pairs, so the log can be searched and parsed, e.g.
+ * "2026-05-01T09:30:00.123Z INFO app.database.Database event=task_inserted task_id=42". The stack trace of an
+ * exception, if any, follows on the next lines.
+ */
+public class LogFormatter extends Formatter {
+    @Override
+    public String format(LogRecord record) {
+        StringBuilder line = new StringBuilder(128)
+                .append(Instant.ofEpochMilli(record.getMillis()))
+                .append(' ').append(record.getLevel().getName())
+                .append(' ').append(record.getLoggerName())
+                .append(' ').append(formatMessage(record));
+        Throwable error = record.getThrown();
+        if (error != null) {
+            line.append(" error=\"").append(String.valueOf(error.getMessage()).replace('"', '\'')).append('"');
+        }
+        line.append(System.lineSeparator());
+        if (error != null) {
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Method to use this format for the console, unless logging has been configured with a
+     * java.util.logging.config.file of its own
+     */
+    public static void install() {
+        if (System.getProperty("java.util.logging.config.file") != null) {
+            return;
+        }
+        Logger root = LogManager.getLogManager().getLogger("");
+        boolean hasConsole = false;
+        for (Handler handler : root.getHandlers()) {
+            if (handler instanceof ConsoleHandler) {
+                handler.setFormatter(new LogFormatter());
+                hasConsole = true;
+            }
+        }
+        if (!hasConsole) {
+            ConsoleHandler handler = new ConsoleHandler();
+            handler.setFormatter(new LogFormatter());
+            root.addHandler(handler);
+        }
+    }
+}
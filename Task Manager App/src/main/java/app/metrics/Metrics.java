@@ -0,0 +1,159 @@
+package app.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the application's timers and counters. Instrumented classes look theirs up once, by name, and keep
+ * them in static fields, so recording costs no more than a few atomic increments.
+ * <p>
+ * Once started, the metrics can be read over JMX (e.g. with JConsole, under "app.taskmanager:type=Metrics"), and a
+ * snapshot of what was recorded since the last one is logged at a fixed interval, set in seconds with the
+ * system property taskmanager.metrics.logSeconds (default 60, 0 to turn it off).
+ */
+public final class Metrics {
+    private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+
+    static final String OBJECT_NAME = "app.taskmanager:type=Metrics";
+    private static final long LOG_SECONDS = Long.getLong("taskmanager.metrics.logSeconds", 60);
+
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+
+    private static ScheduledExecutorService reporter;
+    private static ObjectName registeredName;
+
+    /**
+     * Snapshots at the time of the last log report, to work out what was recorded in each interval
+     */
+    private static final Map<String, LatencyHistogram.Snapshot> lastReported = new HashMap<>();
+    private static final Map<String, Long> lastReportedErrors = new HashMap<>();
+    private static final Map<String, Long> lastReportedCounts = new HashMap<>();
+
+    private Metrics() {}
+
+    /**
+     * Function to get the timer with a name, creating it on first use
+     * @param name Name of the timer, e.g. "db.insertTask"
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    /**
+     * Function to get the counter with a name, creating it on first use
+     * @param name Name of the counter, e.g. "async.rejected"
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    static Map<String, Timer> timers() {
+        return timers;
+    }
+
+    static Map<String, Counter> counters() {
+        return counters;
+    }
+
+    /**
+     * Method to publish the metrics over JMX and start logging them periodically. Does nothing if already started.
+     */
+    public static synchronized void start() {
+        if (registeredName != null || reporter != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+                registeredName = name;
+            }
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "event=metrics_jmx_failed", e);
+        }
+
+        if (LOG_SECONDS > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(Metrics::report, LOG_SECONDS, LOG_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Method to log a last snapshot, stop logging and remove the metrics from JMX
+     */
+    public static synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        report();
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                logger.log(Level.FINE, "event=metrics_jmx_unregister_failed", e);
+            }
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Logs one line per timer and counter which changed since the last report, e.g.
+     * "event=metrics name=db.insertTask count=12 errors=0 p50_ms=0.41 p99_ms=2.10 max_ms=2.10"
+     */
+    static synchronized void report() {
+        if (!logger.isLoggable(Level.INFO)) {
+            return;
+        }
+        for (Timer timer : timers.values()) {
+            LatencyHistogram.Snapshot total = timer.snapshot();
+            LatencyHistogram.Snapshot previous = lastReported.put(timer.getName(), total);
+            LatencyHistogram.Snapshot interval = previous == null ? total : total.since(previous);
+            long errors = timer.getErrorCount();
+            long previousErrors = lastReportedErrors.getOrDefault(timer.getName(), 0L);
+            lastReportedErrors.put(timer.getName(), errors);
+            if (interval.getCount() == 0) {
+                continue;
+            }
+            logger.info("event=metrics name=" + timer.getName()
+                    + " count=" + interval.getCount()
+                    + " errors=" + (errors - previousErrors)
+                    + " mean_ms=" + millis(interval.getMean())
+                    + " p50_ms=" + millis(interval.getPercentile(50))
+                    + " p90_ms=" + millis(interval.getPercentile(90))
+                    + " p99_ms=" + millis(interval.getPercentile(99))
+                    + " max_ms=" + millis(interval.getMax()));
+        }
+        for (Counter counter : counters.values()) {
+            long count = counter.get();
+            long previous = lastReportedCounts.getOrDefault(counter.getName(), 0L);
+            lastReportedCounts.put(counter.getName(), count);
+            if (count != previous) {
+                logger.info("event=metrics name=" + counter.getName() + " count=" + (count - previous));
+            }
+        }
+    }
+
+    /**
+     * Function to convert nanoseconds to milliseconds, rounded to microseconds for display
+     */
+    static double millis(double nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+}
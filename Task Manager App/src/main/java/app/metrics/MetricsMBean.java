@@ -0,0 +1,94 @@
+package app.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only JMX view of the metrics. Timers and counters are created as classes are first used, so the attributes
+ * are listed afresh each time a JMX client asks for them. Each timer has the attributes "name.count",
+ * "name.errors", "name.meanMillis", "name.p50Millis", "name.p90Millis", "name.p99Millis" and "name.maxMillis",
+ * covering everything recorded since the application started; each counter has one attribute under its name.
+ */
+class MetricsMBean implements DynamicMBean {
+    private static final String[] TIMER_STATISTICS = {"count", "errors", "meanMillis", "p50Millis", "p90Millis",
+            "p99Millis", "maxMillis"};
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter counter = Metrics.counters().get(attribute);
+        if (counter != null) {
+            return counter.get();
+        }
+        int dot = attribute.lastIndexOf('.');
+        Timer timer = dot < 0 ? null : Metrics.timers().get(attribute.substring(0, dot));
+        if (timer == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        LatencyHistogram.Snapshot snapshot = timer.snapshot();
+        return switch (attribute.substring(dot + 1)) {
+            case "count" -> snapshot.getCount();
+            case "errors" -> timer.getErrorCount();
+            case "meanMillis" -> Metrics.millis(snapshot.getMean());
+            case "p50Millis" -> Metrics.millis(snapshot.getPercentile(50));
+            case "p90Millis" -> Metrics.millis(snapshot.getPercentile(90));
+            case "p99Millis" -> Metrics.millis(snapshot.getPercentile(99));
+            case "maxMillis" -> Metrics.millis(snapshot.getMax());
+            default -> throw new AttributeNotFoundException(attribute);
+        };
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList values = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                values.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Left out, as the JMX specification asks
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        // The bean has no operations, as its MBeanInfo says
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String timer : Metrics.timers().keySet()) {
+            for (String statistic : TIMER_STATISTICS) {
+                boolean isCount = statistic.equals("count") || statistic.equals("errors");
+                attributes.add(new MBeanAttributeInfo(timer + "." + statistic,
+                        isCount ? Long.class.getName() : Double.class.getName(),
+                        statistic + " of " + timer, true, false, false));
+            }
+        }
+        for (String counter : Metrics.counters().keySet()) {
+            attributes.add(new MBeanAttributeInfo(counter, Long.class.getName(), counter, true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Task Manager latency and error metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+}
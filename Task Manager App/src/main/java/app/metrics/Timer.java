@@ -0,0 +1,61 @@
+package app.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times one kind of operation, e.g. a Database method, recording how long each call took and how many failed.
+ * Get one from Metrics.timer and keep it in a static field, then time each call with:
+ * <pre>
+ *     long start = System.nanoTime();
+ *     ... on success: timer.record(start); on failure: timer.recordError(start);
+ * </pre>
+ */
+public final class Timer {
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+
+    Timer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a successful call which started at the given time
+     * @param startNanos Value of System.nanoTime() when the call started
+     */
+    public void record(long startNanos) {
+        histogram.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a failed call which started at the given time. Failed calls are counted in the latency too.
+     * @param startNanos Value of System.nanoTime() when the call started
+     */
+    public void recordError(long startNanos) {
+        record(startNanos);
+        errors.increment();
+    }
+
+    /**
+     * Records a call whose duration was measured elsewhere
+     * @param nanos Duration of the call in nanoseconds
+     */
+    public void recordNanos(long nanos) {
+        histogram.record(nanos);
+    }
+
+    public LatencyHistogram.Snapshot snapshot() {
+        return histogram.snapshot();
+    }
+
+    /**
+     * @return Number of failed calls so far
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+}
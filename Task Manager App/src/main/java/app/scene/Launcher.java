@@ -0,0 +1,14 @@
+package app.scene;
+
+import java.io.IOException;
+
+/**
+ * Entry point which doesn't extend Application, so that the java launcher doesn't start the JavaFX toolkit
+ * before main runs. Needed to run with --server on a machine without a display, e.g.
+ * java -cp ... app.scene.Launcher --server
+ */
+public class Launcher {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Main.main(args);
+    }
+}
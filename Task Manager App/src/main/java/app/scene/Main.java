@@ -1,22 +1,136 @@
 package app.scene;
 
+import app.database.AsyncDatabase;
+import app.database.AuthenticationService;
+import app.database.Database;
+import app.database.Repositories;
+import app.database.RepositoryServer;
+import app.database.TaskArchiver;
+import app.database.TaskJournal;
+import app.database.UserLifecycle;
+import app.metrics.LogFormatter;
+import app.metrics.Metrics;
 import app.scene.controllers.SceneController;
 import javafx.application.Application;
+import javafx.fxml.FXMLLoader;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Logger;
 
 public class Main extends Application {
+    private static final Logger logger = Logger.getLogger(Main.class.getName());
 
     @Override
     public void start(Stage primaryStage) throws IOException {
+        // Log one key=value line per event
+        LogFormatter.install();
+
+        // Prepare the database in the background while the login scene is drawn, rather than before
+        Startup.warmUp(Main::prepare);
+
         // Load the FXML file for the login scene, and connect the corresponding controller,
         // and display it to the user using the SceneController
         SceneController.setStage(primaryStage);
         SceneController.switchScene("/app/scene/login.fxml");
+        Startup.watchFirstFrame(primaryStage.getScene());
+
+        // Parse the dashboard in the background while the user is logging in
+        SceneController.preload("/app/scene/dashboard.fxml");
+    }
+
+    /**
+     * Method to do everything the application needs before it first uses the database. Runs in the background
+     * on startup, see Startup.
+     */
+    private static void prepare() {
+        // Publish operation timings over JMX and to the log
+        Metrics.start();
+
+        // When a server owns the database file, it has already prepared it
+        if (Repositories.isLocal()) {
+            // Create the database tables, or upgrade an existing database file to the latest schema
+            Database.createTables();
+            // Write any task changes left in the edit journal by the last run, then journal new ones
+            TaskJournal.start();
+            // Time BCrypt on this machine in the background, to pick how strongly passwords are hashed
+            AsyncDatabase.run(AuthenticationService::calibrate);
+            // Move old completed and deleted tasks out of the tasks table in the background
+            TaskArchiver.start();
+            // Finish deleting any users whose tasks were still being deleted when the application last exited
+            AsyncDatabase.run(UserLifecycle::resumePurges);
+        }
+    }
+
+    @Override
+    public void stop() {
+        // Let queued database work finish, then close the pooled connections so that nothing is left
+        // holding the database file
+        AsyncDatabase.shutdown();
+        TaskJournal.stop();
+        TaskArchiver.stop();
+        UserLifecycle.stop();
+        Repositories.shutdown();
+        // Log the timings of the last interval before exiting
+        Metrics.stop();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (Arrays.asList(args).contains("--server")) {
+            runServer();
+        } else if (Arrays.asList(args).contains("--warm-up")) {
+            warmUpClasses();
+        } else {
+            launch(args);
+        }
     }
 
-    public static void main(String[] args) {
-        launch(args);
+    /**
+     * Method to run the code a cold start runs, without a window, then exit. The build runs this once with
+     * -XX:ArchiveClassesAtExit to record the classes startup loads in a class data sharing archive (see the image
+     * profile in pom.xml), so that later starts map them from the archive instead of loading them one by one.
+     * Point taskmanager.db.url at a scratch file when running it.
+     */
+    private static void warmUpClasses() {
+        LogFormatter.install();
+        Database.createTables();
+        AuthenticationService.calibrate();
+        for (String fxmlFile : new String[]{"/app/scene/login.fxml", "/app/scene/accountCreation.fxml",
+                "/app/scene/dashboard.fxml"}) {
+            try {
+                new FXMLLoader(Main.class.getResource(fxmlFile)).load();
+            } catch (IOException | RuntimeException | LinkageError e) {
+                // Controls can't be created without the JavaFX toolkit, which needs a display. The classes
+                // loaded up to that point are still recorded, which covers the FXML loader and scene graph.
+                logger.fine(() -> "event=warm_up_scene_skipped fxml=" + fxmlFile + " reason=\"" + e + "\"");
+            }
+        }
+        Database.shutdown();
+    }
+
+    /**
+     * Method to run without a window, owning the database file and serving it to every instance of the
+     * application on this machine until the process is stopped
+     */
+    private static void runServer() throws IOException, InterruptedException {
+        LogFormatter.install();
+        Metrics.start();
+        Database.createTables();
+        TaskJournal.start();
+        AuthenticationService.calibrate();
+        TaskArchiver.start();
+        UserLifecycle.resumePurges();
+
+        RepositoryServer server = new RepositoryServer(Repositories.PORT);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.shutdown();
+            TaskJournal.stop();
+            TaskArchiver.stop();
+            UserLifecycle.stop();
+            Database.shutdown();
+            Metrics.stop();
+        }, "server-shutdown"));
+        server.awaitShutdown();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
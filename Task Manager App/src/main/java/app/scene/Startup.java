@@ -0,0 +1,119 @@
+package app.scene;
+
+import app.database.AsyncDatabase;
+import app.metrics.Metrics;
+import app.metrics.Timer;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class to get the first window on screen as soon as possible, and to report how long that took.
+ * Work which doesn't need the JavaFX thread (loading the SQLite driver and its native library, choosing the
+ * repository, bringing the schema up to date, publishing metrics) runs on a background thread while the login
+ * scene is drawn. Work submitted through AsyncDatabase waits for it, so a quick login still sees a prepared database.
+ * <p>
+ * Once the application is interactive, a line such as
+ * "event=startup first_frame_ms=412 warmed_up_ms=380 interactive_ms=436" is logged, with times measured from when
+ * the JVM started, and the times are published as the startup.firstFrame and startup.interactive timers.
+ * With the system property taskmanager.startup.exit=true, the application exits as soon as it is interactive,
+ * so that cold starts can be timed by a script and compared between builds.
+ */
+final class Startup {
+    private static final Logger logger = Logger.getLogger(Startup.class.getName());
+
+    private static final boolean EXIT_WHEN_INTERACTIVE = Boolean.getBoolean("taskmanager.startup.exit");
+
+    private static final Timer firstFrameTimer = Metrics.timer("startup.firstFrame");
+    private static final Timer warmUpTimer = Metrics.timer("startup.warmUp");
+    private static final Timer interactiveTimer = Metrics.timer("startup.interactive");
+
+    /**
+     * Value System.nanoTime() would have had when the JVM started, so that times can be measured from it
+     */
+    private static final long jvmStartNanos = jvmStartNanos();
+
+    /**
+     * Times since the JVM started, in nanoseconds, at which the login scene was first drawn and the warm-up finished
+     */
+    private static final CompletableFuture<Long> firstFrame = new CompletableFuture<>();
+    private static final CompletableFuture<Long> warmedUp = new CompletableFuture<>();
+
+    private Startup() {}
+
+    /**
+     * Method to start the warm-up on a background thread. Work submitted through AsyncDatabase from now on waits
+     * for it to finish.
+     * @param warmUp Work to run before the database is used
+     */
+    static void warmUp(Runnable warmUp) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AsyncDatabase.runAfter(done);
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                warmUp.run();
+                warmUpTimer.record(start);
+            } catch (RuntimeException e) {
+                warmUpTimer.recordError(start);
+                logger.log(Level.SEVERE, "event=warm_up_failed", e);
+            } finally {
+                warmedUp.complete(System.nanoTime() - jvmStartNanos);
+                done.complete(null);
+            }
+        }, "startup-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+
+        firstFrame.thenAcceptBoth(warmedUp, Startup::report);
+    }
+
+    /**
+     * Method to note when a scene is drawn for the first time. Must be called on the JavaFX thread, before the
+     * scene's first pulse.
+     * @param scene Scene shown first, or null if it couldn't be loaded
+     */
+    static void watchFirstFrame(Scene scene) {
+        if (scene == null) {
+            firstFrame.complete(System.nanoTime() - jvmStartNanos);
+            return;
+        }
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                if (firstFrame.complete(System.nanoTime() - jvmStartNanos)) {
+                    // Listeners can't be removed while the pulse is still calling them
+                    Platform.runLater(() -> scene.removePostLayoutPulseListener(this));
+                }
+            }
+        };
+        scene.addPostLayoutPulseListener(listener);
+    }
+
+    private static void report(long firstFrameNanos, long warmedUpNanos) {
+        long interactiveNanos = Math.max(firstFrameNanos, warmedUpNanos);
+        firstFrameTimer.recordNanos(firstFrameNanos);
+        interactiveTimer.recordNanos(interactiveNanos);
+        logger.info("event=startup first_frame_ms=" + Duration.ofNanos(firstFrameNanos).toMillis()
+                + " warmed_up_ms=" + Duration.ofNanos(warmedUpNanos).toMillis()
+                + " interactive_ms=" + Duration.ofNanos(interactiveNanos).toMillis());
+        if (EXIT_WHEN_INTERACTIVE) {
+            Platform.exit();
+        }
+    }
+
+    /**
+     * Function to work out when the JVM started, falling back to now if the operating system doesn't say
+     */
+    private static long jvmStartNanos() {
+        long now = System.nanoTime();
+        return ProcessHandle.current().info().startInstant()
+                .map(started -> now - Duration.between(started, Instant.now()).toNanos())
+                .orElse(now);
+    }
+}
@@ -1,14 +1,37 @@
 package app.scene.controllers;
 
-import app.database.Database;
+import app.data.AppModel;
+import app.database.AsyncDatabase;
+import app.database.AuthenticationService;
+import app.database.Repositories;
 import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.scene.control.Button;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextField;
 import javafx.scene.text.Text;
 import javafx.util.Duration;
 
-public class AccountCreationController {
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class AccountCreationController implements ResettableController {
+    private static final Logger logger = Logger.getLogger(AccountCreationController.class.getName());
+
+    /**
+     * How far creating an account got
+     */
+    private enum Creation {
+        /** The account was created, and the new user logged in */
+        LOGGED_IN,
+        /** The account was created, but the new user couldn't be logged in, so has to log in on the login scene */
+        CREATED,
+        /** The account wasn't created. Usernames are unique in the database, so the username is already taken. */
+        TAKEN
+    }
+
     @FXML
     private Text invalidCredentialsFailureText, takenUsernameFailureText, invalidEmailFailureText;
 
@@ -16,11 +39,16 @@ public class AccountCreationController {
     private TextField emailField, usernameField;
     @FXML
     private PasswordField passwordField;
+    @FXML
+    private Button createAccountButton;
+    @FXML
+    private ProgressIndicator createAccountProgress;
 
     /**
      * Function to create an account with the entered credentials. If credentials are valid, a new user is added
-     * to the users table in taskManager.db. If not, an appropriate error will be displayed and the user is
-     * encouraged to try again.
+     * to the users table in taskManager.db and logged in, or sent to the login scene if they can't be logged in
+     * straight away. If not, an appropriate error will be displayed and the user is encouraged to try again. The
+     * account is created in the background, so the window stays responsive while the password is hashed.
      */
     @FXML
     public void createAccount() {
@@ -32,12 +60,66 @@ public class AccountCreationController {
             displayError(invalidCredentialsFailureText);
         } else if (!correctEmailFormat(email)) {
             displayError(invalidEmailFailureText);
-        } else if (Database.userExists(username)) {
-            displayError(takenUsernameFailureText);
         } else {
-            Database.insertUser(username, email, password);
-            dashboardScene();
+            setBusy(true);
+            AsyncDatabase.submit(() -> {
+                if (!Repositories.get().insertUser(username, email, password)) {
+                    return Creation.TAKEN;
+                }
+                // Log the new user straight in, with their (empty) task list. They get a session like any login,
+                // which a task server needs before it lets the connection read their tasks.
+                AuthenticationService.Session session = null;
+                try {
+                    session = Repositories.get().authenticate(username, password);
+                    if (session == null) {
+                        return Creation.CREATED;
+                    }
+                    AppModel.getInstance().load(session);
+                    return Creation.LOGGED_IN;
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "event=new_account_login_failed username=" + username, e);
+                    if (session != null) {
+                        Repositories.get().endSession(session.token());
+                    }
+                    return Creation.CREATED;
+                }
+            }).whenCompleteAsync((creation, error) -> {
+                setBusy(false);
+                if (error == null && creation == Creation.LOGGED_IN) {
+                    dashboardScene();
+                } else if (error == null && creation == Creation.CREATED) {
+                    LoginController.accountCreated(username);
+                    loginScene();
+                } else {
+                    displayError(takenUsernameFailureText);
+                }
+            }, Platform::runLater);
+        }
+    }
+
+    /**
+     * Disables the create account button and shows a progress indicator while the account is being created
+     * @param busy Whether the account is being created
+     */
+    private void setBusy(boolean busy) {
+        createAccountButton.setDisable(busy);
+        createAccountProgress.setVisible(busy);
+        createAccountProgress.setManaged(busy);
+    }
+
+    /**
+     * Clears the details and any errors left over from the last visit to the account creation scene
+     */
+    @Override
+    public void reset() {
+        emailField.clear();
+        usernameField.clear();
+        passwordField.clear();
+        for (Text errorText : new Text[]{invalidCredentialsFailureText, takenUsernameFailureText, invalidEmailFailureText}) {
+            errorText.setVisible(false);
+            errorText.setManaged(false);
         }
+        setBusy(false);
     }
 
     /**
@@ -1,3 +1,684 @@
 package app.scene.controllers;
 
-public class DashboardController {}
+import app.data.AppController;
+import app.data.AppModel;
+import app.data.Occurrence;
+import app.data.RecurrenceRule;
+import app.data.ReminderListener;
+import app.data.Task;
+import app.data.TaskEvent;
+import app.data.TaskEventSubscriber;
+import app.data.TaskFilter;
+import app.data.TaskStatistics;
+import app.database.AsyncDatabase;
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.SortedList;
+import javafx.fxml.FXML;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.DatePicker;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.text.Text;
+import javafx.util.Duration;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class DashboardController implements ResettableController {
+    /**
+     * Number of tasks added to the table at a time. Further pages are added as the user scrolls towards the end.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * How far down the table (as a fraction of the scroll range) the user has to scroll before the next page is added
+     */
+    private static final double NEXT_PAGE_THRESHOLD = 0.9;
+
+    /**
+     * How long a reminder stays above the table, and how many task names it lists before summarising the rest
+     */
+    private static final Duration NOTIFICATION_DURATION = Duration.seconds(15);
+    private static final int NOTIFICATION_MAX_NAMES = 3;
+
+    /**
+     * Number of days, starting today, counted by "due this week" in the statistics line
+     */
+    private static final int DUE_SOON_DAYS = 7;
+
+    private static final DateTimeFormatter OCCURRENCE_DAY_FORMAT = DateTimeFormatter.ofPattern("EEE d MMM");
+
+    @FXML
+    private Text welcomeText;
+    @FXML
+    private TextField searchField;
+    @FXML
+    private Label statisticsLabel;
+    @FXML
+    private Label notificationLabel;
+    @FXML
+    private HBox filterChips;
+    @FXML
+    private Label filterCountLabel;
+    @FXML
+    private TextField newTaskNameField;
+    @FXML
+    private DatePicker newTaskDueDatePicker;
+    @FXML
+    private ComboBox<TaskPriority> newTaskPriorityBox;
+    @FXML
+    private ComboBox<RecurrenceRule.Frequency> newTaskRepeatBox;
+    @FXML
+    private Button undoButton, redoButton;
+    @FXML
+    private ListView<Occurrence> occurrenceList;
+    @FXML
+    private TableView<Task> taskTable;
+    @FXML
+    private TableColumn<Task, String> nameColumn, descriptionColumn, priorityColumn, statusColumn;
+    @FXML
+    private TableColumn<Task, LocalDate> dueDateColumn;
+
+    /**
+     * Tasks currently in the table, always kept in task ID order. The table itself shows a sorted view of this
+     * list, so clicking a column header never reorders it.
+     */
+    private final ObservableList<Task> tasks = FXCollections.observableArrayList();
+    private SortedList<Task> sortedTasks;
+
+    /**
+     * Tasks matching the text in the search field, best match first. Shown instead of the paged tasks while
+     * there is anything in the search field.
+     */
+    private final ObservableList<Task> searchResults = FXCollections.observableArrayList();
+    private SortedList<Task> sortedSearchResults;
+
+    /**
+     * Tasks matching the selected filter chips, in the filter's order. Shown instead of the paged tasks while any
+     * chip is selected and the search field is empty, and paged in the same way.
+     */
+    private final ObservableList<Task> filterResults = FXCollections.observableArrayList();
+    private SortedList<Task> sortedFilterResults;
+    private TaskFilter filter = TaskFilter.ALL;
+    private final List<ToggleButton> filterChipButtons = new ArrayList<>();
+
+    /**
+     * ID of the last task read by paging, and whether paging has reached the end of the user's tasks
+     */
+    private long lastPagedTaskID = 0;
+    private boolean allPagesLoaded = false;
+    private boolean allFilterPagesLoaded = false;
+
+    /**
+     * Applies the changes made to the model since the last frame to just the affected rows
+     */
+    private final TaskEventSubscriber taskSubscriber = this::applyEvents;
+
+    /**
+     * Shows reminders from the model's scheduler above the table. Overdue tasks update their rows through the
+     * event subscriber, like any other change.
+     */
+    private final ReminderListener reminderListener = new ReminderListener() {
+        @Override
+        public void tasksDueToday(List<Task> dueToday) {
+            Platform.runLater(() -> showNotification("Due today", dueToday));
+        }
+
+        @Override
+        public void tasksOverdue(List<Task> overdue) {
+            Platform.runLater(() -> showNotification("Overdue", overdue));
+        }
+    };
+
+    /**
+     * Hides the notification once it has been shown for NOTIFICATION_DURATION
+     */
+    private final PauseTransition notificationTimeout = new PauseTransition(NOTIFICATION_DURATION);
+
+    /**
+     * Sets up the task table. Called by the FXMLLoader, which may happen on a background thread before anyone has
+     * logged in, so nothing here may depend on the logged-in user.
+     */
+    @FXML
+    public void initialize() {
+        nameColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().name()));
+        descriptionColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().description()));
+        dueDateColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().dueDate()));
+        priorityColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(displayName(cell.getValue().priority())));
+        statusColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(displayName(cell.getValue().status())));
+
+        sortedTasks = new SortedList<>(tasks);
+        sortedTasks.comparatorProperty().bind(taskTable.comparatorProperty());
+        sortedSearchResults = new SortedList<>(searchResults);
+        sortedSearchResults.comparatorProperty().bind(taskTable.comparatorProperty());
+        sortedFilterResults = new SortedList<>(filterResults);
+        sortedFilterResults.comparatorProperty().bind(taskTable.comparatorProperty());
+        taskTable.setItems(sortedTasks);
+        newTaskPriorityBox.getItems().setAll(TaskPriority.values());
+        newTaskRepeatBox.getItems().setAll(RecurrenceRule.Frequency.values());
+        occurrenceList.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(Occurrence occurrence, boolean empty) {
+                super.updateItem(occurrence, empty);
+                setText(empty || occurrence == null ? null : OCCURRENCE_DAY_FORMAT.format(occurrence.day()) + "  "
+                        + occurrence.name() + (occurrence.status() == TaskStatus.TODO ? ""
+                        : " (" + displayName(occurrence.status()).toLowerCase() + ")"));
+            }
+        });
+        createFilterChips();
+
+        // Searching the model's in-memory word index is quick enough to redo on every key press
+        searchField.textProperty().addListener((observable, oldText, newText) -> search(newText));
+
+        bindStatistics();
+        notificationTimeout.setOnFinished(event -> setNotificationVisible(false));
+        notificationLabel.setOnMouseClicked(event -> setNotificationVisible(false));
+
+        // The table's scroll bars are created along with its skin, which happens once it is first shown
+        taskTable.skinProperty().addListener((observable, oldSkin, newSkin) -> watchScrolling());
+    }
+
+    /**
+     * Shows the first page of the logged-in user's tasks, discarding the rows of whoever was logged in last
+     */
+    @Override
+    public void reset() {
+        AppModel model = AppModel.getInstance();
+        AppController.getInstance().unsubscribe(taskSubscriber);
+        model.getReminders().removeListener(reminderListener);
+        tasks.clear();
+        lastPagedTaskID = 0;
+        allPagesLoaded = false;
+        newTaskNameField.clear();
+        newTaskDueDatePicker.setValue(null);
+        newTaskPriorityBox.setValue(null);
+        newTaskRepeatBox.setValue(null);
+        taskTable.getSortOrder().clear();
+        searchField.clear();
+        filter = TaskFilter.ALL;
+        for (ToggleButton chip : filterChipButtons) {
+            chip.setSelected(false);
+        }
+        filterResults.clear();
+        setNotificationVisible(false);
+        undoButton.setDisable(true);
+        redoButton.setDisable(true);
+
+        welcomeText.setText("Welcome, " + model.getUsername());
+        AppController.getInstance().subscribe(taskSubscriber);
+        model.getReminders().addListener(reminderListener);
+        loadNextPage();
+        refreshOccurrences();
+    }
+
+    /**
+     * Creates a new task from the fields above the table. The table is updated by the event subscriber once the
+     * task has been saved.
+     */
+    @FXML
+    public void addTask() {
+        String name = newTaskNameField.getText();
+        if (name == null || name.isBlank()) {
+            return;
+        }
+
+        LocalDate dueDate = newTaskDueDatePicker.getValue();
+        TaskPriority priority = newTaskPriorityBox.getValue();
+        RecurrenceRule.Frequency repeat = newTaskRepeatBox.getValue();
+        if (repeat != null) {
+            // A repeating task starts on its due date, and is listed below the table rather than in it
+            RecurrenceRule rule = RecurrenceRule.every(1, repeat, dueDate == null ? LocalDate.now() : dueDate);
+            AsyncDatabase.submit(() -> AppModel.getInstance().addTaskSeries(name.strip(), null, priority, rule))
+                    .whenCompleteAsync((series, error) -> {
+                        if (error == null && series != null) {
+                            clearNewTaskFields();
+                            refreshOccurrences();
+                        }
+                    }, Platform::runLater);
+            return;
+        }
+        AsyncDatabase.submit(() -> AppModel.getInstance().addTask(name.strip(), null, dueDate, priority, TaskStatus.TODO))
+                .whenCompleteAsync((task, error) -> {
+                    if (error == null && task != null) {
+                        clearNewTaskFields();
+                    }
+                }, Platform::runLater);
+    }
+
+    private void clearNewTaskFields() {
+        newTaskNameField.clear();
+        newTaskDueDatePicker.setValue(null);
+        newTaskPriorityBox.setValue(null);
+        newTaskRepeatBox.setValue(null);
+    }
+
+    /**
+     * Marks the selected occurrence of a repeating task as completed. Only that occurrence is saved.
+     */
+    @FXML
+    public void completeSelectedOccurrence() {
+        Occurrence selected = occurrenceList.getSelectionModel().getSelectedItem();
+        if (selected != null) {
+            Occurrence completed = selected.withStatus(TaskStatus.COMPLETED);
+            AsyncDatabase.submit(() -> AppModel.getInstance().updateOccurrence(completed))
+                    .whenCompleteAsync((occurrence, error) -> refreshOccurrences(), Platform::runLater);
+        }
+    }
+
+    /**
+     * Deletes the selected occurrence of a repeating task, keeping the rest of the series
+     */
+    @FXML
+    public void skipSelectedOccurrence() {
+        Occurrence selected = occurrenceList.getSelectionModel().getSelectedItem();
+        if (selected != null) {
+            AsyncDatabase.submit(() -> AppModel.getInstance().skipOccurrence(selected.seriesID(), selected.date()))
+                    .whenCompleteAsync((skipped, error) -> refreshOccurrences(), Platform::runLater);
+        }
+    }
+
+    /**
+     * Deletes the repeating task the selected occurrence belongs to
+     */
+    @FXML
+    public void removeSelectedSeries() {
+        Occurrence selected = occurrenceList.getSelectionModel().getSelectedItem();
+        if (selected != null) {
+            AsyncDatabase.submit(() -> AppModel.getInstance().removeTaskSeries(selected.seriesID()))
+                    .whenCompleteAsync((removed, error) -> refreshOccurrences(), Platform::runLater);
+        }
+    }
+
+    /**
+     * Lists the occurrences of the user's repeating tasks due from today until DUE_SOON_DAYS days from now.
+     * Only the occurrences in that window are worked out.
+     */
+    private void refreshOccurrences() {
+        LocalDate today = LocalDate.now();
+        occurrenceList.getItems().setAll(AppModel.getInstance().getOccurrencesBetween(today,
+                today.plusDays(DUE_SOON_DAYS - 1)));
+    }
+
+    /**
+     * Marks the selected task as completed
+     */
+    @FXML
+    public void completeSelectedTask() {
+        Task selected = taskTable.getSelectionModel().getSelectedItem();
+        if (selected != null) {
+            AsyncDatabase.run(() -> AppModel.getInstance().changeTaskStatus(selected.taskID(), TaskStatus.COMPLETED));
+        }
+    }
+
+    /**
+     * Deletes the selected task. The delete can be undone with the undo button.
+     */
+    @FXML
+    public void removeSelectedTask() {
+        Task selected = taskTable.getSelectionModel().getSelectedItem();
+        if (selected != null) {
+            AsyncDatabase.run(() -> AppModel.getInstance().removeTask(selected.taskID()))
+                    .whenCompleteAsync((result, error) -> updateUndoRedo(), Platform::runLater);
+        }
+    }
+
+    /**
+     * Undoes the user's most recent change, or bulk change
+     */
+    @FXML
+    public void undo() {
+        undoButton.setDisable(true);
+        AsyncDatabase.submit(() -> AppModel.getInstance().undo())
+                .whenCompleteAsync((result, error) -> updateUndoRedo(), Platform::runLater);
+    }
+
+    /**
+     * Makes the most recently undone change again
+     */
+    @FXML
+    public void redo() {
+        redoButton.setDisable(true);
+        AsyncDatabase.submit(() -> AppModel.getInstance().redo())
+                .whenCompleteAsync((result, error) -> updateUndoRedo(), Platform::runLater);
+    }
+
+    private void updateUndoRedo() {
+        AppModel model = AppModel.getInstance();
+        undoButton.setDisable(!model.canUndo());
+        redoButton.setDisable(!model.canRedo());
+    }
+
+    /**
+     * Forgets the logged-in user and returns to the login scene
+     */
+    @FXML
+    public void logout() {
+        AppModel model = AppModel.getInstance();
+        AppController.getInstance().unsubscribe(taskSubscriber);
+        model.getReminders().removeListener(reminderListener);
+        model.clear();
+        SceneController.switchScene("/app/scene/login.fxml");
+    }
+
+    /**
+     * Applies a batch of task changes to the table's rows. Runs on the JavaFX thread, at most once per frame.
+     * The search and filter results are rebuilt at most once per batch, rather than once per changed task.
+     */
+    private void applyEvents(List<TaskEvent> events) {
+        long userID = AppModel.getInstance().getUserID();
+        updateUndoRedo();
+        Map<Long, TaskEvent> searchChanges = new HashMap<>();
+        for (TaskEvent event : events) {
+            if (event instanceof TaskEvent.TaskCreated created) {
+                if (created.task().userID() == userID) {
+                    insertTask(created.task());
+                }
+            } else if (event instanceof TaskEvent.TaskUpdated updated) {
+                int index = indexOf(updated.taskID());
+                if (index >= 0) {
+                    tasks.set(index, updated.newTask());
+                }
+                searchChanges.put(updated.taskID(), event);
+            } else {
+                int index = indexOf(event.taskID());
+                if (index >= 0) {
+                    tasks.remove(index);
+                }
+                searchChanges.put(event.taskID(), event);
+            }
+        }
+
+        if (!filter.matchesEverything() && !events.isEmpty()) {
+            // Asking the model's query index again is cheaper than working out which changed tasks still match
+            queryFilter(Math.max(PAGE_SIZE, filterResults.size()));
+        }
+
+        if (searchResults.isEmpty() || searchChanges.isEmpty()) {
+            return;
+        }
+        List<Task> results = new ArrayList<>(searchResults.size());
+        boolean changed = false;
+        for (Task result : searchResults) {
+            TaskEvent change = searchChanges.get(result.taskID());
+            if (change instanceof TaskEvent.TaskUpdated updated) {
+                results.add(updated.newTask());
+                changed = true;
+            } else if (change instanceof TaskEvent.TaskDeleted) {
+                changed = true;
+            } else {
+                results.add(result);
+            }
+        }
+        if (changed) {
+            searchResults.setAll(results);
+        }
+    }
+
+    /**
+     * Shows the tasks matching a search in the table, or goes back to the paged tasks if the search is empty
+     * @param query Text in the search field
+     */
+    private void search(String query) {
+        if (query == null || query.isBlank()) {
+            searchResults.clear();
+            taskTable.setItems(filter.matchesEverything() ? sortedTasks : sortedFilterResults);
+            return;
+        }
+        searchResults.setAll(AppModel.getInstance().searchTasks(query, PAGE_SIZE));
+        taskTable.setItems(sortedSearchResults);
+    }
+
+    /**
+     * Adds a toggle button above the table for each status and priority, and one for tasks due in the next
+     * DUE_SOON_DAYS days. Selecting chips narrows the table to the tasks matching all of them, e.g. "To do" and
+     * "High" shows high priority tasks still to do; selecting two statuses shows tasks with either.
+     */
+    private void createFilterChips() {
+        for (TaskStatus status : TaskStatus.values()) {
+            addFilterChip(displayName(status), selected -> filter.withStatus(status, selected));
+        }
+        for (TaskPriority priority : TaskPriority.values()) {
+            addFilterChip(displayName(priority), selected -> filter.withPriority(priority, selected));
+        }
+        addFilterChip("Due this week", selected -> {
+            if (!selected) {
+                return filter.withDueBetween(null, null).withOrder(TaskFilter.Order.TASK_ID);
+            }
+            LocalDate today = LocalDate.now();
+            return filter.withDueBetween(today, today.plusDays(DUE_SOON_DAYS - 1))
+                    .withOrder(TaskFilter.Order.DUE_DATE);
+        });
+        setFilterCountVisible(false);
+    }
+
+    private void addFilterChip(String text, Function<Boolean, TaskFilter> toggle) {
+        ToggleButton chip = new ToggleButton(text);
+        chip.selectedProperty().addListener((observable, wasSelected, selected) -> {
+            filter = toggle.apply(selected);
+            applyFilter();
+        });
+        filterChipButtons.add(chip);
+        filterChips.getChildren().add(chip);
+    }
+
+    /**
+     * Shows the tasks matching the selected chips in the table, or goes back to the paged tasks if none are
+     * selected. A search in progress stays on top until the search field is cleared.
+     */
+    private void applyFilter() {
+        if (filter.matchesEverything()) {
+            filterResults.clear();
+            setFilterCountVisible(false);
+        } else {
+            queryFilter(PAGE_SIZE);
+            setFilterCountVisible(true);
+        }
+        if (taskTable.getItems() != sortedSearchResults) {
+            taskTable.setItems(filter.matchesEverything() ? sortedTasks : sortedFilterResults);
+        }
+    }
+
+    /**
+     * Reads the first tasks matching the filter from the model, replacing the filter results if they have changed
+     * @param limit Number of matching tasks to read
+     */
+    private void queryFilter(int limit) {
+        AppModel model = AppModel.getInstance();
+        List<Task> matches = model.queryTasks(filter, 0, limit);
+        if (!matches.equals(filterResults)) {
+            filterResults.setAll(matches);
+        }
+        allFilterPagesLoaded = matches.size() < limit;
+        filterCountLabel.setText(model.countTasks(filter) + " matching");
+    }
+
+    private void setFilterCountVisible(boolean visible) {
+        filterCountLabel.setVisible(visible);
+        filterCountLabel.setManaged(visible);
+    }
+
+    /**
+     * Binds the statistics line to the model's task counts. The counts are kept up to date as tasks change, so
+     * nothing here ever counts the tasks itself.
+     */
+    private void bindStatistics() {
+        TaskStatistics statistics = AppModel.getInstance().getStatistics();
+        statisticsLabel.textProperty().bind(Bindings.createStringBinding(() -> String.format(
+                        "%d tasks: %d to do, %d in progress, %d completed, %d overdue, %d due in the next %d days",
+                        statistics.totalCountProperty().get(),
+                        statistics.statusCountProperty(TaskStatus.TODO).get(),
+                        statistics.statusCountProperty(TaskStatus.IN_PROGRESS).get(),
+                        statistics.statusCountProperty(TaskStatus.COMPLETED).get(),
+                        statistics.statusCountProperty(TaskStatus.OVERDUE).get(),
+                        countDueSoon(statistics.getDueDateHistogram()), DUE_SOON_DAYS),
+                statistics.totalCountProperty(),
+                statistics.statusCountProperty(TaskStatus.TODO),
+                statistics.statusCountProperty(TaskStatus.IN_PROGRESS),
+                statistics.statusCountProperty(TaskStatus.COMPLETED),
+                statistics.statusCountProperty(TaskStatus.OVERDUE),
+                statistics.getDueDateHistogram()));
+    }
+
+    /**
+     * Function to add up the open tasks due from today until DUE_SOON_DAYS days from now
+     * @param histogram Number of open tasks due on each day
+     */
+    private static long countDueSoon(Map<LocalDate, Long> histogram) {
+        LocalDate today = LocalDate.now();
+        LocalDate end = today.plusDays(DUE_SOON_DAYS);
+        long count = 0;
+        for (Map.Entry<LocalDate, Long> day : histogram.entrySet()) {
+            if (!day.getKey().isBefore(today) && day.getKey().isBefore(end)) {
+                count += day.getValue();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Shows a notification above the table, e.g. "Overdue: Pay rent, Book dentist and 4 more", replacing any
+     * notification already shown
+     */
+    private void showNotification(String heading, List<Task> reminded) {
+        if (reminded.isEmpty()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder(heading).append(": ");
+        int named = Math.min(reminded.size(), NOTIFICATION_MAX_NAMES);
+        for (int i = 0; i < named; i++) {
+            if (i > 0) {
+                text.append(i == named - 1 && named == reminded.size() ? " and " : ", ");
+            }
+            text.append(reminded.get(i).name());
+        }
+        if (reminded.size() > named) {
+            text.append(" and ").append(reminded.size() - named).append(" more");
+        }
+
+        notificationLabel.setText(text.toString());
+        setNotificationVisible(true);
+        notificationTimeout.playFromStart();
+    }
+
+    private void setNotificationVisible(boolean visible) {
+        notificationLabel.setVisible(visible);
+        notificationLabel.setManaged(visible);
+        if (!visible) {
+            notificationTimeout.stop();
+        }
+    }
+
+    /**
+     * Adds the next page of tasks to the table, continuing from the last task ID already paged in, or from the
+     * last filter result if the table is showing the filter results
+     */
+    private void loadNextPage() {
+        if (taskTable.getItems() == sortedFilterResults) {
+            if (!allFilterPagesLoaded) {
+                List<Task> page = AppModel.getInstance().queryTasks(filter, filterResults.size(), PAGE_SIZE);
+                filterResults.addAll(page);
+                allFilterPagesLoaded = page.size() < PAGE_SIZE;
+            }
+            return;
+        }
+        if (allPagesLoaded || taskTable.getItems() != sortedTasks) {
+            return;
+        }
+
+        List<Task> page = AppModel.getInstance().getTasksAfter(lastPagedTaskID, PAGE_SIZE);
+        if (!page.isEmpty() && (tasks.isEmpty() || tasks.get(tasks.size() - 1).taskID() < page.get(0).taskID())) {
+            // The whole page belongs after the last row, so add it with a single change event
+            tasks.addAll(page);
+        } else {
+            for (Task task : page) {
+                insertTask(task);
+            }
+        }
+        if (page.size() < PAGE_SIZE) {
+            allPagesLoaded = true;
+        } else {
+            lastPagedTaskID = page.get(page.size() - 1).taskID();
+        }
+    }
+
+    /**
+     * Loads another page whenever the table is scrolled close to the bottom
+     */
+    private void watchScrolling() {
+        for (Node node : taskTable.lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar scrollBar && scrollBar.getOrientation() == Orientation.VERTICAL) {
+                scrollBar.valueProperty().addListener((observable, oldValue, newValue) -> {
+                    if (newValue.doubleValue() >= scrollBar.getMax() * NEXT_PAGE_THRESHOLD) {
+                        loadNextPage();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Inserts a task at its position by ID. Tasks created during this session may already be in the table by the
+     * time paging reaches them, so tasks which are already present are skipped.
+     */
+    private void insertTask(Task task) {
+        int index = indexOf(task.taskID());
+        if (index < 0) {
+            tasks.add(-index - 1, task);
+        }
+    }
+
+    /**
+     * Function to find a task in the table's ID-ordered list by binary search
+     * @param taskID Unique ID of the task
+     * @return Index of the task, or (-(insertion point) - 1) if it isn't in the list
+     */
+    private int indexOf(long taskID) {
+        int low = 0;
+        int high = tasks.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleID = tasks.get(middle).taskID();
+            if (middleID < taskID) {
+                low = middle + 1;
+            } else if (middleID > taskID) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Function to turn an enum constant such as IN_PROGRESS into text for the table, e.g. "In progress"
+     */
+    private static String displayName(Enum<?> value) {
+        if (value == null) {
+            return "";
+        }
+        String name = value.name().replace('_', ' ').toLowerCase();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -1,32 +1,103 @@
 package app.scene.controllers;
 
-import app.database.Database;
+import app.data.AppModel;
+import app.database.AsyncDatabase;
+import app.database.AuthenticationService;
+import app.database.Repositories;
 import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.scene.control.Button;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextField;
 import javafx.scene.text.Text;
 import javafx.util.Duration;
 
-public class LoginController {
+public class LoginController implements ResettableController {
 
     @FXML
-    private Text loginFailureText;
+    private Text loginFailureText, accountCreatedText;
     @FXML
     private TextField usernameField;
     @FXML
     private PasswordField passwordField;
+    @FXML
+    private Button loginButton;
+    @FXML
+    private ProgressIndicator loginProgress;
+
+    /**
+     * Username of a new account whose user couldn't be logged in straight away, to fill in the next time the
+     * login scene is shown, or null. Only used on the JavaFX thread.
+     */
+    private static String createdUsername;
+
+    /**
+     * Method to have the login scene, the next time it is shown, say that an account was created and fill in its
+     * username, for when the new user couldn't be logged in straight away
+     * @param username Username of the new account
+     */
+    static void accountCreated(String username) {
+        createdUsername = username;
+    }
 
     /**
      * Method to authenticate a user by their login details. If the details are correct, the scene is switched
      * to the dashboard scene. If not, an error is displayed, informing the user that their login attempt failed.
+     * The check runs in the background, so the window stays responsive while the password is hashed.
      */
     @FXML
     public void authenticateUser() {
-        if (Database.authenticateUser(usernameField.getText(), passwordField.getText())) {
-            dashboardScene();
-        } else {
-            displayLoginError();
+        String username = usernameField.getText();
+        String password = passwordField.getText();
+
+        setBusy(true);
+        AsyncDatabase.submit(() -> {
+                    AuthenticationService.Session session = Repositories.get().authenticate(username, password);
+                    if (session == null) {
+                        return false;
+                    }
+                    // Load the user's tasks before the dashboard is shown
+                    AppModel.getInstance().load(session);
+                    return true;
+                })
+                .whenCompleteAsync((authenticated, error) -> {
+                    setBusy(false);
+                    if (error == null && authenticated) {
+                        dashboardScene();
+                    } else {
+                        displayLoginError();
+                    }
+                }, Platform::runLater);
+    }
+
+    /**
+     * Method to disable the login button and show a progress indicator while a login attempt is running
+     * @param busy Whether a login attempt is running
+     */
+    private void setBusy(boolean busy) {
+        loginButton.setDisable(busy);
+        loginProgress.setVisible(busy);
+        loginProgress.setManaged(busy);
+    }
+
+    /**
+     * Clears the details and any error left over from the last visit to the login scene
+     */
+    @Override
+    public void reset() {
+        usernameField.clear();
+        passwordField.clear();
+        for (Text messageText : new Text[]{loginFailureText, accountCreatedText}) {
+            messageText.setVisible(false);
+            messageText.setManaged(false);
+        }
+        setBusy(false);
+        if (createdUsername != null) {
+            usernameField.setText(createdUsername);
+            createdUsername = null;
+            displayMessage(accountCreatedText);
         }
     }
 
@@ -51,15 +122,23 @@ public class LoginController {
      * for 5 seconds.
      */
     public void displayLoginError() {
+        displayMessage(loginFailureText);
+    }
+
+    /**
+     * Method to display a Text node containing a message for 5 seconds, before hiding it again
+     * @param messageText Text node containing the message to be displayed
+     */
+    private void displayMessage(Text messageText) {
         // Make message visible
-        loginFailureText.setVisible(true);
-        loginFailureText.setManaged(true);
+        messageText.setVisible(true);
+        messageText.setManaged(true);
 
         PauseTransition pause = new PauseTransition(Duration.seconds(5));
         pause.setOnFinished(e -> {
             // Make message invisible again
-            loginFailureText.setVisible(false);
-            loginFailureText.setManaged(false);
+            messageText.setVisible(false);
+            messageText.setManaged(false);
         });
         pause.play();
     }
@@ -0,0 +1,13 @@
+package app.scene.controllers;
+
+/**
+ * Controller of a scene which is kept in SceneController's cache. As the same controller is reused every time its
+ * scene is shown, it has to clear whatever state the previous visit left behind.
+ */
+public interface ResettableController {
+    /**
+     * Called on the JavaFX thread each time the controller's scene is about to be shown, including the first time.
+     * Should clear any input and messages from the last visit and load anything which depends on the logged-in user.
+     */
+    void reset();
+}
@@ -1,20 +1,54 @@
 package app.scene.controllers;
 
+import app.metrics.Metrics;
+import app.metrics.Timer;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Class to control the initial loading and switching of scenes.
+ * Class to control the initial loading and switching of scenes. Each FXML file is only parsed once: its root node
+ * and controller are cached, and switching scenes swaps the root of a single Scene rather than building a new one.
  */
 public class SceneController {
+    private static final Logger logger = Logger.getLogger(SceneController.class.getName());
+
+    /**
+     * Time to switch scenes on the JavaFX thread (including waiting for a preload still in progress), and time
+     * to parse an FXML file on whichever thread loads it
+     */
+    private static final Timer switchTimer = Metrics.timer("scene.switch");
+    private static final Timer loadTimer = Metrics.timer("scene.load");
+
     /**
      * Reference to the main stage
      */
     private static Stage primaryStage;
 
+    /**
+     * The single scene shown on the main stage. Created on the first switch, then reused with a new root.
+     */
+    private static Scene scene;
+
+    /**
+     * Loaded root node and controller of an FXML file
+     */
+    private record LoadedScene(Parent root, Object controller) {}
+
+    /**
+     * Loaded (or loading) scenes, by FXML file path
+     */
+    private static final Map<String, CompletableFuture<LoadedScene>> cache = new ConcurrentHashMap<>();
+
     /**
      * Method to set the stage which is currently in use to the primaryStage variable
      * @param stage Stage which is currently in use
@@ -23,24 +57,70 @@ public class SceneController {
         primaryStage = stage;
     }
 
+    /**
+     * Method to start loading an FXML file on a background thread, so that switching to it later is instant.
+     * Does nothing if the file has already been loaded.
+     * @param fxmlFile Path to the FXML file to load
+     */
+    public static void preload(String fxmlFile) {
+        cache.computeIfAbsent(fxmlFile, file -> CompletableFuture.supplyAsync(() -> load(file), runnable -> {
+            Thread thread = new Thread(runnable, "scene-preloader");
+            thread.setDaemon(true);
+            thread.start();
+        }));
+    }
+
     /**
      * Method to switch scenes
      * @param fxmlFile Path to the FXML file containing the front-end for the stage which is to be switched to
      */
     public static void switchScene(String fxmlFile) {
+        long start = System.nanoTime();
         try {
-            FXMLLoader loader = new FXMLLoader(SceneController.class.getResource(fxmlFile));
-            Parent root = loader.load();
+            // If the scene is still being preloaded, this waits for it rather than parsing the file a second time
+            LoadedScene loaded = cache.computeIfAbsent(fxmlFile,
+                    file -> CompletableFuture.completedFuture(load(file))).join();
 
-            // To ensure that the screen stays in maximised, fullscreen mode, we set the stage's width and height
-            // manually. Otherwise, the window will appear windowed, whilst technically being "maximised".
-            primaryStage.setScene(new Scene(root, primaryStage.getWidth(), primaryStage.getHeight()));
+            if (loaded.controller() instanceof ResettableController controller) {
+                controller.reset();
+            }
+
+            if (scene == null) {
+                // To ensure that the screen stays in maximised, fullscreen mode, we set the stage's width and height
+                // manually. Otherwise, the window will appear windowed, whilst technically being "maximised".
+                scene = new Scene(loaded.root(), primaryStage.getWidth(), primaryStage.getHeight());
+                primaryStage.setScene(scene);
+            } else {
+                scene.setRoot(loaded.root());
+            }
             primaryStage.setTitle("Task Manager");
             primaryStage.setMaximized(true);
             primaryStage.show();
+            switchTimer.record(start);
+            logger.fine(() -> "event=scene_switched fxml=" + fxmlFile);
+        } catch (UncheckedIOException | CompletionException e) {
+            switchTimer.recordError(start);
+            // Forget the failed load so that the next attempt tries again
+            cache.remove(fxmlFile);
+            logger.log(Level.SEVERE, "event=scene_switch_failed fxml=" + fxmlFile, e);
+        }
+    }
+
+    /**
+     * Function to parse an FXML file into its root node and controller
+     * @param fxmlFile Path to the FXML file
+     * @return The loaded root node and controller
+     */
+    private static LoadedScene load(String fxmlFile) {
+        long start = System.nanoTime();
+        try {
+            FXMLLoader loader = new FXMLLoader(SceneController.class.getResource(fxmlFile));
+            Parent root = loader.load();
+            loadTimer.record(start);
+            return new LoadedScene(root, loader.getController());
         } catch (IOException e) {
-            System.err.println("Error switching scenes: " + e.getMessage());
+            loadTimer.recordError(start);
+            throw new UncheckedIOException(e);
         }
     }
 }
-
@@ -0,0 +1,95 @@
+package app.data;
+
+import app.database.Database;
+import app.database.TaskField;
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of AppModel against the database surefire points taskmanager.db.url at, with changes made from another
+ * connection standing in for another instance of the application
+ */
+class AppModelTest {
+    private static long userID;
+    private static String username;
+
+    private final AppModel model = AppModel.getInstance();
+
+    @BeforeAll
+    static void createUser() {
+        Database.createTables();
+        username = "model-test-" + System.nanoTime();
+        assertTrue(Database.insertUser(username, username + "@example.com", "model-password"));
+        userID = Database.getUserID(username);
+    }
+
+    @BeforeEach
+    void loadUser() {
+        model.getStatistics().setPublisher(Runnable::run);
+        model.load(userID, username);
+    }
+
+    @AfterEach
+    void clearUser() {
+        model.clear();
+    }
+
+    @Test
+    void conflictingFieldIsKeptAndTheOtherFieldsAreStillWritten() throws SQLException {
+        Task task = model.addTask("original", "original", null, TaskPriority.LOW, TaskStatus.TODO);
+        assertNotNull(task);
+        changeElsewhere("UPDATE tasks SET task_name = 'theirs', task_description = 'same', version = version + 1 "
+                + "WHERE task_id = " + task.taskID());
+
+        Map<TaskField, Object> changes = new EnumMap<>(TaskField.class);
+        changes.put(TaskField.NAME, "ours");
+        changes.put(TaskField.DESCRIPTION, "same");
+        changes.put(TaskField.PRIORITY, TaskPriority.HIGH);
+        // The name conflicts, so the change is reported as not written in full
+        assertNull(model.updateTask(task.taskID(), changes));
+
+        Task written = Database.getTasksPage(userID, task.taskID() - 1, 1).get(0);
+        assertEquals("theirs", written.name());
+        assertEquals("same", written.description());
+        assertEquals(TaskPriority.HIGH, written.priority());
+        assertEquals(written, model.getTask(task.taskID()));
+    }
+
+    @Test
+    void changeToOtherFieldsIsMergedAndWritten() throws SQLException {
+        Task task = model.addTask("original", "original", null, TaskPriority.LOW, TaskStatus.TODO);
+        assertNotNull(task);
+        changeElsewhere("UPDATE tasks SET task_description = 'theirs', version = version + 1 "
+                + "WHERE task_id = " + task.taskID());
+
+        Task updated = model.changeTaskName(task.taskID(), "ours");
+        assertNotNull(updated);
+        assertEquals("ours", updated.name());
+        assertEquals("theirs", updated.description());
+        assertEquals(updated, Database.getTasksPage(userID, task.taskID() - 1, 1).get(0));
+    }
+
+    private static void changeElsewhere(String update) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(
+                System.getProperty("taskmanager.db.url", "jdbc:sqlite:taskManager.db"));
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(update);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package app.data;
+
+import app.database.TaskPriority;
+import app.database.TaskStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks TaskQueryIndex against a brute-force filter and sort of the same tasks, over random tasks, random edits
+ * and random filters
+ */
+class TaskQueryIndexTest {
+    private static final LocalDate BASE_DATE = LocalDate.of(2024, 1, 1);
+
+    private final Random random = new Random(42);
+
+    @Test
+    void matchesBruteForceAfterRandomEdits() {
+        TaskQueryIndex index = new TaskQueryIndex();
+        Map<Long, Task> tasks = new TreeMap<>();
+
+        List<Task> initial = new ArrayList<>();
+        for (long taskID = 1; taskID <= 3000; taskID++) {
+            Task task = randomTask(taskID);
+            initial.add(task);
+            tasks.put(taskID, task);
+        }
+        index.addAll(initial);
+        long nextTaskID = initial.size() + 1;
+
+        for (int round = 0; round < 200; round++) {
+            for (int edit = 0; edit < 25; edit++) {
+                int kind = random.nextInt(3);
+                if (kind == 0 || tasks.isEmpty()) {
+                    Task task = randomTask(nextTaskID++);
+                    index.add(task);
+                    tasks.put(task.taskID(), task);
+                } else {
+                    long taskID = randomExistingID(tasks);
+                    if (kind == 1) {
+                        index.remove(taskID);
+                        tasks.remove(taskID);
+                    } else {
+                        Task task = randomTask(taskID);
+                        index.add(task);
+                        tasks.put(taskID, task);
+                    }
+                }
+            }
+            for (int query = 0; query < 10; query++) {
+                assertSameResults(index, tasks.values(), randomFilter());
+            }
+        }
+    }
+
+    @Test
+    void clearEmptiesTheIndex() {
+        TaskQueryIndex index = new TaskQueryIndex();
+        index.addAll(List.of(randomTask(1), randomTask(2), randomTask(3)));
+        index.clear();
+
+        assertEquals(0, index.count(TaskFilter.ALL));
+        assertArrayEquals(new long[0], index.query(TaskFilter.ALL, 0, 10));
+
+        Task task = randomTask(4);
+        index.add(task);
+        assertArrayEquals(new long[]{4}, index.query(TaskFilter.ALL, 0, 10));
+    }
+
+    private void assertSameResults(TaskQueryIndex index, Iterable<Task> tasks, TaskFilter filter) {
+        long[] expected = bruteForce(tasks, filter);
+        assertEquals(expected.length, index.count(filter), () -> "count of " + filter);
+        assertArrayEquals(expected, index.query(filter, 0, Integer.MAX_VALUE), () -> "query of " + filter);
+
+        int offset = random.nextInt(expected.length + 1);
+        int limit = 1 + random.nextInt(50);
+        long[] page = new long[Math.max(0, Math.min(limit, expected.length - offset))];
+        System.arraycopy(expected, offset, page, 0, page.length);
+        assertArrayEquals(page, index.query(filter, offset, limit), () -> "page at " + offset + " of " + filter);
+    }
+
+    private static long[] bruteForce(Iterable<Task> tasks, TaskFilter filter) {
+        List<Task> matches = new ArrayList<>();
+        for (Task task : tasks) {
+            if (matches(task, filter)) {
+                matches.add(task);
+            }
+        }
+        Comparator<Task> order = Comparator.comparingLong(Task::taskID);
+        if (filter.order() == TaskFilter.Order.DUE_DATE) {
+            order = Comparator.comparing(Task::dueDate, Comparator.nullsLast(Comparator.naturalOrder()))
+                    .thenComparingLong(Task::taskID);
+        }
+        matches.sort(order);
+        return matches.stream().mapToLong(Task::taskID).toArray();
+    }
+
+    private static boolean matches(Task task, TaskFilter filter) {
+        if (!filter.statuses().isEmpty() && !filter.statuses().contains(task.status())) {
+            return false;
+        }
+        if (!filter.priorities().isEmpty()
+                && (task.priority() == null || !filter.priorities().contains(task.priority()))) {
+            return false;
+        }
+        if (filter.hasDueRange()) {
+            if (task.dueDate() == null) {
+                return false;
+            }
+            if (filter.dueFrom() != null && task.dueDate().isBefore(filter.dueFrom())) {
+                return false;
+            }
+            if (filter.dueTo() != null && task.dueDate().isAfter(filter.dueTo())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Task randomTask(long taskID) {
+        LocalDate dueDate = random.nextInt(4) == 0 ? null : BASE_DATE.plusDays(random.nextInt(60));
+        TaskPriority[] priorities = TaskPriority.values();
+        TaskPriority priority = random.nextInt(priorities.length + 1) == 0
+                ? null : priorities[random.nextInt(priorities.length)];
+        TaskStatus[] statuses = TaskStatus.values();
+        TaskStatus status = statuses[random.nextInt(statuses.length)];
+        return new Task(taskID, 1, "Task " + taskID, null, dueDate, priority, status, 0);
+    }
+
+    private long randomExistingID(Map<Long, Task> tasks) {
+        List<Long> taskIDs = new ArrayList<>(tasks.keySet());
+        return taskIDs.get(random.nextInt(taskIDs.size()));
+    }
+
+    private TaskFilter randomFilter() {
+        Set<TaskStatus> statuses = EnumSet.noneOf(TaskStatus.class);
+        for (TaskStatus status : TaskStatus.values()) {
+            if (random.nextInt(3) == 0) {
+                statuses.add(status);
+            }
+        }
+        Set<TaskPriority> priorities = EnumSet.noneOf(TaskPriority.class);
+        for (TaskPriority priority : TaskPriority.values()) {
+            if (random.nextInt(3) == 0) {
+                priorities.add(priority);
+            }
+        }
+        LocalDate dueFrom = random.nextInt(3) == 0 ? BASE_DATE.plusDays(random.nextInt(70) - 5) : null;
+        LocalDate dueTo = random.nextInt(3) == 0 ? BASE_DATE.plusDays(random.nextInt(70) - 5) : null;
+        TaskFilter.Order order = random.nextBoolean() ? TaskFilter.Order.TASK_ID : TaskFilter.Order.DUE_DATE;
+        return new TaskFilter(statuses, priorities, dueFrom, dueTo, order);
+    }
+}
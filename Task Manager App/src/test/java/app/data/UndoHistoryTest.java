@@ -0,0 +1,179 @@
+package app.data;
+
+import app.database.TaskField;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of UndoHistory with its default depth of 100 steps and 100000 operations
+ */
+class UndoHistoryTest {
+
+    @Test
+    void undoAndRedoMoveStepsBetweenTheTwoSides() {
+        UndoHistory history = new UndoHistory();
+        assertFalse(history.canUndo());
+        assertNull(history.peekUndo());
+
+        history.recordCreate(1);
+        history.recordChange(1, TaskField.NAME, "a", "b");
+        UndoHistory.Step change = history.peekUndo();
+        assertEquals(1, change.size());
+        assertEquals(TaskField.NAME, change.field(0));
+        assertEquals("a", change.oldValue(0));
+        assertEquals("b", change.newValue(0));
+
+        history.undone();
+        assertSame(change, history.peekRedo());
+        assertEquals(UndoHistory.CREATE, history.peekUndo().operation(0));
+        history.undone();
+        assertFalse(history.canUndo());
+        assertTrue(history.canRedo());
+
+        history.redone();
+        assertEquals(UndoHistory.CREATE, history.peekUndo().operation(0));
+        assertSame(change, history.peekRedo());
+    }
+
+    @Test
+    void recordingDiscardsWhatCouldHaveBeenRedone() {
+        UndoHistory history = new UndoHistory();
+        history.recordCreate(1);
+        history.recordDelete(1);
+        history.undone();
+        assertTrue(history.canRedo());
+
+        history.recordRestore(2);
+        assertFalse(history.canRedo());
+        assertEquals(UndoHistory.RESTORE, history.peekUndo().operation(0));
+        history.undone();
+        assertEquals(UndoHistory.CREATE, history.peekUndo().operation(0));
+    }
+
+    @Test
+    void ringBufferKeepsTheMostRecentSteps() {
+        UndoHistory history = new UndoHistory();
+        for (long taskID = 1; taskID <= 250; taskID++) {
+            history.recordCreate(taskID);
+        }
+
+        int undoable = 0;
+        long expected = 250;
+        while (history.canUndo()) {
+            assertEquals(expected--, history.peekUndo().taskID(0));
+            history.undone();
+            undoable++;
+        }
+        assertEquals(100, undoable);
+
+        // Redo walks forward over the same slots the ring buffer wrapped around
+        for (long taskID = 151; taskID <= 250; taskID++) {
+            assertEquals(taskID, history.peekRedo().taskID(0));
+            history.redone();
+        }
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    void oldestStepsAreDroppedOnceTooManyOperationsAreHeld() {
+        UndoHistory history = new UndoHistory();
+        recordBulkStep(history, 1, 60_000);
+        recordBulkStep(history, 2, 60_000);
+
+        assertEquals(2, history.peekUndo().taskID(0));
+        history.undone();
+        assertFalse(history.canUndo());
+
+        // A single step larger than the limit is still kept, as the only one
+        recordBulkStep(history, 3, 150_000);
+        assertEquals(150_000, history.peekUndo().size());
+        history.undone();
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void nestedStepsFormOneStep() {
+        UndoHistory history = new UndoHistory();
+        history.beginStep();
+        history.recordChange(1, TaskField.STATUS, null, null);
+        history.beginStep();
+        history.recordChange(2, TaskField.NAME, "a", "b");
+        history.endStep();
+        assertFalse(history.canUndo());
+        history.recordDelete(3);
+        history.endStep();
+
+        UndoHistory.Step step = history.peekUndo();
+        assertEquals(3, step.size());
+        assertEquals(1, step.taskID(0));
+        assertEquals(2, step.taskID(1));
+        assertEquals(UndoHistory.DELETE, step.operation(2));
+        history.undone();
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void emptyStepsAndSuspendedChangesAreNotRecorded() {
+        UndoHistory history = new UndoHistory();
+        history.beginStep();
+        history.endStep();
+        assertFalse(history.canUndo());
+
+        history.suspend();
+        history.recordChange(1, TaskField.NAME, "a", "b");
+        history.resume();
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void equalValuesAreStoredOnce() {
+        UndoHistory history = new UndoHistory();
+        String description = new String("Quarterly report");
+        String sameDescription = new String("Quarterly report");
+        assertNotSame(description, sameDescription);
+
+        history.beginStep();
+        history.recordChange(1, TaskField.DESCRIPTION, null, description);
+        history.recordChange(2, TaskField.DESCRIPTION, null, sameDescription);
+        history.endStep();
+        history.recordChange(3, TaskField.DUE_DATE, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 1));
+
+        UndoHistory.Step step = history.peekUndo();
+        assertSame(step.oldValue(0), step.newValue(0));
+        history.undone();
+        UndoHistory.Step bulk = history.peekUndo();
+        assertSame(bulk.newValue(0), bulk.newValue(1));
+        assertNull(bulk.oldValue(0));
+    }
+
+    @Test
+    void valuesAreInternedAgainOnceEveryStepHoldingThemIsDropped() {
+        UndoHistory history = new UndoHistory();
+        String first = new String("name");
+        history.recordChange(1, TaskField.NAME, null, first);
+        for (long taskID = 2; taskID <= 101; taskID++) {
+            history.recordCreate(taskID);
+        }
+
+        // The step holding the first copy has been dropped, so a new copy is stored rather than the old one
+        String second = new String("name");
+        history.recordChange(1, TaskField.NAME, null, second);
+        assertSame(second, history.peekUndo().newValue(0));
+    }
+
+    private static void recordBulkStep(UndoHistory history, long taskID, int operations) {
+        history.beginStep();
+        for (int i = 0; i < operations; i++) {
+            history.recordChange(taskID, TaskField.STATUS, null, null);
+        }
+        history.endStep();
+    }
+}
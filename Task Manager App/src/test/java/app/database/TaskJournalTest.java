@@ -0,0 +1,246 @@
+package app.database;
+
+import app.data.AppModel;
+import app.data.Task;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of TaskJournal against the database surefire points taskmanager.db.url at, with a new journal file per
+ * test
+ */
+class TaskJournalTest {
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static long userID;
+    private static String username;
+
+    @TempDir
+    Path directory;
+
+    private Path journalFile;
+
+    @BeforeAll
+    static void createUser() {
+        Repositories.use(new LocalRepository());
+        Database.createTables();
+        username = "journal-test-" + System.nanoTime();
+        assertTrue(Database.insertUser(username, username + "@example.com", "journal-password"));
+        userID = Database.getUserID(username);
+    }
+
+    @BeforeEach
+    void startJournal() {
+        journalFile = directory.resolve("edits");
+        System.setProperty("taskmanager.journal.file", journalFile.toString());
+        TaskJournal.start();
+    }
+
+    @AfterEach
+    void stopJournal() {
+        TaskJournal.stop();
+        System.clearProperty("taskmanager.journal.file");
+    }
+
+    @Test
+    void editWhichCantBeWrittenIsDroppedWithoutTheOthers() {
+        long[] taskIDs = insertTasks("first", "second", "third");
+        assertEquals(TaskBatch.Outcome.APPLIED, Database.changeTaskName(Long.toString(taskIDs[0]), "first edited"));
+        // task_name is NOT NULL, so this edit can never be written
+        assertEquals(TaskBatch.Outcome.APPLIED, Database.changeTaskName(Long.toString(taskIDs[1]), null));
+        assertEquals(TaskBatch.Outcome.APPLIED, Database.changeTaskName(Long.toString(taskIDs[2]), "third edited"));
+
+        assertTrue(TaskJournal.flush());
+        assertEquals(List.of("first edited", "second", "third edited"), names(taskIDs));
+
+        // Nothing is left behind to fail the next flush
+        assertEquals(TaskBatch.Outcome.APPLIED, Database.changeTaskName(Long.toString(taskIDs[1]), "second edited"));
+        assertTrue(TaskJournal.flush());
+        assertEquals(List.of("first edited", "second edited", "third edited"), names(taskIDs));
+    }
+
+    @Test
+    void synchronousWritesAreOrderedAfterJournaledEdits() {
+        long[] taskIDs = insertTasks("original");
+        assertEquals(TaskBatch.Outcome.APPLIED, Database.changeTaskName(Long.toString(taskIDs[0]), "journaled"));
+
+        TaskBatch batch = new TaskBatch();
+        batch.changeName(taskIDs[0], "synchronous");
+        assertEquals(TaskBatch.Outcome.APPLIED, batch.flushLocally(userID).get(0).outcome());
+
+        assertTrue(TaskJournal.flush());
+        assertEquals(List.of("synchronous"), names(taskIDs));
+    }
+
+    @Test
+    void replayStopsAtTheFirstRecordFailingItsChecksum() throws SQLException, IOException {
+        long[] taskIDs = insertTasks("first", "second", "third");
+
+        try (Connection lockHolder = lockDatabase()) {
+            for (int i = 0; i < taskIDs.length; i++) {
+                assertEquals(TaskBatch.Outcome.APPLIED,
+                        Database.changeTaskName(Long.toString(taskIDs[i]), "edited " + i));
+            }
+            // The database is locked, so the edits stay in the journal, and stop() leaves them there
+            assertFalse(TaskJournal.flush());
+            TaskJournal.stop();
+        }
+        assertEquals(List.of("first", "second", "third"), names(taskIDs));
+
+        corruptSecondRecord();
+        TaskJournal.start();
+        assertEquals(List.of("edited 0", "second", "third"), names(taskIDs));
+
+        // The records after the corrupt one are cleared rather than replayed by a later start
+        TaskJournal.stop();
+        TaskJournal.start();
+        assertEquals(List.of("edited 0", "second", "third"), names(taskIDs));
+    }
+
+    @Test
+    void modelEditsMadeWhileTheDatabaseIsLockedAreJournaledOneAfterAnother() throws SQLException {
+        long[] taskIDs = insertTasks("original");
+        AppModel model = AppModel.getInstance();
+        model.getStatistics().setPublisher(Runnable::run);
+        model.load(userID, username);
+        try {
+            try (Connection lockHolder = lockDatabase()) {
+                // The second edit finds the first still waiting in the journal, and is journaled behind it
+                assertNotNull(model.changeTaskName(taskIDs[0], "renamed"));
+                assertNotNull(model.changeTaskDescription(taskIDs[0], "described"));
+                assertEquals("renamed", model.getTask(taskIDs[0]).name());
+                assertEquals("described", model.getTask(taskIDs[0]).description());
+                assertEquals(List.of("original"), names(taskIDs));
+            }
+
+            assertTrue(TaskJournal.flush());
+            Task written = Database.getTasksPage(userID, taskIDs[0] - 1, 1).get(0);
+            assertEquals("renamed", written.name());
+            assertEquals("described", written.description());
+            // Both edits were based on the same version, and written together
+            await(() -> model.getTask(taskIDs[0]).version() == written.version());
+        } finally {
+            model.clear();
+        }
+    }
+
+    @Test
+    void journaledModelEditsDontOverwriteChangesMadeByTheProcessHoldingTheLock() throws SQLException {
+        long[] taskIDs = insertTasks("first", "second");
+        AppModel model = AppModel.getInstance();
+        model.getStatistics().setPublisher(Runnable::run);
+        model.load(userID, username);
+        try {
+            try (Connection lockHolder = lockDatabase();
+                 Statement statement = lockHolder.createStatement()) {
+                assertNotNull(model.changeTaskName(taskIDs[0], "ours"));
+                assertNotNull(model.changeTaskName(taskIDs[1], "ours"));
+                // The other process changes another field of the first task, and the same field of the second
+                statement.executeUpdate("UPDATE tasks SET task_description = 'theirs', version = version + 1 "
+                        + "WHERE task_id = " + taskIDs[0]);
+                statement.executeUpdate("UPDATE tasks SET task_name = 'theirs', version = version + 1 "
+                        + "WHERE task_id = " + taskIDs[1]);
+                statement.execute("COMMIT");
+            }
+
+            // Both edits conflict when flushed. The model merges the first and writes it again, and gives way on
+            // the second.
+            assertTrue(TaskJournal.flush());
+            await(() -> "ours".equals(names(taskIDs).get(0)) && "theirs".equals(model.getTask(taskIDs[1]).name()));
+            assertEquals(List.of("ours", "theirs"), names(taskIDs));
+            assertEquals("theirs", Database.getTasksPage(userID, taskIDs[0] - 1, 1).get(0).description());
+            assertEquals("theirs", model.getTask(taskIDs[0]).description());
+            assertEquals("ours", model.getTask(taskIDs[0]).name());
+        } finally {
+            model.clear();
+        }
+    }
+
+    /**
+     * Method to wait for AppModel to follow up journaled changes, which it does on a thread of its own
+     */
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * Function to hold the database's write lock from another connection until the connection is closed, so that
+     * every write through Database fails with SQLITE_BUSY
+     */
+    private static Connection lockDatabase() throws SQLException {
+        Connection lockHolder = DriverManager.getConnection(
+                System.getProperty("taskmanager.db.url", "jdbc:sqlite:taskManager.db"));
+        try (Statement statement = lockHolder.createStatement()) {
+            statement.execute("BEGIN EXCLUSIVE");
+        }
+        return lockHolder;
+    }
+
+    /**
+     * Function to flip one byte of the second record's payload, so that it no longer matches its checksum
+     */
+    private void corruptSecondRecord() throws IOException {
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, HEADER_SIZE);
+            int second = HEADER_SIZE + RECORD_HEADER_SIZE + length.getInt(0);
+
+            ByteBuffer payload = ByteBuffer.allocate(1);
+            channel.read(payload, second + RECORD_HEADER_SIZE);
+            payload.put(0, (byte) (payload.get(0) ^ 0xFF));
+            channel.write(payload.rewind(), second + RECORD_HEADER_SIZE);
+            channel.force(false);
+        }
+    }
+
+    private static long[] insertTasks(String... names) {
+        TaskBatch batch = new TaskBatch();
+        for (String name : names) {
+            batch.insert(userID, name, null, null, null, TaskStatus.TODO);
+        }
+        List<TaskBatch.Result> results = batch.flushLocally(userID);
+        long[] taskIDs = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(TaskBatch.Outcome.APPLIED, results.get(i).outcome());
+            taskIDs[i] = results.get(i).taskID();
+        }
+        return taskIDs;
+    }
+
+    private static List<String> names(long[] taskIDs) {
+        List<Task> tasks = Database.getTasksPage(userID, taskIDs[0] - 1, taskIDs.length);
+        assertEquals(taskIDs.length, tasks.size());
+        return tasks.stream().map(Task::name).toList();
+    }
+}
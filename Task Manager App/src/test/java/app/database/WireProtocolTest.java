@@ -0,0 +1,283 @@
+package app.database;
+
+import app.data.Occurrence;
+import app.data.RecurrenceRule;
+import app.data.Task;
+import app.data.TaskSeries;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Round trips of everything RemoteRepository and RepositoryServer send each other, including TaskBatch
+ */
+class WireProtocolTest {
+
+    @FunctionalInterface
+    private interface Writer {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        T readFrom(DataInputStream in) throws IOException;
+    }
+
+    @Test
+    void stringsRoundTrip() throws IOException {
+        String unicode = "\u00dcberweisung \u2014 \u65e5\u672c\u8a9e \ud83d\ude00";
+        for (String value : new String[]{null, "", "Buy milk", unicode}) {
+            assertEquals(value, roundTrip(out -> WireProtocol.writeString(out, value), WireProtocol::readString));
+        }
+    }
+
+    @Test
+    void fieldValuesRoundTrip() throws IOException {
+        for (TaskPriority priority : TaskPriority.values()) {
+            assertEquals(priority, roundTrip(out -> WireProtocol.writeValue(out, TaskField.PRIORITY, priority),
+                    in -> WireProtocol.readValue(in, TaskField.PRIORITY)));
+        }
+        for (TaskStatus status : TaskStatus.values()) {
+            assertEquals(status, roundTrip(out -> WireProtocol.writeValue(out, TaskField.STATUS, status),
+                    in -> WireProtocol.readValue(in, TaskField.STATUS)));
+        }
+        assertNull(roundTrip(out -> WireProtocol.writeValue(out, TaskField.PRIORITY, null),
+                in -> WireProtocol.readValue(in, TaskField.PRIORITY)));
+        assertEquals("2024-02-29", roundTrip(out -> WireProtocol.writeValue(out, TaskField.DUE_DATE, "2024-02-29"),
+                in -> WireProtocol.readValue(in, TaskField.DUE_DATE)));
+    }
+
+    @Test
+    void invalidCodesAreRejected() {
+        assertThrows(IOException.class, () -> roundTrip(out -> out.writeInt(99),
+                in -> WireProtocol.readValue(in, TaskField.STATUS)));
+    }
+
+    @Test
+    void tasksRoundTrip() throws IOException {
+        List<Task> tasks = List.of(
+                new Task(1, 7, "Write report", "Quarterly", LocalDate.of(2024, 3, 31), TaskPriority.HIGH,
+                        TaskStatus.IN_PROGRESS, 3),
+                new Task(Long.MAX_VALUE, 7, "No details", null, null, null, TaskStatus.TODO, 1));
+        assertEquals(tasks, roundTrip(out -> WireProtocol.writeTasks(out, tasks), WireProtocol::readTasks));
+        assertEquals(List.of(), roundTrip(out -> WireProtocol.writeTasks(out, List.of()), WireProtocol::readTasks));
+    }
+
+    @Test
+    void sessionsRoundTrip() throws IOException {
+        AuthenticationService.Session session = new AuthenticationService.Session("token", 7, "alice",
+                Instant.ofEpochMilli(1_700_000_000_123L));
+        assertEquals(session, roundTrip(out -> WireProtocol.writeSession(out, session), WireProtocol::readSession));
+        assertNull(roundTrip(out -> WireProtocol.writeSession(out, null), WireProtocol::readSession));
+    }
+
+    @Test
+    void statisticsRoundTrip() throws IOException {
+        Map<StatisticsDimension, Map<Long, Long>> statistics = new EnumMap<>(StatisticsDimension.class);
+        for (StatisticsDimension dimension : StatisticsDimension.values()) {
+            statistics.put(dimension, new HashMap<>());
+        }
+        statistics.get(StatisticsDimension.STATUS).put(0L, 12L);
+        statistics.get(StatisticsDimension.PRIORITY).put(StatisticsDimension.NO_PRIORITY, 4L);
+        statistics.get(StatisticsDimension.DUE_DAY).put(19_800L, 1L);
+        assertEquals(statistics, roundTrip(out -> WireProtocol.writeStatistics(out, statistics),
+                WireProtocol::readStatistics));
+    }
+
+    @Test
+    void seriesRoundTrip() throws IOException {
+        LocalDate start = LocalDate.of(2024, 1, 31);
+        RecurrenceRule rule = RecurrenceRule.every(1, RecurrenceRule.Frequency.MONTHLY, start).endingAfter(12);
+        TaskSeries series = new TaskSeries(5, 7, "Pay rent", null, TaskPriority.MEDIUM, rule, Map.of(), Set.of())
+                .withOverride(new Occurrence(5, LocalDate.of(2024, 2, 29), "Pay rent", "Late",
+                        LocalDate.of(2024, 3, 2), null, TaskStatus.COMPLETED))
+                .withSkipped(LocalDate.of(2024, 4, 30));
+        TaskSeries endless = new TaskSeries(6, 7, "Stand-up", "Daily", null,
+                RecurrenceRule.every(2, RecurrenceRule.Frequency.DAILY, start).endingOn(LocalDate.of(2025, 1, 1)),
+                Map.of(), Set.of());
+
+        assertEquals(series, roundTrip(out -> WireProtocol.writeSeries(out, series), WireProtocol::readSeries));
+        assertEquals(List.of(series, endless), roundTrip(out -> WireProtocol.writeSeriesList(out,
+                List.of(series, endless)), WireProtocol::readSeriesList));
+        assertNull(roundTrip(out -> WireProtocol.writeOccurrence(out, null), WireProtocol::readOccurrence));
+        assertNull(roundTrip(out -> WireProtocol.writeDate(out, null), WireProtocol::readDate));
+    }
+
+    @Test
+    void resultsRoundTrip() throws IOException {
+        Task current = new Task(3, 7, "Changed elsewhere", null, null, TaskPriority.LOW, TaskStatus.TODO, 9);
+        List<TaskBatch.Result> results = List.of(
+                new TaskBatch.Result(0, 42, TaskBatch.Outcome.APPLIED, null),
+                new TaskBatch.Result(1, 3, TaskBatch.Outcome.CONFLICT, null, current),
+                new TaskBatch.Result(2, 4, TaskBatch.Outcome.FAILED, "NOT NULL constraint failed"));
+        assertEquals(results, roundTrip(out -> WireProtocol.writeResults(out, results), WireProtocol::readResults));
+    }
+
+    @Test
+    void batchesRoundTrip() throws IOException {
+        TaskBatch batch = new TaskBatch();
+        batch.insert(7, "New task", null, "2024-05-01", TaskPriority.HIGH, TaskStatus.TODO);
+        batch.insert(7, "Another", "Details", null, null, TaskStatus.IN_PROGRESS);
+        batch.changeName(1, "Renamed");
+        batch.compareAndSet(1, 4, TaskField.STATUS, TaskStatus.COMPLETED);
+        batch.changeDescription(2, null);
+        batch.changePriority(2, null);
+        batch.changeDueDate(3, "2024-06-01");
+        batch.delete(3);
+        batch.changeStatus(3, TaskStatus.TODO);
+        batch.restore(8);
+        batch.delete(9);
+        batch.restore(9);
+
+        byte[] written = bytes(batch::writeTo);
+        TaskBatch read = TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(written)));
+        assertEquals(batch.size(), read.size());
+        assertArrayEquals(written, bytes(read::writeTo));
+    }
+
+    @Test
+    void emptyBatchesRoundTrip() throws IOException {
+        byte[] written = bytes(new TaskBatch()::writeTo);
+        TaskBatch read = TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(written)));
+        assertEquals(0, read.size());
+    }
+
+    @Test
+    void batchesWithMissingOrRepeatedOperationsAreRejected() throws IOException {
+        TaskBatch batch = new TaskBatch();
+        batch.changeName(1, "a");
+        batch.delete(2);
+        byte[] written = bytes(batch::writeTo);
+
+        // Claims a third operation which isn't there
+        byte[] missing = Arrays.copyOf(written, written.length);
+        missing[3] = 3;
+        assertThrows(IOException.class,
+                () -> TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(missing))));
+
+        // Truncated part way through
+        byte[] truncated = Arrays.copyOf(written, written.length - 3);
+        assertThrows(IOException.class,
+                () -> TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(truncated))));
+
+        // A delete added by hand after an update: read back at index 1, rejected if it reuses index 0
+        TaskBatch update = new TaskBatch();
+        update.changeName(1, "a");
+        byte[] one = bytes(update::writeTo);
+        assertEquals(2, TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(
+                withDeleteAt(one, 1)))).size());
+        assertThrows(IOException.class, () -> TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(
+                withDeleteAt(one, 0)))));
+    }
+
+    @Test
+    void batchesClaimingMoreThanTheyHoldAreRejected() {
+        // Each of these would have the reader allocate for over two billion operations
+        assertThrows(IOException.class, () -> TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(
+                bytes(out -> {
+                    out.writeInt(Integer.MAX_VALUE);
+                    out.writeByte(0);
+                })))));
+        assertThrows(IOException.class, () -> TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(
+                bytes(out -> {
+                    out.writeInt(0);
+                    out.writeInt(Integer.MAX_VALUE);
+                })))));
+        assertThrows(IOException.class, () -> TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(
+                bytes(out -> {
+                    out.writeInt(1);
+                    out.writeInt(0);
+                    out.writeInt(0);
+                    out.writeInt(1);
+                    out.writeLong(2);
+                    out.writeInt(Integer.MAX_VALUE);
+                })))));
+    }
+
+    @Test
+    void batchesRepeatingATaskWithinAKindOfOperationAreRejected() throws IOException {
+        for (int section = 0; section < 3; section++) {
+            byte[] repeated = twoOperationsOnTask2(section, 2);
+            assertThrows(IOException.class,
+                    () -> TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(repeated))));
+            assertEquals(2, TaskBatch.readFrom(new DataInputStream(new ByteArrayInputStream(
+                    twoOperationsOnTask2(section, 3)))).size());
+        }
+    }
+
+    /**
+     * Function to write a batch of two updates, deletes or restores, of task 2 and of another task
+     * @param section 0 for updates, 1 for deletes, 2 for restores
+     */
+    private static byte[] twoOperationsOnTask2(int section, long otherTaskID) throws IOException {
+        return bytes(out -> {
+            out.writeInt(2);
+            out.writeInt(0);
+            for (int i = 0; i < 3; i++) {
+                out.writeInt(i == section ? 2 : 0);
+                if (i != section) {
+                    continue;
+                }
+                for (int index = 0; index < 2; index++) {
+                    out.writeLong(index == 0 ? 2 : otherTaskID);
+                    if (section == 0) {
+                        out.writeLong(TaskBatch.ANY_VERSION);
+                        out.writeByte(1);
+                        out.writeByte(TaskField.NAME.ordinal());
+                        WireProtocol.writeValue(out, TaskField.NAME, "a");
+                    }
+                    out.writeInt(1);
+                    out.writeInt(index);
+                }
+            }
+            out.writeInt(0);
+        });
+    }
+
+    /**
+     * Function to add a delete of task 2 to a written batch holding a single update
+     */
+    private static byte[] withDeleteAt(byte[] batch, int index) throws IOException {
+        return bytes(out -> {
+            out.writeInt(2);
+            // Everything up to the counts of deletes, restores and updates after deletes, which are all 0
+            out.write(batch, 4, batch.length - 4 - 3 * 4);
+            out.writeInt(1);
+            out.writeLong(2);
+            out.writeInt(1);
+            out.writeInt(index);
+            out.writeInt(0);
+            out.writeInt(0);
+        });
+    }
+
+    private static <T> T roundTrip(Writer writer, Reader<T> reader) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes(writer)));
+        T value = reader.readFrom(in);
+        assertEquals(0, in.available(), "bytes left over");
+        return value;
+    }
+
+    private static byte[] bytes(Writer writer) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writer.writeTo(new DataOutputStream(buffer));
+        return buffer.toByteArray();
+    }
+}